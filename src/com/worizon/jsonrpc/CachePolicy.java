@@ -0,0 +1,51 @@
+package com.worizon.jsonrpc;
+
+import com.worizon.jsonrpc.annotations.Cacheable;
+
+/**
+ * Caching rules of the results of a remote method, see {@link ResultCache}.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public final class CachePolicy {
+
+	private final long ttlMillis;
+	private final long staleMillis;
+
+	/**
+	 * @param ttlMillis Milliseconds the result is fresh.
+	 */
+	public CachePolicy( long ttlMillis ){
+
+		this(ttlMillis, 0);
+	}
+
+	/**
+	 * @param ttlMillis Milliseconds the result is fresh.
+	 * @param staleWhileRevalidateMillis Milliseconds an expired result is still served while it is refreshed.
+	 */
+	public CachePolicy( long ttlMillis, long staleWhileRevalidateMillis ){
+
+		if( ttlMillis < 0 || staleWhileRevalidateMillis < 0 )
+			throw new IllegalArgumentException("Negative cache time");
+		this.ttlMillis = ttlMillis;
+		this.staleMillis = staleWhileRevalidateMillis;
+	}
+
+	static CachePolicy of( Cacheable cacheable ){
+
+		return (cacheable != null)?new CachePolicy(cacheable.ttl(), cacheable.staleWhileRevalidate()):null;
+	}
+
+	public long getTtlMillis(){
+
+		return ttlMillis;
+	}
+
+	public long getStaleWhileRevalidateMillis(){
+
+		return staleMillis;
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.worizon.jsonrpc;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.worizon.jsonrpc.annotations.Cacheable;
+import com.worizon.jsonrpc.annotations.Notification;
+import com.worizon.jsonrpc.annotations.RemoteParams;
+import com.worizon.jsonrpc.annotations.RemoteProcName;
+
+/**
+ * Invocation metadata of a method of a {@link com.worizon.jsonrpc.annotations.Remote} interface, read once from its
+ * annotations and reused on every call of the dynamic proxy: the remote procedure name, the remote parameter names,
+ * the generic result type, the caching rules and whether it is a notification.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+final class CallDescriptor {
+
+	private final String remoteName;
+	private final String paramNames[];
+	private final boolean passThrough;
+	private final boolean paramsMismatch;
+	private final Type resultType;
+	private final CachePolicy cachePolicy;
+	private final boolean notification;
+
+	CallDescriptor( Method method ){
+
+		RemoteProcName procName = method.getAnnotation(RemoteProcName.class);
+		remoteName = (procName != null)?procName.value():method.getName();
+
+		RemoteParams remoteParams = method.getAnnotation(RemoteParams.class);
+		paramNames = (remoteParams != null)?remoteParams.value():null;
+		Class<?> parameterTypes[] = method.getParameterTypes();
+		paramsMismatch = paramNames != null && paramNames.length != parameterTypes.length;
+		passThrough = paramNames != null && paramNames.length == 1 && paramNames[0].equals("params") &&
+						!paramsMismatch && !parameterTypes[0].isPrimitive();
+
+		Type genericType = method.getGenericReturnType();
+		resultType = hasTypeVariables(genericType)?method.getReturnType():genericType;
+		cachePolicy = CachePolicy.of(method.getAnnotation(Cacheable.class));
+		notification = method.isAnnotationPresent(Notification.class);
+		if( notification && method.getReturnType() != void.class && method.getReturnType() != Void.class )
+			throw new IllegalArgumentException("Notification method " + method.getName() + " must return void");
+	}
+
+	/**
+	 * Checks if the type can't be resolved without the type arguments of the call, ex: T or List{@literal <}T{@literal >}.
+	 */
+	private static boolean hasTypeVariables( Type type ){
+
+		if( type instanceof TypeVariable<?> )
+			return true;
+		if( type instanceof GenericArrayType )
+			return hasTypeVariables(((GenericArrayType)type).getGenericComponentType());
+		if( type instanceof ParameterizedType ){
+
+			for( Type argument: ((ParameterizedType)type).getActualTypeArguments() )
+				if( hasTypeVariables(argument) )
+					return true;
+			return false;
+		}
+		if( type instanceof WildcardType ){
+
+			WildcardType wildcard = (WildcardType)type;
+			for( Type bound: wildcard.getUpperBounds() )
+				if( hasTypeVariables(bound) )
+					return true;
+			for( Type bound: wildcard.getLowerBounds() )
+				if( hasTypeVariables(bound) )
+					return true;
+		}
+		return false;
+	}
+
+	String getRemoteName(){
+
+		return remoteName;
+	}
+
+	Type getResultType(){
+
+		return resultType;
+	}
+
+	/**
+	 * Gets the caching rules of {@link Cacheable}, null if the method is not cacheable.
+	 */
+	CachePolicy getCachePolicy(){
+
+		return cachePolicy;
+	}
+
+	/**
+	 * Checks if the method is sent as a notification, see {@link Notification}.
+	 */
+	boolean isNotification(){
+
+		return notification;
+	}
+
+	/**
+	 * Encodes the arguments of a call into the remote parameters: an ordered list, a map of the names of
+	 * {@link RemoteParams} or the map or list itself when it is the single parameter named "params".
+	 * @throws IllegalArgumentException if the arguments don't match the annotated remote parameters.
+	 */
+	Object encode( Object args[] ){
+
+		if( paramNames == null )
+			return (args != null)?Arrays.asList(args):null;
+		if( paramsMismatch )
+			throw new IllegalArgumentException("Method params number does not match annotated remote params number");
+		if( passThrough && (args[0] instanceof Map<?,?> || args[0] instanceof List<?>) )
+			return args[0];
+
+		Map<String, Object> params = new LinkedHashMap<String, Object>(paramNames.length * 2);
+		for( int i = 0; i < paramNames.length; i++ )
+			params.put(paramNames[i], args[i]);
+		return params;
+	}
+
+}
@@ -1,15 +1,30 @@
 package com.worizon.jsonrpc;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.lang.ref.WeakReference;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import com.google.gson.JsonIOException;
+import com.worizon.net.Deadline;
+import com.worizon.net.HashedWheelTimer;
 import com.worizon.net.HttpRequest;
+import com.worizon.net.IAsyncTransport;
+import com.worizon.net.IAsyncTransport.IResponseListener;
 
 public class CallHandler{
 	
-	private Thread t;
+	private volatile Thread t;
 	private WeakReference<HttpRequest> requestRef;
-	private long beginCallTimeStamp = System.currentTimeMillis();
+	private volatile HttpRequest request;//strong reference while the call runs
+	private IJsonCodec codec = JsonCodec.getDefault();
+	private long beginCallTimeStamp = System.nanoTime();
 	private long endCalltimeStamp;
 	private HttpRequest.State state = HttpRequest.State.RUNNING;
 	
@@ -27,37 +42,266 @@ public class CallHandler{
 		
 		this();
 		requestRef = new WeakReference<HttpRequest>(request); 
+		this.request = request;
+	}
+	
+	CallHandler( HttpRequest request, IJsonCodec codec ){
+		
+		this(request);
+		this.codec = codec;
+	}
+	
+	private HttpRequest request(){
+		
+		HttpRequest request = this.request;
+		return (request != null)?request:requestRef.get();
+	}		
+	
+	public long getElapsedCallTime(){
+		
+		return TimeUnit.NANOSECONDS.toMillis(getElapsedNanos());
 	}		
 	
-	public synchronized long getElapsedCallTime(){
+	/**
+	 * Gets the elapsed time of the call in nanoseconds, until now if the call is running.
+	 */
+	synchronized long getElapsedNanos(){
 		
 		if( state == HttpRequest.State.RUNNING)
-			return System.currentTimeMillis() - beginCallTimeStamp;
+			return System.nanoTime() - beginCallTimeStamp;
 		else
 			return endCalltimeStamp - beginCallTimeStamp;
-	}		
+	}
 	
 	public void stop(){
 				
-		if( requestRef != null && requestRef.get() != null )
-			requestRef.get().stop();
+		HttpRequest request = (requestRef != null)?request():null;
+		if( request != null )
+			request.stop();
+		
+		Thread t = this.t;
+		if( t != null )
+			t.interrupt();
+	}
+	
+	/**
+	 * Sets the thread that performs the call, the thread interrupted by {@link #stop()}.
+	 * @param t The thread or null when the call does not hold a thread.
+	 */
+	void setThread( Thread t ){
+		
+		this.t = t;
+	}
+	
+	/**
+	 * Marks the request of this call as idempotent, so it is retried even after reaching the server.
+	 */
+	void setIdempotent( boolean idempotent ){
+		
+		HttpRequest request = request();
+		if( request != null )
+			request.setIdempotent(idempotent);
+	}
+	
+	/**
+	 * Sets the deadline of this call, unless it already has an earlier one.
+	 * @param deadline The deadline, null to keep the current one.
+	 */
+	void setDeadline( Deadline deadline ){
+		
+		HttpRequest request = request();
+		if( request != null )
+			request.setDeadline(Deadline.earliest(deadline, request.getDeadline()));
+	}
+	
+	/**
+	 * Sets the endpoint the load balancer does not choose for this call, unless it is the only one.
+	 * @param endpoint The endpoint, null to choose among all of them.
+	 */
+	void setAvoidedEndpoint( URL endpoint ){
+		
+		HttpRequest request = request();
+		if( request != null )
+			request.setAvoidedEndpoint(endpoint);
+	}
+	
+	/**
+	 * Gets the endpoint the request of this call was last sent to, null if it has not been sent.
+	 */
+	URL getExchangeEndpoint(){
+		
+		HttpRequest request = request();
+		return (request != null)?request.getExchangeEndpoint():null;
+	}
+	
+	/**
+	 * Sets the deadline of this call after a timeout since the call began, unless it already has an earlier one.
+	 * @param timeoutMillis Max milliseconds of the call.
+	 */
+	void setTimeout( long timeoutMillis ){
+		
+		long left = TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - getElapsedNanos();
+		setDeadline(Deadline.after(Math.max(0, left), TimeUnit.NANOSECONDS));
+	}
+	
+	/**
+	 * Gets the deadline of this call, null if there is none.
+	 */
+	Deadline getDeadline(){
+		
+		HttpRequest request = request();
+		return (request != null)?request.getDeadline():null;
+	}
+	
+	/**
+	 * Stops this call when its deadline passes, on the timer shared by all the calls.
+	 * @param onExpiry Task run before the call is stopped, null if none.
+	 * @return The timeout to be cancelled when the call finishes, null if the call has no deadline.
+	 */
+	HashedWheelTimer.ITimeout expireOnDeadline( final Runnable onExpiry ){
+		
+		Deadline deadline = getDeadline();
+		if( deadline == null )
+			return null;
+		return HashedWheelTimer.getDefault().schedule(new Runnable(){
+			
+			@Override
+			public void run(){
+				
+				if( onExpiry != null )
+					onExpiry.run();
+				stop();
+			}
+		}, deadline.timeLeft(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Checks if this call can be performed without blocking a thread.
+	 */
+	boolean supportsAsync(){
 		
-		t.interrupt();
+		HttpRequest request = request();
+		return request != null && request.getTransport() instanceof IAsyncTransport;
 	}
 	
 	<T> JsonRpcResponse<T> perform( JsonRpcRequest request, Class<T> clazz ) throws IOException, InterruptedException{
+		
+		return perform( request, (Type)clazz );
+	}
+	
+	/**
+	 * Performs the request reading the result as the type, ex: a generic type or a {@link ResultSink}.
+	 */
+	<T> JsonRpcResponse<T> perform( JsonRpcRequest request, Type type ) throws IOException, InterruptedException{
 				
-		String response = requestRef.get().perform( request.toString() );
-		JsonRpcResponse<T> res =  new JsonRpcResponse<T>( response, clazz );
+		HttpRequest http = request();
+		if( http.isStreamRequests() && http.getTransformers().isEmpty() ){
+			
+			InputStream is = http.performStreaming( new JsonRpcPayload(request, http.isChunkedRequests(), codec) );
+			try{
+				return decode( is, type );
+			}finally{
+				is.close();
+			}
+		}else if( http.isStreamResponses() ){
+			
+			InputStream is = http.performStreaming( request.toJson(codec) );
+			try{
+				return decode( is, type );
+			}finally{
+				is.close();
+			}
+		}
+		String response = http.perform( request.toJson(codec) );
+		JsonRpcResponse<T> res =  new JsonRpcResponse<T>( new StringReader(response), type, codec );
 		return res;
 		
 	}
 	
+	/**
+	 * Sends a request the server does not answer, a notification or a batch of notifications. 
+	 * The response body, if any, is discarded.
+	 * @param body The encoded notification or batch.
+	 */
+	void performNotification( String body ) throws IOException, InterruptedException{
+		
+		request().perform( body );
+	}
+	
+	/**
+	 * Sends a batch of requests and reads the array of responses.
+	 * @param requests The requests of the batch.
+	 * @param types Result type of each request by id.
+	 */
+	JsonRpcBatchResponse performBatch( List<JsonRpcRequest> requests, Map<Long, ? extends Type> types ) throws IOException, InterruptedException{
+		
+		HttpRequest http = request();
+		String body = JsonRpcRequest.toBatch(requests, codec);
+		if( http.isStreamResponses() || http.isStreamRequests() ){
+			
+			InputStream is = http.performStreaming( body );
+			try{
+				return new JsonRpcBatchResponse( new InputStreamReader(is, "UTF-8"), types, codec );
+			}catch(JsonIOException jioe){
+				if( jioe.getCause() instanceof IOException )
+					throw (IOException)jioe.getCause();
+				throw jioe;
+			}finally{
+				is.close();
+			}
+		}
+		return new JsonRpcBatchResponse( new StringReader(http.perform( body )), types, codec );
+	}
+	
+	<T> void performAsync( JsonRpcRequest request, final Class<T> clazz, final ICallback<JsonRpcResponse<T>> callback ) throws IOException{
+		
+		request().performAsync(request.toJson(codec), new IResponseListener(){
+			
+			@Override
+			public void onResponse( InputStream body ){
+				
+				JsonRpcResponse<T> res;
+				try{
+					res = decode( body, clazz );
+				}catch(IOException ioe){
+					callback.onFailure(ioe);
+					return;
+				}catch(RuntimeException re){
+					callback.onFailure(re);
+					return;
+				}
+				callback.onSuccess(res);
+			}
+			
+			@Override
+			public void onFailure( IOException ex ){
+				
+				callback.onFailure(ex);
+			}
+		});
+	}
+	
+	/**
+	 * Decodes the response in a single pass as it is read from the stream.
+	 */
+	private <T> JsonRpcResponse<T> decode( InputStream is, Type type ) throws IOException{
+		
+		try{
+			return new JsonRpcResponse<T>( new InputStreamReader(is, "UTF-8"), type, codec );
+		}catch(JsonIOException jioe){
+			if( jioe.getCause() instanceof IOException )
+				throw (IOException)jioe.getCause();
+			throw jioe;
+		}
+	}
+	
 	synchronized void  setState( HttpRequest.State state ){
 		
 		this.state = state;
-		if( state == HttpRequest.State.COMPLETE || state == HttpRequest.State.FAILED )
-			endCalltimeStamp = System.currentTimeMillis();
+		if( state == HttpRequest.State.COMPLETE || state == HttpRequest.State.FAILED ){
+			endCalltimeStamp = System.nanoTime();
+			request = null;
+		}
 	}
 	
 	public synchronized HttpRequest.State getState(){
@@ -0,0 +1,352 @@
+package com.worizon.jsonrpc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.worizon.net.Deadline;
+
+/**
+ * Adaptive limit of the calls in flight to an endpoint, set with
+ * {@link RpcImpl#setConcurrencyLimiter(ConcurrencyLimiter)} and shared by the clients of the same endpoint. The
+ * limit follows the round trip time of the calls as timed by their {@link CallHandler}, from the moment the call
+ * gets its permit until the response arrives, so the client sends less work as soon as the server starts queuing
+ * and before it fails:
+ * <ul>
+ * <li>{@link Aimd}: Grows the limit by one on every call and cuts it by 10% when a call fails or times out.</li>
+ * <li>{@link Vegas}: Estimates the calls queued at the server from the minimum round trip time and keeps them
+ * between a low and a high mark.</li>
+ * <li>{@link Gradient}: Moves the limit by the ratio between the long term and the last round trip time.</li>
+ * </ul>
+ * A call over the limit waits in a queue until a call finishes or its wait expires, then fails with a
+ * {@link LimitExceededException}. By default there is no queue and the call fails straight away, ex:
+ *
+ * <pre>
+ * Rpc.Sync rpc = new Rpc.Sync(endpoint);
+ * rpc.setConcurrencyLimiter(new ConcurrencyLimiter.Vegas(20, 200).queue(100, 50));
+ * </pre>
+ *
+ * Asynchronous calls never wait. A failed call counts as a drop unless it was stopped by the caller, a call
+ * answered with an error counts as a response.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public abstract class ConcurrencyLimiter {
+
+	private final int maxLimit;
+	private double limit;
+	private int inFlight = 0;
+	private int queued = 0;
+	private int maxQueued = 0;
+	private long maxWaitNanos = 0;
+	private final AtomicLong rejected = new AtomicLong();
+	private final ReentrantLock lock = new ReentrantLock();//waits do not pin virtual threads
+	private final Condition released = lock.newCondition();
+
+	/**
+	 * Creates a limiter.
+	 * @param initialLimit Calls in flight allowed until the first round trip times are known.
+	 * @param maxLimit Max calls in flight whatever the round trip time.
+	 */
+	protected ConcurrencyLimiter( int initialLimit, int maxLimit ){
+
+		if( initialLimit < 1 || maxLimit < initialLimit )
+			throw new IllegalArgumentException("Initial limit must be positive and not over the max limit");
+		this.limit = initialLimit;
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Sets the queue of the calls over the limit.
+	 * @param maxQueued Max number of calls waiting, 0 to fail the calls over the limit straight away.
+	 * @param maxWaitMillis Max milliseconds a call waits for a permit.
+	 * @return This limiter.
+	 */
+	public ConcurrencyLimiter queue( int maxQueued, long maxWaitMillis ){
+
+		if( maxQueued < 0 || maxWaitMillis < 0 )
+			throw new IllegalArgumentException("Queue size and wait can not be negative");
+		lock.lock();
+		try{
+			this.maxQueued = maxQueued;
+			this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		}finally{
+			lock.unlock();
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the number of calls allowed in flight.
+	 */
+	public int getLimit(){
+
+		lock.lock();
+		try{
+			return (int)limit;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	public int getMaxLimit(){
+
+		return maxLimit;
+	}
+
+	public int getInFlight(){
+
+		lock.lock();
+		try{
+			return inFlight;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of calls waiting for a permit.
+	 */
+	public int getQueued(){
+
+		lock.lock();
+		try{
+			return queued;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of calls failed with a {@link LimitExceededException}.
+	 */
+	public long getRejectedCount(){
+
+		return rejected.get();
+	}
+
+	/**
+	 * Computes the new limit from the outcome of a call, called with the lock of the limiter held.
+	 * @param limit The current limit.
+	 * @param rttNanos Round trip time of the call.
+	 * @param inFlight Calls in flight when the call finished, the call included.
+	 * @param dropped true if the call failed.
+	 * @return The new limit, bounded to 1 and the max limit by the caller.
+	 */
+	protected abstract double update( double limit, long rttNanos, int inFlight, boolean dropped );
+
+	/**
+	 * Takes a permit for a call, waiting in the queue while the limit is reached.
+	 * @param deadline Deadline of the call, the wait expires no later than it, null if there is none.
+	 * @throws LimitExceededException When the queue is full or the wait expires.
+	 */
+	void acquire( Deadline deadline ) throws LimitExceededException, InterruptedException{
+
+		lock.lock();
+		try{
+			if( inFlight < (int)limit ){
+
+				inFlight++;
+				return;
+			}
+			if( queued >= maxQueued || maxWaitNanos == 0 )
+				throw rejected();
+
+			long maxWait = (deadline != null)?Math.min(maxWaitNanos, deadline.timeLeft(TimeUnit.NANOSECONDS)):maxWaitNanos;
+			long expiry = System.nanoTime() + maxWait;
+			queued++;
+			try{
+				long remaining;
+				while( inFlight >= (int)limit ){
+
+					if( (remaining = expiry - System.nanoTime()) <= 0 )
+						throw rejected();
+					released.awaitNanos(remaining);
+				}
+				inFlight++;
+			}finally{
+				queued--;
+			}
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes a permit for a call if the limit is not reached, without waiting.
+	 * @throws LimitExceededException When the limit is reached.
+	 */
+	void tryAcquire() throws LimitExceededException{
+
+		lock.lock();
+		try{
+			if( inFlight >= (int)limit )
+				throw rejected();
+			inFlight++;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	private LimitExceededException rejected(){
+
+		rejected.incrementAndGet();
+		return new LimitExceededException((int)limit);
+	}
+
+	/**
+	 * Gives back the permit of a call and adapts the limit to its outcome.
+	 * @param rttNanos Round trip time of the call.
+	 * @param answered true if the response arrived.
+	 * @param failure The failure of the call, null if it did not fail with an I/O error.
+	 */
+	void release( long rttNanos, boolean answered, IOException failure ){
+
+		boolean stopped = failure instanceof InterruptedIOException && !(failure instanceof SocketTimeoutException);
+		lock.lock();
+		try{
+			if( answered || (failure != null && !stopped) )
+				limit = Math.max(1, Math.min(maxLimit, update(limit, rttNanos, inFlight, !answered)));
+			inFlight--;
+			released.signalAll();
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString(){
+
+		return getClass().getSimpleName() + " " + getInFlight() + "/" + getLimit();
+	}
+
+	/**
+	 * Additive increase, multiplicative decrease: the limit grows by one on every call answered in time while at
+	 * least half of the limit is in use, and it is cut by 10% on every call failed or answered after the timeout.
+	 */
+	public static class Aimd extends ConcurrencyLimiter{
+
+		private static final double BACKOFF_RATIO = 0.9;
+
+		private final long timeoutNanos;
+
+		/**
+		 * Creates the limiter.
+		 * @param initialLimit Calls in flight allowed at first.
+		 * @param maxLimit Max calls in flight.
+		 * @param timeoutMillis Round trip time in milliseconds over which a call counts as a drop.
+		 */
+		public Aimd( int initialLimit, int maxLimit, long timeoutMillis ){
+
+			super(initialLimit, maxLimit);
+			this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		}
+
+		@Override
+		protected double update( double limit, long rttNanos, int inFlight, boolean dropped ){
+
+			if( dropped || rttNanos > timeoutNanos )
+				return limit * BACKOFF_RATIO;
+			if( inFlight * 2 >= limit )
+				return limit + 1;
+			return limit;
+		}
+	}
+
+	/**
+	 * Delay based limit: the calls queued at the server are estimated as limit * (1 - minRtt / rtt), the limit grows
+	 * while they are under 3 * log10(limit) and shrinks when they are over 6 * log10(limit). The minimum round trip
+	 * time is forgotten every 1000 calls so a change of the network path is learnt.
+	 */
+	public static class Vegas extends ConcurrencyLimiter{
+
+		private static final int PROBE_EVERY = 1000;
+
+		private long minRtt = 0;
+		private int samples = 0;
+
+		/**
+		 * Creates the limiter.
+		 * @param initialLimit Calls in flight allowed at first.
+		 * @param maxLimit Max calls in flight.
+		 */
+		public Vegas( int initialLimit, int maxLimit ){
+
+			super(initialLimit, maxLimit);
+		}
+
+		@Override
+		protected double update( double limit, long rttNanos, int inFlight, boolean dropped ){
+
+			double step = Math.max(1, Math.log10(limit));
+			if( dropped )
+				return limit - step;
+			if( ++samples % PROBE_EVERY == 0 )
+				minRtt = 0;
+			if( minRtt == 0 || rttNanos < minRtt )
+				minRtt = Math.max(1, rttNanos);
+			if( inFlight * 2 < limit )
+				return limit;//the client does not use the limit, the rtt says nothing about it
+
+			double queue = limit * (1 - (double)minRtt / Math.max(1, rttNanos));
+			if( queue <= 3 * step )
+				return limit + step;
+			if( queue >= 6 * step )
+				return limit - step;
+			return limit;
+		}
+	}
+
+	/**
+	 * Gradient of the round trip time: the limit is multiplied by the ratio between the long term average round trip
+	 * time, with a 50% tolerance, and the last one, bounded to [0.5, 1], plus sqrt(limit) of headroom. The new limit
+	 * is smoothed with the previous one. A failed call halves the limit before smoothing.
+	 */
+	public static class Gradient extends ConcurrencyLimiter{
+
+		private static final int LONG_WINDOW = 600;
+		private static final double TOLERANCE = 1.5;
+		private static final double SMOOTHING = 0.2;
+
+		private double longRtt = 0;
+		private int samples = 0;
+
+		/**
+		 * Creates the limiter.
+		 * @param initialLimit Calls in flight allowed at first.
+		 * @param maxLimit Max calls in flight.
+		 */
+		public Gradient( int initialLimit, int maxLimit ){
+
+			super(initialLimit, maxLimit);
+		}
+
+		@Override
+		protected double update( double limit, long rttNanos, int inFlight, boolean dropped ){
+
+			double next;
+			if( dropped )
+				next = limit * 0.5;
+			else{
+
+				long rtt = Math.max(1, rttNanos);
+				samples = Math.min(samples + 1, LONG_WINDOW);
+				longRtt += (rtt - longRtt) / samples;
+				if( longRtt > 2 * rtt )
+					longRtt *= 0.95;//the load dropped, let the long term average catch up
+				if( inFlight * 2 < limit )
+					return limit;
+
+				double gradient = Math.max(0.5, Math.min(1, TOLERANCE * longRtt / rtt));
+				next = limit * gradient + Math.sqrt(limit);
+			}
+			return limit * (1 - SMOOTHING) + next * SMOOTHING;
+		}
+	}
+
+}
@@ -31,6 +31,36 @@ public final class Const {
 		public static final int DEFAULT_READ_TIMEOUT = 15000;
 		public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
 		public static final int DEFAULT_CONNECT_RETRIES = 2;
+		public static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 5;
+		public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 30000;
+		public static final long DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000;
+		public static final int DEFAULT_MAX_NIO_CONNECTIONS_PER_ENDPOINT = 64;
+		public static final int DEFAULT_EJECTION_FAILURES = 5;
+		public static final long DEFAULT_EJECTION_TIME = 30000;
+		public static final long DEFAULT_RETRY_BACKOFF = 50;
+		public static final long DEFAULT_MAX_RETRY_BACKOFF = 2000;
+		public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.2;
+		public static final int DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+		public static final double DEFAULT_BREAKER_FAILURE_RATE = 0.5;
+		public static final long DEFAULT_BREAKER_OPEN_TIME = 30000;
+		public static final long DEFAULT_BREAKER_SLOW_CALL_DURATION = 5000;
+		public static final int DEFAULT_BREAKER_WINDOW = 20;
+		public static final int DEFAULT_BREAKER_MIN_CALLS = 10;
+		public static final int DEFAULT_BREAKER_HALF_OPEN_CALLS = 3;
+		/**
+		 * Header with the milliseconds left before the deadline of the call, see {@link com.worizon.net.Deadline}.
+		 */
+		public static final String DEADLINE_HEADER = "X-Request-Timeout";
+	}
+	
+	public static class Async{
+		
+		private Async(){}
+		public static final int DEFAULT_THREADS = 8;
+		public static final int DEFAULT_QUEUE_SIZE = 1024;
+		public static final long DEFAULT_TIMER_TICK = 10;
+		public static final int DEFAULT_TIMER_WHEEL_SIZE = 512;
+		public static final long DEFAULT_MAX_SPILL_SIZE = 64 * 1024 * 1024;
 	}
 
 }
@@ -0,0 +1,178 @@
+package com.worizon.jsonrpc;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rules to hedge the calls to idempotent methods: when a call has not been answered after the hedge delay a copy of
+ * its request is sent, the first response is taken and the other request is stopped. With a
+ * {@link com.worizon.net.LoadBalancer} the copy goes to the host chosen by its strategy among the hosts other than
+ * the one of the request, or to the same host if there is one. Hedging is enabled with
+ * {@link RpcImpl#setHedgePolicy(HedgePolicy)}, idempotent methods are marked with
+ * {@link com.worizon.jsonrpc.annotations.Idempotent} on proxy interfaces or with
+ * {@link RpcImpl#addIdempotentMethods(String...)}, ex:
+ *
+ * <pre>
+ * Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(endpoints));
+ * rpc.setHedgePolicy(new HedgePolicy(0.95, 10));
+ * rpc.addIdempotentMethods("get_user");
+ * </pre>
+ *
+ * The delay is either fixed or a percentile of the latencies observed, so only the slowest calls are hedged. Hedges
+ * are limited by a budget so they don't amplify the load of an overloaded server: every call earns a fraction of a
+ * hedge, by default 10%, and a hedge is sent only if a whole one has been earned, up to a burst of 10.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class HedgePolicy {
+
+	private static final int SAMPLES = 512;
+	private static final int RECOMPUTE_EVERY = 32;
+
+	private final double percentile;
+	private final long minDelayNanos;
+	private double hedgeRatio = 0.1;
+	private int maxBurst = 10;
+
+	private final Executor executor;
+	private final long samples[] = new long[SAMPLES];
+	private int nextSample = 0;
+	private int sampleCount = 0;
+	private long delayNanos;
+	private double tokens;
+
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong wins = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+
+	/**
+	 * Creates a policy hedging the calls not answered after a fixed delay.
+	 * @param delayMillis Milliseconds before the request is hedged.
+	 */
+	public HedgePolicy( long delayMillis ){
+
+		this(-1, delayMillis);
+	}
+
+	/**
+	 * Creates a policy hedging the calls not answered after a percentile of the observed latencies.
+	 * @param percentile Percentile of the latencies, ex: 0.95 hedges the slowest 5% of the calls.
+	 * @param minDelayMillis Minimum milliseconds before the request is hedged, also the delay until enough
+	 * latencies are observed.
+	 */
+	public HedgePolicy( double percentile, long minDelayMillis ){
+
+		if( percentile >= 1 )
+			throw new IllegalArgumentException("Percentile must be lower than 1");
+		if( minDelayMillis < 0 )
+			throw new IllegalArgumentException("Hedge delay can not be negative");
+		this.percentile = percentile;
+		this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+		this.delayNanos = minDelayNanos;
+		this.tokens = maxBurst;
+		this.executor = Rpc.Async.newExecutor(Const.Async.DEFAULT_THREADS, Const.Async.DEFAULT_QUEUE_SIZE, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Sets the budget of the hedges.
+	 * @param hedgeRatio Hedges earned per call, ex: 0.1 allows one hedge every 10 calls.
+	 * @param maxBurst Max number of hedges earned and not spent.
+	 * @return This policy.
+	 */
+	public synchronized HedgePolicy budget( double hedgeRatio, int maxBurst ){
+
+		if( hedgeRatio < 0 || maxBurst < 0 )
+			throw new IllegalArgumentException("Hedge budget can not be negative");
+		this.hedgeRatio = hedgeRatio;
+		this.maxBurst = maxBurst;
+		this.tokens = Math.min(tokens, maxBurst);
+		return this;
+	}
+
+	/**
+	 * Gets the current hedge delay in milliseconds.
+	 */
+	public synchronized long getDelayMillis(){
+
+		return TimeUnit.NANOSECONDS.toMillis(delayNanos);
+	}
+
+	/**
+	 * Gets the number of hedged requests sent.
+	 */
+	public long getHedgeCount(){
+
+		return hedges.get();
+	}
+
+	/**
+	 * Gets the number of calls answered first by the hedged request.
+	 */
+	public long getHedgeWinCount(){
+
+		return wins.get();
+	}
+
+	/**
+	 * Gets the number of hedges not sent because the budget was spent.
+	 */
+	public long getThrottledCount(){
+
+		return throttled.get();
+	}
+
+	synchronized long delayNanos(){
+
+		return delayNanos;
+	}
+
+	/**
+	 * Records the latency of a call and earns its share of a hedge.
+	 */
+	synchronized void record( long latencyNanos ){
+
+		tokens = Math.min(maxBurst, tokens + hedgeRatio);
+		if( percentile < 0 )
+			return;
+		samples[nextSample] = latencyNanos;
+		nextSample = (nextSample + 1) % SAMPLES;
+		sampleCount = Math.min(sampleCount + 1, SAMPLES);
+		if( nextSample % RECOMPUTE_EVERY == 0 ){
+
+			long sorted[] = Arrays.copyOf(samples, sampleCount);
+			Arrays.sort(sorted);
+			delayNanos = Math.max(minDelayNanos, sorted[(int)(percentile * sorted.length)]);
+		}
+	}
+
+	/**
+	 * Spends a hedge of the budget.
+	 * @return true if the hedge can be sent.
+	 */
+	synchronized boolean tryHedge(){
+
+		if( tokens < 1 ){
+
+			throttled.incrementAndGet();
+			return false;
+		}
+		tokens -= 1;
+		hedges.incrementAndGet();
+		return true;
+	}
+
+	void won(){
+
+		wins.incrementAndGet();
+	}
+
+	Executor getExecutor(){
+
+		return executor;
+	}
+
+}
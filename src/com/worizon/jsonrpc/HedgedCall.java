@@ -0,0 +1,199 @@
+package com.worizon.jsonrpc;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.worizon.net.HashedWheelTimer;
+import com.worizon.net.HttpRequest;
+
+/**
+ * Call to an idempotent method performed by the calling thread and, once the hedge delay expires, by a hedge
+ * thread with a copy of the request. With several replicas the copy goes to another replica than the request. The
+ * first response wins and the other request is stopped through {@link CallHandler#stop()}. A failed request waits
+ * for the other one, if any.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+class HedgedCall<T> {
+
+	private final RpcImpl rpc;
+	private final HedgePolicy policy;
+	private final JsonRpcRequest request;
+	private final Type type;
+
+	private final Object lock = new Object();
+	private final CountDownLatch hedgeDone = new CountDownLatch(1);
+	private CallHandler primary;
+	private CallHandler hedge;
+	private long start;
+	private boolean decided = false;
+	private boolean hedgeLaunched = false;
+	private boolean primaryFailed = false;
+	private JsonRpcResponse<T> hedgeResponse;
+
+	HedgedCall( RpcImpl rpc, HedgePolicy policy, JsonRpcRequest request, Type type ){
+
+		this.rpc = rpc;
+		this.policy = policy;
+		this.request = request;
+		this.type = type;
+	}
+
+	/**
+	 * Performs the call in the calling thread through the handler, the handler of the caller.
+	 * @return The first response.
+	 */
+	JsonRpcResponse<T> perform( CallHandler handler ) throws IOException, InterruptedException{
+
+		primary = handler;
+		start = System.nanoTime();
+		HashedWheelTimer.ITimeout timer = HashedWheelTimer.getDefault().schedule(new Runnable(){
+
+			@Override
+			public void run(){
+
+				launch();
+			}
+		}, policy.delayNanos(), TimeUnit.NANOSECONDS);
+		try{
+			JsonRpcResponse<T> res = handler.<T>perform(request, type);
+			synchronized( lock ){
+
+				if( !decided ){
+
+					decide();
+					if( hedge != null )
+						hedge.stop();
+					return res;
+				}
+			}
+			Thread.interrupted();//the hedge won and stopped this request
+			return hedgeResponse;
+		}catch(InterruptedException ie){
+			synchronized( lock ){
+
+				if( !decided ){//stopped by the caller
+
+					decided = true;
+					if( hedge != null )
+						hedge.stop();
+					throw ie;
+				}
+			}
+			Thread.interrupted();
+			return hedgeResponse;
+		}catch(IOException ioe){
+			synchronized( lock ){
+
+				if( decided )//the hedge won and stopped this request
+					return hedgeResponse;
+				if( !hedgeLaunched ){
+
+					decided = true;
+					throw ioe;
+				}
+				primaryFailed = true;
+			}
+			try{
+				hedgeDone.await();
+			}catch(InterruptedException ie){
+				synchronized( lock ){
+
+					decided = true;
+					if( hedge != null )
+						hedge.stop();
+				}
+				throw ie;
+			}
+			synchronized( lock ){
+
+				if( hedgeResponse != null )
+					return hedgeResponse;
+			}
+			throw ioe;
+		}finally{
+			timer.cancel();
+		}
+	}
+
+	/**
+	 * Decides the winner and records the latency of the call, called with the lock held.
+	 */
+	private void decide(){
+
+		decided = true;
+		policy.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Sends the hedge when the delay expires, if the call is not answered and the budget allows it.
+	 */
+	private void launch(){
+
+		synchronized( lock ){
+
+			if( decided || !policy.tryHedge() )
+				return;
+			hedgeLaunched = true;
+		}
+		try{
+			policy.getExecutor().execute(new Runnable(){
+
+				@Override
+				public void run(){
+
+					try{
+						performHedge();
+					}finally{
+						hedgeDone.countDown();
+						Thread.interrupted();//a stop that came after the response
+					}
+				}
+			});
+		}catch(RejectedExecutionException ree){
+			hedgeDone.countDown();
+		}
+	}
+
+	private void performHedge(){
+
+		CallHandler handler;
+		try{
+			handler = rpc.createNewCallHandler();
+		}catch(IOException ioe){
+			return;
+		}
+		handler.setIdempotent(true);
+		handler.setDeadline(primary.getDeadline());
+		handler.setAvoidedEndpoint(primary.getExchangeEndpoint());//another replica unless there is one
+		synchronized( lock ){
+
+			if( decided )
+				return;
+			hedge = handler;
+		}
+		JsonRpcResponse<T> res;
+		try{
+			res = handler.<T>perform(new JsonRpcRequest(request), type);
+		}catch(Exception ex){
+			handler.setState(HttpRequest.State.FAILED);
+			return;
+		}
+		handler.setState(HttpRequest.State.COMPLETE);
+		synchronized( lock ){
+
+			if( decided )
+				return;
+			hedgeResponse = res;
+			decide();
+			policy.won();
+			if( !primaryFailed )
+				primary.stop();
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.worizon.jsonrpc;
+
+/**
+ * Callback that receives the outcome of an asynchronous remote procedure call, ex:
+ * 
+ * <pre>
+ * rpc.call("sum", Integer.class, new ICallback&lt;Integer&gt;(){
+ * 
+ * 	public void onSuccess( Integer result ){ ... }
+ * 
+ * 	public void onFailure( Throwable cause ){ ... }
+ * }, 4, 5);
+ * </pre>
+ * 
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public interface ICallback<T> {
+	
+	/**
+	 * The remote procedure returned a result.
+	 * @param result The deserialized result.
+	 */
+	public void onSuccess( T result );
+	
+	/**
+	 * The call failed: a JSON-RPC error (RemoteException, JsonRpcException or a mapped exception), an IO error or
+	 * an interrupted call.
+	 * @param cause The cause of the failure.
+	 */
+	public void onFailure( Throwable cause );
+
+}
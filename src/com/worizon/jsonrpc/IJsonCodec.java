@@ -0,0 +1,26 @@
+package com.worizon.jsonrpc;
+
+import com.google.gson.Gson;
+
+/**
+ * Codec SPI, provides the Gson instances that encode the requests and decode the responses of a client. The instances
+ * are shared by every call of the client, from any thread, so they must be created once and never reconfigured. Gson 
+ * caches the adapter of each type in the instance, reusing the instances keeps that cache across calls.
+ * 
+ * @see JsonCodec
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public interface IJsonCodec {
+	
+	/**
+	 * Gets the Gson instance that serializes requests and parameters.
+	 */
+	public Gson getSerializer();
+	
+	/**
+	 * Gets the Gson instance that deserializes responses and results.
+	 */
+	public Gson getDeserializer();
+
+}
@@ -0,0 +1,172 @@
+package com.worizon.jsonrpc;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.worizon.jsonrpc.gson.BooleanTypeAdapter;
+import com.worizon.jsonrpc.gson.IntegralTypeAdapter;
+import com.worizon.jsonrpc.gson.NonExposeExclusionEstrategy;
+import com.worizon.jsonrpc.gson.PrimitiveArrays;
+
+/**
+ * Immutable {@link IJsonCodec} with the library configuration: fields annotated with
+ * {@link com.worizon.jsonrpc.gson.NonExpose} are not serialized, booleans are read from true|false and 1|0 and
+ * integral numbers with decimals are truncated, numeric primitive arrays are read without boxing. Custom adapters are registered once through a {@link Builder}, ex:
+ *
+ * <pre>
+ * IJsonCodec codec = new JsonCodec.Builder()
+ * 						.registerTypeAdapter(Date.class, new MyDateAdapter())
+ * 						.warmUp(Dummy.class)
+ * 						.build();
+ * Rpc.Sync rpc = new Rpc.Sync("http://myserver.mydomain.com:4444/rpc");
+ * rpc.setCodec(codec);
+ * </pre>
+ *
+ * The adapters of the JSON-RPC messages, primitive types, Strings and their arrays are created when the codec is
+ * built, the adapters of other types on their first call or on {@link Builder#warmUp(Type...)}.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public final class JsonCodec implements IJsonCodec {
+
+	private static final Type[] COMMON_TYPES = {
+		Boolean.class, Integer.class, Long.class, Short.class, Byte.class, Double.class, Float.class, Character.class,
+		String.class, Boolean[].class, Integer[].class, Long[].class, Short[].class, Byte[].class, Double[].class,
+		Float[].class, Character[].class, String[].class
+	};
+
+	private static final JsonCodec defaultCodec = new Builder().build();
+
+	private final Gson serializer;
+	private final Gson deserializer;
+
+	private JsonCodec( Builder builder ){
+
+		serializer = builder.serializeBuilder.create();
+		deserializer = builder.deserializeBuilder.create();
+
+		serializer.getAdapter(JsonRpcRequest.class);
+		deserializer.getAdapter(JsonRpcError.class);
+		deserializer.getAdapter(JsonRpcRequest.class);
+		for( Type type: COMMON_TYPES )
+			deserializer.getAdapter(TypeToken.get(type));
+		for( Type type: builder.warmUp ){
+
+			serializer.getAdapter(TypeToken.get(type));
+			deserializer.getAdapter(TypeToken.get(type));
+		}
+	}
+
+	/**
+	 * Gets the codec with the library configuration and no custom adapters, shared by every client.
+	 */
+	public static JsonCodec getDefault(){
+
+		return defaultCodec;
+	}
+
+	@Override
+	public Gson getSerializer(){
+
+		return serializer;
+	}
+
+	@Override
+	public Gson getDeserializer(){
+
+		return deserializer;
+	}
+
+	/**
+	 * Builder of codecs, adapters are registered for both serialization and deserialization.
+	 */
+	public static class Builder{
+
+		private final GsonBuilder serializeBuilder = new GsonBuilder();
+		private final GsonBuilder deserializeBuilder = new GsonBuilder();
+		private final List<Type> warmUp = new ArrayList<Type>();
+
+		public Builder(){
+
+			BooleanTypeAdapter booleanTypeAdapter = new BooleanTypeAdapter();
+			serializeBuilder.setExclusionStrategies(new NonExposeExclusionEstrategy());
+			serializeBuilder.registerTypeAdapter(Boolean.class, booleanTypeAdapter);
+			serializeBuilder.registerTypeAdapter(boolean.class, booleanTypeAdapter);
+			deserializeBuilder.registerTypeAdapter(Boolean.class, booleanTypeAdapter);
+			deserializeBuilder.registerTypeAdapter(boolean.class, booleanTypeAdapter);
+			registerIntegralTypeAdapter(Integer.class, int.class);
+			registerIntegralTypeAdapter(Long.class, long.class);
+			registerIntegralTypeAdapter(Short.class, short.class);
+			registerIntegralTypeAdapter(Byte.class, byte.class);
+			serializeBuilder.registerTypeAdapterFactory(PrimitiveArrays.FACTORY);
+			deserializeBuilder.registerTypeAdapterFactory(PrimitiveArrays.FACTORY);
+		}
+
+		private void registerIntegralTypeAdapter( Class<? extends Number> boxed, Class<?> primitive ){
+
+			IntegralTypeAdapter adapter = new IntegralTypeAdapter(boxed);
+			deserializeBuilder.registerTypeAdapter(boxed, adapter);
+			deserializeBuilder.registerTypeAdapter(primitive, adapter);
+		}
+
+		/**
+		 * Registers an adapter for a type, see {@link GsonBuilder#registerTypeAdapter(Type, Object)}.
+		 * @param type The type.
+		 * @param typeAdapter A TypeAdapter, InstanceCreator, JsonSerializer or JsonDeserializer.
+		 */
+		public Builder registerTypeAdapter( Type type, Object typeAdapter ){
+
+			serializeBuilder.registerTypeAdapter(type, typeAdapter);
+			deserializeBuilder.registerTypeAdapter(type, typeAdapter);
+			return this;
+		}
+
+		/**
+		 * Registers an adapter for a class and its subclasses, see {@link GsonBuilder#registerTypeHierarchyAdapter(Class, Object)}.
+		 * @param baseType The base class.
+		 * @param typeAdapter A TypeAdapter, JsonSerializer or JsonDeserializer.
+		 */
+		public Builder registerTypeHierarchyAdapter( Class<?> baseType, Object typeAdapter ){
+
+			serializeBuilder.registerTypeHierarchyAdapter(baseType, typeAdapter);
+			deserializeBuilder.registerTypeHierarchyAdapter(baseType, typeAdapter);
+			return this;
+		}
+
+		/**
+		 * Registers a factory of adapters, see {@link GsonBuilder#registerTypeAdapterFactory(TypeAdapterFactory)}.
+		 */
+		public Builder registerTypeAdapterFactory( TypeAdapterFactory factory ){
+
+			serializeBuilder.registerTypeAdapterFactory(factory);
+			deserializeBuilder.registerTypeAdapterFactory(factory);
+			return this;
+		}
+
+		/**
+		 * Creates the adapters of these types when the codec is built instead of on their first call.
+		 * @param types Types of parameters or results.
+		 */
+		public Builder warmUp( Type... types ){
+
+			for( Type type: types )
+				warmUp.add(type);
+			return this;
+		}
+
+		/**
+		 * Builds the codec, later changes to this builder do not affect it.
+		 */
+		public JsonCodec build(){
+
+			return new JsonCodec(this);
+		}
+	}
+
+}
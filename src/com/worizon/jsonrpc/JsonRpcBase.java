@@ -1,10 +1,6 @@
 package com.worizon.jsonrpc;
 
-import com.google.gson.ExclusionStrategy;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.worizon.jsonrpc.gson.BooleanTypeAdapter;
-import com.worizon.jsonrpc.gson.NonExposeExclusionEstrategy;
 
 /**
  * 
@@ -16,19 +12,6 @@ import com.worizon.jsonrpc.gson.NonExposeExclusionEstrategy;
  */
 public abstract class JsonRpcBase {
 	
-	private static BooleanTypeAdapter booleanTypeAdapter = new BooleanTypeAdapter(); 
-	private static ExclusionStrategy nonExposeStrategy = new NonExposeExclusionEstrategy();	
-	private static GsonBuilder serializeGsonBuilder = new GsonBuilder();
-	private static GsonBuilder deserializeGsonBuilder = new GsonBuilder();
-	static{
-		
-		serializeGsonBuilder.setExclusionStrategies(nonExposeStrategy);
-		serializeGsonBuilder.registerTypeAdapter(Boolean.class, booleanTypeAdapter);
-		serializeGsonBuilder.registerTypeAdapter(boolean.class, booleanTypeAdapter);		
-		deserializeGsonBuilder.registerTypeAdapter(Boolean.class, booleanTypeAdapter);
-		deserializeGsonBuilder.registerTypeAdapter(boolean.class, booleanTypeAdapter);
-	}
-	
 	protected String jsonrpc = null;	
 	protected Long id = null;
 		
@@ -43,19 +26,21 @@ public abstract class JsonRpcBase {
 	}		
 	
 	/**
-	 * Gets Gson main facade configured to serialize pojos into a json string
+	 * Gets Gson main facade configured to serialize pojos into a json string, shared instance of the default codec.
+	 * @see JsonCodec#getDefault()
 	 */
 	protected static Gson getSerializeHelper(){
 				
-		return serializeGsonBuilder.create();
+		return JsonCodec.getDefault().getSerializer();
 	}
 	
 	/**
-	 * Gets Gson main facade configured to deserialize a json string into a pojo.
+	 * Gets Gson main facade configured to deserialize a json string into a pojo, shared instance of the default codec.
+	 * @see JsonCodec#getDefault()
 	 */
 	protected static Gson getDeserializeHelper(){
 				
-		return deserializeGsonBuilder.create();
+		return JsonCodec.getDefault().getDeserializer();
 	}
 	
 	/**
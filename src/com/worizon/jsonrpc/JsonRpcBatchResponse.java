@@ -0,0 +1,140 @@
+package com.worizon.jsonrpc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.worizon.jsonrpc.JsonRpcResponse.ITypeResolver;
+
+/**
+ * This class represents the response to a JSON-RPC batch request. The server answers with an array of response objects,
+ * in any order, that are matched to the requests by id. The result of each response is deserialized into the type
+ * of its request.
+ *
+ * <p>
+ * A server that can't parse the batch answers with a single error response with null id, this error and the error
+ * responses with null id inside the array are available through {@link #getError()}. Notifications are not answered,
+ * so a batch of notifications gets an empty response.
+ *
+ * <p>
+ * Example of a batch response:
+ * <pre>
+ * [
+ *  {"jsonrpc": "2.0", "result": 7, "id": 1},
+ *  {"jsonrpc": "2.0", "error": {"code": -32601, "message": "Method not found"}, "id": 2}
+ * ]
+ * </pre>
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class JsonRpcBatchResponse {
+
+	private final Map<Long, JsonRpcResponse<?>> responses = new HashMap<Long, JsonRpcResponse<?>>();
+	private JsonRpcError error = null;
+
+	/**
+	 * Reads a batch response in a single streaming pass.
+	 * @param reader Reader of the response from the server.
+	 * @param types Result type of each request of the batch by id.
+	 * @throws JsonRpcException when a response object is not valid.
+	 * @throws JsonSyntaxException when the response is not valid JSON.
+	 * @throws JsonIOException when the response can not be read.
+	 */
+	public JsonRpcBatchResponse( Reader reader, final Map<Long, ? extends Type> types ){
+
+		this(reader, types, JsonCodec.getDefault());
+	}
+
+	/**
+	 * Reads a batch response in a single streaming pass with the deserializer of the codec.
+	 * @param reader Reader of the response from the server.
+	 * @param types Result type of each request of the batch by id.
+	 * @param codec The codec deserializing the results.
+	 */
+	JsonRpcBatchResponse( Reader reader, final Map<Long, ? extends Type> types, IJsonCodec codec ){
+
+		Gson gson = codec.getDeserializer();
+		JsonReader in = new JsonReader(reader);
+		ITypeResolver resolver = new ITypeResolver(){
+
+			@Override
+			public Type resolve( Long id ){
+
+				if( id == null )
+					return null;
+				Type type = types.get(id);
+				return (type != null)?type:Object.class;
+			}
+		};
+
+		try{
+			JsonToken token;
+			try{
+				token = in.peek();
+			}catch(EOFException eof){
+				return;//empty response
+			}
+
+			if( token == JsonToken.BEGIN_ARRAY ){
+
+				in.beginArray();
+				while( in.hasNext() )
+					add( new JsonRpcResponse<Object>(in, resolver, false, gson) );
+				in.endArray();
+			}else
+				add( new JsonRpcResponse<Object>(in, resolver, false, gson) );//the batch itself failed
+		}catch(MalformedJsonException mje){
+			throw new JsonSyntaxException(mje);
+		}catch(IllegalStateException ise){
+			throw new JsonSyntaxException(ise);
+		}catch(IOException ioe){
+			throw new JsonIOException(ioe);
+		}
+	}
+
+	private void add( JsonRpcResponse<Object> response ){
+
+		if( response.getId() != null )
+			responses.put(response.getId(), response);
+		else if( error == null )
+			error = response.getError();
+	}
+
+	/**
+	 * Gets the response to the request with this id.
+	 * @param id The request id.
+	 * @return The response or null if the server did not answer this request.
+	 */
+	public JsonRpcResponse<?> getResponse( Long id ){
+
+		return responses.get(id);
+	}
+
+	/**
+	 * Gets the first error not bound to any request, ex: the batch could not be parsed.
+	 * @return The error or null.
+	 */
+	public JsonRpcError getError(){
+
+		return error;
+	}
+
+	/**
+	 * Gets the number of responses with id.
+	 */
+	public int size(){
+
+		return responses.size();
+	}
+
+}
@@ -89,6 +89,12 @@ public class JsonRpcError {
 		this.message = message;
 	}
 	
+	JsonRpcError( int code, String message, Object data ){
+		
+		this(code, message);
+		this.data = data;
+	}
+	
 	public String toString(){
 		
 		if(data == null)
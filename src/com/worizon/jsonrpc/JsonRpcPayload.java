@@ -0,0 +1,73 @@
+package com.worizon.jsonrpc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import com.worizon.net.ITransport.IPayload;
+
+/**
+ * Payload that serializes a request as UTF-8 straight to the connection. In chunked mode the length is unknown and
+ * the request is serialized once per attempt. In fixed-length mode the length is computed with a first serialization
+ * pass that only counts bytes, so the body is serialized twice but never held in memory.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+class JsonRpcPayload implements IPayload {
+	
+	private final JsonRpcRequest request;
+	private final boolean chunked;
+	private final IJsonCodec codec;
+	private long length = -1;
+	
+	JsonRpcPayload( JsonRpcRequest request, boolean chunked, IJsonCodec codec ){
+		
+		this.request = request;
+		this.chunked = chunked;
+		this.codec = codec;
+	}
+	
+	@Override
+	public long getLength(){
+		
+		if( !chunked && length < 0 ){
+			
+			CountingOutputStream counter = new CountingOutputStream();
+			try{
+				writeTo(counter);
+			}catch(IOException ioe){
+				throw new IllegalStateException(ioe);//counting never fails
+			}
+			length = counter.count;
+		}
+		return length;
+	}
+	
+	@Override
+	public void writeTo( OutputStream out ) throws IOException{
+		
+		Writer writer = new OutputStreamWriter(out, "UTF-8");//not closed, the stream belongs to the connection
+		request.writeTo(writer, codec);
+		writer.flush();
+	}
+	
+	private static class CountingOutputStream extends OutputStream{
+		
+		long count = 0;
+		
+		@Override
+		public void write( int b ){
+			
+			count++;
+		}
+		
+		@Override
+		public void write( byte[] b, int off, int len ){
+			
+			count += len;
+		}
+	}
+
+}
@@ -1,9 +1,13 @@
 package com.worizon.jsonrpc;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
 
 
 
@@ -45,6 +49,37 @@ public class JsonRpcRequest extends JsonRpcBase implements Serializable {
 		this.params = req.getParams();
 	}
 	
+	/**
+	 * Creates a notification, a request without id the server does not answer.
+	 * @param method Remote procedure method name.
+	 * @param params Remote procedure parameters, List or Map.
+	 * @return The notification.
+	 */
+	static JsonRpcRequest notification( String method, Object params ){
+		
+		JsonRpcRequest req = new JsonRpcRequest(method, params);
+		req.setId(null);
+		return req;
+	}
+	
+	/**
+	 * Encodes a list of requests as a JSON-RPC batch, an array of request objects.
+	 * @param requests The requests of the batch.
+	 * @param codec The codec serializing the requests.
+	 * @return The encoded batch.
+	 */
+	static String toBatch( List<JsonRpcRequest> requests, IJsonCodec codec ){
+		
+		StringBuilder body = new StringBuilder("[");
+		for( JsonRpcRequest req: requests ){
+			
+			if( body.length() > 1 )
+				body.append(',');
+			body.append(req.toJson(codec));
+		}
+		return body.append(']').toString();
+	}
+	
 	public JsonRpcRequest( String method ){
 		
 		this(method, (Object)null);
@@ -77,6 +112,14 @@ public class JsonRpcRequest extends JsonRpcBase implements Serializable {
 		
 		return params;
 	}
+	
+	/**
+	 * Checks if this request is a notification, a request without id.
+	 */
+	public boolean isNotification(){
+		
+		return id == null;
+	}
 		
 	
 	@Override
@@ -90,7 +133,7 @@ public class JsonRpcRequest extends JsonRpcBase implements Serializable {
 			return false;		
 				
 		JsonRpcRequest req = (JsonRpcRequest)obj;
-		return id.equals(req.getId()); 
+		return id != null && id.equals(req.getId()); 
 		/*		
 		boolean retval = req.method.equals(this.method);
 		if(!retval)
@@ -130,6 +173,35 @@ public class JsonRpcRequest extends JsonRpcBase implements Serializable {
 		return req;
 	}
 	
+	/**
+	 * Serializes this request straight to a writer, without building the JSON string first.
+	 * The writer is flushed but not closed.
+	 * @param writer The writer the request is serialized to.
+	 */
+	public void writeTo( Writer writer ) throws IOException{
+		
+		writeTo(writer, JsonCodec.getDefault());
+	}
+	
+	/**
+	 * Serializes this request straight to a writer with the serializer of the codec.
+	 * The writer is flushed but not closed.
+	 * @param writer The writer the request is serialized to.
+	 * @param codec The codec serializing the request.
+	 */
+	public void writeTo( Writer writer, IJsonCodec codec ) throws IOException{
+		
+		JsonWriter out = new JsonWriter(writer);
+		try{
+			codec.getSerializer().toJson(this, JsonRpcRequest.class, out);
+		}catch(JsonIOException jioe){
+			if( jioe.getCause() instanceof IOException )
+				throw (IOException)jioe.getCause();
+			throw jioe;
+		}
+		out.flush();
+	}
+	
 	/**
 	 * Converts this object to a readable String.
 	 * @return The string representation of this request object.
@@ -141,4 +213,12 @@ public class JsonRpcRequest extends JsonRpcBase implements Serializable {
 		return gson.toJson(this);
 	}
 	
+	/**
+	 * Serializes this request with the serializer of the codec.
+	 */
+	String toJson( IJsonCodec codec ){
+		
+		return codec.getSerializer().toJson(this);
+	}
+	
 }
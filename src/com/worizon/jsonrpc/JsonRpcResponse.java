@@ -1,10 +1,18 @@
 package com.worizon.jsonrpc;
 
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
 
 /**
@@ -56,50 +64,207 @@ public class JsonRpcResponse<T> extends JsonRpcBase {
 	 */
 	public JsonRpcResponse( String jsonStr, Class<? extends T> clazz ) {
 				
-		JsonParser parser = new JsonParser();
-		JsonObject root = parser.parse(jsonStr).getAsJsonObject();				
-		jsonrpc = root.get("jsonrpc").getAsString();
+		this( new StringReader(jsonStr), clazz );
+	}
+	
+	/**
+	 * Crates a JsonRpcResponse object reading the response in a single streaming pass, the result object is
+	 * deserialized as its tokens are read so the response is never held as a String or as a tree.
+	 * The reader is not closed.
+	 * @param reader Reader of the JSON-RPC response from the server.
+	 * @param clazz The type that the result object will be converted to.
+	 * @throws JsonRpcException when the jsonrpc field in the response is different from "2.0".
+	 * @throws JsonRpcException when the id field in the response is empty or null.
+	 * @throws JsonRpcExceptoin when result and error fields are both empty or null.
+	 * @throws JsonSyntaxException when the response is not valid JSON.
+	 * @throws JsonIOException when the response can not be read.
+	 */
+	public JsonRpcResponse( Reader reader, final Class<? extends T> clazz ) {
+		
+		this( reader, clazz, JsonCodec.getDefault() );
+	}
+	
+	/**
+	 * Crates a JsonRpcResponse object reading the response in a single streaming pass with the deserializer of the codec.
+	 * @param reader Reader of the JSON-RPC response from the server.
+	 * @param type The type that the result object will be converted to, or a {@link ResultSink} reading it.
+	 * @param codec The codec deserializing the result.
+	 */
+	JsonRpcResponse( Reader reader, final Type type, IJsonCodec codec ) {
+		
+		this( new JsonReader(reader), new ITypeResolver(){
+			
+			@Override
+			public Type resolve( Long id ){
+				
+				return type;
+			}
+		}, true, codec.getDeserializer() );
+	}
+	
+	/**
+	 * Reads one response object from a reader positioned at it, ex: an element of a batch response. The type of the 
+	 * result is resolved from the id of the response. A result that comes before its id is read as a tree first and 
+	 * deserialized once the id is known.
+	 * @param in Reader positioned at the response object.
+	 * @param resolver Resolver of the result type.
+	 * @param requireId false to accept error responses without id, ex: the error of a request the server could not parse.
+	 * @param gson The deserializer of the result.
+	 */
+	@SuppressWarnings("unchecked")
+	JsonRpcResponse( JsonReader in, ITypeResolver resolver, boolean requireId, Gson gson ) {
+		
+		boolean hasResult = false;
+		boolean hasError = false;
+		JsonElement pendingResult = null;
+		JsonRpcException failure = null;
+		try{
+			in.beginObject();
+			while( in.hasNext() ){
+				
+				String name = in.nextName();
+				if( name.equals("jsonrpc") ){
+					
+					jsonrpc = readString(in);
+				}else if( name.equals("id") ){
+					
+					if( in.peek() == JsonToken.NULL )
+						in.nextNull();
+					else
+						id = in.nextLong();
+				}else if( name.equals("result") ){
+					
+					hasResult = true;
+					Type type = resolver.resolve(id);
+					if( in.peek() == JsonToken.NULL ){
+						in.nextNull();
+						result = null;
+					}else if( type instanceof ResultSink )
+						result = (T)((ResultSink)type).read(in);
+					else if( type != null )
+						result = (T)gson.fromJson(in, type);
+					else
+						pendingResult = gson.fromJson(in, JsonElement.class);
+				}else if( name.equals("error") ){
+					
+					hasError = true;
+					if( in.peek() == JsonToken.NULL ){
+						in.nextNull();
+						failure = new JsonRpcException("Error field is null");
+					}else
+						error = readError(in, gson);
+				}else
+					in.skipValue();
+			}
+			in.endObject();
+		}catch(MalformedJsonException mje){
+			throw new JsonSyntaxException(mje);
+		}catch(IllegalStateException ise){
+			throw new JsonSyntaxException(ise);
+		}catch(NumberFormatException nfe){
+			throw new JsonSyntaxException(nfe);
+		}catch(IOException ioe){
+			throw new JsonIOException(ioe);
+		}
+		
+		if( jsonrpc == null )
+			throw new JsonRpcException("Version not found");
 		if(!jsonrpc.equals("2.0"))
 			throw new JsonRpcException("Version not supported:" + jsonrpc);
-
-		if( root.has("id") && !root.get("id").isJsonNull() )
-			id = root.get("id").getAsLong();
-		else
+		
+		if( id == null && (requireId || !hasError) )
 			throw new JsonRpcException("Id not found or null");
 		
-		Gson gson = getDeserializeHelper();
-		if( root.has("result") ){
+		if( hasResult ){
 			
-			if( root.has("error") )
+			if( hasError )
 				throw new JsonRpcException("Both result and error fields present");
-			
-			if( !root.get("result").isJsonNull() ){ 
-								
-				result = gson.fromJson(root.get("result"), clazz);				
-			}else
-				result = null;			
-		}else if( root.has("error") ){
-									
-			if(!root.get("error").isJsonNull() ){								
+			if( pendingResult != null ){
 				
-				JsonElement errorJsonElement = root.get("error");		
-				if( errorJsonElement.getAsJsonObject().has("code") && errorJsonElement.getAsJsonObject().has("message")){
-					
-					if( !errorJsonElement.getAsJsonObject().get("code").isJsonNull() && 
-						!errorJsonElement.getAsJsonObject().get("message").isJsonNull()){											
+				Type type = resolver.resolve(id);
+				if( type instanceof ResultSink ){
 					
-						error = gson.fromJson(errorJsonElement, JsonRpcError.class);
-					}else
-						throw new JsonRpcException("Error code or message should not be null");
-				}else
-					throw new JsonRpcException("Error code or message not found");				
-			}else
-				throw new JsonRpcException("Error field is null");			
+					try{
+						result = (T)((ResultSink)type).read(new JsonReader(new StringReader(pendingResult.toString())));
+					}catch(IOException ioe){
+						throw new JsonSyntaxException(ioe);
+					}catch(IllegalStateException ise){
+						throw new JsonSyntaxException(ise);
+					}catch(NumberFormatException nfe){
+						throw new JsonSyntaxException(nfe);
+					}
+				}else if( type != null )
+					result = (T)gson.fromJson(pendingResult, type);
+			}
+		}else if( hasError ){
+			
+			if( failure != null )
+				throw failure;
 		}else
 			throw new JsonRpcException("Neither result nor error fields present");
 		
 	}			
 	
+	private static String readString( JsonReader in ) throws IOException{
+		
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+	
+	/**
+	 * Reads the error object, code and message are mandatory.
+	 */
+	private static JsonRpcError readError( JsonReader in, Gson gson ) throws IOException{
+		
+		boolean hasCode = false, hasMessage = false;
+		Integer code = null;
+		String message = null;
+		Object data = null;
+		in.beginObject();
+		while( in.hasNext() ){
+			
+			String name = in.nextName();
+			if( name.equals("code") ){
+				
+				hasCode = true;
+				if( in.peek() == JsonToken.NULL )
+					in.nextNull();
+				else
+					code = in.nextInt();
+			}else if( name.equals("message") ){
+				
+				hasMessage = true;
+				message = readString(in);
+			}else if( name.equals("data") ){
+				
+				data = gson.fromJson(in, Object.class);
+			}else
+				in.skipValue();
+		}
+		in.endObject();
+		
+		if( !hasCode || !hasMessage )
+			throw new JsonRpcException("Error code or message not found");
+		if( code == null || message == null )
+			throw new JsonRpcException("Error code or message should not be null");
+		return new JsonRpcError(code, message, data);
+	}
+	
+	/**
+	 * Resolves the type of the result of a response from its id.
+	 */
+	interface ITypeResolver{
+		
+		/**
+		 * @param id The id of the response, null if not read yet.
+		 * @return The result type or null if it can't be resolved yet.
+		 */
+		public Type resolve( Long id );
+	}
+	
 	/**
 	 * Gets the result part of this JsonRpcResponse object.
 	 * @return Result object.
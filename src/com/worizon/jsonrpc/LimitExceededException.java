@@ -0,0 +1,32 @@
+package com.worizon.jsonrpc;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of performing a call when the {@link ConcurrencyLimiter} of the client is at its limit and the call
+ * can not wait, or has waited for too long, in its queue. The request is not sent.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class LimitExceededException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int limit;
+
+	public LimitExceededException( int limit ){
+
+		super("Concurrency limit of " + limit + " calls exceeded");
+		this.limit = limit;
+	}
+
+	/**
+	 * Gets the limit of the calls in flight when the call was rejected.
+	 */
+	public int getLimit(){
+
+		return limit;
+	}
+
+}
@@ -0,0 +1,281 @@
+package com.worizon.jsonrpc;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.worizon.net.HttpRequest;
+
+/**
+ * Coalesces the calls made concurrently by several threads through the same {@link Rpc.Sync} object into JSON-RPC
+ * batches. Every caller keeps blocking until its own response arrives, the batching is not visible to it.
+ *
+ * <p>
+ * The first call queued waits for a window to let other calls join the batch, the batch is sent when the window
+ * expires or as soon as it reaches the max batch size. The window adapts to the load: it is zero while no request is
+ * in flight, so a lone caller is sent straight away as a plain request, and a quarter of the smoothed round trip time,
+ * bounded by the max window, otherwise.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+class MicroBatcher {
+
+	private final RpcImpl rpc;
+	private final Set<CallHandler> handlers;
+	private final long maxWindowNanos;
+	private final int maxBatchSize;
+
+	private final ReentrantLock lock = new ReentrantLock();//waits do not pin virtual threads
+	private final Condition queueChanged = lock.newCondition();
+	private final List<Pending> queue = new ArrayList<Pending>();
+	private int inFlight = 0;
+	private long smoothedRtt = 0;
+
+	/**
+	 * @param rpc Rpc object the calls are made through, creates the handlers and maps the errors.
+	 * @param handlers Set where the handlers of the requests in flight are tracked, to be stopped.
+	 * @param maxWindowMillis Max time in milliseconds a call waits for other calls to join its batch.
+	 * @param maxBatchSize Max number of calls per batch.
+	 */
+	MicroBatcher( RpcImpl rpc, Set<CallHandler> handlers, long maxWindowMillis, int maxBatchSize ){
+
+		if( maxWindowMillis < 0 )
+			throw new IllegalArgumentException("Batch window can not be negative");
+		if( maxBatchSize < 1 )
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		this.rpc = rpc;
+		this.handlers = handlers;
+		this.maxWindowNanos = TimeUnit.MILLISECONDS.toNanos(maxWindowMillis);
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Queues the call and waits for its response.
+	 * @param method The remote method name.
+	 * @param type The remote method's return type.
+	 * @param params remote parameters supplied to the remote procedure.
+	 * @return The result of the remote procedure.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> T call( String method, Type type, Object params ) throws IOException, InterruptedException{
+
+		Pending pending = new Pending(new JsonRpcRequest(method, params), type);
+		List<Pending> batch = null;
+		lock.lock();
+		try{
+			queue.add(pending);
+			if( queue.size() >= maxBatchSize )
+				batch = drain();
+			else{
+				long deadline = System.nanoTime() + window();
+				try{
+					while( !pending.sent ){
+
+						if( queue.get(0) == pending ){//this call sends the batch
+
+							long remaining = deadline - System.nanoTime();
+							if( remaining <= 0 ){
+								batch = drain();
+								break;
+							}
+							queueChanged.awaitNanos(remaining);
+						}else
+							queueChanged.await();
+					}
+				}catch(InterruptedException ie){
+					if( !pending.sent ){
+						queue.remove(pending);
+						queueChanged.signalAll();//next call in the queue sends the batch
+					}
+					throw ie;
+				}
+			}
+		}finally{
+			lock.unlock();
+		}
+
+		if( batch != null )
+			send(batch);
+
+		JsonRpcResponse<?> res = pending.await();
+		if( res.getError() != null )
+			throw rpc.mapError( res.getError() );
+		return (T)res.getResult();
+	}
+
+	/**
+	 * Takes the queued calls as a new batch, must be invoked holding the lock.
+	 */
+	private List<Pending> drain(){
+
+		List<Pending> batch = new ArrayList<Pending>(queue);
+		queue.clear();
+		for( Pending pending: batch )
+			pending.sent = true;
+		inFlight++;
+		queueChanged.signalAll();
+		return batch;
+	}
+
+	/**
+	 * Gets the time the first call of a batch waits for others, must be invoked holding the lock.
+	 */
+	private long window(){
+
+		if( inFlight == 0 )
+			return 0;
+		return Math.min(maxWindowNanos, smoothedRtt / 4);
+	}
+
+	/**
+	 * Sends a batch as one request, which takes one permit of the concurrency limiter if there is one.
+	 */
+	private void send( List<Pending> batch ){
+
+		long start = System.nanoTime();
+		CallHandler handler = null;
+		ConcurrencyLimiter limiter = rpc.getConcurrencyLimiter();
+		boolean acquired = false;
+		long acquiredAt = 0;
+		boolean answered = false;
+		IOException failure = null;
+		try{
+			handler = rpc.createNewCallHandler();
+			handler.setIdempotent(idempotent(batch));
+			handlers.add(handler);
+			if( limiter != null ){
+
+				limiter.acquire(null);
+				acquired = true;
+				acquiredAt = System.nanoTime();
+			}
+			if( batch.size() == 1 ){
+
+				Pending pending = batch.get(0);
+				JsonRpcResponse<?> res = handler.perform(pending.req, pending.type);
+				answered = true;
+				pending.complete(res);
+			}else{
+
+				List<JsonRpcRequest> requests = new ArrayList<JsonRpcRequest>(batch.size());
+				HashMap<Long, Type> types = new HashMap<Long, Type>();
+				for( Pending pending: batch ){
+
+					requests.add(pending.req);
+					types.put(pending.req.getId(), pending.type);
+				}
+				JsonRpcBatchResponse response = handler.performBatch(requests, types);//blocking call
+				answered = true;
+				for( Pending pending: batch ){
+
+					JsonRpcResponse<?> res = response.getResponse(pending.req.getId());
+					if( res != null )
+						pending.complete(res);
+					else if( response.getError() != null )
+						pending.fail(rpc.mapError(response.getError()));
+					else
+						pending.fail(new JsonRpcException("No response for request id " + pending.req.getId()));
+				}
+			}
+			handler.setState(HttpRequest.State.COMPLETE);
+		}catch(Exception ex){
+			if( ex instanceof IOException )
+				failure = (IOException)ex;
+			if( handler != null )
+				handler.setState(HttpRequest.State.FAILED);
+			for( Pending pending: batch )
+				pending.fail(ex);
+		}finally{
+			if( acquired )
+				limiter.release(System.nanoTime() - acquiredAt, answered, failure);
+			if( handler != null )
+				handlers.remove(handler);
+			lock.lock();
+			try{
+				long rtt = System.nanoTime() - start;
+				smoothedRtt = (smoothedRtt == 0)?rtt:smoothedRtt + (rtt - smoothedRtt) / 8;
+				inFlight--;
+			}finally{
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Checks if all the calls of a batch are idempotent, so the batch can be retried after reaching the server.
+	 */
+	private boolean idempotent( List<Pending> batch ){
+
+		for( Pending pending: batch ){
+
+			if( !rpc.isIdempotent(pending.req.getMethod()) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Call waiting in a batch.
+	 */
+	private static class Pending{
+
+		private final JsonRpcRequest req;
+		private final Type type;
+		private boolean sent = false;//guarded by the batcher lock
+		private boolean done = false;
+		private JsonRpcResponse<?> res = null;
+		private Exception failure = null;
+		private final CountDownLatch completion = new CountDownLatch(1);
+
+		Pending( JsonRpcRequest req, Type type ){
+
+			this.req = req;
+			this.type = type;
+		}
+
+		synchronized void complete( JsonRpcResponse<?> res ){
+
+			if( done )
+				return;
+			this.res = res;
+			this.done = true;
+			completion.countDown();
+		}
+
+		synchronized void fail( Exception failure ){
+
+			if( done )
+				return;
+			this.failure = failure;
+			this.done = true;
+			completion.countDown();
+		}
+
+		JsonRpcResponse<?> await() throws IOException, InterruptedException{
+
+			completion.await();
+			return report();
+		}
+
+		private synchronized JsonRpcResponse<?> report() throws IOException, InterruptedException{
+
+			if( failure instanceof IOException )
+				throw (IOException)failure;
+			if( failure instanceof InterruptedException )
+				throw (InterruptedException)failure;
+			if( failure instanceof RuntimeException )
+				throw (RuntimeException)failure;
+			if( failure != null )
+				throw new RuntimeException(failure);
+			return res;
+		}
+	}
+}
@@ -0,0 +1,447 @@
+package com.worizon.jsonrpc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.worizon.net.HttpRequest;
+
+import static com.worizon.jsonrpc.Const.Async.DEFAULT_MAX_SPILL_SIZE;
+
+/**
+ * Bounded queue of JSON-RPC notifications sent in the background, so sending a notification does not wait for the
+ * network. A writer thread sends the queued notifications as a batch, an array of notifications, as soon as the max
+ * batch size is queued or the oldest queued notification has waited the max delay. A lone notification is sent as a
+ * plain request. The queue is enabled with {@link RpcImpl#enableNotificationQueue(int, int, long, Overflow)}, ex:
+ *
+ * <pre>
+ * Rpc.Sync rpc = new Rpc.Sync("http://myserver.mydomain.com:4444/rpc");
+ * rpc.enableNotificationQueue(10000, 100, 50, NotificationQueue.Overflow.DROP_OLDEST);
+ * rpc.notification("audit", "login", 17);
+ * </pre>
+ *
+ * Notifications that can't be sent are counted as failed and are not retried, the server never answers them.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class NotificationQueue {
+
+	/**
+	 * What happens to a notification arriving to a full queue.
+	 */
+	public enum Overflow{
+
+		/**
+		 * The caller blocks until there is room in the queue.
+		 */
+		BLOCK,
+
+		/**
+		 * The oldest queued notification is dropped.
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * The notification is written to a temporary file, spilled notifications are sent in order once the queue
+		 * is drained. The file holds up to the max spill size, notifications beyond it are dropped.
+		 */
+		SPILL
+	}
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private final RpcImpl rpc;
+	private final int capacity;
+	private final int maxBatchSize;
+	private final long maxDelayNanos;
+	private final Overflow overflow;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final ArrayDeque<String> queue = new ArrayDeque<String>();
+	private long oldest = 0;
+	private int sending = 0;
+	private int flushing = 0;
+	private boolean closed = false;
+	private File spillFile = null;
+	private BufferedWriter spillWriter = null;
+	private BufferedReader spillReader = null;
+	private int spilled = 0;
+	private long spillSize = 0;
+	private long maxSpillSize = DEFAULT_MAX_SPILL_SIZE;
+	private final Thread writer;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong spilledTotal = new AtomicLong();
+
+	/**
+	 * @param rpc Rpc object the notifications are sent through, creates the handlers.
+	 * @param capacity Max number of queued notifications.
+	 * @param maxBatchSize Max number of notifications per batch, a full batch is sent straight away.
+	 * @param maxDelayMillis Max time in milliseconds a notification waits in the queue for others to join its batch.
+	 * @param overflow What happens to a notification arriving to a full queue.
+	 */
+	NotificationQueue( RpcImpl rpc, int capacity, int maxBatchSize, long maxDelayMillis, Overflow overflow ){
+
+		if( capacity < 1 )
+			throw new IllegalArgumentException("Queue capacity must be at least 1");
+		if( maxBatchSize < 1 )
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		if( maxDelayMillis < 0 )
+			throw new IllegalArgumentException("Batch delay can not be negative");
+		this.rpc = rpc;
+		this.capacity = capacity;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.overflow = overflow;
+
+		writer = new Thread(new Runnable(){
+
+			@Override
+			public void run(){
+
+				write();
+			}
+		}, "worizon-notifications-" + threadCount.getAndIncrement());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Sets the max size of the spill file, {@link com.worizon.jsonrpc.Const.Async#DEFAULT_MAX_SPILL_SIZE} by default.
+	 * @param bytes Max number of bytes written to the spill file until it is drained.
+	 * @return This queue.
+	 */
+	public NotificationQueue maxSpillSize( long bytes ){
+
+		if( bytes < 0 )
+			throw new IllegalArgumentException("Max spill size can not be negative");
+		lock.lock();
+		try{
+			maxSpillSize = bytes;
+			return this;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	public long getMaxSpillSize(){
+
+		lock.lock();
+		try{
+			return maxSpillSize;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues an encoded notification.
+	 * @throws IllegalStateException if the queue is closed.
+	 */
+	void add( String notification ) throws IOException, InterruptedException{
+
+		lock.lock();
+		try{
+			checkOpen();
+			if( spilled > 0 ){//the spilled notifications go first
+
+				spill(notification);
+				return;
+			}
+			while( queue.size() >= capacity ){
+
+				if( overflow == Overflow.DROP_OLDEST ){
+
+					queue.poll();
+					dropped.incrementAndGet();
+				}else if( overflow == Overflow.SPILL ){
+
+					spill(notification);
+					return;
+				}else{
+
+					changed.await();
+					checkOpen();
+				}
+			}
+			if( queue.isEmpty() )
+				oldest = System.nanoTime();
+			queue.add(notification);
+			if( queue.size() == 1 || queue.size() >= maxBatchSize )
+				changed.signalAll();
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	private void checkOpen(){
+
+		if( closed )
+			throw new IllegalStateException("Notification queue is closed");
+	}
+
+	/**
+	 * Writes the notification to the spill file or drops it if the file is full, must be invoked holding the lock.
+	 */
+	private void spill( String notification ) throws IOException{
+
+		long size = notification.getBytes("UTF-8").length + LINE_SEPARATOR.length();
+		if( spillSize + size > maxSpillSize ){
+
+			dropped.incrementAndGet();
+			return;
+		}
+		if( spillWriter == null ){
+
+			if( spillFile == null )
+				spillFile = File.createTempFile("worizon-notifications", ".spill");//one file per queue
+			spillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile), "UTF-8"));//truncates it
+		}
+		spillWriter.write(notification);//encoded JSON has no line breaks
+		spillWriter.newLine();
+		spilled++;
+		spillSize += size;
+		spilledTotal.incrementAndGet();
+		changed.signalAll();
+	}
+
+	/**
+	 * Reads the next spilled notifications, must be invoked holding the lock.
+	 */
+	private List<String> unspill() throws IOException{
+
+		spillWriter.flush();//the writer flushes on its own when its buffer fills, maybe in the middle of a line
+		if( spillReader == null )
+			spillReader = new BufferedReader(new InputStreamReader(new FileInputStream(spillFile), "UTF-8"));
+		List<String> batch = new ArrayList<String>(Math.min(spilled, maxBatchSize));
+		while( batch.size() < maxBatchSize && spilled > 0 ){
+
+			batch.add(spillReader.readLine());
+			spilled--;
+		}
+		if( spilled == 0 )
+			discardSpill();
+		return batch;
+	}
+
+	/**
+	 * Closes the spill file, kept to be truncated by the next spill. Must be invoked holding the lock.
+	 */
+	private void discardSpill(){
+
+		try{
+			if( spillReader != null )
+				spillReader.close();
+		}catch(IOException ioe){
+		}
+		try{
+			spillWriter.close();
+		}catch(IOException ioe){
+		}
+		spillReader = null;
+		spillWriter = null;
+		spilled = 0;
+		spillSize = 0;
+	}
+
+	/**
+	 * Deletes the spill file once the writer thread stops, must be invoked holding the lock.
+	 */
+	private void deleteSpill(){
+
+		if( spillWriter != null )
+			discardSpill();
+		if( spillFile != null )
+			spillFile.delete();
+		spillFile = null;
+	}
+
+	/**
+	 * Loop of the writer thread, sends the batches until the queue is closed and drained.
+	 */
+	private void write(){
+
+		while( true ){
+
+			List<String> batch = null;
+			lock.lock();
+			try{
+				while( batch == null ){
+
+					if( !queue.isEmpty() ){
+
+						long remaining = oldest + maxDelayNanos - System.nanoTime();
+						if( remaining <= 0 || queue.size() >= maxBatchSize || flushing > 0 || closed ){
+
+							batch = new ArrayList<String>(Math.min(queue.size(), maxBatchSize));
+							while( batch.size() < maxBatchSize && !queue.isEmpty() )
+								batch.add(queue.poll());
+						}else
+							changed.awaitNanos(remaining);
+					}else if( spilled > 0 ){
+
+						try{
+							batch = unspill();
+						}catch(IOException ioe){
+							failed.addAndGet(spilled);
+							discardSpill();
+						}
+					}else if( closed ){
+
+						deleteSpill();
+						return;
+					}else
+						changed.await();
+				}
+				sending = batch.size();
+				changed.signalAll();//room for blocked callers
+			}catch(InterruptedException ie){
+				deleteSpill();
+				return;
+			}finally{
+				lock.unlock();
+			}
+
+			send(batch);
+
+			lock.lock();
+			try{
+				sending = 0;
+				changed.signalAll();
+			}finally{
+				lock.unlock();
+			}
+		}
+	}
+
+	private void send( List<String> batch ){
+
+		if( batch.isEmpty() )
+			return;
+		StringBuilder body = new StringBuilder();
+		if( batch.size() == 1 )
+			body.append(batch.get(0));
+		else{
+
+			body.append('[');
+			for( String notification: batch ){
+
+				if( body.length() > 1 )
+					body.append(',');
+				body.append(notification);
+			}
+			body.append(']');
+		}
+
+		CallHandler handler = null;
+		try{
+			handler = rpc.createNewCallHandler();
+			handler.performNotification(body.toString());
+			handler.setState(HttpRequest.State.COMPLETE);
+			sent.addAndGet(batch.size());
+		}catch(Exception ex){
+			if( handler != null )
+				handler.setState(HttpRequest.State.FAILED);
+			failed.addAndGet(batch.size());
+		}
+	}
+
+	/**
+	 * Sends the queued notifications without waiting for the max delay and waits until they are sent.
+	 */
+	public void flush() throws InterruptedException{
+
+		lock.lock();
+		try{
+			flushing++;
+			changed.signalAll();
+			try{
+				while( (!queue.isEmpty() || spilled > 0 || sending > 0) && writer.isAlive() )
+					changed.await(100, TimeUnit.MILLISECONDS);
+			}finally{
+				flushing--;
+			}
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sends the queued notifications and stops the writer thread, notifications can't be queued afterwards.
+	 */
+	public void close() throws InterruptedException{
+
+		lock.lock();
+		try{
+			closed = true;
+			changed.signalAll();
+		}finally{
+			lock.unlock();
+		}
+		writer.join();
+	}
+
+	/**
+	 * Gets the number of queued notifications, spilled ones included.
+	 */
+	public int size(){
+
+		lock.lock();
+		try{
+			return queue.size() + spilled;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of notifications sent.
+	 */
+	public long getSentCount(){
+
+		return sent.get();
+	}
+
+	/**
+	 * Gets the number of notifications dropped because the queue or the spill file was full.
+	 */
+	public long getDroppedCount(){
+
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the number of notifications that could not be sent.
+	 */
+	public long getFailedCount(){
+
+		return failed.get();
+	}
+
+	/**
+	 * Gets the number of notifications written to the spill file because the queue was full.
+	 */
+	public long getSpilledCount(){
+
+		return spilledTotal.get();
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.worizon.jsonrpc;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Base class of the stubs generated by {@link com.worizon.jsonrpc.processor.RemoteStubProcessor} for the
+ * {@link com.worizon.jsonrpc.annotations.Remote} interfaces. A stub has the remote procedure names, parameter names
+ * and result types of its interface precomputed, so calls are performed without reflection.
+ * {@link Rpc.Proxy#createProxy(Class)} returns the stub of an interface when it is found next to the interface,
+ * and a dynamic proxy otherwise.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public abstract class RemoteStub {
+
+	/**
+	 * Suffix of the stub class names, ex: the stub of com.foo.Calculator is com.foo.Calculator_RpcStub and the
+	 * stub of the nested interface com.foo.Outer.Calculator is com.foo.Outer_Calculator_RpcStub.
+	 */
+	public static final String STUB_SUFFIX = "_RpcStub";
+
+	private final Rpc.Proxy rpc;
+
+	protected RemoteStub( Rpc.Proxy rpc ){
+
+		this.rpc = rpc;
+	}
+
+	/**
+	 * Calls the remote procedure.
+	 * @param method The remote procedure name.
+	 * @param type The result type.
+	 * @param params The remote parameters, a list, a map or null.
+	 * @return The result of the remote procedure.
+	 */
+	protected final Object invoke( String method, Type type, Object params ) throws IOException, InterruptedException{
+
+		return rpc.invoke(method, type, params, null);
+	}
+
+	/**
+	 * Calls the remote procedure of a {@link com.worizon.jsonrpc.annotations.Cacheable} method.
+	 * @param method The remote procedure name.
+	 * @param type The result type.
+	 * @param params The remote parameters, a list, a map or null.
+	 * @param policy Caching rules of the result.
+	 * @return The result of the remote procedure.
+	 */
+	protected final Object invoke( String method, Type type, Object params, CachePolicy policy ) throws IOException, InterruptedException{
+
+		return rpc.invoke(method, type, params, policy);
+	}
+
+	/**
+	 * Sends the notification of a {@link com.worizon.jsonrpc.annotations.Notification} method.
+	 * @param method The remote procedure name.
+	 * @param params The remote parameters, a list, a map or null.
+	 */
+	protected final void notification( String method, Object params ) throws IOException, InterruptedException{
+
+		rpc.sendNotification(method, params);
+	}
+
+	/**
+	 * Gets the name of the stub class of an interface.
+	 */
+	static String stubName( Class<?> clazz ){
+
+		String name = clazz.getName();
+		int dot = name.lastIndexOf('.');
+		return name.substring(0, dot + 1) + name.substring(dot + 1).replace('$', '_') + STUB_SUFFIX;
+	}
+
+}
@@ -0,0 +1,239 @@
+package com.worizon.jsonrpc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.worizon.jsonrpc.annotations.OnFailure;
+import com.worizon.jsonrpc.annotations.OnResult;
+
+/**
+ * Bus that delivers the results and failures of asynchronous calls to the methods of the registered objects annotated
+ * with {@link OnResult} and {@link OnFailure}. Events are routed by remote procedure name and by the type of the result
+ * or failure.
+ *
+ * <p>
+ * The annotated methods are looked up once, when an object is registered, into an immutable table that is replaced
+ * on every register and unRegister. Publishing reads the table without locking, the handlers for each procedure name
+ * and type are resolved on its first event and cached in the table, so the following events go straight to the
+ * resolved methods.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class ResultBus {
+
+	private static final Map<Class<?>, Class<?>> boxes = new HashMap<Class<?>, Class<?>>();
+	static{
+		boxes.put(boolean.class, Boolean.class);
+		boxes.put(byte.class, Byte.class);
+		boxes.put(char.class, Character.class);
+		boxes.put(short.class, Short.class);
+		boxes.put(int.class, Integer.class);
+		boxes.put(long.class, Long.class);
+		boxes.put(float.class, Float.class);
+		boxes.put(double.class, Double.class);
+	}
+
+	private volatile Table table = new Table(new Handler[0]);
+
+	/**
+	 * Registers the annotated methods of the object.
+	 * @param registree Object with methods annotated with {@link OnResult} or {@link OnFailure}.
+	 * @throws IllegalArgumentException if an annotated method does not take exactly one parameter, or an
+	 * {@link OnFailure} method parameter is not a Throwable.
+	 */
+	public synchronized void register( Object registree ){
+
+		List<Handler> handlers = new ArrayList<Handler>();
+		for( Handler handler: table.handlers )
+			if( handler.target == registree )
+				return;
+			else
+				handlers.add(handler);
+
+		for( Class<?> clazz = registree.getClass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass() ){
+
+			for( Method method: clazz.getDeclaredMethods() ){
+
+				OnResult onResult = method.getAnnotation(OnResult.class);
+				OnFailure onFailure = method.getAnnotation(OnFailure.class);
+				if( onResult == null && onFailure == null )
+					continue;
+
+				Class<?> params[] = method.getParameterTypes();
+				if( params.length != 1 )
+					throw new IllegalArgumentException("Listener method " + method.getName() + " must take one parameter");
+				Class<?> type = boxes.containsKey(params[0])?boxes.get(params[0]):params[0];
+				if( onFailure != null && !Throwable.class.isAssignableFrom(type) )
+					throw new IllegalArgumentException("Listener method " + method.getName() + " must take a Throwable parameter");
+
+				method.setAccessible(true);
+				if( onResult != null )
+					handlers.add(new Handler(registree, method, onResult.value(), type, false, params[0].isPrimitive()));
+				if( onFailure != null )
+					handlers.add(new Handler(registree, method, onFailure.value(), type, true, false));
+			}
+		}
+		table = new Table(handlers.toArray(new Handler[handlers.size()]));
+	}
+
+	/**
+	 * Unregisters the object, its methods stop receiving events.
+	 * @param registree A registered object.
+	 */
+	public synchronized void unRegister( Object registree ){
+
+		List<Handler> handlers = new ArrayList<Handler>();
+		for( Handler handler: table.handlers )
+			if( handler.target != registree )
+				handlers.add(handler);
+		if( handlers.size() != table.handlers.length )
+			table = new Table(handlers.toArray(new Handler[handlers.size()]));
+	}
+
+	/**
+	 * Checks if there are registered listener methods.
+	 */
+	public boolean hasListeners(){
+
+		return table.handlers.length > 0;
+	}
+
+	/**
+	 * Delivers the result of a call to the {@link OnResult} methods of the procedure that accept its type.
+	 * @param method Remote procedure name.
+	 * @param result The result, null is delivered to the methods with a non primitive parameter.
+	 */
+	public void publishResult( String method, Object result ){
+
+		dispatch(method, (result != null)?result.getClass():null, false, result);
+	}
+
+	/**
+	 * Delivers the failure of a call to the {@link OnFailure} methods of the procedure that accept its type.
+	 * @param method Remote procedure name.
+	 * @param failure The exception the call failed with.
+	 */
+	public void publishFailure( String method, Throwable failure ){
+
+		dispatch(method, failure.getClass(), true, failure);
+	}
+
+	private void dispatch( String method, Class<?> type, boolean failure, Object event ){
+
+		Table table = this.table;
+		if( table.handlers.length == 0 )
+			return;
+
+		Route route = new Route(method, type, failure);
+		Handler handlers[] = table.routes.get(route);
+		if( handlers == null ){
+			handlers = table.resolve(route);
+			table.routes.putIfAbsent(route, handlers);
+		}
+
+		for( Handler handler: handlers ){
+
+			try{
+				handler.method.invoke(handler.target, event);
+			}catch(InvocationTargetException ite){
+				//a failing listener must not prevent the others from receiving the event
+			}catch(IllegalAccessException iae){
+			}
+		}
+	}
+
+	/**
+	 * Immutable set of handlers with the cache of resolved routes.
+	 */
+	private static class Table{
+
+		private final Handler handlers[];
+		private final ConcurrentHashMap<Route, Handler[]> routes = new ConcurrentHashMap<Route, Handler[]>();
+
+		Table( Handler handlers[] ){
+
+			this.handlers = handlers;
+		}
+
+		Handler[] resolve( Route route ){
+
+			List<Handler> matching = new ArrayList<Handler>();
+			for( Handler handler: handlers )
+				if( handler.accepts(route) )
+					matching.add(handler);
+			return matching.toArray(new Handler[matching.size()]);
+		}
+	}
+
+	private static class Handler{
+
+		private final Object target;
+		private final Method method;
+		private final String procedure;
+		private final Class<?> type;
+		private final boolean failure;
+		private final boolean primitive;
+
+		Handler( Object target, Method method, String procedure, Class<?> type, boolean failure, boolean primitive ){
+
+			this.target = target;
+			this.method = method;
+			this.procedure = procedure;
+			this.type = type;
+			this.failure = failure;
+			this.primitive = primitive;
+		}
+
+		boolean accepts( Route route ){
+
+			if( failure != route.failure )
+				return false;
+			if( procedure.length() > 0 && !procedure.equals(route.method) )
+				return false;
+			if( route.type == null )
+				return !primitive;
+			return type.isAssignableFrom(route.type);
+		}
+	}
+
+	/**
+	 * Key of the events delivered to the same handlers: procedure name, event type and kind.
+	 */
+	private static class Route{
+
+		private final String method;
+		private final Class<?> type;
+		private final boolean failure;
+
+		Route( String method, Class<?> type, boolean failure ){
+
+			this.method = method;
+			this.type = type;
+			this.failure = failure;
+		}
+
+		@Override
+		public int hashCode(){
+
+			int hash = method.hashCode();
+			hash = 31 * hash + ((type != null)?type.hashCode():0);
+			return 31 * hash + (failure?1:0);
+		}
+
+		@Override
+		public boolean equals( Object obj ){
+
+			if( !(obj instanceof Route) )
+				return false;
+			Route other = (Route)obj;
+			return method.equals(other.method) && type == other.type && failure == other.failure;
+		}
+	}
+
+}
@@ -0,0 +1,320 @@
+package com.worizon.jsonrpc;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Client side cache of the results of idempotent remote methods, results are looked up before the request is
+ * performed so hits make no network call. Entries are keyed by method, result type and parameters, named parameters
+ * in any order are the same key. Results are evicted least recently used first when the cache holds more entries or
+ * more weight than its bounds. Errors are never cached.
+ *
+ * <p>
+ * Caching is enabled per method with {@link com.worizon.jsonrpc.annotations.Cacheable} on proxy interfaces and per
+ * call with a {@link CachePolicy} on {@link Rpc.Sync}, ex:
+ *
+ * <pre>
+ * Rpc.Sync rpc = new Rpc.Sync("http://myserver.mydomain.com:4444/rpc");
+ * rpc.setResultCache(new ResultCache(10000));
+ * String name = rpc.call("get_name", String.class, new CachePolicy(30000), 17);
+ * </pre>
+ *
+ * A result past its ttl but within its stale-while-revalidate time is served as is and refreshed in the background,
+ * one refresh at a time. Cached results are shared by every caller and should not be modified.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class ResultCache {
+
+	/**
+	 * Weight of a cached result, ex: its approximate size in bytes.
+	 */
+	public interface IWeigher{
+
+		public int weigh( Object result );
+	}
+
+	/**
+	 * Performs the call on a miss or a refresh.
+	 */
+	interface ILoader{
+
+		public Object load() throws IOException, InterruptedException;
+	}
+
+	private static final IWeigher UNIT_WEIGHER = new IWeigher(){
+
+		@Override
+		public int weigh( Object result ){
+
+			return 1;
+		}
+	};
+
+	private final int maxEntries;
+	private final long maxWeight;
+	private final IWeigher weigher;
+	private final Executor refresher;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long weight = 0;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong staleHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a cache bounded by number of entries.
+	 * @param maxEntries Max number of cached results.
+	 */
+	public ResultCache( int maxEntries ){
+
+		this(maxEntries, Long.MAX_VALUE, UNIT_WEIGHER);
+	}
+
+	/**
+	 * Creates a cache bounded by number of entries and total weight, results are refreshed by a daemon thread.
+	 * @param maxEntries Max number of cached results.
+	 * @param maxWeight Max total weight of the cached results.
+	 * @param weigher Weigher of the results.
+	 */
+	public ResultCache( int maxEntries, long maxWeight, IWeigher weigher ){
+
+		this(maxEntries, maxWeight, weigher, Rpc.Async.newExecutor(1, Const.Async.DEFAULT_QUEUE_SIZE, new ThreadPoolExecutor.AbortPolicy()));
+	}
+
+	/**
+	 * Creates a cache bounded by number of entries and total weight.
+	 * @param maxEntries Max number of cached results.
+	 * @param maxWeight Max total weight of the cached results.
+	 * @param weigher Weigher of the results.
+	 * @param refresher Executor of the stale-while-revalidate refreshes.
+	 */
+	public ResultCache( int maxEntries, long maxWeight, IWeigher weigher, Executor refresher ){
+
+		if( maxEntries <= 0 || maxWeight <= 0 )
+			throw new IllegalArgumentException("Cache bounds must be positive");
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.refresher = refresher;
+	}
+
+	/**
+	 * Builds the key of a call, the parameters are serialized with the keys of objects sorted.
+	 */
+	static String key( String method, Type type, Object params, IJsonCodec codec ){
+
+		StringBuilder key = new StringBuilder(method).append('\u0000').append(type).append('\u0000');
+		if( params != null )
+			canonicalize(codec.getSerializer().toJsonTree(params), key);
+		return key.toString();
+	}
+
+	private static void canonicalize( JsonElement element, StringBuilder out ){
+
+		if( element.isJsonObject() ){
+
+			TreeMap<String, JsonElement> members = new TreeMap<String, JsonElement>();
+			for( Map.Entry<String, JsonElement> member: ((JsonObject)element).entrySet() )
+				members.put(member.getKey(), member.getValue());
+			out.append('{');
+			for( Map.Entry<String, JsonElement> member: members.entrySet() ){
+
+				out.append('"').append(member.getKey()).append("\":");
+				canonicalize(member.getValue(), out);
+				out.append(',');
+			}
+			out.append('}');
+		}else if( element.isJsonArray() ){
+
+			out.append('[');
+			for( JsonElement item: (JsonArray)element ){
+
+				canonicalize(item, out);
+				out.append(',');
+			}
+			out.append(']');
+		}else
+			out.append(element.toString());
+	}
+
+	/**
+	 * Gets the cached result of the key or loads it.
+	 */
+	Object get( final String key, final CachePolicy policy, final ILoader loader ) throws IOException, InterruptedException{
+
+		long now = System.nanoTime();
+		final Entry entry;
+		boolean refresh = false;
+		synchronized( this ){
+
+			Entry cached = entries.get(key);
+			if( cached != null && now - cached.freshUntil < 0 ){
+
+				hits.incrementAndGet();
+				return cached.result;
+			}else if( cached != null && now - cached.staleUntil < 0 ){
+
+				staleHits.incrementAndGet();
+				refresh = !cached.refreshing;
+				cached.refreshing = true;
+				entry = cached;
+			}else{
+
+				if( cached != null )
+					remove(key);
+				entry = null;
+			}
+		}
+
+		if( entry != null ){
+
+			if( refresh )
+				refresh(key, policy, loader, entry);
+			return entry.result;
+		}
+		misses.incrementAndGet();
+		Object result = loader.load();
+		put(key, policy, result);
+		return result;
+	}
+
+	private void refresh( final String key, final CachePolicy policy, final ILoader loader, final Entry entry ){
+
+		try{
+			refresher.execute(new Runnable(){
+
+				@Override
+				public void run(){
+
+					try{
+						put(key, policy, loader.load());
+						return;
+					}catch(IOException ioe){
+					}catch(InterruptedException ie){
+					}catch(RuntimeException re){
+					}
+					synchronized( ResultCache.this ){
+						entry.refreshing = false;//a later hit retries
+					}
+				}
+			});
+		}catch(RejectedExecutionException ree){
+			synchronized( this ){
+				entry.refreshing = false;
+			}
+		}
+	}
+
+	private void put( String key, CachePolicy policy, Object result ){
+
+		int resultWeight = weigher.weigh(result);
+		long now = System.nanoTime();
+		Entry entry = new Entry(result, resultWeight,
+							now + TimeUnit.MILLISECONDS.toNanos(policy.getTtlMillis()),
+							now + TimeUnit.MILLISECONDS.toNanos(policy.getTtlMillis() + policy.getStaleWhileRevalidateMillis()));
+		synchronized( this ){
+
+			remove(key);
+			entries.put(key, entry);
+			weight += resultWeight;
+			Iterator<Entry> eldest = entries.values().iterator();
+			while( (entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext() ){
+
+				weight -= eldest.next().weight;
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private void remove( String key ){
+
+		Entry removed = entries.remove(key);
+		if( removed != null )
+			weight -= removed.weight;
+	}
+
+	/**
+	 * Removes every cached result.
+	 */
+	public synchronized void invalidateAll(){
+
+		entries.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Gets the number of calls served by a fresh result.
+	 */
+	public long getHitCount(){
+
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of calls served by an expired result while it was refreshed.
+	 */
+	public long getStaleHitCount(){
+
+		return staleHits.get();
+	}
+
+	/**
+	 * Gets the number of calls performed because their result was not cached.
+	 */
+	public long getMissCount(){
+
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of results evicted to keep the cache within its bounds.
+	 */
+	public long getEvictionCount(){
+
+		return evictions.get();
+	}
+
+	public synchronized int size(){
+
+		return entries.size();
+	}
+
+	public synchronized long weight(){
+
+		return weight;
+	}
+
+	private static class Entry{
+
+		private final Object result;
+		private final int weight;
+		private final long freshUntil;
+		private final long staleUntil;
+		private boolean refreshing = false;
+
+		Entry( Object result, int weight, long freshUntil, long staleUntil ){
+
+			this.result = result;
+			this.weight = weight;
+			this.freshUntil = freshUntil;
+			this.staleUntil = staleUntil;
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.worizon.jsonrpc;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+import com.google.gson.stream.JsonReader;
+import com.worizon.jsonrpc.gson.PrimitiveArrays;
+
+/**
+ * Result type that reads the result tokens itself instead of through Gson, ex: into a buffer supplied by the caller.
+ * {@link JsonRpcResponse} hands it the reader positioned at the result and keeps what it returns as the result.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+abstract class ResultSink implements Type {
+
+	/**
+	 * Reads the result, the token is never null.
+	 * @param in Reader positioned at the result.
+	 * @return The result object.
+	 */
+	abstract Object read( JsonReader in ) throws IOException;
+
+	/**
+	 * Sink of a numeric array into the buffer, the result is the number of elements read.
+	 */
+	static ResultSink of( final IntBuffer target ){
+
+		return new ResultSink(){
+
+			@Override
+			Object read( JsonReader in ) throws IOException{
+
+				return PrimitiveArrays.read(in, target);
+			}
+		};
+	}
+
+	/**
+	 * Sink of a numeric array into the buffer, the result is the number of elements read.
+	 */
+	static ResultSink of( final LongBuffer target ){
+
+		return new ResultSink(){
+
+			@Override
+			Object read( JsonReader in ) throws IOException{
+
+				return PrimitiveArrays.read(in, target);
+			}
+		};
+	}
+
+	/**
+	 * Sink of a numeric array into the buffer, the result is the number of elements read.
+	 */
+	static ResultSink of( final ShortBuffer target ){
+
+		return new ResultSink(){
+
+			@Override
+			Object read( JsonReader in ) throws IOException{
+
+				return PrimitiveArrays.read(in, target);
+			}
+		};
+	}
+
+	/**
+	 * Sink of a numeric array into the buffer, the result is the number of elements read.
+	 */
+	static ResultSink of( final DoubleBuffer target ){
+
+		return new ResultSink(){
+
+			@Override
+			Object read( JsonReader in ) throws IOException{
+
+				return PrimitiveArrays.read(in, target);
+			}
+		};
+	}
+
+	/**
+	 * Sink of a numeric array into the buffer, the result is the number of elements read.
+	 */
+	static ResultSink of( final FloatBuffer target ){
+
+		return new ResultSink(){
+
+			@Override
+			Object read( JsonReader in ) throws IOException{
+
+				return PrimitiveArrays.read(in, target);
+			}
+		};
+	}
+
+}
@@ -2,31 +2,55 @@ package com.worizon.jsonrpc;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.net.MalformedURLException;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.worizon.jsonrpc.annotations.Idempotent;
 import com.worizon.jsonrpc.annotations.LocalException;
 import com.worizon.jsonrpc.annotations.LocalExceptions;
 import com.worizon.jsonrpc.annotations.Remote;
-import com.worizon.jsonrpc.annotations.RemoteParams;
-import com.worizon.jsonrpc.annotations.RemoteProcName;
+import com.worizon.jsonrpc.annotations.Timeout;
+import com.worizon.net.Deadline;
+import com.worizon.net.DeadlineExceededException;
+import com.worizon.net.HashedWheelTimer;
+import com.worizon.net.HttpRequest;
 import com.worizon.net.HttpRequestBuilder;
+import com.worizon.net.IAsyncTransport;
 
 /**
- * Rpc apis grouped into a namespace class. You can use the rpc service with 3 different apis:
+ * Rpc apis grouped into a namespace class. You can use the rpc service with 4 different apis:
  * <li>
  * <ul>Sync api</ul>
  * <ul>Async api</ul>
  * <ul>Proxy api</ul>
+ * <ul>Batch api</ul>
  * </li>
  */
 public class Rpc {
@@ -39,6 +63,7 @@ public class Rpc {
 	public static class Sync extends RpcImpl {
 				
 		private Set<CallHandler> handlers = Collections.synchronizedSet(new HashSet<CallHandler>());
+		private volatile MicroBatcher batcher = null;
 		
 		public Sync( String endpoint ) throws MalformedURLException {
 			
@@ -62,22 +87,148 @@ public class Rpc {
 			handlers.clear();
 		}
 		
+		/**
+		 * Enables the automatic batching of the calls made concurrently through this object. Calls arriving 
+		 * while other requests are in flight are coalesced into one JSON-RPC batch, each caller still blocks until
+		 * its own result arrives. The time a call waits for others adapts to the measured round trip time and
+		 * is zero when no request is in flight, so a lone caller is not delayed.
+		 * @param maxWindowMillis Max time in milliseconds a call waits for other calls to join its batch.
+		 * @param maxBatchSize Max number of calls per batch, a full batch is sent straight away.
+		 */
+		public void enableBatching( long maxWindowMillis, int maxBatchSize ){
+			
+			batcher = new MicroBatcher(this, handlers, maxWindowMillis, maxBatchSize);
+		}
+		
+		/**
+		 * Disables the automatic batching, every call is sent as its own request.
+		 */
+		public void disableBatching(){
+			
+			batcher = null;
+		}
+		
+		/**
+		 * Checks if the automatic batching is enabled.
+		 */
+		public boolean isBatching(){
+			
+			return batcher != null;
+		}
+		
 		/**
 		 * Makes parent's call method public through the Sync api. 
 		 * @see com.worizon.jsonrpc.RpcImpl#call(java.lang.String, java.util.List, java.lang.Class)
 		 */		
 		protected <T> T call( String method, Class<T> clazz, Object params  ) throws IOException, InterruptedException {
 			
+			return callAs(method, clazz, params, null);
+		}
+		
+		private <T> T callAs( String method, Type type, Object params ) throws IOException, InterruptedException {
+			
+			return callAs(method, type, params, null);
+		}
+		
+		/**
+		 * Performs the call, batched if batching is enabled and the call has no deadline nor method timeout of its own.
+		 */
+		@SuppressWarnings("unchecked")
+		private <T> T callAs( final String method, final Type type, final Object params, Deadline deadline ) throws IOException, InterruptedException {
+			
+			final MicroBatcher batcher = this.batcher;
+			if( batcher != null && deadline == null && !hasMethodTimeout(method) )
+				return (T)coalesced(method, type, params, new ResultCache.ILoader(){
+					
+					@Override
+					public Object load() throws IOException, InterruptedException{
+						
+						return batcher.call(method, type, params);
+					}
+				});
+			
 			CallHandler handler = createNewCallHandler();
+			handler.setDeadline(deadline);
 			handlers.add(handler);
 			try{
 				
-				return super.call(handler, method, clazz, params);
+				return super.call(handler, method, type, params);
 			}finally{
 				handlers.remove(handler);
 			}
 		}
 		
+		/**
+		 * Calls the remote procedure reading the numeric array result into the caller buffer, without allocating an
+		 * array. Arrays are filled through a wrapping buffer, ex: rpc.callIntegerArray("get_samples", IntBuffer.wrap(samples)).
+		 * @param method The remote procedure name to be invoked.
+		 * @param target Buffer the elements are put into, from its position.
+		 * @param params The arguments to get into the remote procedure serialized as an ordered list.
+		 * @return The number of elements read, 0 if the result is null.
+		 * @throws java.nio.BufferOverflowException if the result does not fit in the remaining buffer.
+		 */
+		public int callIntegerArray( String method, IntBuffer target, Object... params ) throws IOException, InterruptedException{
+			
+			Integer read = callAs(method, ResultSink.of(target), transformParametersArrayIntoCollection(params) );
+			return (read == null)?0:read;
+		}
+		
+		/**
+		 * Calls the remote procedure reading the numeric array result into the caller buffer, without allocating an array.
+		 * @param method The remote procedure name to be invoked.
+		 * @param target Buffer the elements are put into, from its position.
+		 * @param params The arguments to get into the remote procedure serialized as an ordered list.
+		 * @return The number of elements read, 0 if the result is null.
+		 * @throws java.nio.BufferOverflowException if the result does not fit in the remaining buffer.
+		 */
+		public int callLongArray( String method, LongBuffer target, Object... params ) throws IOException, InterruptedException{
+			
+			Integer read = callAs(method, ResultSink.of(target), transformParametersArrayIntoCollection(params) );
+			return (read == null)?0:read;
+		}
+		
+		/**
+		 * Calls the remote procedure reading the numeric array result into the caller buffer, without allocating an array.
+		 * @param method The remote procedure name to be invoked.
+		 * @param target Buffer the elements are put into, from its position.
+		 * @param params The arguments to get into the remote procedure serialized as an ordered list.
+		 * @return The number of elements read, 0 if the result is null.
+		 * @throws java.nio.BufferOverflowException if the result does not fit in the remaining buffer.
+		 */
+		public int callShortArray( String method, ShortBuffer target, Object... params ) throws IOException, InterruptedException{
+			
+			Integer read = callAs(method, ResultSink.of(target), transformParametersArrayIntoCollection(params) );
+			return (read == null)?0:read;
+		}
+		
+		/**
+		 * Calls the remote procedure reading the numeric array result into the caller buffer, without allocating an array.
+		 * @param method The remote procedure name to be invoked.
+		 * @param target Buffer the elements are put into, from its position.
+		 * @param params The arguments to get into the remote procedure serialized as an ordered list.
+		 * @return The number of elements read, 0 if the result is null.
+		 * @throws java.nio.BufferOverflowException if the result does not fit in the remaining buffer.
+		 */
+		public int callDoubleArray( String method, DoubleBuffer target, Object... params ) throws IOException, InterruptedException{
+			
+			Integer read = callAs(method, ResultSink.of(target), transformParametersArrayIntoCollection(params) );
+			return (read == null)?0:read;
+		}
+		
+		/**
+		 * Calls the remote procedure reading the numeric array result into the caller buffer, without allocating an array.
+		 * @param method The remote procedure name to be invoked.
+		 * @param target Buffer the elements are put into, from its position.
+		 * @param params The arguments to get into the remote procedure serialized as an ordered list.
+		 * @return The number of elements read, 0 if the result is null.
+		 * @throws java.nio.BufferOverflowException if the result does not fit in the remaining buffer.
+		 */
+		public int callFloatArray( String method, FloatBuffer target, Object... params ) throws IOException, InterruptedException{
+			
+			Integer read = callAs(method, ResultSink.of(target), transformParametersArrayIntoCollection(params) );
+			return (read == null)?0:read;
+		}
+		
 		/**
 		 * Makes parent's call method public through the Sync api.
 		 * @see com.worizon.jsonrpc.RpcImpl#call(java.lang.String, java.util.Map, java.lang.Class)
@@ -108,6 +259,44 @@ public class Rpc {
 			return call(method, clazz, transformParametersArrayIntoCollection(params) );
 		}
 		
+		/**
+		 * Calls the remote procedure with varargs parameters, the result is served from the {@link ResultCache} of 
+		 * this client while the policy allows it.
+		 * @param method The remote procedure name.
+		 * @param clazz The return type class type.
+		 * @param policy Caching rules of the result.
+		 * @param params The remote parameters supplied to the remote procedure.
+		 * @return T An object of the remote procedure return type.
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> T call( final String method, final Class<T> clazz, CachePolicy policy, Object... params ) throws IOException, InterruptedException{
+			
+			final Object remoteParams = transformParametersArrayIntoCollection(params);
+			return (T)cached(method, clazz, remoteParams, policy, new ResultCache.ILoader(){
+				
+				@Override
+				public Object load() throws IOException, InterruptedException{
+					
+					return call(method, clazz, remoteParams);
+				}
+			});
+		}
+		
+		/**
+		 * Calls the remote procedure with varargs parameters, failing with a 
+		 * {@link com.worizon.net.DeadlineExceededException} once the deadline has passed. The deadline applies if it 
+		 * is earlier than the call timeout of the builder, the call is never batched.
+		 * @param method The remote procedure name.
+		 * @param clazz The return type class type.
+		 * @param deadline The deadline of the call, it can be shared by several calls.
+		 * @param params The remote parameters supplied to the remote procedure.
+		 * @return T An object of the remote procedure return type.
+		 */
+		public <T> T call( String method, Class<T> clazz, Deadline deadline, Object... params ) throws IOException, InterruptedException{
+			
+			return callAs(method, clazz, transformParametersArrayIntoCollection(params), deadline);
+		}
+		
 		/**
 		 * Makes parent's call method public through the Sync api.
 		 * @see com.worizon.jsonrpc.RpcImpl#call(java.lang.String, java.lang.Class)
@@ -127,6 +316,17 @@ public class Rpc {
 						
 			call(method, Void.class, transformParametersArrayIntoCollection(params) );
 		}
+		
+		/**
+		 * Sends a notification, a call without response. The notification is queued and sent in the background
+		 * if the notification queue is enabled, see {@link #enableNotificationQueue(int, int, long, NotificationQueue.Overflow)}.
+		 * @param method The remote procedure name to be invoked.
+		 * @param params The arguments to get into the remote procedure serialized as an ordered list.
+		 */
+		public void notification( String method, Object... params ) throws IOException, InterruptedException{
+			
+			sendNotification(method, transformParametersArrayIntoCollection(params));
+		}
 			
 		
 		/**
@@ -149,13 +349,7 @@ public class Rpc {
 		 */
 		public int[] callIntegerArray( String method, Object...params ) throws IOException, InterruptedException{
 			
-			Integer result[] = call(method, Integer[].class, transformParametersArrayIntoCollection(params) );			
-			
-			int resultPrimitive[] = new int[result.length];
-			for(int i = 0; i < result.length; i++)
-				resultPrimitive[i] = result[i].intValue();
-			
-			return resultPrimitive;
+			return call(method, int[].class, transformParametersArrayIntoCollection(params) );
 		}
 				
 		
@@ -178,13 +372,7 @@ public class Rpc {
 		 */
 		public double[] callDoubleArray(String method, Object...params ) throws IOException, InterruptedException{
 			
-			Double result[] = call(method, Double[].class, transformParametersArrayIntoCollection(params) );			
-			
-			double resultPrimitive[] = new double[result.length];
-			for(int i=0; i < result.length; i++)
-				resultPrimitive[i] = result[i].doubleValue();
-			
-			return resultPrimitive;
+			return call(method, double[].class, transformParametersArrayIntoCollection(params) );
 		}	
 		
 		/**
@@ -206,13 +394,7 @@ public class Rpc {
 		 */
 		public float[] callFloatArray(String method, Object...params ) throws IOException, InterruptedException{
 			
-			Float result[] = call(method, Float[].class, transformParametersArrayIntoCollection(params) );			
-			
-			float resultPrimitive[] = new float[result.length];
-			for(int i=0; i < result.length; i++)
-				resultPrimitive[i] = result[i].floatValue();
-			
-			return resultPrimitive;
+			return call(method, float[].class, transformParametersArrayIntoCollection(params) );
 		}
 				
 		/**
@@ -285,13 +467,7 @@ public class Rpc {
 		 */
 		public short[] callShortArray( String method, Object... params ) throws IOException, InterruptedException{
 			
-			Short[] result = call(method, Short[].class, transformParametersArrayIntoCollection(params) );			
-			
-			short resultPrimitive[] = new short[result.length];
-			for(int i=0; i < result.length; i++)
-				resultPrimitive[i] = result[i].shortValue();
-			
-			return resultPrimitive;
+			return call(method, short[].class, transformParametersArrayIntoCollection(params) );
 		}
 				
 		/**
@@ -313,13 +489,7 @@ public class Rpc {
 		 */
 		public long[] callLongArray( String method, Object... params ) throws IOException, InterruptedException{
 			
-			Long[] result = call(method, Long[].class, transformParametersArrayIntoCollection(params) );			
-			
-			long resultPrimitive[] = new long[result.length];
-			for(int i=0; i < result.length; i++)
-				resultPrimitive[i] = result[i].longValue();
-			
-			return resultPrimitive;
+			return call(method, long[].class, transformParametersArrayIntoCollection(params) );
 		}
 		
 		
@@ -359,6 +529,8 @@ public class Rpc {
 	 */
 	public static class Proxy extends RpcImpl{
 		
+		private final ConcurrentHashMap<Method, CallDescriptor> descriptors = new ConcurrentHashMap<Method, CallDescriptor>();
+		
 		public Proxy( String endpoint ) throws MalformedURLException{
 			
 			super(endpoint);
@@ -369,6 +541,22 @@ public class Rpc {
 			super(builder);
 		}
 		
+		/**
+		 * Gets the invocation metadata of the method, read from its annotations on the first call.
+		 */
+		private CallDescriptor descriptor( Method method ){
+			
+			CallDescriptor descriptor = descriptors.get(method);
+			if( descriptor == null ){
+				
+				descriptor = new CallDescriptor(method);
+				CallDescriptor previous = descriptors.putIfAbsent(method, descriptor);
+				if( previous != null )
+					descriptor = previous;
+			}
+			return descriptor;
+		}
+		
 		@SuppressWarnings("unchecked")
 		public <T> T createProxy( Class<T> clazz ){
 							
@@ -385,6 +573,20 @@ public class Rpc {
 				}
 			}
 			
+			for( Method method: clazz.getMethods() ){
+				
+				if( method.isAnnotationPresent(Idempotent.class) )
+					addIdempotentMethods(descriptor(method).getRemoteName());
+				if( method.isAnnotationPresent(Timeout.class) )
+					setMethodTimeout(descriptor(method).getRemoteName(), method.getAnnotation(Timeout.class).value());
+			}
+			
+			T stub = createStub(clazz);
+			if( stub != null )
+				return stub;
+			
+			for( Method method: clazz.getMethods() )
+				descriptor(method);
 			return (T)java.lang.reflect.Proxy.newProxyInstance(	
 					clazz.getClassLoader(), 
 					new Class[]{clazz},
@@ -393,102 +595,490 @@ public class Rpc {
 						@Override
 						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 							
-							Object params = null;
-							if( !method.isAnnotationPresent(RemoteParams.class)  ){
-								
-								params = (args != null)?Arrays.asList(args):null;							
-							}else{
+							CallDescriptor descriptor = descriptor(method);
+							if( descriptor.isNotification() ){
 								
-								String remoteParamNames[] = method.getAnnotation(RemoteParams.class).value();
-								if(remoteParamNames.length != args.length)
-									throw new IllegalArgumentException("Method params number does not match annotated remote params number");
-								
-								if( remoteParamNames.length == 1 && remoteParamNames[0].equals("params") && 
-										(args[0] instanceof Map<?,?> || args[0] instanceof List<?> ) ){
-										
-									params = args[0];														
-								}else{
-									params = new LinkedHashMap<String, Object>();
-									for(int i=0; i< args.length; i++){
-										((Map<String, Object>)params).put(remoteParamNames[i], args[i]);
-									}
-								}
+								sendNotification(descriptor.getRemoteName(), descriptor.encode(args));
+								return null;
 							}
-																			
-							RemoteProcName annotation = method.getAnnotation(RemoteProcName.class);
-							String remoteProcName = (annotation != null)?annotation.value():method.getName();
-							CallHandler handler = createNewCallHandler();
-							return call( handler, remoteProcName, method.getReturnType(), params );
+							return Proxy.this.invoke( descriptor.getRemoteName(), descriptor.getResultType(), descriptor.encode(args), 
+														descriptor.getCachePolicy() );
 						}
 			});
 			
-		}			
+		}
+		
+		/**
+		 * Creates the generated stub of the interface, see {@link RemoteStub}.
+		 * @return The stub or null if the interface has no stub.
+		 */
+		private <T> T createStub( Class<T> clazz ){
+			
+			try{
+				Class<?> stubClass = Class.forName(RemoteStub.stubName(clazz), true, clazz.getClassLoader());
+				if( !clazz.isAssignableFrom(stubClass) || !RemoteStub.class.isAssignableFrom(stubClass) )
+					return null;
+				return clazz.cast(stubClass.getConstructor(Proxy.class).newInstance(this));
+			}catch(ClassNotFoundException cnfe){
+				return null;
+			}catch(NoSuchMethodException nsme){
+				return null;
+			}catch(InstantiationException ie){
+				return null;
+			}catch(IllegalAccessException iae){
+				return null;
+			}catch(InvocationTargetException ite){
+				return null;
+			}
+		}
+		
+		/**
+		 * Calls a remote procedure of a proxy or stub.
+		 * @param policy Caching rules of the result, null if it is not cached.
+		 */
+		Object invoke( final String method, final Type type, final Object params, CachePolicy policy ) throws IOException, InterruptedException{
+			
+			return cached(method, type, params, policy, new ResultCache.ILoader(){
+				
+				@Override
+				public Object load() throws IOException, InterruptedException{
+					
+					CallHandler handler = createNewCallHandler();
+					return call( handler, method, type, params );
+				}
+			});
+		}
 	}
 	
 	/**
-	 * Asynchronous interface to call remote procedures.
+	 * Asynchronous interface to call remote procedures. Calls return a {@link RpcFuture} right away, the result is 
+	 * read from the future or delivered to its callbacks, ex:
+	 * 
+	 * <pre>
+	 * Rpc.Async rpc = new Rpc.Async("http://myserver.mydomain.com:4444/rpc");
+	 * RpcFuture&lt;Integer&gt; sum = rpc.call("sum", Integer.class, 4, 5);
+	 * int result = sum.get();
+	 * </pre>
+	 * 
+	 * When the transport implements {@link IAsyncTransport}, ex: {@link com.worizon.net.NioTransport}, no thread is 
+	 * held while a call is in flight. Otherwise calls are performed by a bounded executor: by default 
+	 * {@link Const.Async#DEFAULT_THREADS} daemon threads and a queue of {@link Const.Async#DEFAULT_QUEUE_SIZE} calls, 
+	 * calls beyond the queue are rejected with a RejectedExecutionException. 
+	 * <p>
+	 * Results and failures are also published to the listener objects registered with {@link #register(Object)}.
 	 */
 	public static class Async extends RpcImpl{
 		
+		private static final AtomicInteger threadCount = new AtomicInteger();
+		private final ExecutorService executor;
+		private final boolean ownExecutor;
+		private final ResultBus bus = new ResultBus();
+		
 		public Async( String endpoint ) throws MalformedURLException{
 			
 			super(endpoint);
+			this.executor = newExecutor(Const.Async.DEFAULT_THREADS, Const.Async.DEFAULT_QUEUE_SIZE, new ThreadPoolExecutor.AbortPolicy());
+			this.ownExecutor = true;
 		}
 		
 		public Async( HttpRequestBuilder builder ){
 			
 			super(builder);
+			this.executor = newExecutor(Const.Async.DEFAULT_THREADS, Const.Async.DEFAULT_QUEUE_SIZE, new ThreadPoolExecutor.AbortPolicy());
+			this.ownExecutor = true;
+		}
+		
+		/**
+		 * Creates an Async object whose calls are performed by the executor, the executor is not shut down by 
+		 * {@link #shutdown()}.
+		 * @param builder Builder object to create http requests at will.
+		 * @param executor Executor performing the blocking calls, see {@link #newExecutor(int, int, RejectedExecutionHandler)}.
+		 */
+		public Async( HttpRequestBuilder builder, ExecutorService executor ){
+			
+			super(builder);
+			this.executor = executor;
+			this.ownExecutor = false;
+		}
+		
+		/**
+		 * Creates a bounded executor of daemon threads to perform calls.
+		 * @param threads Max number of calls performed at the same time.
+		 * @param queueSize Max number of calls waiting for a thread.
+		 * @param policy What to do with a call when the queue is full, ex: ThreadPoolExecutor.AbortPolicy or
+		 * ThreadPoolExecutor.CallerRunsPolicy.
+		 * @return The executor.
+		 */
+		public static ThreadPoolExecutor newExecutor( int threads, int queueSize, RejectedExecutionHandler policy ){
+			
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+					new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory(){
+				
+				@Override
+				public Thread newThread( Runnable r ){
+					
+					Thread t = new Thread(r, "worizon-async-" + threadCount.getAndIncrement());
+					t.setDaemon(true);
+					return t;
+				}
+			}, policy);
+			executor.allowCoreThreadTimeOut(true);
+			return executor;
+		}
+		
+		/**
+		 * Shuts down the executor created by this object, calls already queued are still performed.
+		 */
+		public void shutdown(){
+			
+			if( ownExecutor )
+				executor.shutdown();
 		}
 		
+		/**
+		 * Registers an object whose methods annotated with {@link com.worizon.jsonrpc.annotations.OnResult} and
+		 * {@link com.worizon.jsonrpc.annotations.OnFailure} receive the outcome of the calls made through this object.
+		 * The methods run on the thread that completes the call.
+		 * @param registree The listener object.
+		 */
 		public void register( Object registree ){
 			
+			bus.register(registree);
 		}
 		
+		/**
+		 * Unregisters a listener object.
+		 * @param registree The listener object.
+		 */
 		public void unRegister( Object registree ){
 			
+			bus.unRegister(registree);
 		}				
 		
-		public <T> CallHandler call(final String method, final Class<T> clazz, final Object... params)  throws IOException, InterruptedException{
+		/**
+		 * Calls the remote procedure and returns without waiting for the response.
+		 * @param method The remote method name.
+		 * @param clazz The remote method's return type class type.
+		 * @param params remote parameters supplied to the remote procedure.
+		 * @return The future result of the call.
+		 * @throws RejectedExecutionException when the executor does not accept more calls.
+		 */
+		public <T> RpcFuture<T> call( String method, Class<T> clazz, Object... params ) throws IOException{
+			
+			return submit(method, clazz, null, params);
+		}
+		
+		/**
+		 * Calls the remote procedure and returns without waiting for the response, the outcome is also delivered
+		 * to the callback. With an {@link IAsyncTransport} the callback runs on an I/O thread, otherwise on the
+		 * executor thread that performed the call.
+		 * @param method The remote method name.
+		 * @param clazz The remote method's return type class type.
+		 * @param callback Callback notified with the result or the failure of the call.
+		 * @param params remote parameters supplied to the remote procedure.
+		 * @return The future result of the call.
+		 * @throws RejectedExecutionException when the executor does not accept more calls.
+		 */
+		public <T> RpcFuture<T> call( String method, Class<T> clazz, ICallback<? super T> callback, Object... params ) throws IOException{
+			
+			return submit(method, clazz, callback, params);
+		}
+		
+		private <T> RpcFuture<T> submit( final String method, final Class<T> clazz, ICallback<? super T> callback, final Object... params ) throws IOException{
 			
 			final CallHandler handler = createNewCallHandler();
-			Thread t = new Thread(new Runnable(){
+			handler.setThread(null);
+			final RpcFuture<T> future = new RpcFuture<T>(handler);
+			if( callback != null )
+				future.addCallback(callback);
+			future.addCallback(new ICallback<T>(){
 				
 				@Override
-				public void run(){
-					try{
-						T returnValue = call(handler, method, clazz, transformParametersArrayIntoCollection(params) );
-						//TODO: broadcast returnValue through the bus.
-					}catch(InterruptedException ie){
-						//TODO: broadcast interrupted exception through the bus.
-					}catch(IOException ioe){
-						//TODO: broadcast io exception through the bus.
-					}catch(Exception ex){
-						//TODO: broadcast other exceptions through the bus.
+				public void onSuccess( T result ){
+					
+					bus.publishResult(method, result);
+				}
+				
+				@Override
+				public void onFailure( Throwable cause ){
+					
+					bus.publishFailure(method, cause);
+				}
+			});
+			
+			if( handler.supportsAsync() ){
+				
+				callAsync(handler, method, clazz, transformParametersArrayIntoCollection(params), new ICallback<T>(){
+					
+					@Override
+					public void onSuccess( T result ){
+						
+						future.complete(result);
 					}
+					
+					@Override
+					public void onFailure( Throwable cause ){
+						
+						future.fail(cause);
+					}
+				});
+				return future;
+			}
+			
+			final HashedWheelTimer.ITimeout expiry = handler.expireOnDeadline(new Runnable(){
+				
+				@Override
+				public void run(){
+					
+					future.fail(new DeadlineExceededException());//also when the call is still queued
 				}
 			});
-			t.start();			
-			return handler;
+			if( expiry != null ){
+				
+				future.addCallback(new ICallback<T>(){
+					
+					@Override
+					public void onSuccess( T result ){
+						
+						expiry.cancel();
+					}
+					
+					@Override
+					public void onFailure( Throwable cause ){
+						
+						expiry.cancel();
+					}
+				});
+			}
+			try{
+				executor.execute(new Runnable(){
+					
+					@Override
+					public void run(){
+						
+						if( future.isDone() )
+							return;//cancelled while queued
+						handler.setThread(Thread.currentThread());
+						try{
+							future.complete( call(handler, method, clazz, transformParametersArrayIntoCollection(params)) );
+						}catch(Exception ex){
+							handler.setState(HttpRequest.State.FAILED);
+							future.fail(ex);
+						}finally{
+							handler.setThread(null);
+							Thread.interrupted();//clears a stop arriving after the call
+						}
+					}
+				});
+			}catch(RejectedExecutionException ree){
+				if( expiry != null )
+					expiry.cancel();
+				throw ree;
+			}
+			return future;
 		}
 		
-		public void callVoid( String method, Object... params )  throws IOException, InterruptedException{
+		public RpcFuture<Void> callVoid( String method, Object... params ) throws IOException{
 			
-			call(method, Void.class, params);
+			return call(method, Void.class, params);
 		}
 		
-		public void callInteger( String method, Object... params )  throws IOException, InterruptedException{
+		public RpcFuture<Integer> callInteger( String method, Object... params ) throws IOException{
 			
-			call(method, Integer.class, params);
+			return call(method, Integer.class, params);
 		}
 		
-		public void callIntegerArray( String method, Object... params )  throws IOException, InterruptedException{
+		public RpcFuture<Integer[]> callIntegerArray( String method, Object... params ) throws IOException{
 			
-			call(method, Integer[].class, params);
+			return call(method, Integer[].class, params);
 		}
 		
 		
 	}
 	
+	/**
+	 * Batch interface to call remote procedures. Calls and notifications are queued and sent together as a JSON-RPC 
+	 * batch, in one HTTP round trip, when {@link #send()} is invoked. The responses are matched back to the calls by id, 
+	 * in any order, and each {@link Call} gets its own result or the exception the Sync api would have thrown, ex:
+	 * 
+	 * <pre>
+	 * Rpc.Batch batch = new Rpc.Batch("http://myserver.mydomain.com:4444/rpc");
+	 * Rpc.Batch.Call&lt;Integer&gt; sum = batch.call("sum", Integer.class, 4, 5);
+	 * Rpc.Batch.Call&lt;String&gt; name = batch.call("get_name", String.class, 17);
+	 * batch.notification("log", "sending batch");
+	 * batch.send();
+	 * int result = sum.get();
+	 * </pre>
+	 * 
+	 * A Batch object is meant to be filled and sent by the same thread. Once sent the batch is empty and can be filled again.
+	 */
+	public static class Batch extends RpcImpl{
+		
+		private final List<JsonRpcRequest> requests = new ArrayList<JsonRpcRequest>();
+		private final Map<Long, Call<?>> calls = new LinkedHashMap<Long, Call<?>>();
+		private volatile CallHandler handler = null;
+		
+		public Batch( String endpoint ) throws MalformedURLException{
+			
+			super(endpoint);
+		}
+		
+		public Batch( HttpRequestBuilder builder ){
+			
+			super(builder);
+		}
+		
+		/**
+		 * Queues a call to a remote procedure.
+		 * @param method The remote procedure name.
+		 * @param clazz The return type class type.
+		 * @param params The remote parameters supplied to the remote procedure.
+		 * @return The call, its result is available once the batch is sent.
+		 */
+		public <T> Call<T> call( String method, Class<T> clazz, Object... params ){
+			
+			JsonRpcRequest req = new JsonRpcRequest(method, transformParametersArrayIntoCollection(params));
+			Call<T> call = new Call<T>(clazz);
+			requests.add(req);
+			calls.put(req.getId(), call);
+			return call;
+		}
+		
+		/**
+		 * Queues a notification, a call without response.
+		 * @param method The remote procedure name.
+		 * @param params The remote parameters supplied to the remote procedure.
+		 */
+		public void notification( String method, Object... params ){
+			
+			requests.add(JsonRpcRequest.notification(method, transformParametersArrayIntoCollection(params)));
+		}
+		
+		/**
+		 * Gets the number of queued calls and notifications.
+		 */
+		public int size(){
+			
+			return requests.size();
+		}
+		
+		/**
+		 * Sends the queued calls and notifications as one batch request and waits for the responses. Calls the 
+		 * server did not answer fail with the error of the batch, if any, or with a JsonRpcException.
+		 * If the request itself fails the calls are left not done.
+		 */
+		public void send() throws IOException, InterruptedException{
+			
+			if( requests.isEmpty() )
+				return;
+			
+			List<JsonRpcRequest> batch = new ArrayList<JsonRpcRequest>(requests);
+			Map<Long, Class<?>> types = new HashMap<Long, Class<?>>();
+			for( Map.Entry<Long, Call<?>> entry: calls.entrySet() )
+				types.put(entry.getKey(), entry.getValue().clazz);
+			
+			Map<Long, Call<?>> sent = new LinkedHashMap<Long, Call<?>>(calls);
+			requests.clear();
+			calls.clear();
+			
+			CallHandler handler = createNewCallHandler();
+			this.handler = handler;
+			JsonRpcBatchResponse response;
+			try{
+				response = handler.performBatch(batch, types);//blocking call
+			}finally{
+				this.handler = null;
+			}
+			
+			for( Map.Entry<Long, Call<?>> entry: sent.entrySet() ){
+				
+				Call<?> call = entry.getValue();
+				JsonRpcResponse<?> res = response.getResponse(entry.getKey());
+				if( res == null ){
+					if( response.getError() != null )
+						call.fail(mapError(response.getError()));
+					else
+						call.fail(new JsonRpcException("No response for request id " + entry.getKey()));
+				}else if( res.getError() != null )
+					call.fail(mapError(res.getError()));
+				else
+					call.complete(res.getResult());
+			}
+			handler.setState(HttpRequest.State.COMPLETE);
+		}
+		
+		/**
+		 * Stops the batch being sent, if any.
+		 */
+		public void stop(){
+			
+			CallHandler handler = this.handler;
+			if( handler != null )
+				handler.stop();
+		}
+		
+		/**
+		 * Call of a batch.
+		 */
+		public static class Call<T>{
+			
+			private final Class<T> clazz;
+			private boolean done = false;
+			private T result = null;
+			private RuntimeException failure = null;
+			
+			Call( Class<T> clazz ){
+				
+				this.clazz = clazz;
+			}
+			
+			@SuppressWarnings("unchecked")
+			void complete( Object result ){
+				
+				this.result = (T)result;
+				this.done = true;
+			}
+			
+			void fail( RuntimeException failure ){
+				
+				this.failure = failure;
+				this.done = true;
+			}
+			
+			/**
+			 * Checks if the response to this call has been received.
+			 */
+			public boolean isDone(){
+				
+				return done;
+			}
+			
+			/**
+			 * Gets the result of this call or throws its error, mapped as in the Sync api: a registered local 
+			 * exception, RemoteException or JsonRpcException.
+			 * @return The result of the remote procedure.
+			 * @throws IllegalStateException if the batch has not been sent.
+			 */
+			public T get(){
+				
+				if( !done )
+					throw new IllegalStateException("Batch not sent");
+				if( failure != null )
+					throw failure;
+				return result;
+			}
+			
+			/**
+			 * Gets the exception of a failed call.
+			 * @return The exception or null if the call succeeded or is not done.
+			 */
+			public RuntimeException getFailure(){
+				
+				return failure;
+			}
+		}
+	}
+	
 	/**
 	 * Return the parameters bundled in a apropiate container, List or HashMap depending on how these
 	 * were passed in.
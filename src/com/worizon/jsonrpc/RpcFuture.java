@@ -0,0 +1,232 @@
+package com.worizon.jsonrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pending result of an asynchronous remote procedure call. Besides the blocking {@link Future} methods,
+ * callbacks can be added to be notified when the call completes, ex:
+ *
+ * <pre>
+ * RpcFuture&lt;Integer&gt; sum = rpc.call("sum", Integer.class, 4, 5);
+ * sum.addCallback(new ICallback&lt;Integer&gt;(){ ... }, uiExecutor);
+ * ...
+ * int result = sum.get();
+ * </pre>
+ *
+ * A failed call throws from {@link #get()} an ExecutionException whose cause is the exception the Sync api would
+ * have thrown: a mapped local exception, RemoteException, JsonRpcException, an IOException... Cancelling the future
+ * stops the call.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class RpcFuture<T> implements Future<T> {
+
+	private final CallHandler handler;
+	private boolean done = false;
+	private boolean cancelled = false;
+	private T result = null;
+	private Throwable failure = null;
+	private List<Listener<T>> listeners = new ArrayList<Listener<T>>();
+	private final CountDownLatch completion = new CountDownLatch(1);//waits do not pin virtual threads
+
+	RpcFuture( CallHandler handler ){
+
+		this.handler = handler;
+	}
+
+	/**
+	 * Gets the handler of the call, to query its state and elapsed time.
+	 */
+	public CallHandler getCallHandler(){
+
+		return handler;
+	}
+
+	/**
+	 * Adds a callback invoked by the thread that completes the call, or by the calling thread if the call
+	 * is already done. The callback must not block.
+	 * @param callback The callback notified with the outcome of the call.
+	 */
+	public void addCallback( ICallback<? super T> callback ){
+
+		addCallback(callback, null);
+	}
+
+	/**
+	 * Adds a callback invoked through the executor when the call completes.
+	 * @param callback The callback notified with the outcome of the call.
+	 * @param executor The executor running the callback, null to run it on the thread that completes the call.
+	 */
+	public void addCallback( ICallback<? super T> callback, Executor executor ){
+
+		Listener<T> listener = new Listener<T>(callback, executor);
+		synchronized( this ){
+
+			if( !done ){
+				listeners.add(listener);
+				return;
+			}
+		}
+		fire(listener);
+	}
+
+	/**
+	 * Completes the call with a result, ignored if it is already done.
+	 */
+	void complete( T result ){
+
+		List<Listener<T>> listeners;
+		synchronized( this ){
+
+			if( done )
+				return;
+			this.result = result;
+			listeners = finish();
+		}
+		for( Listener<T> listener: listeners )
+			fire(listener);
+	}
+
+	/**
+	 * Completes the call with a failure, ignored if it is already done.
+	 */
+	void fail( Throwable failure ){
+
+		List<Listener<T>> listeners;
+		synchronized( this ){
+
+			if( done )
+				return;
+			this.failure = failure;
+			listeners = finish();
+		}
+		for( Listener<T> listener: listeners )
+			fire(listener);
+	}
+
+	/**
+	 * Marks this future done, must be invoked holding the lock.
+	 * @return The listeners to be notified.
+	 */
+	private List<Listener<T>> finish(){
+
+		done = true;
+		completion.countDown();
+		List<Listener<T>> listeners = this.listeners;
+		this.listeners = null;
+		return listeners;
+	}
+
+	private void fire( final Listener<T> listener ){
+
+		final T result;
+		final Throwable failure;
+		synchronized( this ){
+
+			result = this.result;
+			failure = this.failure;
+		}
+
+		Runnable notification = new Runnable(){
+
+			@Override
+			public void run(){
+
+				if( failure != null )
+					listener.callback.onFailure(failure);
+				else
+					listener.callback.onSuccess(result);
+			}
+		};
+		if( listener.executor == null ){
+			notification.run();
+			return;
+		}
+		try{
+			listener.executor.execute(notification);
+		}catch(RejectedExecutionException ree){
+			notification.run();
+		}
+	}
+
+	/**
+	 * Cancels the call, the call is stopped and its callbacks receive a CancellationException.
+	 * @param mayInterruptIfRunning Ignored, a running call is always stopped.
+	 */
+	@Override
+	public boolean cancel( boolean mayInterruptIfRunning ){
+
+		List<Listener<T>> listeners;
+		synchronized( this ){
+
+			if( done )
+				return false;
+			cancelled = true;
+			failure = new CancellationException("Call cancelled");
+			listeners = finish();
+		}
+		for( Listener<T> listener: listeners )
+			fire(listener);
+		handler.stop();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled(){
+
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone(){
+
+		return done;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException{
+
+		completion.await();
+		return report();
+	}
+
+	@Override
+	public T get( long timeout, TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException{
+
+		if( !completion.await(timeout, unit) )
+			throw new TimeoutException();
+		return report();
+	}
+
+	private synchronized T report() throws ExecutionException{
+
+		if( cancelled )
+			throw (CancellationException)failure;
+		if( failure != null )
+			throw new ExecutionException(failure);
+		return result;
+	}
+
+	private static class Listener<T>{
+
+		private final ICallback<? super T> callback;
+		private final Executor executor;
+
+		Listener( ICallback<? super T> callback, Executor executor ){
+
+			this.callback = callback;
+			this.executor = executor;
+		}
+	}
+
+}
@@ -2,10 +2,17 @@ package com.worizon.jsonrpc;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Type;
 import java.net.MalformedURLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.worizon.net.Deadline;
+import com.worizon.net.DeadlineExceededException;
+import com.worizon.net.HashedWheelTimer;
 import com.worizon.net.HttpRequest;
 import com.worizon.net.HttpRequestBuilder;
 
@@ -139,6 +146,46 @@ public abstract class RpcImpl{
 	 * Map that maps from int to Throwable.
 	 */
 	protected Map<Integer, Class<? extends RuntimeException>> exceptions = new HashMap<Integer, Class<? extends RuntimeException>>();
+	
+	/**
+	 * Codec encoding the requests and decoding the responses.
+	 */
+	protected volatile IJsonCodec codec = JsonCodec.getDefault();
+	
+	/**
+	 * Cache of the results of cacheable calls, null if results are not cached.
+	 */
+	protected volatile ResultCache cache = null;
+	
+	/**
+	 * Identical calls in flight, null if calls are not coalesced.
+	 */
+	private volatile SingleFlight flights = null;
+	
+	/**
+	 * Queue of the notifications sent in the background, null if notifications are sent straight away.
+	 */
+	protected volatile NotificationQueue notifications = null;
+	
+	/**
+	 * Rules to hedge the calls to idempotent methods, null if calls are not hedged.
+	 */
+	private volatile HedgePolicy hedging = null;
+	
+	/**
+	 * Remote names of the methods safe to be performed more than once.
+	 */
+	private final Set<String> idempotent = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/**
+	 * Max milliseconds of the calls by remote method name.
+	 */
+	private final Map<String, Long> timeouts = new ConcurrentHashMap<String, Long>();
+	
+	/**
+	 * Adaptive limit of the calls in flight, null if calls are not limited.
+	 */
+	private volatile ConcurrencyLimiter limiter = null;
 		
 	/**
 	 * Instantiates a new facade Rpc object.
@@ -165,7 +212,7 @@ public abstract class RpcImpl{
 	 */
 	protected CallHandler createNewCallHandler() throws MalformedURLException{
 				
-		return new CallHandler( builder.build() );		
+		return new CallHandler( builder.build(), codec );		
 	}
 						
 	/**
@@ -182,35 +229,205 @@ public abstract class RpcImpl{
 		//handler.setHttpRequest(http);
 		//String respStr = handler.perform( req.toString() );//blocking call				
 		//JsonRpcResponse<T> res =  new JsonRpcResponse<T>( respStr, clazz );		
+		return call( handler, method, (Type)clazz, params );
+	}
+	
+	/**
+	 * Calls the remote procedure and reads the result as the type, ex: a generic type or a {@link ResultSink}.
+	 * @param method The remote method name.
+	 * @param type The remote method's return type.
+	 * @param params remote parameters supplied to the remote procedure.
+	 * @return returned object from the remote procedure.
+	 */
+	protected <T> T call( final CallHandler handler, final String method, final Type type, final Object params ) throws IOException, InterruptedException {
+		
+		Long timeout = timeouts.get(method);
+		if( timeout != null )
+			handler.setTimeout(timeout);
+		SingleFlight flights = this.flights;
+		if( flights == null || type instanceof ResultSink )
+			return perform( handler, method, type, params );
+		
+		try{
+			@SuppressWarnings("unchecked")
+			T result = (T)flights.execute(ResultCache.key(method, type, params, codec), new ResultCache.ILoader(){
+				
+				@Override
+				public Object load() throws IOException, InterruptedException{
+					
+					return perform( handler, method, type, params );
+				}
+			}, handler.getDeadline());
+			if( handler.getState() == HttpRequest.State.RUNNING )
+				handler.setState(HttpRequest.State.COMPLETE);//the result of another caller's request
+			return result;
+		}catch(IOException ioe){
+			if( handler.getState() == HttpRequest.State.RUNNING )
+				handler.setState(HttpRequest.State.FAILED);//ex: the deadline passed waiting for another caller's request
+			throw ioe;
+		}catch(RuntimeException re){
+			if( handler.getState() == HttpRequest.State.RUNNING )
+				handler.setState(HttpRequest.State.FAILED);
+			throw re;
+		}
+	}
+	
+	/**
+	 * Performs the request of the call, hedged if the method is idempotent and there is a hedge policy. The call 
+	 * waits for a permit of the concurrency limiter if there is one.
+	 */
+	private <T> T perform( CallHandler handler, String method, Type type, Object params ) throws IOException, InterruptedException{
+		
 		JsonRpcRequest req = new JsonRpcRequest(method, params);
-		JsonRpcResponse<T> res = handler.perform( req, clazz );//blocking call
+		boolean idempotent = this.idempotent.contains(method);
+		handler.setIdempotent(idempotent);
+		HedgePolicy hedging = this.hedging;
+		Deadline deadline = handler.getDeadline();
+		if( deadline != null && deadline.isExpired() )
+			throw new DeadlineExceededException();
+		ConcurrencyLimiter limiter = this.limiter;
+		if( limiter != null )
+			limiter.acquire(deadline);
+		long started = handler.getElapsedNanos();
+		JsonRpcResponse<T> res = null;
+		IOException failure = null;
+		try{
+			if( hedging != null && idempotent && !(type instanceof ResultSink) )
+				res = new HedgedCall<T>(this, hedging, req, type).perform(handler);
+			else
+				res = handler.perform( req, type );//blocking call
+		}catch(IOException ioe){
+			failure = ioe;
+			throw ioe;
+		}finally{
+			if( limiter != null )
+				limiter.release(handler.getElapsedNanos() - started, res != null, failure);
+		}
+		return unwrap( handler, res );
+	}
+	
+	/**
+	 * Performs the call through the loader or shares the identical call in flight if single-flight is enabled.
+	 */
+	Object coalesced( String method, Type type, Object params, ResultCache.ILoader loader ) throws IOException, InterruptedException{
+		
+		SingleFlight flights = this.flights;
+		if( flights == null || type instanceof ResultSink )
+			return loader.load();
+		return flights.execute(ResultCache.key(method, type, params, codec), loader, null);
+	}
+	
+	/**
+	 * Calls the remote procedure without blocking the calling thread, the transport must support asynchronous requests.
+	 * The result, or the exception the blocking call would have thrown, is delivered to the callback from an I/O thread.
+	 * @param method The remote method name.
+	 * @param clazz The remote method's return type class type.
+	 * @param params remote parameters supplied to the remote procedure.
+	 * @param callback Callback notified with the outcome of the call.
+	 */
+	protected <T> void callAsync( final CallHandler handler, String method, Class<T> clazz, Object params, final ICallback<T> callback ) throws IOException {
+		
+		JsonRpcRequest req = new JsonRpcRequest(method, params);
+		handler.setIdempotent(idempotent.contains(method));
+		Long timeout = timeouts.get(method);
+		if( timeout != null )
+			handler.setTimeout(timeout);
+		final ConcurrencyLimiter limiter = this.limiter;
+		if( limiter != null )
+			limiter.tryAcquire();
+		final long started = handler.getElapsedNanos();
+		final HashedWheelTimer.ITimeout expiry = handler.expireOnDeadline(null);
+		ICallback<JsonRpcResponse<T>> completion = new ICallback<JsonRpcResponse<T>>(){
+			
+			@Override
+			public void onSuccess( JsonRpcResponse<T> res ){
+				
+				if( expiry != null )
+					expiry.cancel();
+				if( limiter != null )
+					limiter.release(handler.getElapsedNanos() - started, true, null);
+				T result;
+				try{
+					result = unwrap( handler, res );
+				}catch(RuntimeException re){
+					callback.onFailure(re);
+					return;
+				}
+				callback.onSuccess(result);
+			}
+			
+			@Override
+			public void onFailure( Throwable cause ){
 				
+				if( expiry != null )
+					expiry.cancel();
+				if( limiter != null )
+					limiter.release(handler.getElapsedNanos() - started, false, (cause instanceof IOException)?(IOException)cause:null);
+				handler.setState( HttpRequest.State.FAILED );
+				callback.onFailure(cause);
+			}
+		};
+		try{
+			handler.performAsync( req, clazz, completion );
+		}catch(IOException ioe){
+			if( expiry != null )
+				expiry.cancel();
+			if( limiter != null )
+				limiter.release(handler.getElapsedNanos() - started, false, ioe);
+			throw ioe;
+		}catch(RuntimeException re){
+			if( expiry != null )
+				expiry.cancel();
+			if( limiter != null )
+				limiter.release(handler.getElapsedNanos() - started, false, null);
+			throw re;
+		}
+	}
+	
+	/**
+	 * Gets the result of the response or throws the exception mapped to its error.
+	 * @param handler The handler of the call.
+	 * @param res The response of the remote procedure.
+	 * @return The result of the response.
+	 */
+	protected <T> T unwrap( CallHandler handler, JsonRpcResponse<T> res ){
 		
 		if(res.getError() != null){
 			handler.setState( HttpRequest.State.FAILED );
-			if(res.getError().isCustomError()){
-				Class<? extends RuntimeException> exceptionClass = exceptions.get(res.getError().getCode());
-				if( exceptionClass != null ){
-					try{					
-						throw exceptionClass.getConstructor(String.class)
-											.newInstance(res.getError().getMessage());							
-					}catch(NoSuchMethodException nsm){
-						throw new RemoteException( res.getError() );
-					}catch(InvocationTargetException ite){
-						throw new RemoteException( res.getError() );
-					}catch(IllegalAccessException iae){
-						throw new RemoteException( res.getError() );
-					}catch(InstantiationException ie){
-						throw new RemoteException( res.getError() );
-					}
-				}else
-					throw new RemoteException( res.getError() );
-			}else
-				throw new JsonRpcException( res.getError() );			
+			throw mapError( res.getError() );
 		}
 		handler.setState(HttpRequest.State.COMPLETE);
 		return res.getResult();	
 	}
+	
+	/**
+	 * Maps a JSON-RPC error into the exception the call must throw. Custom errors are mapped into the exception 
+	 * registered for its code, or RemoteException if none, and spec errors into JsonRpcException.
+	 * @param error The error of the response.
+	 * @return The exception to be thrown.
+	 */
+	protected RuntimeException mapError( JsonRpcError error ){
+		
+		if(error.isCustomError()){
+			Class<? extends RuntimeException> exceptionClass = exceptions.get(error.getCode());
+			if( exceptionClass != null ){
+				try{					
+					return exceptionClass.getConstructor(String.class)
+										.newInstance(error.getMessage());							
+				}catch(NoSuchMethodException nsm){
+					return new RemoteException( error );
+				}catch(InvocationTargetException ite){
+					return new RemoteException( error );
+				}catch(IllegalAccessException iae){
+					return new RemoteException( error );
+				}catch(InstantiationException ie){
+					return new RemoteException( error );
+				}
+			}else
+				return new RemoteException( error );
+		}else
+			return new JsonRpcException( error );			
+	}
 			
 		
 	/**
@@ -224,4 +441,195 @@ public abstract class RpcImpl{
 		exceptions.put(code, exception);
 	}					
 				
-}
+	/**
+	 * Sets the codec that encodes the requests and decodes the responses of this client, ex: a 
+	 * {@link JsonCodec} with custom type adapters. The codec is shared by all the calls.
+	 * @param codec The codec.
+	 */
+	public void setCodec( IJsonCodec codec ){
+		
+		this.codec = codec;
+	}
+	
+	/**
+	 * Gets the codec of this client, {@link JsonCodec#getDefault()} unless another one is set.
+	 */
+	public IJsonCodec getCodec(){
+		
+		return codec;
+	}
+	
+	/**
+	 * Sets the cache of the results of the calls with a {@link CachePolicy}, null to disable caching.
+	 * @param cache The cache, it can be shared by several clients.
+	 */
+	public void setResultCache( ResultCache cache ){
+		
+		this.cache = cache;
+	}
+	
+	public ResultCache getResultCache(){
+		
+		return cache;
+	}
+	
+	/**
+	 * Enables or disables single-flight: concurrent calls with the same method, result type and parameters share 
+	 * one request and all get its result or its error. A stopped caller leaves the call alone, the request is 
+	 * performed again for the others when the stopped caller was the one performing it. The shared results should 
+	 * not be modified. Calls reading into a caller buffer are never coalesced.
+	 * @param enabled true to coalesce identical calls.
+	 */
+	public void setSingleFlight( boolean enabled ){
+		
+		this.flights = enabled?new SingleFlight():null;
+	}
+	
+	public boolean isSingleFlight(){
+		
+		return flights != null;
+	}
+	
+	/**
+	 * Sets the rules to hedge the calls to idempotent methods, null to disable hedging. Calls reading into a caller 
+	 * buffer and batched calls are never hedged.
+	 * @param hedging The policy, it can be shared by several clients.
+	 */
+	public void setHedgePolicy( HedgePolicy hedging ){
+		
+		this.hedging = hedging;
+	}
+	
+	public HedgePolicy getHedgePolicy(){
+		
+		return hedging;
+	}
+	
+	/**
+	 * Marks remote methods as idempotent, safe to be performed more than once so their calls can be hedged and 
+	 * retried after reaching the server. Proxy methods are marked with {@link com.worizon.jsonrpc.annotations.Idempotent}.
+	 * @param methods The remote method names.
+	 */
+	public void addIdempotentMethods( String... methods ){
+		
+		Collections.addAll(idempotent, methods);
+	}
+	
+	boolean isIdempotent( String method ){
+		
+		return idempotent.contains(method);
+	}
+	
+	/**
+	 * Sets the max time of the calls to a remote method, from the moment the call begins until its result is 
+	 * decoded, queueing and retries included. The call fails with a {@link DeadlineExceededException} once the 
+	 * time has passed. Proxy methods are set with {@link com.worizon.jsonrpc.annotations.Timeout}.
+	 * @param method The remote method name.
+	 * @param timeoutMillis Max milliseconds of a call, 0 to remove the timeout of the method.
+	 */
+	public void setMethodTimeout( String method, long timeoutMillis ){
+		
+		if( timeoutMillis < 0 )
+			throw new IllegalArgumentException("Timeout can not be negative");
+		if( timeoutMillis == 0 )
+			timeouts.remove(method);
+		else
+			timeouts.put(method, timeoutMillis);
+	}
+	
+	boolean hasMethodTimeout( String method ){
+		
+		return timeouts.containsKey(method);
+	}
+	
+	/**
+	 * Sets the adaptive limit of the calls in flight, null to disable the limit. Calls over the limit wait in the 
+	 * queue of the limiter or fail with a {@link LimitExceededException}. A batch of calls takes one permit, 
+	 * notifications are not limited.
+	 * @param limiter The limiter, it should be shared only by clients of the same endpoint.
+	 */
+	public void setConcurrencyLimiter( ConcurrencyLimiter limiter ){
+		
+		this.limiter = limiter;
+	}
+	
+	public ConcurrencyLimiter getConcurrencyLimiter(){
+		
+		return limiter;
+	}
+	
+	/**
+	 * Queues the notifications of this client to be sent in the background as batches, see {@link NotificationQueue}.
+	 * A previous queue is closed once its notifications are sent.
+	 * @param capacity Max number of queued notifications.
+	 * @param maxBatchSize Max number of notifications per batch, a full batch is sent straight away.
+	 * @param maxDelayMillis Max time in milliseconds a notification waits in the queue for others to join its batch.
+	 * @param overflow What happens to a notification arriving to a full queue.
+	 * @return The queue.
+	 */
+	public NotificationQueue enableNotificationQueue( int capacity, int maxBatchSize, long maxDelayMillis, NotificationQueue.Overflow overflow ) throws InterruptedException{
+		
+		NotificationQueue previous = notifications;
+		notifications = new NotificationQueue(this, capacity, maxBatchSize, maxDelayMillis, overflow);
+		if( previous != null )
+			previous.close();
+		return notifications;
+	}
+	
+	/**
+	 * Sends the queued notifications and sends every later notification straight away.
+	 */
+	public void disableNotificationQueue() throws InterruptedException{
+		
+		NotificationQueue previous = notifications;
+		notifications = null;
+		if( previous != null )
+			previous.close();
+	}
+	
+	/**
+	 * Gets the queue of the notifications, null if notifications are sent straight away.
+	 */
+	public NotificationQueue getNotificationQueue(){
+		
+		return notifications;
+	}
+	
+	/**
+	 * Sends a notification, a request the server does not answer. The notification is queued if there is a 
+	 * notification queue, otherwise the calling thread blocks until the request is sent.
+	 * @param method The remote method name.
+	 * @param params remote parameters supplied to the remote procedure.
+	 */
+	void sendNotification( String method, Object params ) throws IOException, InterruptedException{
+		
+		String notification = JsonRpcRequest.notification(method, params).toJson(codec);
+		NotificationQueue queue = this.notifications;
+		if( queue != null ){
+			
+			queue.add(notification);
+			return;
+		}
+		CallHandler handler = createNewCallHandler();
+		try{
+			handler.performNotification(notification);
+			handler.setState(HttpRequest.State.COMPLETE);
+		}catch(IOException ioe){
+			handler.setState(HttpRequest.State.FAILED);
+			throw ioe;
+		}
+	}
+	
+	/**
+	 * Gets the result of the call from the cache or performs the call through the loader, before any request is built.
+	 * @param policy Caching rules of the call, null if the result is not cached.
+	 */
+	Object cached( String method, Type type, Object params, CachePolicy policy, ResultCache.ILoader loader ) throws IOException, InterruptedException{
+		
+		ResultCache cache = this.cache;
+		if( cache == null || policy == null )
+			return loader.load();
+		return cache.get(ResultCache.key(method, type, params, codec), policy, loader);
+	}
+				
+}
\ No newline at end of file
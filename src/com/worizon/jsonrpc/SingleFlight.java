@@ -0,0 +1,146 @@
+package com.worizon.jsonrpc;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.worizon.net.Deadline;
+import com.worizon.net.DeadlineExceededException;
+
+/**
+ * Coalesces concurrent identical calls: the first caller of a key performs the call and the callers arriving while
+ * it is in flight wait for its outcome, so they all get the same result or the same exception from one request.
+ * The table of calls in flight is split into stripes with a lock each.
+ *
+ * <p>
+ * Callers are stopped one by one: a waiting caller that is stopped leaves alone, and when the caller performing the
+ * call is stopped the callers still waiting perform it again, one of them on behalf of the others. A waiting caller
+ * with a deadline leaves alone when its deadline passes.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+class SingleFlight {
+
+	private static final int STRIPES = 16;
+
+	private final Stripe stripes[] = new Stripe[STRIPES];
+
+	SingleFlight(){
+
+		for( int i = 0; i < STRIPES; i++ )
+			stripes[i] = new Stripe();
+	}
+
+	private Map<String, Flight> stripe( String key ){
+
+		int h = key.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Performs the call through the loader or waits for the identical call in flight.
+	 * @param key Key of the call, see {@link ResultCache#key(String, java.lang.reflect.Type, Object, IJsonCodec)}.
+	 * @param deadline Deadline of the caller, null if it waits for the call in flight without limit.
+	 * @return The result of the call.
+	 * @throws DeadlineExceededException When the deadline passes while waiting for the call in flight.
+	 */
+	Object execute( String key, ResultCache.ILoader loader, Deadline deadline ) throws IOException, InterruptedException{
+
+		Map<String, Flight> stripe = stripe(key);
+		while( true ){
+
+			Flight flight;
+			boolean leader;
+			synchronized( stripe ){
+
+				flight = stripe.get(key);
+				leader = (flight == null);
+				if( leader ){
+
+					flight = new Flight();
+					stripe.put(key, flight);
+				}else
+					flight.waiters++;
+			}
+
+			if( leader ){
+
+				try{
+					flight.result = loader.load();
+				}catch(Throwable th){
+					flight.failure = th;
+				}finally{
+					synchronized( stripe ){
+
+						stripe.remove(key);
+						flight.abandoned = flight.failure instanceof InterruptedException && flight.waiters > 0;
+					}
+					flight.done.countDown();
+				}
+				return flight.get();
+			}
+
+			boolean done;
+			try{
+				if( deadline == null ){
+
+					flight.done.await();
+					done = true;
+				}else
+					done = flight.done.await(deadline.timeLeft(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+			}catch(InterruptedException ie){
+				leave(stripe, flight);
+				throw ie;
+			}
+			if( !done ){
+
+				leave(stripe, flight);
+				throw new DeadlineExceededException();
+			}
+			if( !flight.abandoned )
+				return flight.get();
+			//the caller performing the call was stopped, perform it again
+		}
+	}
+
+	private static void leave( Map<String, Flight> stripe, Flight flight ){
+
+		synchronized( stripe ){
+			flight.waiters--;
+		}
+	}
+
+	/**
+	 * Calls in flight of a stripe, guarded by its own lock.
+	 */
+	private static class Stripe extends HashMap<String, Flight>{
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class Flight{
+
+		private final CountDownLatch done = new CountDownLatch(1);
+		private int waiters = 0;
+		private boolean abandoned = false;
+		private Object result;
+		private Throwable failure;
+
+		Object get() throws IOException, InterruptedException{
+
+			if( failure == null )
+				return result;
+			if( failure instanceof IOException )
+				throw (IOException)failure;
+			if( failure instanceof InterruptedException )
+				throw (InterruptedException)failure;
+			if( failure instanceof RuntimeException )
+				throw (RuntimeException)failure;
+			throw (Error)failure;
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.worizon.jsonrpc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21 and later. The library is built for older runtimes, so virtual threads
+ * are looked up by reflection once and {@link #isSupported()} tells if they are available, ex:
+ *
+ * <pre>
+ * ExecutorService executor = VirtualThreads.isSupported()?VirtualThreads.newExecutor():Rpc.Async.newExecutor(...);
+ * Rpc.Async rpc = new Rpc.Async(builder, executor);
+ * </pre>
+ *
+ * The blocking calls of the library can run on virtual threads: the waits are done on java.util.concurrent locks,
+ * which release the carrier thread, and {@link CallHandler#stop()} aborts the connection and interrupts the thread,
+ * so a call blocked reading the socket returns straight away.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public final class VirtualThreads {
+
+	private static final ThreadFactory factory = lookupFactory();
+
+	private VirtualThreads(){}
+
+	private static ThreadFactory lookupFactory(){
+
+		try{
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "worizon-virtual-", 0L);
+			return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+		}catch(ClassNotFoundException cnfe){
+			return null;
+		}catch(NoSuchMethodException nsme){
+			return null;
+		}catch(IllegalAccessException iae){
+			return null;
+		}catch(InvocationTargetException ite){
+			return null;//preview feature not enabled
+		}
+	}
+
+	/**
+	 * Checks if the runtime supports virtual threads.
+	 */
+	public static boolean isSupported(){
+
+		return factory != null;
+	}
+
+	/**
+	 * Gets a factory of virtual threads named worizon-virtual-N.
+	 * @throws UnsupportedOperationException if the runtime does not support virtual threads.
+	 */
+	public static ThreadFactory factory(){
+
+		if( factory == null )
+			throw new UnsupportedOperationException("Virtual threads not supported by this runtime");
+		return factory;
+	}
+
+	/**
+	 * Creates an executor that runs each task in a new virtual thread, to perform the calls of {@link Rpc.Async}.
+	 * @throws UnsupportedOperationException if the runtime does not support virtual threads.
+	 */
+	public static ExecutorService newExecutor(){
+
+		ThreadFactory factory = factory();
+		try{
+			return (ExecutorService)Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+		}catch(NoSuchMethodException nsme){
+			throw new UnsupportedOperationException("Virtual threads not supported by this runtime");
+		}catch(IllegalAccessException iae){
+			throw new UnsupportedOperationException("Virtual threads not supported by this runtime");
+		}catch(InvocationTargetException ite){
+			throw new UnsupportedOperationException("Virtual threads not supported by this runtime");
+		}
+	}
+
+	/**
+	 * Checks if the thread is a virtual thread.
+	 */
+	public static boolean isVirtual( Thread t ){
+
+		if( factory == null )
+			return false;
+		try{
+			return (Boolean)Thread.class.getMethod("isVirtual").invoke(t);
+		}catch(NoSuchMethodException nsme){
+			return false;
+		}catch(IllegalAccessException iae){
+			return false;
+		}catch(InvocationTargetException ite){
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.worizon.jsonrpc.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation caches the results of an idempotent remote method in the {@link com.worizon.jsonrpc.ResultCache}
+ * of the proxy, results are cached by method and parameters.
+ * <p>Ex:
+ * <pre>
+ * {@literal @}Remote
+ * public interface MyDirectory{
+ * 
+ *  {@literal @}Cacheable(ttl = 30000, staleWhileRevalidate = 5000)
+ *  public User getUser(int id);
+ * }
+ * </pre>
+ * <p>
+ * A result is served from the cache for 30 seconds, for 5 more seconds it is still served while it is refreshed 
+ * in the background.
+ * 
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+	
+	/**
+	 * Milliseconds the result is fresh.
+	 */
+	long ttl();
+	
+	/**
+	 * Milliseconds an expired result is still served while it is refreshed.
+	 */
+	long staleWhileRevalidate() default 0;
+}
@@ -0,0 +1,29 @@
+package com.worizon.jsonrpc.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation marks a remote method safe to be performed more than once, ex: a read. Calls to idempotent methods
+ * are hedged when the proxy has a {@link com.worizon.jsonrpc.HedgePolicy} and retried even when they failed after
+ * reaching the server, see {@link com.worizon.net.RetryPolicy}.
+ * <p>Ex:
+ * <pre>
+ * {@literal @}Remote
+ * public interface MyDirectory{
+ *
+ *  {@literal @}Idempotent
+ *  public User getUser(int id);
+ * }
+ * </pre>
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent {
+
+}
@@ -0,0 +1,29 @@
+package com.worizon.jsonrpc.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation sends a void remote method as a JSON-RPC notification, a request without id the server does 
+ * not answer. The method returns as soon as the notification is queued when the proxy has a 
+ * {@link com.worizon.jsonrpc.NotificationQueue}.
+ * <p>Ex:
+ * <pre>
+ * {@literal @}Remote
+ * public interface MyAudit{
+ * 
+ *  {@literal @}Notification
+ *  public void audit(String event, int level);
+ * }
+ * </pre>
+ * 
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Notification {
+	
+}
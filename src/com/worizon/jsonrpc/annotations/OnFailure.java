@@ -0,0 +1,31 @@
+package com.worizon.jsonrpc.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation marks a method of an object registered in {@link com.worizon.jsonrpc.Rpc.Async} as receiver of
+ * the failures of the asynchronous calls. The method takes one Throwable parameter and receives the failures
+ * that are instances of its type, ex: RemoteException, IOException or InterruptedException.
+ * <p>Ex:
+ * <pre>
+ * public class MyListener{
+ * 
+ *  {@literal @}OnFailure("sum")
+ *  public void onSumError(RemoteException ex){ ... }
+ * }
+ * </pre>
+ * <p>
+ * The value is the remote procedure name whose failures are received, all remote procedures if empty.
+ * 
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OnFailure {
+	
+	String value() default "";
+}
@@ -0,0 +1,34 @@
+package com.worizon.jsonrpc.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation marks a method of an object registered in {@link com.worizon.jsonrpc.Rpc.Async} as receiver of
+ * the results of the asynchronous calls. The method takes one parameter and receives the results assignable to
+ * its type.
+ * <p>Ex:
+ * <pre>
+ * public class MyListener{
+ * 
+ *  {@literal @}OnResult("sum")
+ *  public void onSum(int result){ ... }
+ * }
+ * 
+ * rpc.register(new MyListener());
+ * rpc.callInteger("sum", 4, 5);
+ * </pre>
+ * <p>
+ * The value is the remote procedure name whose results are received, all remote procedures if empty.
+ * 
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OnResult {
+	
+	String value() default "";
+}
@@ -0,0 +1,33 @@
+package com.worizon.jsonrpc.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation sets the max time of the calls to a remote method, retries, queueing and decoding included. The 
+ * call fails with a {@link com.worizon.net.DeadlineExceededException} once the time has passed, see 
+ * {@link com.worizon.net.Deadline}.
+ * <p>Ex:
+ * <pre>
+ * {@literal @}Remote
+ * public interface MyDirectory{
+ *
+ *  {@literal @}Timeout(500)
+ *  public User getUser(int id);
+ * }
+ * </pre>
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Timeout {
+
+	/**
+	 * Max milliseconds of a call.
+	 */
+	long value();
+}
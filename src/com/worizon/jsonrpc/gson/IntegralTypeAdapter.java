@@ -0,0 +1,90 @@
+package com.worizon.jsonrpc.gson;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streaming adapter for integral types (byte, short, int and long). Responses are decoded straight from a
+ * JsonReader, whose nextInt/nextLong reject numbers with decimals, while reading from a parsed tree truncates them.
+ * This adapter keeps the tree behaviour, ex: 10.5 is read as 10, so both decoding paths produce the same results.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class IntegralTypeAdapter extends TypeAdapter<Number> {
+
+	private final Class<? extends Number> type;
+
+	/**
+	 * Creates a new adapter.
+	 * @param type Boxed type this adapter reads: Byte, Short, Integer or Long.
+	 */
+	public IntegralTypeAdapter( Class<? extends Number> type ){
+
+		this.type = type;
+	}
+
+	@Override
+	public void write( JsonWriter out, Number value ) throws IOException{
+
+		out.value(value);
+	}
+
+	@Override
+	public Number read( JsonReader in ) throws IOException{
+
+		JsonToken token = in.peek();
+		if( token == JsonToken.NULL ){
+			in.nextNull();
+			return null;
+		}
+
+		String value = in.nextString();
+		try{
+			if( token == JsonToken.NUMBER ){
+
+				long number;
+				try{
+					number = Long.parseLong(value);
+				}catch(NumberFormatException nfe){
+					number = new BigDecimal(value).longValue();//truncates decimals
+				}
+				return narrow(number);
+			}else
+				return parse(value);
+		}catch(NumberFormatException nfe){
+			throw new JsonSyntaxException(nfe);
+		}
+	}
+
+	private Number narrow( long number ){
+
+		if( type == Long.class )
+			return number;
+		else if( type == Short.class )
+			return (short)(int)number;
+		else if( type == Byte.class )
+			return (byte)(int)number;
+		else
+			return (int)number;
+	}
+
+	private Number parse( String value ){
+
+		if( type == Long.class )
+			return Long.valueOf(value);
+		else if( type == Short.class )
+			return Short.valueOf(value);
+		else if( type == Byte.class )
+			return Byte.valueOf(value);
+		else
+			return Integer.valueOf(value);
+	}
+
+}
@@ -0,0 +1,383 @@
+package com.worizon.jsonrpc.gson;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Readers of JSON numeric arrays straight into primitive arrays and java.nio buffers, without a wrapper object per
+ * element. Integral numbers are read with the allocation free path of JsonReader, numbers with decimals are truncated
+ * into integral types as in {@link IntegralTypeAdapter}.
+ *
+ * <p>
+ * {@link #FACTORY} adapts int[], long[], short[], double[] and float[] for Gson.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public final class PrimitiveArrays {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private PrimitiveArrays(){}
+
+	/**
+	 * Gson factory of the adapters of int[], long[], short[], double[] and float[].
+	 */
+	public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory(){
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create( Gson gson, TypeToken<T> type ){
+
+			Class<? super T> raw = type.getRawType();
+			if( raw == int[].class )
+				return (TypeAdapter<T>)new TypeAdapter<int[]>(){
+
+					@Override
+					public void write( JsonWriter out, int[] value ) throws IOException{
+
+						if( value == null ){
+							out.nullValue();
+							return;
+						}
+						out.beginArray();
+						for( int v: value )
+							out.value(v);
+						out.endArray();
+					}
+
+					@Override
+					public int[] read( JsonReader in ) throws IOException{
+
+						return readIntArray(in);
+					}
+				};
+			else if( raw == long[].class )
+				return (TypeAdapter<T>)new TypeAdapter<long[]>(){
+
+					@Override
+					public void write( JsonWriter out, long[] value ) throws IOException{
+
+						if( value == null ){
+							out.nullValue();
+							return;
+						}
+						out.beginArray();
+						for( long v: value )
+							out.value(v);
+						out.endArray();
+					}
+
+					@Override
+					public long[] read( JsonReader in ) throws IOException{
+
+						return readLongArray(in);
+					}
+				};
+			else if( raw == short[].class )
+				return (TypeAdapter<T>)new TypeAdapter<short[]>(){
+
+					@Override
+					public void write( JsonWriter out, short[] value ) throws IOException{
+
+						if( value == null ){
+							out.nullValue();
+							return;
+						}
+						out.beginArray();
+						for( short v: value )
+							out.value(v);
+						out.endArray();
+					}
+
+					@Override
+					public short[] read( JsonReader in ) throws IOException{
+
+						return readShortArray(in);
+					}
+				};
+			else if( raw == double[].class )
+				return (TypeAdapter<T>)new TypeAdapter<double[]>(){
+
+					@Override
+					public void write( JsonWriter out, double[] value ) throws IOException{
+
+						if( value == null ){
+							out.nullValue();
+							return;
+						}
+						out.beginArray();
+						for( double v: value )
+							out.value(v);
+						out.endArray();
+					}
+
+					@Override
+					public double[] read( JsonReader in ) throws IOException{
+
+						return readDoubleArray(in);
+					}
+				};
+			else if( raw == float[].class )
+				return (TypeAdapter<T>)new TypeAdapter<float[]>(){
+
+					@Override
+					public void write( JsonWriter out, float[] value ) throws IOException{
+
+						if( value == null ){
+							out.nullValue();
+							return;
+						}
+						out.beginArray();
+						for( float v: value )
+							out.value(v);
+						out.endArray();
+					}
+
+					@Override
+					public float[] read( JsonReader in ) throws IOException{
+
+						return readFloatArray(in);
+					}
+				};
+			return null;
+		}
+	};
+
+	/**
+	 * Reads an integral number, truncating decimals.
+	 */
+	public static long nextLong( JsonReader in ) throws IOException{
+
+		try{
+			return in.nextLong();
+		}catch(NumberFormatException nfe){
+			return new BigDecimal(in.nextString()).longValue();//the failed token is kept buffered
+		}
+	}
+
+	/**
+	 * Reads a JSON array of numbers into a new int[].
+	 * @return The array, or null if the token is null.
+	 */
+	public static int[] readIntArray( JsonReader in ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return null;
+		}
+		int values[] = new int[INITIAL_CAPACITY];
+		int size = 0;
+		in.beginArray();
+		while( in.hasNext() ){
+
+			if( size == values.length )
+				values = Arrays.copyOf(values, size << 1);
+			values[size++] = (int)nextLong(in);
+		}
+		in.endArray();
+		return (size == values.length)?values:Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Reads a JSON array of numbers into a new long[].
+	 * @return The array, or null if the token is null.
+	 */
+	public static long[] readLongArray( JsonReader in ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return null;
+		}
+		long values[] = new long[INITIAL_CAPACITY];
+		int size = 0;
+		in.beginArray();
+		while( in.hasNext() ){
+
+			if( size == values.length )
+				values = Arrays.copyOf(values, size << 1);
+			values[size++] = nextLong(in);
+		}
+		in.endArray();
+		return (size == values.length)?values:Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Reads a JSON array of numbers into a new short[].
+	 * @return The array, or null if the token is null.
+	 */
+	public static short[] readShortArray( JsonReader in ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return null;
+		}
+		short values[] = new short[INITIAL_CAPACITY];
+		int size = 0;
+		in.beginArray();
+		while( in.hasNext() ){
+
+			if( size == values.length )
+				values = Arrays.copyOf(values, size << 1);
+			values[size++] = (short)nextLong(in);
+		}
+		in.endArray();
+		return (size == values.length)?values:Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Reads a JSON array of numbers into a new double[].
+	 * @return The array, or null if the token is null.
+	 */
+	public static double[] readDoubleArray( JsonReader in ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return null;
+		}
+		double values[] = new double[INITIAL_CAPACITY];
+		int size = 0;
+		in.beginArray();
+		while( in.hasNext() ){
+
+			if( size == values.length )
+				values = Arrays.copyOf(values, size << 1);
+			values[size++] = in.nextDouble();
+		}
+		in.endArray();
+		return (size == values.length)?values:Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Reads a JSON array of numbers into a new float[].
+	 * @return The array, or null if the token is null.
+	 */
+	public static float[] readFloatArray( JsonReader in ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return null;
+		}
+		float values[] = new float[INITIAL_CAPACITY];
+		int size = 0;
+		in.beginArray();
+		while( in.hasNext() ){
+
+			if( size == values.length )
+				values = Arrays.copyOf(values, size << 1);
+			values[size++] = (float)in.nextDouble();
+		}
+		in.endArray();
+		return (size == values.length)?values:Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Reads a JSON array of numbers into the buffer, from its position.
+	 * @return The number of elements read, 0 if the token is null.
+	 * @throws java.nio.BufferOverflowException if the array does not fit in the remaining buffer.
+	 */
+	public static int read( JsonReader in, IntBuffer target ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return 0;
+		}
+		int size = 0;
+		in.beginArray();
+		for( ; in.hasNext(); size++ )
+			target.put((int)nextLong(in));
+		in.endArray();
+		return size;
+	}
+
+	/**
+	 * Reads a JSON array of numbers into the buffer, from its position.
+	 * @return The number of elements read, 0 if the token is null.
+	 * @throws java.nio.BufferOverflowException if the array does not fit in the remaining buffer.
+	 */
+	public static int read( JsonReader in, LongBuffer target ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return 0;
+		}
+		int size = 0;
+		in.beginArray();
+		for( ; in.hasNext(); size++ )
+			target.put(nextLong(in));
+		in.endArray();
+		return size;
+	}
+
+	/**
+	 * Reads a JSON array of numbers into the buffer, from its position.
+	 * @return The number of elements read, 0 if the token is null.
+	 * @throws java.nio.BufferOverflowException if the array does not fit in the remaining buffer.
+	 */
+	public static int read( JsonReader in, ShortBuffer target ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return 0;
+		}
+		int size = 0;
+		in.beginArray();
+		for( ; in.hasNext(); size++ )
+			target.put((short)nextLong(in));
+		in.endArray();
+		return size;
+	}
+
+	/**
+	 * Reads a JSON array of numbers into the buffer, from its position.
+	 * @return The number of elements read, 0 if the token is null.
+	 * @throws java.nio.BufferOverflowException if the array does not fit in the remaining buffer.
+	 */
+	public static int read( JsonReader in, DoubleBuffer target ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return 0;
+		}
+		int size = 0;
+		in.beginArray();
+		for( ; in.hasNext(); size++ )
+			target.put(in.nextDouble());
+		in.endArray();
+		return size;
+	}
+
+	/**
+	 * Reads a JSON array of numbers into the buffer, from its position.
+	 * @return The number of elements read, 0 if the token is null.
+	 * @throws java.nio.BufferOverflowException if the array does not fit in the remaining buffer.
+	 */
+	public static int read( JsonReader in, FloatBuffer target ) throws IOException{
+
+		if( in.peek() == JsonToken.NULL ){
+			in.nextNull();
+			return 0;
+		}
+		int size = 0;
+		in.beginArray();
+		for( ; in.hasNext(); size++ )
+			target.put((float)in.nextDouble());
+		in.endArray();
+		return size;
+	}
+
+}
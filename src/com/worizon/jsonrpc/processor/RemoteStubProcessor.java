@@ -0,0 +1,377 @@
+package com.worizon.jsonrpc.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import com.worizon.jsonrpc.CachePolicy;
+import com.worizon.jsonrpc.RemoteStub;
+import com.worizon.jsonrpc.annotations.Cacheable;
+import com.worizon.jsonrpc.annotations.Notification;
+import com.worizon.jsonrpc.annotations.Remote;
+import com.worizon.jsonrpc.annotations.RemoteParams;
+import com.worizon.jsonrpc.annotations.RemoteProcName;
+
+/**
+ * Annotation processor generating a {@link RemoteStub} for each {@link Remote} interface. The stub implements the
+ * interface with the remote procedure names, the parameter names of {@link RemoteParams}, the result types and the
+ * caching rules of {@link Cacheable} written in its source, {@link Notification} methods send notifications, so {@link com.worizon.jsonrpc.Rpc.Proxy#createProxy(Class)}
+ * returns an object calling the remote procedures without reflection. Result types keep their generic arguments, ex: a method returning
+ * List{@literal <}Dummy{@literal >} gets a list of Dummy objects.
+ *
+ * <p>
+ * The processor is registered as a service of the library jar, so it runs on any source compiled with the jar on the
+ * classpath. Interfaces that can't be implemented from their package, ex: private nested interfaces, and generic
+ * interfaces get no stub and are called through a dynamic proxy.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class RemoteStubProcessor extends AbstractProcessor {
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes(){
+
+		return Collections.singleton(Remote.class.getName());
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion(){
+
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv ){
+
+		for( Element element: roundEnv.getElementsAnnotatedWith(Remote.class) ){
+
+			if( element.getKind() != ElementKind.INTERFACE ){
+
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "@Remote type is not an interface, no stub generated", element);
+				continue;
+			}
+			TypeElement type = (TypeElement)element;
+			if( !isAccessible(type) || !type.getTypeParameters().isEmpty() )
+				continue;
+			try{
+				generate(type);
+			}catch(IOException ioe){
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Stub not written: " + ioe.getMessage(), type);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the interface can be implemented by a class of its package.
+	 */
+	private static boolean isAccessible( TypeElement type ){
+
+		for( Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement() ){
+
+			if( e.getModifiers().contains(Modifier.PRIVATE) )
+				return false;
+			if( !e.getKind().isClass() && !e.getKind().isInterface() )
+				return false;//local classes
+		}
+		return true;
+	}
+
+	private void generate( TypeElement type ) throws IOException{
+
+		String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		String stubName = stubSimpleName(type);
+		List<ExecutableElement> methods = remoteMethods(type);
+		DeclaredType declared = (DeclaredType)type.asType();
+		Types types = processingEnv.getTypeUtils();
+
+		StringBuilder fields = new StringBuilder();
+		StringBuilder body = new StringBuilder();
+		for( int i = 0; i < methods.size(); i++ ){
+
+			ExecutableElement method = methods.get(i);
+			ExecutableType signature = (ExecutableType)types.asMemberOf(declared, method);
+			String resultType = resultType(signature.getReturnType(), i, fields);
+			String cachePolicy = cachePolicy(method, i, fields);
+			writeMethod(body, method, signature, resultType, cachePolicy);
+		}
+
+		String qualifiedStubName = packageName.length() > 0?packageName + "." + stubName:stubName;
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedStubName, type);
+		Writer out = file.openWriter();
+		try{
+			if( packageName.length() > 0 )
+				out.write("package " + packageName + ";\n\n");
+			out.write("/**\n * Stub of {@link " + type.getQualifiedName() + "} generated by " + getClass().getName() + ".\n */\n");
+			out.write("@SuppressWarnings(\"unchecked\")\n");
+			out.write("public final class " + stubName + " extends " + RemoteStub.class.getName() + " implements " + type.getQualifiedName() + " {\n\n");
+			out.write(fields.toString());
+			if( fields.length() > 0 )
+				out.write("\n");
+			out.write("\tpublic " + stubName + "( com.worizon.jsonrpc.Rpc.Proxy rpc ){\n\n\t\tsuper(rpc);\n\t}\n");
+			out.write(body.toString());
+			out.write("\n}\n");
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * The stub name of the nested interface com.foo.Outer.Calculator is Outer_Calculator_RpcStub.
+	 */
+	private static String stubSimpleName( TypeElement type ){
+
+		StringBuilder name = new StringBuilder(type.getSimpleName());
+		for( Element e = type.getEnclosingElement(); e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement() )
+			name.insert(0, e.getSimpleName() + "_");
+		return name.append(RemoteStub.STUB_SUFFIX).toString();
+	}
+
+	/**
+	 * Gets the abstract methods of the interface and its superinterfaces, overridden methods only once.
+	 */
+	private List<ExecutableElement> remoteMethods( TypeElement type ){
+
+		List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+		Set<String> signatures = new HashSet<String>();
+		collectMethods(type, methods, signatures);
+		return methods;
+	}
+
+	private void collectMethods( TypeElement type, List<ExecutableElement> methods, Set<String> signatures ){
+
+		Types types = processingEnv.getTypeUtils();
+		for( Element member: type.getEnclosedElements() ){
+
+			if( member.getKind() != ElementKind.METHOD || !member.getModifiers().contains(Modifier.ABSTRACT) )
+				continue;
+			ExecutableElement method = (ExecutableElement)member;
+			StringBuilder signature = new StringBuilder(method.getSimpleName()).append('(');
+			for( int i = 0; i < method.getParameters().size(); i++ )
+				signature.append(types.erasure(method.getParameters().get(i).asType())).append(',');
+			if( signatures.add(signature.toString()) )
+				methods.add(method);
+		}
+		for( TypeMirror superInterface: type.getInterfaces() )
+			collectMethods((TypeElement)types.asElement(superInterface), methods, signatures);
+	}
+
+	/**
+	 * Gets the expression of the result type, generic types are written once into a static field.
+	 */
+	private String resultType( TypeMirror type, int index, StringBuilder fields ){
+
+		if( type.getKind() == TypeKind.VOID )
+			return "void.class";
+		if( type.getKind().isPrimitive() || !isGeneric(type) )
+			return processingEnv.getTypeUtils().erasure(type) + ".class";
+		if( hasTypeVariables(type) )
+			return processingEnv.getTypeUtils().erasure(type) + ".class";
+
+		String field = "RESULT_TYPE_" + index;
+		fields.append("\tprivate static final java.lang.reflect.Type ").append(field)
+			.append(" = new com.google.gson.reflect.TypeToken<").append(type).append(">(){}.getType();\n");
+		return field;
+	}
+
+	/**
+	 * Gets the expression of the caching rules of {@link Cacheable}, written once into a static field.
+	 * @return The field name or null if the method is not cacheable.
+	 */
+	private static String cachePolicy( ExecutableElement method, int index, StringBuilder fields ){
+
+		Cacheable cacheable = method.getAnnotation(Cacheable.class);
+		if( cacheable == null )
+			return null;
+		String field = "CACHE_POLICY_" + index;
+		fields.append("\tprivate static final ").append(CachePolicy.class.getName()).append(' ').append(field)
+			.append(" = new ").append(CachePolicy.class.getName()).append('(').append(cacheable.ttl()).append("L, ")
+			.append(cacheable.staleWhileRevalidate()).append("L);\n");
+		return field;
+	}
+
+	private static boolean isGeneric( TypeMirror type ){
+
+		if( type.getKind() == TypeKind.ARRAY )
+			return isGeneric(((ArrayType)type).getComponentType());
+		if( type.getKind() == TypeKind.DECLARED )
+			return !((DeclaredType)type).getTypeArguments().isEmpty();
+		return type.getKind() == TypeKind.TYPEVAR;
+	}
+
+	private static boolean hasTypeVariables( TypeMirror type ){
+
+		switch( type.getKind() ){
+			case TYPEVAR:
+				return true;
+			case ARRAY:
+				return hasTypeVariables(((ArrayType)type).getComponentType());
+			case DECLARED:
+				for( TypeMirror argument: ((DeclaredType)type).getTypeArguments() )
+					if( hasTypeVariables(argument) )
+						return true;
+				return false;
+			case WILDCARD:
+				WildcardType wildcard = (WildcardType)type;
+				return (wildcard.getExtendsBound() != null && hasTypeVariables(wildcard.getExtendsBound())) ||
+						(wildcard.getSuperBound() != null && hasTypeVariables(wildcard.getSuperBound()));
+			default:
+				return false;
+		}
+	}
+
+	private void writeMethod( StringBuilder out, ExecutableElement method, ExecutableType signature, String resultType, String cachePolicy ){
+
+		Types types = processingEnv.getTypeUtils();
+		List<? extends TypeMirror> parameterTypes = signature.getParameterTypes();
+		TypeMirror returnType = signature.getReturnType();
+
+		out.append("\n\t@Override\n\tpublic ");
+		if( !method.getTypeParameters().isEmpty() ){
+
+			out.append('<');
+			for( int i = 0; i < method.getTypeParameters().size(); i++ ){
+
+				TypeParameterElement parameter = method.getTypeParameters().get(i);
+				out.append(i > 0?", ":"").append(parameter.getSimpleName());
+				List<? extends TypeMirror> bounds = parameter.getBounds();
+				for( int j = 0; j < bounds.size(); j++ ){
+
+					if( bounds.get(j).toString().equals("java.lang.Object") )
+						continue;
+					out.append(j > 0?" & ":" extends ").append(bounds.get(j));
+				}
+			}
+			out.append("> ");
+		}
+		out.append(returnType).append(' ').append(method.getSimpleName()).append("( ");
+		for( int i = 0; i < parameterTypes.size(); i++ ){
+
+			TypeMirror parameterType = parameterTypes.get(i);
+			out.append(i > 0?", ":"");
+			if( method.isVarArgs() && i == parameterTypes.size() - 1 )
+				out.append(((ArrayType)parameterType).getComponentType()).append("... ");
+			else
+				out.append(parameterType).append(' ');
+			out.append('p').append(i);
+		}
+		out.append(" )");
+		List<? extends TypeMirror> thrown = signature.getThrownTypes();
+		for( int i = 0; i < thrown.size(); i++ )
+			out.append(i == 0?" throws ":", ").append(thrown.get(i));
+		out.append("{\n\n");
+
+		if( method.getAnnotation(Notification.class) != null && returnType.getKind() != TypeKind.VOID && 
+				!types.erasure(returnType).toString().equals("java.lang.Void") )
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Notification method must return void", method);
+
+		RemoteParams remoteParams = method.getAnnotation(RemoteParams.class);
+		if( remoteParams != null && remoteParams.value().length != parameterTypes.size() ){
+
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Method params number does not match annotated remote params number", method);
+			out.append("\t\tthrow new IllegalArgumentException(\"Method params number does not match annotated remote params number\");\n\t}\n");
+			return;
+		}
+
+		RemoteProcName procName = method.getAnnotation(RemoteProcName.class);
+		String remoteName = (procName != null)?procName.value():method.getSimpleName().toString();
+		String params = writeParams(out, remoteParams, parameterTypes);
+
+		String invoke = "invoke(\"" + escape(remoteName) + "\", " + resultType + ", " + params + 
+							((cachePolicy != null)?", " + cachePolicy:"") + ")";
+		out.append("\t\ttry{\n\t\t\t");
+		if( method.getAnnotation(Notification.class) != null ){
+
+			out.append("notification(\"").append(escape(remoteName)).append("\", ").append(params).append(");\n");
+			if( returnType.getKind() != TypeKind.VOID )
+				out.append("\t\t\treturn null;\n");
+		}else if( returnType.getKind() == TypeKind.VOID )
+			out.append(invoke).append(";\n");
+		else if( returnType.getKind().isPrimitive() )
+			out.append("return (").append(types.boxedClass((javax.lang.model.type.PrimitiveType)returnType).getQualifiedName()).append(')').append(invoke).append(";\n");
+		else
+			out.append("return (").append(returnType).append(')').append(invoke).append(";\n");
+		writeCatch(out, "java.io.IOException", thrown);
+		writeCatch(out, "java.lang.InterruptedException", thrown);
+		out.append("\t\t}\n\t}\n");
+	}
+
+	/**
+	 * Writes the parameters of the request as the dynamic proxy sends them: an ordered list, a map of the names of
+	 * {@link RemoteParams} or the map or list itself when it is the single parameter named "params".
+	 * @return The expression of the parameters.
+	 */
+	private static String writeParams( StringBuilder out, RemoteParams remoteParams, List<? extends TypeMirror> parameterTypes ){
+
+		if( remoteParams == null ){
+
+			if( parameterTypes.isEmpty() )
+				return "null";
+			out.append("\t\tjava.util.List<Object> params = java.util.Arrays.asList(new Object[]{");
+			for( int i = 0; i < parameterTypes.size(); i++ )
+				out.append(i > 0?", ":"").append('p').append(i);
+			out.append("});\n");
+			return "params";
+		}
+
+		String names[] = remoteParams.value();
+		String indent = "\t\t";
+		boolean paramsName = names.length == 1 && names[0].equals("params") && !parameterTypes.get(0).getKind().isPrimitive();
+		if( paramsName ){
+
+			out.append("\t\tObject params = p0;\n");
+			out.append("\t\tif( !(p0 instanceof java.util.Map<?,?> || p0 instanceof java.util.List<?>) ){\n\n");
+			indent = "\t\t\t";
+		}
+		out.append(indent).append("java.util.Map<String, Object> named = new java.util.LinkedHashMap<String, Object>();\n");
+		for( int i = 0; i < names.length; i++ )
+			out.append(indent).append("named.put(\"").append(escape(names[i])).append("\", p").append(i).append(");\n");
+		if( paramsName ){
+
+			out.append("\t\t\tparams = named;\n\t\t}\n");
+			return "params";
+		}
+		return "named";
+	}
+
+	private void writeCatch( StringBuilder out, String exception, List<? extends TypeMirror> thrown ){
+
+		Types types = processingEnv.getTypeUtils();
+		TypeMirror exceptionType = processingEnv.getElementUtils().getTypeElement(exception).asType();
+		boolean declared = false;
+		for( TypeMirror t: thrown )
+			declared |= types.isSubtype(exceptionType, t);
+		out.append("\t\t}catch(").append(exception).append(" ex){\n\t\t\tthrow ");
+		out.append(declared?"ex":"new java.lang.reflect.UndeclaredThrowableException(ex)").append(";\n");
+	}
+
+	private static String escape( String s ){
+
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.worizon.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.worizon.net.ITransport.IPayload;
+
+/**
+ * Payload of an already encoded body.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+class ByteArrayPayload implements IPayload {
+
+	private final byte body[];
+
+	ByteArrayPayload( byte[] body ){
+
+		this.body = body;
+	}
+
+	byte[] getBytes(){
+
+		return body;
+	}
+
+	@Override
+	public long getLength(){
+
+		return body.length;
+	}
+
+	@Override
+	public void writeTo( OutputStream out ) throws IOException{
+
+		out.write(body);
+	}
+
+}
@@ -0,0 +1,212 @@
+package com.worizon.net;
+
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker of an endpoint, created by a {@link CircuitBreakerPolicy}. The breaker keeps the outcome of the
+ * last exchanges with the endpoint in a sliding window:
+ * <ul>
+ * <li>{@link State#CLOSED}: Requests are sent. Once the window has the minimum number of calls, the breaker opens
+ * if the rate of failed calls or the rate of slow calls reaches its threshold.</li>
+ * <li>{@link State#OPEN}: Requests fail fast with a {@link CircuitBreakerOpenException}. After the open time the
+ * next request moves the breaker to half-open.</li>
+ * <li>{@link State#HALF_OPEN}: A few trial requests are sent, the others fail fast. The breaker closes if the trial
+ * calls are below the thresholds, otherwise it opens again.</li>
+ * </ul>
+ * An exchange fails with an I/O error, timeouts included. Exchanges stopped by the caller are not counted.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class CircuitBreaker {
+
+	public enum State{ CLOSED, OPEN, HALF_OPEN }
+
+	/**
+	 * Listener of the state changes of the breakers, see {@link CircuitBreakerPolicy#addStateListener(IStateListener)}.
+	 */
+	public interface IStateListener{
+
+		/**
+		 * Called from the thread of the request that changed the state, it must not block nor throw.
+		 */
+		public void onStateChange( CircuitBreaker breaker, State from, State to );
+	}
+
+	private final URL endpoint;
+	private final CircuitBreakerPolicy policy;
+	private final boolean failures[];
+	private final boolean slows[];
+	private int size = 0;
+	private int next = 0;
+	private int failureCount = 0;
+	private int slowCount = 0;
+	private State state = State.CLOSED;
+	private long openedAt = 0;
+	private int trials = 0;
+	private final AtomicLong rejected = new AtomicLong();
+
+	CircuitBreaker( URL endpoint, CircuitBreakerPolicy policy ){
+
+		this.endpoint = endpoint;
+		this.policy = policy;
+		this.failures = new boolean[policy.getWindowSize()];
+		this.slows = new boolean[policy.getWindowSize()];
+	}
+
+	public URL getEndpoint(){
+
+		return endpoint;
+	}
+
+	/**
+	 * Gets the state of the breaker. An open breaker stays open until a request arrives after the open time.
+	 */
+	public synchronized State getState(){
+
+		return state;
+	}
+
+	/**
+	 * Gets the rate of failed calls in the window, -1 if there are not enough calls.
+	 */
+	public synchronized double getFailureRate(){
+
+		return (size < minimumCalls())?-1:(double)failureCount / size;
+	}
+
+	/**
+	 * Gets the rate of slow calls in the window, -1 if there are not enough calls.
+	 */
+	public synchronized double getSlowCallRate(){
+
+		return (size < minimumCalls())?-1:(double)slowCount / size;
+	}
+
+	/**
+	 * Gets the number of requests failed fast by this breaker.
+	 */
+	public long getRejectedCount(){
+
+		return rejected.get();
+	}
+
+	private int minimumCalls(){
+
+		return (state == State.HALF_OPEN)?policy.getHalfOpenCalls():policy.getMinimumCalls();
+	}
+
+	/**
+	 * Checks if a request would be sent, without taking a permission.
+	 */
+	synchronized boolean isCallPermitted(){
+
+		switch( state ){
+			case CLOSED:
+				return true;
+			case OPEN:
+				return System.nanoTime() - openedAt >= policy.getOpenNanos();
+			default:
+				return trials < policy.getHalfOpenCalls();
+		}
+	}
+
+	/**
+	 * Takes the permission to send a request, to be given back with the outcome of the exchange.
+	 * @throws CircuitBreakerOpenException When the request must fail fast.
+	 */
+	void acquire() throws CircuitBreakerOpenException{
+
+		boolean permitted;
+		State from = null;
+		synchronized( this ){
+
+			if( state == State.OPEN && System.nanoTime() - openedAt >= policy.getOpenNanos() ){
+
+				from = state;
+				transition(State.HALF_OPEN);
+			}
+			permitted = state == State.CLOSED || (state == State.HALF_OPEN && trials < policy.getHalfOpenCalls());
+			if( permitted && state == State.HALF_OPEN )
+				trials++;
+		}
+		if( from != null )
+			policy.fireStateChange(this, from, State.HALF_OPEN);
+		if( !permitted ){
+
+			rejected.incrementAndGet();
+			throw new CircuitBreakerOpenException(endpoint);
+		}
+	}
+
+	/**
+	 * Records the outcome of an exchange.
+	 * @param failed true if the exchange failed.
+	 * @param nanos Duration of the exchange until the response arrived.
+	 */
+	void record( boolean failed, long nanos ){
+
+		State from;
+		State to;
+		synchronized( this ){
+
+			if( state == State.OPEN )
+				return;//a call sent before the breaker opened
+			if( size == failures.length ){
+
+				failureCount -= failures[next]?1:0;
+				slowCount -= slows[next]?1:0;
+			}else
+				size++;
+			failures[next] = failed;
+			slows[next] = nanos >= policy.getSlowCallNanos();
+			failureCount += failed?1:0;
+			slowCount += slows[next]?1:0;
+			next = (next + 1) % failures.length;
+
+			from = state;
+			if( size < minimumCalls() )
+				return;
+			if( (double)failureCount / size >= policy.getFailureRate() || (double)slowCount / size >= policy.getSlowCallRate() )
+				to = State.OPEN;
+			else if( state == State.HALF_OPEN )
+				to = State.CLOSED;
+			else
+				return;
+			transition(to);
+		}
+		policy.fireStateChange(this, from, to);
+	}
+
+	/**
+	 * Gives back the permission of an exchange stopped by the caller, its outcome is not counted.
+	 */
+	synchronized void release(){
+
+		if( state == State.HALF_OPEN && trials > 0 )
+			trials--;
+	}
+
+	/**
+	 * Moves to the state with an empty window, called with the lock held.
+	 */
+	private void transition( State to ){
+
+		state = to;
+		size = 0;
+		next = 0;
+		failureCount = 0;
+		slowCount = 0;
+		trials = 0;
+		if( to == State.OPEN )
+			openedAt = System.nanoTime();
+	}
+
+	@Override
+	public String toString(){
+
+		return endpoint + " " + getState();
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.worizon.net;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Thrown instead of sending a request to an endpoint whose {@link CircuitBreaker} is open. The request is not
+ * retried.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final URL endpoint;
+
+	public CircuitBreakerOpenException( URL endpoint ){
+
+		super("Circuit breaker open for " + endpoint);
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * Gets the endpoint of the open breaker.
+	 */
+	public URL getEndpoint(){
+
+		return endpoint;
+	}
+
+}
@@ -0,0 +1,368 @@
+package com.worizon.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.worizon.net.CircuitBreaker.IStateListener;
+import com.worizon.net.IAsyncTransport.IAsyncExchange;
+import com.worizon.net.IAsyncTransport.IResponseListener;
+import com.worizon.net.ITransport.IExchange;
+import com.worizon.net.ITransport.IPayload;
+
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_BREAKER_FAILURE_RATE;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_BREAKER_OPEN_TIME;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_BREAKER_SLOW_CALL_DURATION;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_BREAKER_WINDOW;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_BREAKER_MIN_CALLS;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_BREAKER_HALF_OPEN_CALLS;
+
+/**
+ * Thresholds of the {@link CircuitBreaker} of each endpoint, shared by all the requests built from a
+ * {@link HttpRequestBuilder}. With a {@link LoadBalancer} each replica has its own breaker and the replicas whose
+ * breaker is open get no requests, ex:
+ *
+ * <pre>
+ * CircuitBreakerPolicy breakers = new CircuitBreakerPolicy(0.5, 30000).slowCalls(2000, 0.8);
+ * breakers.addStateListener(myMonitor);
+ * Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).circuitBreaker(breakers));
+ * </pre>
+ *
+ * The thresholds must be set before the first request.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class CircuitBreakerPolicy {
+
+	private final double failureRate;
+	private final long openNanos;
+	private volatile double slowCallRate = 1;
+	private volatile long slowCallNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BREAKER_SLOW_CALL_DURATION);
+	private volatile int windowSize = DEFAULT_BREAKER_WINDOW;
+	private volatile int minimumCalls = DEFAULT_BREAKER_MIN_CALLS;
+	private volatile int halfOpenCalls = DEFAULT_BREAKER_HALF_OPEN_CALLS;
+
+	private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+	private final List<IStateListener> listeners = new CopyOnWriteArrayList<IStateListener>();
+
+	/**
+	 * Creates a policy opening a breaker when {@link com.worizon.jsonrpc.Const.Http#DEFAULT_BREAKER_FAILURE_RATE}
+	 * of the calls fail, for {@link com.worizon.jsonrpc.Const.Http#DEFAULT_BREAKER_OPEN_TIME} ms.
+	 */
+	public CircuitBreakerPolicy(){
+
+		this(DEFAULT_BREAKER_FAILURE_RATE, DEFAULT_BREAKER_OPEN_TIME);
+	}
+
+	/**
+	 * Creates a policy. Calls are slow after {@link com.worizon.jsonrpc.Const.Http#DEFAULT_BREAKER_SLOW_CALL_DURATION}
+	 * ms and a breaker opens on slow calls only if all the calls are slow.
+	 * @param failureRate Rate of failed calls that opens a breaker, ex: 0.5.
+	 * @param openMillis Milliseconds an open breaker fails fast before trying the endpoint again.
+	 */
+	public CircuitBreakerPolicy( double failureRate, long openMillis ){
+
+		if( failureRate <= 0 || failureRate > 1 || openMillis < 0 )
+			throw new IllegalArgumentException("Failure rate must be in (0,1] and open time not negative");
+		this.failureRate = failureRate;
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+	}
+
+	/**
+	 * Sets the slow call threshold.
+	 * @param durationMillis Milliseconds after which a call is slow.
+	 * @param rate Rate of slow calls that opens a breaker.
+	 * @return This policy.
+	 */
+	public CircuitBreakerPolicy slowCalls( long durationMillis, double rate ){
+
+		if( durationMillis < 0 || rate <= 0 || rate > 1 )
+			throw new IllegalArgumentException("Slow call rate must be in (0,1] and duration not negative");
+		this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		this.slowCallRate = rate;
+		return this;
+	}
+
+	/**
+	 * Sets the sliding window of the breakers.
+	 * @param size Number of last calls kept.
+	 * @param minimumCalls Calls needed before a breaker can open.
+	 * @return This policy.
+	 */
+	public CircuitBreakerPolicy window( int size, int minimumCalls ){
+
+		if( minimumCalls < 1 || size < minimumCalls )
+			throw new IllegalArgumentException("Window must hold the minimum calls");
+		this.windowSize = size;
+		this.minimumCalls = minimumCalls;
+		return this;
+	}
+
+	/**
+	 * Sets the number of trial calls of a half-open breaker, no more than the window size.
+	 * @param calls Number of trial calls.
+	 * @return This policy.
+	 */
+	public CircuitBreakerPolicy halfOpenCalls( int calls ){
+
+		if( calls < 1 )
+			throw new IllegalArgumentException("Half-open calls must be positive");
+		this.halfOpenCalls = calls;
+		return this;
+	}
+
+	/**
+	 * Adds a listener of the state changes of all the breakers.
+	 */
+	public void addStateListener( IStateListener listener ){
+
+		listeners.add(listener);
+	}
+
+	public void removeStateListener( IStateListener listener ){
+
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Gets the breaker of an endpoint, created on its first request.
+	 */
+	public CircuitBreaker getBreaker( URL endpoint ){
+
+		String key = endpoint.toExternalForm();
+		CircuitBreaker breaker = breakers.get(key);
+		if( breaker == null ){
+
+			breaker = new CircuitBreaker(endpoint, this);
+			CircuitBreaker previous = breakers.putIfAbsent(key, breaker);
+			if( previous != null )
+				breaker = previous;
+		}
+		return breaker;
+	}
+
+	/**
+	 * Gets the breakers of the endpoints requested so far.
+	 */
+	public Collection<CircuitBreaker> getBreakers(){
+
+		return Collections.unmodifiableCollection(breakers.values());
+	}
+
+	double getFailureRate(){
+
+		return failureRate;
+	}
+
+	long getOpenNanos(){
+
+		return openNanos;
+	}
+
+	double getSlowCallRate(){
+
+		return slowCallRate;
+	}
+
+	long getSlowCallNanos(){
+
+		return slowCallNanos;
+	}
+
+	int getWindowSize(){
+
+		return windowSize;
+	}
+
+	int getMinimumCalls(){
+
+		return minimumCalls;
+	}
+
+	int getHalfOpenCalls(){
+
+		return Math.min(halfOpenCalls, windowSize);
+	}
+
+	void fireStateChange( CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to ){
+
+		for( IStateListener listener: listeners )
+			listener.onStateChange(breaker, from, to);
+	}
+
+	/**
+	 * Checks if a request to the endpoint would be sent.
+	 */
+	boolean isCallPermitted( URL endpoint ){
+
+		return getBreaker(endpoint).isCallPermitted();
+	}
+
+	/**
+	 * Opens an exchange with the endpoint through the transport if its breaker allows it.
+	 * @throws CircuitBreakerOpenException When the breaker is open.
+	 */
+	IExchange open( ITransport transport, URL endpoint, int connectTimeout, int readTimeout ) throws IOException{
+
+		CircuitBreaker breaker = getBreaker(endpoint);
+		breaker.acquire();
+		IExchange exchange;
+		try{
+			exchange = transport.open(endpoint, connectTimeout, readTimeout);
+		}catch(IOException ioe){
+			breaker.release();
+			throw ioe;
+		}catch(RuntimeException re){
+			breaker.release();
+			throw re;
+		}
+		if( exchange instanceof IAsyncExchange )
+			return new GuardedAsyncExchange(breaker, (IAsyncExchange)exchange);
+		return new GuardedExchange(breaker, exchange);
+	}
+
+	/**
+	 * Exchange recording its outcome in the breaker of its endpoint once the response arrives or the exchange fails.
+	 */
+	private static class GuardedExchange implements IExchange{
+
+		protected final CircuitBreaker breaker;
+		private final IExchange exchange;
+		private final AtomicBoolean recorded = new AtomicBoolean(false);
+		private volatile boolean aborted = false;
+
+		GuardedExchange( CircuitBreaker breaker, IExchange exchange ){
+
+			this.breaker = breaker;
+			this.exchange = exchange;
+		}
+
+		@Override
+		public void setHeader( String key, String value ){
+
+			exchange.setHeader(key, value);
+		}
+
+		@Override
+		public InputStream send( byte[] body ) throws IOException, InterruptedException{
+
+			long start = System.nanoTime();
+			try{
+				InputStream response = exchange.send(body);
+				succeeded(start);
+				return response;
+			}catch(IOException ioe){
+				failed(ioe, start);
+				throw ioe;
+			}catch(InterruptedException ie){
+				release();
+				throw ie;
+			}catch(RuntimeException re){
+				release();
+				throw re;
+			}
+		}
+
+		@Override
+		public InputStream send( IPayload payload ) throws IOException, InterruptedException{
+
+			long start = System.nanoTime();
+			try{
+				InputStream response = exchange.send(payload);
+				succeeded(start);
+				return response;
+			}catch(IOException ioe){
+				failed(ioe, start);
+				throw ioe;
+			}catch(InterruptedException ie){
+				release();
+				throw ie;
+			}catch(RuntimeException re){
+				release();
+				throw re;
+			}
+		}
+
+		@Override
+		public int getStatusCode(){
+
+			return exchange.getStatusCode();
+		}
+
+		@Override
+		public void abort(){
+
+			aborted = true;
+			exchange.abort();
+			release();
+		}
+
+		void succeeded( long start ){
+
+			if( recorded.compareAndSet(false, true) )
+				breaker.record(false, System.nanoTime() - start);
+		}
+
+		/**
+		 * Records a failure of the endpoint, unless the exchange was stopped.
+		 */
+		void failed( IOException ioe, long start ){
+
+			IOException cause = (ioe instanceof RequestNotSentException)?((RequestNotSentException)ioe).getCause():ioe;
+			if( aborted || (cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException)) )
+				release();
+			else if( recorded.compareAndSet(false, true) )
+				breaker.record(true, System.nanoTime() - start);
+		}
+
+		void release(){
+
+			if( recorded.compareAndSet(false, true) )
+				breaker.release();
+		}
+	}
+
+	private static class GuardedAsyncExchange extends GuardedExchange implements IAsyncExchange{
+
+		private final IAsyncExchange exchange;
+
+		GuardedAsyncExchange( CircuitBreaker breaker, IAsyncExchange exchange ){
+
+			super(breaker, exchange);
+			this.exchange = exchange;
+		}
+
+		@Override
+		public void send( byte[] body, final IResponseListener listener ){
+
+			final long start = System.nanoTime();
+			exchange.send(body, new IResponseListener(){
+
+				@Override
+				public void onResponse( InputStream body ){
+
+					succeeded(start);
+					listener.onResponse(body);
+				}
+
+				@Override
+				public void onFailure( IOException ex ){
+
+					failed(ex, start);
+					listener.onFailure(ex);
+				}
+			});
+		}
+	}
+
+}
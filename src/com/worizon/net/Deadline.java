@@ -0,0 +1,78 @@
+package com.worizon.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a call must be finished, retries, queueing and decoding included. A deadline is set for
+ * every call with {@link HttpRequestBuilder#callTimeout(int)}, for a single call with
+ * {@code Rpc.Sync#call(String, Class, Deadline, Object...)} or for the calls of a proxy method with
+ * {@link com.worizon.jsonrpc.annotations.Timeout}. The earliest deadline wins. The same deadline can be passed to
+ * several calls to share a time budget among them, ex:
+ *
+ * <pre>
+ * Deadline deadline = Deadline.after(500, TimeUnit.MILLISECONDS);
+ * User user = rpc.call("get_user", User.class, deadline, id);
+ * Account account = rpc.call("get_account", Account.class, deadline, user.getAccountId());
+ * </pre>
+ *
+ * The connect and read timeouts of a request are shrunk to the time left, and the time left is sent to the server
+ * in the {@link com.worizon.jsonrpc.Const.Http#DEADLINE_HEADER} header.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public final class Deadline {
+
+	private final long nanos;
+
+	private Deadline( long nanos ){
+
+		this.nanos = nanos;
+	}
+
+	/**
+	 * Creates a deadline after a duration from now.
+	 * @param duration The duration.
+	 * @param unit The unit of the duration.
+	 * @return The deadline.
+	 */
+	public static Deadline after( long duration, TimeUnit unit ){
+
+		if( duration < 0 )
+			throw new IllegalArgumentException("Duration can not be negative");
+		return new Deadline(System.nanoTime() + unit.toNanos(duration));
+	}
+
+	/**
+	 * Gets the earliest of two deadlines, either can be null.
+	 */
+	public static Deadline earliest( Deadline a, Deadline b ){
+
+		if( a == null )
+			return b;
+		if( b == null )
+			return a;
+		return (a.nanos - b.nanos <= 0)?a:b;
+	}
+
+	/**
+	 * Gets the time left, negative once the deadline has passed.
+	 * @param unit The unit of the time left.
+	 */
+	public long timeLeft( TimeUnit unit ){
+
+		return unit.convert(nanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	public boolean isExpired(){
+
+		return nanos - System.nanoTime() <= 0;
+	}
+
+	@Override
+	public String toString(){
+
+		return "Deadline in " + timeLeft(TimeUnit.MILLISECONDS) + " ms";
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.worizon.net;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Thrown when the {@link Deadline} of a call passes before its response is read. The request is not retried.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class DeadlineExceededException extends SocketTimeoutException {
+
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException(){
+
+		super("Call deadline exceeded");
+	}
+
+	/**
+	 * Creates the exception of a request failed after its deadline.
+	 * @param cause The failure of the last attempt.
+	 */
+	public DeadlineExceededException( IOException cause ){
+
+		this();
+		initCause(cause);
+	}
+
+}
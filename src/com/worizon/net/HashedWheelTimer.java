@@ -0,0 +1,355 @@
+package com.worizon.net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.worizon.jsonrpc.Const.Async.DEFAULT_TIMER_TICK;
+import static com.worizon.jsonrpc.Const.Async.DEFAULT_TIMER_WHEEL_SIZE;
+
+/**
+ * Timer for large numbers of short timeouts that are mostly cancelled before they expire, as the deadlines of the
+ * calls in flight, the delays of the hedges and the backoffs of the retries. The timeouts hang from a wheel of
+ * buckets that one thread walks a bucket per tick, so scheduling and cancelling a timeout are O(1) whatever the
+ * number of timeouts pending, and a timeout fires up to a tick late. A timeout further than a turn of the wheel
+ * waits in its bucket for the turns left.
+ * <p>
+ * The tasks run in the thread of the timer and must be short, ex: stop a request or hand work to an executor.
+ * The {@link #getDefault() default} timer is shared by all the features of the clients:
+ *
+ * <pre>
+ * HashedWheelTimer.ITimeout timeout = HashedWheelTimer.getDefault().schedule(task, 200, TimeUnit.MILLISECONDS);
+ * ...
+ * timeout.cancel();
+ * </pre>
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class HashedWheelTimer {
+
+	/**
+	 * Handle of a scheduled task.
+	 */
+	public interface ITimeout{
+
+		/**
+		 * Cancels the task if it did not run yet.
+		 * @return true if the task will not run because of this call.
+		 */
+		public boolean cancel();
+
+		public boolean isExpired();
+
+		public boolean isCancelled();
+	}
+
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private static volatile HashedWheelTimer defaultTimer = null;
+
+	private final long tickNanos;
+	private final Bucket wheel[];
+	private final int mask;
+	private final String threadName;
+	private final long startTime = System.nanoTime();
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile Thread worker = null;
+	private volatile boolean stopped = false;
+
+	/**
+	 * Creates a timer, its thread starts with the first task.
+	 * @param tickMillis Milliseconds between two buckets, the precision of the timer.
+	 * @param wheelSize Number of buckets, rounded up to a power of two.
+	 * @param threadName Name of the daemon thread of the timer.
+	 */
+	public HashedWheelTimer( long tickMillis, int wheelSize, String threadName ){
+
+		if( tickMillis < 1 || wheelSize < 1 || wheelSize > (1 << 30) )
+			throw new IllegalArgumentException("Tick must be positive and wheel size between 1 and 2^30");
+		int size = 1;
+		while( size < wheelSize )
+			size <<= 1;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.wheel = new Bucket[size];
+		for( int i = 0; i < size; i++ )
+			wheel[i] = new Bucket();
+		this.mask = size - 1;
+		this.threadName = threadName;
+	}
+
+	/**
+	 * Gets the timer shared by the hedges, the retries and the deadlines of all the clients.
+	 */
+	public static HashedWheelTimer getDefault(){
+
+		if( defaultTimer == null ){
+
+			synchronized( HashedWheelTimer.class ){
+
+				if( defaultTimer == null )
+					defaultTimer = new HashedWheelTimer(DEFAULT_TIMER_TICK, DEFAULT_TIMER_WHEEL_SIZE, "worizon-timer");
+			}
+		}
+		return defaultTimer;
+	}
+
+	/**
+	 * Schedules a task.
+	 * @param task The task, run in the thread of the timer.
+	 * @param delay Time until the task runs, 0 or negative to run it on the next tick.
+	 * @param unit Unit of the delay.
+	 * @return The timeout to cancel the task.
+	 * @throws IllegalStateException When the timer is stopped.
+	 */
+	public ITimeout schedule( Runnable task, long delay, TimeUnit unit ){
+
+		if( task == null )
+			throw new IllegalArgumentException("Task can not be null");
+		if( stopped )
+			throw new IllegalStateException("Timer stopped");
+		start();
+
+		long now = System.nanoTime() - startTime;
+		long delayNanos = unit.toNanos(Math.max(0, delay));
+		long deadline = (delayNanos > Long.MAX_VALUE - now)?Long.MAX_VALUE:now + delayNanos;
+		Timeout timeout = new Timeout(task, deadline);
+		pending.incrementAndGet();
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Gets the number of tasks scheduled that did not run nor were cancelled.
+	 */
+	public int getPending(){
+
+		return pending.get();
+	}
+
+	/**
+	 * Stops the thread of the timer, the tasks pending do not run.
+	 * @throws IllegalStateException When called on the default timer.
+	 */
+	public void stop(){
+
+		if( this == defaultTimer )
+			throw new IllegalStateException("The default timer can not be stopped");
+		stopped = true;
+		Thread t = worker;
+		if( t != null )
+			t.interrupt();
+	}
+
+	private void start(){
+
+		if( worker == null ){
+
+			synchronized( this ){
+
+				if( worker == null && !stopped ){
+
+					Thread t = new Thread(new Runnable(){
+
+						@Override
+						public void run(){
+
+							work();
+						}
+					}, threadName);
+					t.setDaemon(true);
+					t.start();
+					worker = t;
+				}
+			}
+		}
+	}
+
+	private void work(){
+
+		long tick = 0;
+		while( !stopped ){
+
+			long now = waitForTick(tick);
+			if( now < 0 )
+				return;
+			removeCancelled();
+			transfer(tick);
+			wheel[(int)(tick & mask)].expire(now);
+			tick++;
+		}
+	}
+
+	/**
+	 * Sleeps until the end of the tick.
+	 * @return The time of the timer, -1 if it was stopped.
+	 */
+	private long waitForTick( long tick ){
+
+		long end = tickNanos * (tick + 1);
+		while( true ){
+
+			long now = System.nanoTime() - startTime;
+			if( now >= end )
+				return now;
+			try{
+				TimeUnit.NANOSECONDS.sleep(end - now);
+			}catch(InterruptedException ie){
+				if( stopped )
+					return -1;
+			}
+		}
+	}
+
+	private void removeCancelled(){
+
+		Timeout timeout;
+		while( (timeout = cancelled.poll()) != null ){
+
+			if( timeout.bucket != null )
+				timeout.bucket.remove(timeout);
+		}
+	}
+
+	/**
+	 * Moves the timeouts just scheduled to their buckets.
+	 */
+	private void transfer( long tick ){
+
+		Timeout timeout;
+		while( (timeout = scheduled.poll()) != null ){
+
+			if( timeout.state.get() != PENDING )
+				continue;
+			long expiryTick = timeout.deadline / tickNanos;
+			timeout.rounds = (expiryTick - tick) / wheel.length;
+			wheel[(int)(Math.max(expiryTick, tick) & mask)].add(timeout);//a timeout already due fires on this tick
+		}
+	}
+
+	private class Timeout implements ITimeout{
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		//owned by the thread of the timer
+		private long rounds;
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout prev;
+
+		Timeout( Runnable task, long deadline ){
+
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel(){
+
+			if( !state.compareAndSet(PENDING, CANCELLED) )
+				return false;
+			pending.decrementAndGet();
+			cancelled.add(this);
+			return true;
+		}
+
+		@Override
+		public boolean isExpired(){
+
+			return state.get() == EXPIRED;
+		}
+
+		@Override
+		public boolean isCancelled(){
+
+			return state.get() == CANCELLED;
+		}
+
+		void expire(){
+
+			if( !state.compareAndSet(PENDING, EXPIRED) )
+				return;
+			pending.decrementAndGet();
+			try{
+				task.run();
+			}catch(RuntimeException re){
+				//a failed task must not stop the timer
+			}
+		}
+	}
+
+	/**
+	 * Doubly linked list of the timeouts of a bucket, used only by the thread of the timer.
+	 */
+	private static class Bucket{
+
+		private Timeout head;
+		private Timeout tail;
+
+		void add( Timeout timeout ){
+
+			timeout.bucket = this;
+			if( head == null ){
+
+				head = tail = timeout;
+			}else{
+
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		/**
+		 * Removes a timeout.
+		 * @return The next timeout.
+		 */
+		Timeout remove( Timeout timeout ){
+
+			Timeout next = timeout.next;
+			if( timeout.prev != null )
+				timeout.prev.next = next;
+			if( next != null )
+				next.prev = timeout.prev;
+			if( timeout == head )
+				head = next;
+			if( timeout == tail )
+				tail = timeout.prev;
+			timeout.bucket = null;
+			timeout.next = null;
+			timeout.prev = null;
+			return next;
+		}
+
+		/**
+		 * Runs the timeouts of this turn of the wheel, the rest wait one turn less.
+		 */
+		void expire( long now ){
+
+			Timeout timeout = head;
+			while( timeout != null ){
+
+				if( timeout.rounds <= 0 && timeout.deadline <= now ){
+
+					Timeout next = remove(timeout);
+					timeout.expire();
+					timeout = next;
+				}else if( timeout.isCancelled() ){
+
+					timeout = remove(timeout);
+				}else{
+
+					timeout.rounds--;
+					timeout = timeout.next;
+				}
+			}
+		}
+	}
+
+}
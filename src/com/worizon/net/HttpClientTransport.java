@@ -0,0 +1,200 @@
+package com.worizon.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
+
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT;
+
+/**
+ * Transport backed by Apache HttpClient with a {@link PoolingClientConnectionManager}. Connections are
+ * pooled per route and kept alive between requests. Socket options can be tuned through {@link #getParams()}, ex:
+ *
+ * <pre>
+ * HttpClientTransport transport = new HttpClientTransport(10, 100);
+ * HttpConnectionParams.setSocketBufferSize(transport.getParams(), 16 * 1024);
+ * HttpRequestBuilder builder = new HttpRequestBuilder()
+ *                                 .endpoint("http://myhost.mydomain.com:4444/rpc")
+ *                                 .transport(transport);
+ * </pre>
+ *
+ * <p>
+ * HttpClient's own retry handler is disabled, retries are handled by {@link HttpRequest}.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class HttpClientTransport implements ITransport {
+
+	private final PoolingClientConnectionManager connectionManager;
+	private final DefaultHttpClient client;
+
+	public HttpClientTransport(){
+
+		this(DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT, DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT * 4);
+	}
+
+	/**
+	 * Creates a new transport.
+	 * @param maxConnectionsPerRoute Maximum number of open connections to the same endpoint.
+	 * @param maxConnections Maximum number of open connections to all the endpoints.
+	 */
+	public HttpClientTransport( int maxConnectionsPerRoute, int maxConnections ){
+
+		connectionManager = new PoolingClientConnectionManager();
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+		connectionManager.setMaxTotal(maxConnections);
+		client = new DefaultHttpClient(connectionManager);
+		client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+
+		HttpParams params = client.getParams();
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		HttpConnectionParams.setSoKeepalive(params, true);
+	}
+
+	/**
+	 * Gets the client parameters to tune socket options, ex: buffer sizes, linger, stale checking.
+	 */
+	public HttpParams getParams(){
+
+		return client.getParams();
+	}
+
+	/**
+	 * Gets the connection manager, ex: to change the maximum connections of one route.
+	 */
+	public PoolingClientConnectionManager getConnectionManager(){
+
+		return connectionManager;
+	}
+
+	/**
+	 * Gets the statistics of the connection pool.
+	 */
+	public PoolStats getStats(){
+
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * Closes the connections that have been idle longer than <i>idleTimeout</i> ms.
+	 */
+	public void closeIdleConnections( long idleTimeout ){
+
+		connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public IExchange open( URL endpoint, int connectTimeout, int readTimeout ){
+
+		HttpPost post = new HttpPost(endpoint.toString());
+		HttpConnectionParams.setConnectionTimeout(post.getParams(), connectTimeout);
+		HttpConnectionParams.setSoTimeout(post.getParams(), readTimeout);
+		return new HttpClientExchange(post);
+	}
+
+	@Override
+	public void shutdown(){
+
+		connectionManager.shutdown();
+	}
+
+	private class HttpClientExchange implements IExchange{
+
+		private final HttpPost post;
+		private int statusCode = -1;
+		private volatile boolean written = false;
+
+		HttpClientExchange( HttpPost post ){
+
+			this.post = post;
+		}
+
+		@Override
+		public void setHeader( String key, String value ){
+
+			post.setHeader(key, value);
+		}
+
+		@Override
+		public InputStream send( byte[] body ) throws IOException{
+
+			return send(new ByteArrayPayload(body));
+		}
+
+		/**
+		 * Sends the body as an entity written by the payload, chunked when the payload length is unknown. The
+		 * failures before the payload is written are thrown as a {@link RequestNotSentException}.
+		 */
+		@Override
+		public InputStream send( final IPayload payload ) throws IOException{
+
+			final long length = payload.getLength();
+			EntityTemplate entity = new EntityTemplate(new ContentProducer(){
+
+				@Override
+				public void writeTo( OutputStream out ) throws IOException{
+
+					payload.writeTo(out);
+					written = true;
+				}
+			}){
+
+				@Override
+				public long getContentLength(){
+
+					return length;
+				}
+			};
+			entity.setChunked(length < 0);
+			return execute(entity);
+		}
+
+		private InputStream execute( HttpEntity requestEntity ) throws IOException{
+
+			post.setEntity(requestEntity);
+			HttpResponse response;
+			try{
+				response = client.execute(post);
+			}catch(IOException ex){
+				if( !written )
+					throw new RequestNotSentException(ex);
+				throw ex;
+			}
+			statusCode = response.getStatusLine().getStatusCode();
+			HttpEntity entity = response.getEntity();
+			if( entity == null )
+				return new ByteArrayInputStream(new byte[0]);
+			return entity.getContent();//closing the content stream releases the connection.
+		}
+
+		@Override
+		public int getStatusCode(){
+
+			return statusCode;
+		}
+
+		@Override
+		public void abort(){
+
+			post.abort();
+		}
+	}
+
+}
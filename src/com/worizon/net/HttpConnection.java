@@ -0,0 +1,521 @@
+package com.worizon.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.worizon.net.ITransport.IPayload;
+
+/**
+ * Persistent HTTP/1.1 connection over a plain socket. Objects of this class are leased from and
+ * released back to a {@link HttpConnectionPool}, so the same socket can carry many request/response
+ * exchanges one after the other.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+class HttpConnection {
+
+	private static final String CRLF = "\r\n";
+
+	/**
+	 * Key of the endpoint this connection is attached to, as host:port.
+	 */
+	private final String route;
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+
+	/**
+	 * Timestamp of the last time this connection was released back to the pool.
+	 */
+	private long lastUsed = System.currentTimeMillis();
+
+	/**
+	 * Number of exchanges carried by this connection.
+	 */
+	private int exchanges = 0;
+
+	private int statusCode = -1;
+	private Map<String,String> responseHeaders = new LinkedHashMap<String,String>();
+
+	/**
+	 * False when the server asked to close the connection or the response body length
+	 * could only be delimited by closing the connection.
+	 */
+	private boolean keepAlive = true;
+	private volatile boolean closed = false;
+
+	/**
+	 * Opens a new connection to the endpoint.
+	 * @param endpoint Endpoint to connect to.
+	 * @param connectTimeout Connection timeout in ms.
+	 */
+	HttpConnection( URL endpoint, int connectTimeout ) throws IOException{
+
+		this.route = HttpConnectionPool.routeOf(endpoint);
+		this.socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.setKeepAlive(true);
+		socket.connect(new InetSocketAddress(endpoint.getHost(), portOf(endpoint)), connectTimeout);
+		this.in = new BufferedInputStream(socket.getInputStream());
+		this.out = new BufferedOutputStream(socket.getOutputStream());
+	}
+
+	static int portOf( URL endpoint ){
+
+		return (endpoint.getPort() != -1)?endpoint.getPort():endpoint.getDefaultPort();
+	}
+
+	String getRoute(){
+
+		return route;
+	}
+
+	long getLastUsed(){
+
+		return lastUsed;
+	}
+
+	void touch(){
+
+		lastUsed = System.currentTimeMillis();
+	}
+
+	int getExchanges(){
+
+		return exchanges;
+	}
+
+	void setReadTimeout( int readTimeout ) throws IOException{
+
+		socket.setSoTimeout(readTimeout);
+	}
+
+	/**
+	 * Writes a POST request to the socket.
+	 * @param endpoint The endpoint, its path and query are used as request target.
+	 * @param headers Request headers.
+	 * @param body Encoded request body.
+	 */
+	void writeRequest( URL endpoint, Map<String,String> headers, byte[] body ) throws IOException{
+
+		writeRequest(endpoint, headers, new ByteArrayPayload(body));
+	}
+
+	/**
+	 * Writes a POST request to the socket, the body is written by the payload with fixed-length or
+	 * chunked transfer encoding.
+	 * @param endpoint The endpoint, its path and query are used as request target.
+	 * @param headers Request headers.
+	 * @param payload Request body.
+	 */
+	void writeRequest( URL endpoint, Map<String,String> headers, IPayload payload ) throws IOException{
+
+		exchanges++;
+		statusCode = -1;
+		responseHeaders.clear();
+		keepAlive = true;
+
+		long length = payload.getLength();
+		String target = endpoint.getFile();
+		StringBuilder head = new StringBuilder(256);
+		head.append("POST ").append(target.length() == 0?"/":target).append(" HTTP/1.1").append(CRLF);
+		head.append("Host: ").append(endpoint.getHost());
+		if( endpoint.getPort() != -1 )
+			head.append(':').append(endpoint.getPort());
+		head.append(CRLF);
+		for( Entry<String,String> entry: headers.entrySet() ){
+
+			if( !entry.getKey().equalsIgnoreCase("Content-Length") && !entry.getKey().equalsIgnoreCase("Transfer-Encoding") )
+				head.append(entry.getKey()).append(": ").append(entry.getValue()).append(CRLF);
+		}
+		if( length >= 0 )
+			head.append("Content-Length: ").append(length).append(CRLF);
+		else
+			head.append("Transfer-Encoding: chunked").append(CRLF);
+		head.append(CRLF);
+
+		out.write(head.toString().getBytes("ISO-8859-1"));
+		if( length >= 0 ){
+			payload.writeTo(out);
+		}else{
+			ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+			payload.writeTo(chunked);
+			chunked.finish();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads the status line and headers of the response, interim 1xx responses are skipped.
+	 * @return The stream to read the body of the response.
+	 */
+	InputStream readResponse() throws IOException{
+
+		do{
+			String statusLine = readLine();
+			if( statusLine == null )
+				throw new ProtocolException("Connection closed by server before response");
+
+			String parts[] = statusLine.split(" ", 3);
+			if( parts.length < 2 || !parts[0].startsWith("HTTP/") )
+				throw new ProtocolException("Malformed status line: " + statusLine);
+			try{
+				statusCode = Integer.parseInt(parts[1]);
+			}catch(NumberFormatException nfe){
+				throw new ProtocolException("Malformed status line: " + statusLine);
+			}
+			keepAlive = !parts[0].equals("HTTP/1.0");
+
+			responseHeaders.clear();
+			String line;
+			while( (line = readLine()) != null && line.length() > 0 ){
+
+				int colon = line.indexOf(':');
+				if( colon > 0 )
+					responseHeaders.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+			}
+		}while( statusCode >= 100 && statusCode < 200 );
+
+		String connection = responseHeaders.get("connection");
+		if( connection != null ){
+
+			if( connection.equalsIgnoreCase("close") )
+				keepAlive = false;
+			else if( connection.equalsIgnoreCase("keep-alive") )
+				keepAlive = true;
+		}
+
+		if( statusCode == 204 || statusCode == 304 )
+			return new ContentLengthInputStream(in, 0);
+
+		String transferEncoding = responseHeaders.get("transfer-encoding");
+		if( transferEncoding != null && transferEncoding.equalsIgnoreCase("chunked") )
+			return new ChunkedInputStream(in);
+
+		String contentLength = responseHeaders.get("content-length");
+		if( contentLength != null ){
+
+			try{
+				return new ContentLengthInputStream(in, Long.parseLong(contentLength));
+			}catch(NumberFormatException nfe){
+				throw new ProtocolException("Malformed Content-Length: " + contentLength);
+			}
+		}
+
+		//body delimited by connection close
+		keepAlive = false;
+		return in;
+	}
+
+	int getStatusCode(){
+
+		return statusCode;
+	}
+
+	String getResponseHeader( String key ){
+
+		return responseHeaders.get(key.toLowerCase());
+	}
+
+	boolean isKeepAlive(){
+
+		return keepAlive;
+	}
+
+	/**
+	 * Checks if this idle connection can be reused. The state of the socket and the bytes ready to be read
+	 * are checked every time, an idle connection should have nothing to read. Only when the connection has
+	 * been idle for <i>validateAfterInactivity</i> ms the socket is peeked with a 1ms timeout, so either EOF
+	 * or unexpected data marks it as stale.
+	 * @param validateAfterInactivity Idle ms before the socket is peeked, 0 to peek it always and a negative
+	 * value to never peek it.
+	 * @return true if this connection must not be reused.
+	 */
+	boolean isStale( long validateAfterInactivity ){
+
+		if( closed || socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown() )
+			return true;
+
+		try{
+			if( in.available() > 0 )
+				return true;//unexpected data on an idle connection
+
+			if( validateAfterInactivity < 0 || System.currentTimeMillis() - lastUsed < validateAfterInactivity )
+				return false;//recently used, a close of the server is left to the retries of the request
+
+			int soTimeout = socket.getSoTimeout();
+			try{
+				socket.setSoTimeout(1);
+				in.read();//either EOF or unexpected data on an idle connection
+				return true;
+			}finally{
+				socket.setSoTimeout(soTimeout);
+			}
+		}catch(SocketTimeoutException ste){
+			return false;
+		}catch(IOException ioe){
+			return true;
+		}
+	}
+
+	boolean isClosed(){
+
+		return closed;
+	}
+
+	/**
+	 * Closes the underlying socket. It's safe to call this method from other thread to abort an exchange in course.
+	 */
+	void close(){
+
+		closed = true;
+		try{
+			socket.close();
+		}catch(IOException ioe){}
+	}
+
+	private String readLine() throws IOException{
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int b;
+		while( (b = in.read()) != -1 ){
+
+			if( b == '\n' ){
+
+				byte bytes[] = line.toByteArray();
+				int length = bytes.length;
+				if( length > 0 && bytes[length - 1] == '\r' )
+					length--;
+				return new String(bytes, 0, length, "ISO-8859-1");
+			}
+			line.write(b);
+		}
+		return (line.size() > 0)?new String(line.toByteArray(), "ISO-8859-1"):null;
+	}
+
+	/**
+	 * Body stream delimited by the Content-Length header.
+	 */
+	private static class ContentLengthInputStream extends InputStream{
+
+		private final InputStream in;
+		private long remaining;
+
+		ContentLengthInputStream( InputStream in, long length ){
+
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException{
+
+			if( remaining <= 0 )
+				return -1;
+			int b = in.read();
+			if( b == -1 )
+				throw new ProtocolException("Premature end of response body");
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read( byte[] buffer, int offset, int length ) throws IOException{
+
+			if( remaining <= 0 )
+				return -1;
+			int n = in.read(buffer, offset, (int)Math.min(length, remaining));
+			if( n == -1 )
+				throw new ProtocolException("Premature end of response body");
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException{
+
+			return (int)Math.min(in.available(), remaining);
+		}
+
+		@Override
+		public void close(){
+			//underlying stream belongs to the connection.
+		}
+	}
+
+	/**
+	 * Request body stream with chunked transfer encoding. Writes are buffered into chunks of up to
+	 * CHUNK_SIZE bytes, {@link #finish()} writes the last chunk.
+	 */
+	private static class ChunkedOutputStream extends OutputStream{
+
+		private static final int CHUNK_SIZE = 8192;
+		private final OutputStream out;
+		private final byte buffer[] = new byte[CHUNK_SIZE];
+		private int count = 0;
+
+		ChunkedOutputStream( OutputStream out ){
+
+			this.out = out;
+		}
+
+		@Override
+		public void write( int b ) throws IOException{
+
+			if( count == buffer.length )
+				flushChunk();
+			buffer[count++] = (byte)b;
+		}
+
+		@Override
+		public void write( byte[] data, int offset, int length ) throws IOException{
+
+			if( length >= buffer.length ){//large writes skip the buffer
+
+				flushChunk();
+				writeChunk(data, offset, length);
+				return;
+			}
+			if( count + length > buffer.length )
+				flushChunk();
+			System.arraycopy(data, offset, buffer, count, length);
+			count += length;
+		}
+
+		@Override
+		public void flush() throws IOException{
+
+			flushChunk();
+			out.flush();
+		}
+
+		/**
+		 * Writes the pending data and the last chunk, the underlying stream is left open.
+		 */
+		void finish() throws IOException{
+
+			flushChunk();
+			out.write(("0" + CRLF + CRLF).getBytes("ISO-8859-1"));
+		}
+
+		@Override
+		public void close(){
+			//underlying stream belongs to the connection.
+		}
+
+		private void flushChunk() throws IOException{
+
+			if( count > 0 ){
+				writeChunk(buffer, 0, count);
+				count = 0;
+			}
+		}
+
+		private void writeChunk( byte[] data, int offset, int length ) throws IOException{
+
+			out.write((Integer.toHexString(length) + CRLF).getBytes("ISO-8859-1"));
+			out.write(data, offset, length);
+			out.write(CRLF.getBytes("ISO-8859-1"));
+		}
+	}
+
+	/**
+	 * Body stream with chunked transfer encoding.
+	 */
+	private static class ChunkedInputStream extends InputStream{
+
+		private final InputStream in;
+		private long chunkRemaining = 0;
+		private boolean eof = false;
+
+		ChunkedInputStream( InputStream in ){
+
+			this.in = in;
+		}
+
+		private boolean nextChunk() throws IOException{
+
+			if( eof )
+				return false;
+			if( chunkRemaining == 0 ){
+
+				String size = readChunkLine();
+				if( size.length() == 0 )//CRLF at the end of the previous chunk
+					size = readChunkLine();
+				int semicolon = size.indexOf(';');
+				if( semicolon != -1 )
+					size = size.substring(0, semicolon);
+				try{
+					chunkRemaining = Long.parseLong(size.trim(), 16);
+				}catch(NumberFormatException nfe){
+					throw new ProtocolException("Malformed chunk size: " + size);
+				}
+				if( chunkRemaining == 0 ){
+
+					//skip trailers up to the empty line
+					while( readChunkLine().length() > 0 );
+					eof = true;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private String readChunkLine() throws IOException{
+
+			StringBuilder line = new StringBuilder();
+			int b;
+			while( (b = in.read()) != '\n' ){
+
+				if( b == -1 )
+					throw new ProtocolException("Premature end of chunked response body");
+				if( b != '\r' )
+					line.append((char)b);
+			}
+			return line.toString();
+		}
+
+		@Override
+		public int read() throws IOException{
+
+			if( !nextChunk() )
+				return -1;
+			int b = in.read();
+			if( b == -1 )
+				throw new ProtocolException("Premature end of chunked response body");
+			chunkRemaining--;
+			return b;
+		}
+
+		@Override
+		public int read( byte[] buffer, int offset, int length ) throws IOException{
+
+			if( !nextChunk() )
+				return -1;
+			int n = in.read(buffer, offset, (int)Math.min(length, chunkRemaining));
+			if( n == -1 )
+				throw new ProtocolException("Premature end of chunked response body");
+			chunkRemaining -= n;
+			return n;
+		}
+
+		@Override
+		public void close(){
+			//underlying stream belongs to the connection.
+		}
+	}
+
+}
@@ -0,0 +1,545 @@
+package com.worizon.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_IDLE_CONNECTION_TIMEOUT;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_VALIDATE_AFTER_INACTIVITY;
+
+/**
+ * Transport with a pool of persistent HTTP/1.1 connections. Connections are grouped by endpoint (host:port) and each endpoint
+ * can hold up to <i>maxConnectionsPerEndpoint</i> open connections at the same time. Once a request is done
+ * its connection is put back into the pool, so next requests to the same endpoint skip the TCP handshake.
+ *
+ * <p>
+ * Idle connections are evicted after <i>idleTimeout</i> milliseconds and checked for staleness before being
+ * reused. The check is cheap on every lease, the socket is only peeked for a close of the server when the connection
+ * has been idle for <i>validateAfterInactivity</i> milliseconds. A connection closed by the server before that is
+ * left to the retries of the request.
+ *
+ * <p>
+ * A pool is meant to be shared by all the requests built from the same {@link HttpRequestBuilder}, ex:
+ *
+ * <pre>
+ * HttpConnectionPool pool = new HttpConnectionPool(10, 30000);
+ * HttpRequestBuilder builder = new HttpRequestBuilder()
+ *                                 .endpoint("http://myhost.mydomain.com:4444/rpc")
+ *                                 .connectionPool(pool);
+ * Rpc.Sync rpc = new Rpc.Sync(builder);
+ * ...
+ * System.out.println(pool.getStats());
+ * </pre>
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class HttpConnectionPool implements ITransport {
+
+	private final int maxConnectionsPerEndpoint;
+	private final long idleTimeout;
+	private final long validateAfterInactivity;
+	private final Map<String, Route> routes = new HashMap<String, Route>();
+	private volatile boolean shutdown = false;
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+	private final AtomicLong evicted = new AtomicLong();
+	private final AtomicLong stale = new AtomicLong();
+
+	public HttpConnectionPool(){
+
+		this(DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT, DEFAULT_IDLE_CONNECTION_TIMEOUT);
+	}
+
+	/**
+	 * Creates a new pool.
+	 * @param maxConnectionsPerEndpoint Maximum number of open connections to the same endpoint.
+	 * @param idleTimeout Milliseconds an idle connection is kept open in the pool.
+	 */
+	public HttpConnectionPool( int maxConnectionsPerEndpoint, long idleTimeout ){
+
+		this(maxConnectionsPerEndpoint, idleTimeout, DEFAULT_VALIDATE_AFTER_INACTIVITY);
+	}
+
+	/**
+	 * Creates a new pool.
+	 * @param maxConnectionsPerEndpoint Maximum number of open connections to the same endpoint.
+	 * @param idleTimeout Milliseconds an idle connection is kept open in the pool.
+	 * @param validateAfterInactivity Milliseconds an idle connection has to wait before its socket is peeked
+	 * when reused, 0 to peek it always and a negative value to never peek it.
+	 */
+	public HttpConnectionPool( int maxConnectionsPerEndpoint, long idleTimeout, long validateAfterInactivity ){
+
+		if( maxConnectionsPerEndpoint <= 0 )
+			throw new IllegalArgumentException("maxConnectionsPerEndpoint must be greater than 0");
+		this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+		this.idleTimeout = idleTimeout;
+		this.validateAfterInactivity = validateAfterInactivity;
+	}
+
+	/**
+	 * Gets the maximum number of connections per endpoint.
+	 */
+	public int getMaxConnectionsPerEndpoint(){
+
+		return maxConnectionsPerEndpoint;
+	}
+
+	/**
+	 * Gets the number of milliseconds an idle connection is kept open.
+	 */
+	public long getIdleTimeout(){
+
+		return idleTimeout;
+	}
+
+	/**
+	 * Gets the number of milliseconds an idle connection waits before its socket is peeked when reused.
+	 */
+	public long getValidateAfterInactivity(){
+
+		return validateAfterInactivity;
+	}
+
+	@Override
+	public IExchange open( URL endpoint, int connectTimeout, int readTimeout ){
+		
+		return new PooledExchange(endpoint, connectTimeout, readTimeout);
+	}
+	
+	static String routeOf( URL endpoint ){
+
+		return endpoint.getHost().toLowerCase() + ":" + HttpConnection.portOf(endpoint);
+	}
+
+	private synchronized Route getRoute( String key ){
+
+		Route route = routes.get(key);
+		if( route == null ){
+			route = new Route(maxConnectionsPerEndpoint);
+			routes.put(key, route);
+		}
+		return route;
+	}
+
+	/**
+	 * Leases a connection to the endpoint. An idle connection is reused if there is a non stale one,
+	 * otherwise a new connection is opened. When all the connections to the endpoint are in use the
+	 * caller waits up to <i>connectTimeout</i> ms for one of them to be released.
+	 * @param endpoint Endpoint to connect to.
+	 * @param connectTimeout Connection timeout in ms.
+	 * @return A connection ready to write a request.
+	 * @throws SocketTimeoutException When no connection has been released in time.
+	 */
+	HttpConnection lease( URL endpoint, int connectTimeout ) throws IOException, InterruptedException{
+
+		if( shutdown )
+			throw new IllegalStateException("Connection pool shut down");
+
+		Route route = getRoute(routeOf(endpoint));
+		boolean acquired = (connectTimeout > 0)?
+				route.permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS):
+				acquire(route.permits);
+		if( !acquired )
+			throw new SocketTimeoutException("Timeout waiting for a connection to " + routeOf(endpoint));
+
+		try{
+			HttpConnection conn;
+			while( (conn = route.pollIdle(idleTimeout, evicted)) != null ){
+
+				if( !conn.isStale(validateAfterInactivity) ){
+					reused.incrementAndGet();
+					return conn;
+				}
+				stale.incrementAndGet();
+				conn.close();
+			}
+			conn = new HttpConnection(endpoint, connectTimeout);
+			created.incrementAndGet();
+			return conn;
+		}catch(IOException ex){
+			route.permits.release();
+			throw ex;
+		}catch(RuntimeException ex){
+			route.permits.release();
+			throw ex;
+		}
+	}
+
+	private static boolean acquire( Semaphore permits ) throws InterruptedException{
+
+		permits.acquire();
+		return true;
+	}
+
+	/**
+	 * Gives back a leased connection to the pool.
+	 * @param conn The connection leased with {@link #lease(URL, int)}.
+	 * @param reusable False if the connection must be closed because the exchange was not completed.
+	 */
+	void release( HttpConnection conn, boolean reusable ){
+
+		Route route = getRoute(conn.getRoute());
+		if( reusable && !shutdown && conn.isKeepAlive() && !conn.isClosed() ){
+
+			conn.touch();
+			route.pushIdle(conn);
+		}else
+			conn.close();
+		route.permits.release();
+	}
+
+	/**
+	 * Closes the connections that have been idle for longer than the idle timeout.
+	 * Expired connections are also evicted lazily every time a connection is leased.
+	 */
+	public void closeExpiredConnections(){
+
+		for( Route route: snapshotRoutes() )
+			route.evictExpired(idleTimeout, evicted);
+	}
+
+	/**
+	 * Closes all the idle connections in the pool.
+	 */
+	public void closeIdleConnections(){
+
+		for( Route route: snapshotRoutes() )
+			route.evictExpired(-1, evicted);
+	}
+
+	/**
+	 * Closes all idle connections, leased connections will be closed as soon as they are released.
+	 */
+	@Override
+	public void shutdown(){
+
+		shutdown = true;
+		closeIdleConnections();
+	}
+
+	private synchronized List<Route> snapshotRoutes(){
+
+		return new ArrayList<Route>(routes.values());
+	}
+
+	/**
+	 * Gets the statistics of the whole pool.
+	 */
+	public Stats getStats(){
+
+		int leased = 0, idle = 0;
+		List<Route> snapshot = snapshotRoutes();
+		for( Route route: snapshot ){
+			leased += maxConnectionsPerEndpoint - route.permits.availablePermits();
+			idle += route.idleCount();
+		}
+		return new Stats(leased, idle, maxConnectionsPerEndpoint * snapshot.size(),
+				created.get(), reused.get(), evicted.get(), stale.get());
+	}
+
+	/**
+	 * Gets the statistics of one endpoint. Counters of created, reused, evicted and stale connections
+	 * are global to the pool.
+	 * @param endpoint The endpoint.
+	 */
+	public Stats getStats( String endpoint ) throws IOException{
+
+		Route route = getRoute(routeOf(new URL(endpoint)));
+		return new Stats(maxConnectionsPerEndpoint - route.permits.availablePermits(), route.idleCount(),
+				maxConnectionsPerEndpoint, created.get(), reused.get(), evicted.get(), stale.get());
+	}
+
+	/**
+	 * Exchange over a leased connection. The connection is given back to the pool when the response stream 
+	 * is closed, or closed if the exchange failed.
+	 */
+	private class PooledExchange implements IExchange{
+		
+		private final URL endpoint;
+		private final int connectTimeout;
+		private final int readTimeout;
+		private final Map<String,String> headers = new LinkedHashMap<String,String>();
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		private volatile HttpConnection conn = null;
+		private volatile boolean aborted = false;
+		private int statusCode = -1;
+		
+		PooledExchange( URL endpoint, int connectTimeout, int readTimeout ){
+			
+			this.endpoint = endpoint;
+			this.connectTimeout = connectTimeout;
+			this.readTimeout = readTimeout;
+			headers.put("Cache-Control", "no-cache");
+			headers.put("Pragma", "no-cache");
+			headers.put("Connection", "keep-alive");
+		}
+		
+		@Override
+		public void setHeader( String key, String value ){
+			
+			headers.put(key, value);
+		}
+		
+		@Override
+		public InputStream send( byte[] body ) throws IOException, InterruptedException{
+			
+			return send(new ByteArrayPayload(body));
+		}
+		
+		@Override
+		public InputStream send( IPayload payload ) throws IOException, InterruptedException{
+			
+			HttpConnection leased;
+			try{
+				leased = lease(endpoint, connectTimeout);
+			}catch(IOException ex){
+				throw new RequestNotSentException(ex);
+			}
+			conn = leased;
+			try{
+				if( aborted )
+					throw new SocketException("Exchange aborted");
+				leased.setReadTimeout(readTimeout);
+				try{
+					leased.writeRequest(endpoint, headers, payload);
+				}catch(IOException ex){
+					throw new RequestNotSentException(ex);
+				}
+				InputStream is = leased.readResponse();
+				statusCode = leased.getStatusCode();
+				return new ResponseStream(is);
+			}catch(IOException ex){
+				releaseConnection(false);
+				throw ex;
+			}catch(RuntimeException ex){
+				releaseConnection(false);
+				throw ex;
+			}
+		}
+		
+		@Override
+		public int getStatusCode(){
+			
+			return statusCode;
+		}
+		
+		@Override
+		public void abort(){
+			
+			aborted = true;
+			HttpConnection leased = conn;
+			if( leased != null && !released.get() )
+				leased.close();
+		}
+		
+		private void releaseConnection( boolean reusable ){
+			
+			if( released.compareAndSet(false, true) )
+				release(conn, reusable);
+		}
+		
+		/**
+		 * Response body of a pooled connection. Closing this stream drains any unread content, so the connection 
+		 * can be reused, and releases the connection back to the pool.
+		 */
+		private class ResponseStream extends FilterInputStream{
+			
+			private boolean failed = false;
+			
+			ResponseStream( InputStream body ){
+				
+				super(body);
+			}
+			
+			@Override
+			public int read() throws IOException{
+				
+				try{
+					return super.read();
+				}catch(IOException ex){
+					failed = true;
+					throw ex;
+				}
+			}
+			
+			@Override
+			public int read( byte[] buffer, int offset, int length ) throws IOException{
+				
+				try{
+					return super.read(buffer, offset, length);
+				}catch(IOException ex){
+					failed = true;
+					throw ex;
+				}
+			}
+			
+			@Override
+			public void close(){
+				
+				boolean reusable = !failed && !aborted;
+				if( reusable ){
+					try{
+						byte skipBuffer[] = new byte[1024];
+						while( in.read(skipBuffer, 0, skipBuffer.length) != -1 );
+					}catch(IOException ex){
+						reusable = false;
+					}
+				}
+				releaseConnection(reusable);
+			}
+		}
+	}
+	
+	/**
+	 * Connections to the same endpoint.
+	 */
+	private static class Route{
+
+		private final LinkedList<HttpConnection> idle = new LinkedList<HttpConnection>();
+		private final Semaphore permits;
+
+		Route( int maxConnections ){
+
+			permits = new Semaphore(maxConnections, true);
+		}
+
+		/**
+		 * Takes the most recently used idle connection, expired ones are closed along the way.
+		 */
+		synchronized HttpConnection pollIdle( long idleTimeout, AtomicLong evicted ){
+
+			evictExpired(idleTimeout, evicted);
+			return idle.pollFirst();
+		}
+
+		synchronized void pushIdle( HttpConnection conn ){
+
+			idle.addFirst(conn);
+		}
+
+		synchronized int idleCount(){
+
+			return idle.size();
+		}
+
+		synchronized void evictExpired( long idleTimeout, AtomicLong evicted ){
+
+			long now = System.currentTimeMillis();
+			Iterator<HttpConnection> it = idle.iterator();
+			while( it.hasNext() ){
+
+				HttpConnection conn = it.next();
+				if( idleTimeout < 0 || now - conn.getLastUsed() >= idleTimeout ){
+					it.remove();
+					conn.close();
+					evicted.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Snapshot of the pool statistics.
+	 */
+	public static class Stats{
+
+		private final int leased;
+		private final int idle;
+		private final int max;
+		private final long created;
+		private final long reused;
+		private final long evicted;
+		private final long stale;
+
+		Stats( int leased, int idle, int max, long created, long reused, long evicted, long stale ){
+
+			this.leased = leased;
+			this.idle = idle;
+			this.max = max;
+			this.created = created;
+			this.reused = reused;
+			this.evicted = evicted;
+			this.stale = stale;
+		}
+
+		/**
+		 * Gets the number of connections in use.
+		 */
+		public int getLeased(){
+
+			return leased;
+		}
+
+		/**
+		 * Gets the number of idle connections ready to be reused.
+		 */
+		public int getIdle(){
+
+			return idle;
+		}
+
+		/**
+		 * Gets the maximum number of connections.
+		 */
+		public int getMax(){
+
+			return max;
+		}
+
+		/**
+		 * Gets the number of connections opened so far.
+		 */
+		public long getCreated(){
+
+			return created;
+		}
+
+		/**
+		 * Gets the number of times an idle connection was reused.
+		 */
+		public long getReused(){
+
+			return reused;
+		}
+
+		/**
+		 * Gets the number of idle connections closed because of the idle timeout.
+		 */
+		public long getEvicted(){
+
+			return evicted;
+		}
+
+		/**
+		 * Gets the number of idle connections found closed by the server when they were about to be reused.
+		 */
+		public long getStale(){
+
+			return stale;
+		}
+
+		public String toString(){
+
+			return "{leased:" + leased + ", idle:" + idle + ", max:" + max + ", created:" + created +
+					", reused:" + reused + ", evicted:" + evicted + ", stale:" + stale + "}";
+		}
+	}
+
+}
@@ -1,42 +1,64 @@
 package com.worizon.net;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.net.MalformedURLException;
-import java.net.SocketException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.validator.routines.UrlValidator;
 
 import static com.worizon.jsonrpc.Const.Http.DEFAULT_CONNECT_RETRIES;
 import static com.worizon.jsonrpc.Const.Http.DEFAULT_READ_TIMEOUT;
 import static com.worizon.jsonrpc.Const.Http.DEFAULT_CONNECT_TIMEOUT;
+import static com.worizon.jsonrpc.Const.Http.DEADLINE_HEADER;
 import com.worizon.jsonrpc.TransformerException;
+import com.worizon.net.IAsyncTransport.IAsyncExchange;
+import com.worizon.net.IAsyncTransport.IResponseListener;
+import com.worizon.net.ITransport.IExchange;
+import com.worizon.net.ITransport.IPayload;
 
 /**
- * Class to make HTTP POST requests. Each new request must create a new HttpRequest.
+ * Class to make HTTP POST requests. Each new request must create a new HttpRequest. The bytes are moved
+ * to and from the endpoint by an {@link ITransport}, by default a new HttpURLConnection per request.
  * 
  * @author Enric Cecilla
  * @since 1.0.0
  */
 public class HttpRequest {
 	
+	private static final ITransport DEFAULT_TRANSPORT = new UrlConnectionTransport();
+	
 	private URL endpoint;
-	private int nRetries = DEFAULT_CONNECT_RETRIES;	
+	private RetryPolicy retryPolicy = new RetryPolicy(DEFAULT_CONNECT_RETRIES);
+	private boolean idempotent = false;
 	private int readTimeout = DEFAULT_READ_TIMEOUT;	
 	private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
-	private Thread performThread = null;
-	private HttpURLConnection conn = null;	
+	private volatile Thread performThread = null;
+	private ITransport transport = DEFAULT_TRANSPORT;
+	private LoadBalancer balancer = null;
+	private CircuitBreakerPolicy breakers = null;
+	private volatile Deadline deadline = null;
+	private volatile URL avoidedEndpoint = null;
+	private volatile URL exchangeEndpoint = null;
+	private volatile IExchange exchange = null;
+	private volatile boolean stopped = false;
+	private final ReentrantLock backoffLock = new ReentrantLock();//waits do not pin virtual threads
+	private final Condition backoffStopped = backoffLock.newCondition();
+	private boolean streamResponses = false;
+	private boolean streamRequests = false;
+	private boolean chunkedRequests = false;
 	private TransformerContext ctx = this.new TransformerContext();
 	private List<ITransformer> transformers = new LinkedList<ITransformer>();		
 	
@@ -45,10 +67,16 @@ public class HttpRequest {
 	public HttpRequest( HttpRequestBuilder builder ) throws MalformedURLException{
 		
 		setEndpoint(builder.endpoint);		
-		setRequestRetries(builder.nRetries);
+		setRetryPolicy(builder.retryPolicy());
 		setReadTimeout(builder.readTimeout);
 		setConnectTimeout(builder.connectTimeout);
 		addTransformers(builder.transformers);
+		setTransport(builder.transport);
+		setStreamResponses(builder.streamResponses);
+		setStreamRequests(builder.streamRequests, builder.chunkedRequests);
+		setLoadBalancer(builder.loadBalancer());
+		setCircuitBreaker(builder.circuitBreaker);
+		setDeadline(builder.deadline());
 		
 	}		
 	
@@ -59,7 +87,7 @@ public class HttpRequest {
 	
 	void setRequestRetries( int nRetries ){
 		
-		this.nRetries = nRetries;
+		this.retryPolicy = new RetryPolicy(nRetries);
 	}
 	
 	/**
@@ -68,7 +96,35 @@ public class HttpRequest {
 	 */
 	public int getRequestRetries(){
 		
-		return this.nRetries;
+		return retryPolicy.getMaxRetries();
+	}
+	
+	/**
+	 * Sets the rules to retry this request when it fails.
+	 * @param retryPolicy The policy, shared by the requests of a builder.
+	 */
+	void setRetryPolicy( RetryPolicy retryPolicy ){
+		
+		this.retryPolicy = retryPolicy;
+	}
+	
+	public RetryPolicy getRetryPolicy(){
+		
+		return retryPolicy;
+	}
+	
+	/**
+	 * Marks this request as idempotent, so it can be retried even when it failed after reaching the server.
+	 * @param idempotent true if the server can process this request twice.
+	 */
+	public void setIdempotent( boolean idempotent ){
+		
+		this.idempotent = idempotent;
+	}
+	
+	public boolean isIdempotent(){
+		
+		return idempotent;
 	}
 	
 	/**
@@ -124,13 +180,157 @@ public class HttpRequest {
 	 */
 	void setEndpoint( String endpoint ) throws MalformedURLException{
 				
+		this.endpoint = parseEndpoint(endpoint);
+	}	
+	
+	/**
+	 * Validates an rpc endpoint.
+	 * @param endpoint The rpc endpoint.
+	 * @return The URL of the endpoint.
+	 * @throws MalformedURLException When the URL string is not valid.
+	 */
+	static URL parseEndpoint( String endpoint ) throws MalformedURLException{
+		
 		UrlValidator validator = new UrlValidator(new String[]{"http"},UrlValidator.ALLOW_LOCAL_URLS);
 		if( validator.isValid(endpoint ))
-			this.endpoint = new URL(endpoint);
+			return new URL(endpoint);
 		else
 			throw new MalformedURLException();
+	}
+	
+	/**
+	 * Sets the load balancer choosing the endpoint of each exchange.
+	 * @param balancer The load balancer, null to send the requests to the endpoint.
+	 */
+	void setLoadBalancer( LoadBalancer balancer ){
 		
-	}	
+		this.balancer = balancer;
+	}
+	
+	/**
+	 * Gets the load balancer choosing the endpoint of each exchange, null if the requests go to the endpoint.
+	 */
+	public LoadBalancer getLoadBalancer(){
+		
+		return balancer;
+	}
+	
+	/**
+	 * Sets the endpoint the load balancer does not choose for the exchanges of this request, unless it is the only
+	 * one, ex: the endpoint of the request this request is a hedge of.
+	 * @param avoidedEndpoint The endpoint, null to choose among all of them.
+	 */
+	public void setAvoidedEndpoint( URL avoidedEndpoint ){
+		
+		this.avoidedEndpoint = avoidedEndpoint;
+	}
+	
+	/**
+	 * Gets the endpoint of the last exchange of this request, null if no exchange has been opened.
+	 */
+	public URL getExchangeEndpoint(){
+		
+		return exchangeEndpoint;
+	}
+	
+	/**
+	 * Sets the circuit breakers of the endpoints.
+	 * @param breakers The circuit breaker policy, null to send the requests whatever the state of the endpoint.
+	 */
+	void setCircuitBreaker( CircuitBreakerPolicy breakers ){
+		
+		this.breakers = breakers;
+	}
+	
+	/**
+	 * Gets the circuit breakers of the endpoints, null if there are none.
+	 */
+	public CircuitBreakerPolicy getCircuitBreaker(){
+		
+		return breakers;
+	}
+	
+	/**
+	 * Sets the deadline of the call this request belongs to. Attempts are not started after the deadline, their 
+	 * timeouts are shrunk to the time left and reading the response fails once it has passed.
+	 * @param deadline The deadline, null if only the timeouts of each attempt apply.
+	 */
+	public void setDeadline( Deadline deadline ){
+		
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Gets the deadline of the call, null if there is none.
+	 */
+	public Deadline getDeadline(){
+		
+		return deadline;
+	}
+	
+	/**
+	 * Sets the transport that will carry the request to the endpoint.
+	 * @param transport The transport, null to use the default transport.
+	 */
+	void setTransport( ITransport transport ){
+		
+		this.transport = (transport != null)?transport:DEFAULT_TRANSPORT;
+	}
+	
+	/**
+	 * Gets the transport that carries the request to the endpoint.
+	 * @return The transport object.
+	 */
+	public ITransport getTransport(){
+		
+		return transport;
+	}
+	
+	/**
+	 * Sets whether the response should be decoded from the stream returned by {@link #performStreaming(String)}.
+	 * @param streamResponses true to decode responses from the stream.
+	 */
+	void setStreamResponses( boolean streamResponses ){
+		
+		this.streamResponses = streamResponses;
+	}
+	
+	/**
+	 * Checks whether the response should be decoded from the stream returned by {@link #performStreaming(String)}
+	 * instead of the String returned by {@link #perform(String)}.
+	 */
+	public boolean isStreamResponses(){
+		
+		return streamResponses;
+	}
+	
+	/**
+	 * Sets whether the request body should be serialized straight to the connection.
+	 * @param streamRequests true to send the body through {@link #performStreaming(IPayload)}.
+	 * @param chunkedRequests true to use chunked transfer encoding.
+	 */
+	void setStreamRequests( boolean streamRequests, boolean chunkedRequests ){
+		
+		this.streamRequests = streamRequests;
+		this.chunkedRequests = chunkedRequests;
+	}
+	
+	/**
+	 * Checks whether the request body should be serialized straight to the connection through 
+	 * {@link #performStreaming(IPayload)}.
+	 */
+	public boolean isStreamRequests(){
+		
+		return streamRequests;
+	}
+	
+	/**
+	 * Checks whether streamed request bodies are sent with chunked transfer encoding.
+	 */
+	public boolean isChunkedRequests(){
+		
+		return chunkedRequests;
+	}
 	
 	/**
 	 * Adds a transformer list to the chain of transformers.
@@ -154,11 +354,20 @@ public class HttpRequest {
 	 * Stops request of being further processed.
 	 */
 	public void stop(){
-				
-		if( conn != null ){
-			performThread.interrupt();
-			conn.disconnect();
-			conn = null;
+		
+		stopped = true;
+		backoffLock.lock();
+		try{
+			backoffStopped.signalAll();
+		}finally{
+			backoffLock.unlock();
+		}
+		IExchange current = exchange;
+		if( current != null ){
+			if( performThread != null )
+				performThread.interrupt();
+			current.abort();
+			exchange = null;
 		}
 	}
 	
@@ -179,24 +388,190 @@ public class HttpRequest {
 	public String perform( String body  ) throws InterruptedException, IOException{
 		
 		performThread = Thread.currentThread();
-	    try{
-	    	return readResponse( connectAndWriteRequest(body) );
-	    }catch(SocketException se){	
-	    		//se.printStackTrace();
-	    		if( performThread.isInterrupted() )
-	    			throw new InterruptedException();
-	    		else
-	    			throw se;
-	    }catch(IOException ex){
-	    	//ex.printStackTrace();	    	
-	    	if( !Thread.interrupted() ){
-		    	if(nRetries-- > 0)
-		    		return perform(body);
-		    	else
-		    		throw ex;
-	    	}else
-	    		throw new InterruptedException();
-	    }
+		retryPolicy.called();
+		for( int retried = 0;; retried++ ){
+			try{
+				return readResponse( connectAndWriteRequest(body) );
+			}catch(IOException ex){
+				//ex.printStackTrace();
+				retry(ex, retried);
+			}finally{
+				exchange = null;
+			}
+		}
+	}
+		
+	/**
+	 * Makes a request with the specified body and returns the response body as a stream, to be decoded as it 
+	 * arrives. Failures are retried as the {@link RetryPolicy} allows, failures reading the returned stream are not.
+	 * The stream must always be closed.
+	 * @param body The body that will be sent as POST payload.
+	 * @return The response body.
+	 */
+	public InputStream performStreaming( String body ) throws InterruptedException, IOException{
+		
+		return performStreaming(body, null);
+	}
+	
+	/**
+	 * Makes a request whose body is written straight to the connection by the payload and returns the 
+	 * response body as a stream. Transformers can't be applied to a payload. Failures are retried as the 
+	 * {@link RetryPolicy} allows, failures reading the returned stream are not. The stream must always be closed.
+	 * @param payload The payload that will write the POST body.
+	 * @return The response body.
+	 */
+	public InputStream performStreaming( IPayload payload ) throws InterruptedException, IOException{
+		
+		if( !transformers.isEmpty() )
+			throw new IllegalStateException("Transformers can not be applied to a payload");
+		return performStreaming(null, payload);
+	}
+	
+	private InputStream performStreaming( String body, IPayload payload ) throws InterruptedException, IOException{
+		
+		performThread = Thread.currentThread();
+		retryPolicy.called();
+		for( int retried = 0;; retried++ ){
+			try{
+				if( payload != null ){
+					if(endpoint == null)
+						throw new IllegalStateException("Endpoint not set");
+					IExchange current = openExchange();
+					exchange = current;
+					return bounded( current.send( payload ) );
+				}else
+					return connectAndWriteRequest(body);
+			}catch(IOException ex){
+				exchange = null;
+				retry(ex, retried);
+			}
+		}
+	}
+	
+	/**
+	 * Waits the backoff before the request is retried, or throws the failure if the retry policy does not allow it.
+	 * @param ex The failure of the request.
+	 * @param retried Times the request has been retried.
+	 */
+	private void retry( IOException ex, int retried ) throws IOException, InterruptedException{
+		
+		if( Thread.interrupted() || stopped )
+			throw new InterruptedException();
+		long backoffMillis = retryPolicy.backoffMillis(retried);
+		if( !canRetry(ex, backoffMillis) || !retryPolicy.shouldRetry(ex, idempotent, retried) )
+			throw unwrap(ex);
+		
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+		backoffLock.lock();
+		try{
+			long remaining;
+			while( !stopped && (remaining = deadline - System.nanoTime()) > 0 )
+				backoffStopped.awaitNanos(remaining);
+		}finally{
+			backoffLock.unlock();
+		}
+		if( stopped )
+			throw new InterruptedException();
+	}
+	
+	/**
+	 * Checks if the request can be retried after the backoff before its deadline.
+	 * @throws DeadlineExceededException When the deadline has passed.
+	 */
+	private boolean canRetry( IOException ex, long backoffMillis ) throws DeadlineExceededException{
+		
+		Deadline deadline = this.deadline;
+		if( deadline == null )
+			return true;
+		if( deadline.isExpired() )
+			throw (ex instanceof DeadlineExceededException)?(DeadlineExceededException)ex:new DeadlineExceededException(unwrap(ex));
+		return deadline.timeLeft(TimeUnit.MILLISECONDS) > backoffMillis;
+	}
+	
+	/**
+	 * Gets the failure of a stopped asynchronous request, the request is stopped when its deadline expires.
+	 */
+	private IOException stopFailure(){
+		
+		Deadline deadline = this.deadline;
+		if( deadline != null && deadline.isExpired() )
+			return new DeadlineExceededException();
+		return new InterruptedIOException("Request stopped");
+	}
+	
+	/**
+	 * Gets the I/O error of a request that was not sent.
+	 */
+	private static IOException unwrap( IOException ex ){
+		
+		return (ex instanceof RequestNotSentException)?((RequestNotSentException)ex).getCause():ex;
+	}
+	
+	/**
+	 * Makes a request with the specified body without blocking the calling thread. The transport must
+	 * implement {@link IAsyncTransport}. Failed requests are retried as the blocking requests.
+	 * @param body The body that will be sent as POST payload.
+	 * @param listener Listener notified from an I/O thread with the response body or the last failure. 
+	 */
+	public void performAsync( String body, IResponseListener listener ) throws IOException{
+		
+		if( !(transport instanceof IAsyncTransport) )
+			throw new IllegalStateException("Transport does not support asynchronous requests");
+		
+		retryPolicy.called();
+		sendAsync( transformRequest(body), listener, 0 );
+	}
+	
+	private void sendAsync( final byte[] payload, final IResponseListener listener, final int retried ) throws IOException{
+		
+		if( stopped ){
+			listener.onFailure(stopFailure());
+			return;
+		}
+		IAsyncExchange current = (IAsyncExchange)openExchange();
+		exchange = current;
+		current.send(payload, new IResponseListener(){
+			
+			@Override
+			public void onResponse( InputStream body ){
+				
+				exchange = null;
+				listener.onResponse(bounded(body));
+			}
+			
+			@Override
+			public void onFailure( IOException ex ){
+				
+				exchange = null;
+				long backoffMillis = retryPolicy.backoffMillis(retried);
+				boolean canRetry;
+				try{
+					canRetry = canRetry(ex, backoffMillis);
+				}catch(DeadlineExceededException dee){
+					listener.onFailure(dee);
+					return;
+				}
+				if( stopped ){
+					listener.onFailure(stopFailure());
+				}else if( canRetry && retryPolicy.shouldRetry(ex, idempotent, retried) ){
+					HashedWheelTimer.getDefault().schedule(new Runnable(){
+						
+						@Override
+						public void run(){
+							
+							try{
+								sendAsync(payload, listener, retried + 1);
+							}catch(IOException ioe){
+								listener.onFailure(unwrap(ioe));
+							}catch(RuntimeException re){
+								listener.onFailure(new IOException(re));
+							}
+						}
+					}, backoffMillis, TimeUnit.MILLISECONDS);
+				}else
+					listener.onFailure(unwrap(ex));
+			}
+		});
 	}
 		
 	/**
@@ -204,7 +579,20 @@ public class HttpRequest {
 	 * @param body The body to be sent to the server. 
 	 * @return The read stream that resulted from connecting to the server.  
 	 */
-	private InputStream connectAndWriteRequest( String body ) throws MalformedURLException, IOException {
+	private InputStream connectAndWriteRequest( String body ) throws MalformedURLException, IOException, InterruptedException {
+		
+		byte payload[] = transformRequest(body);
+		IExchange current = openExchange();
+		exchange = current;
+		return bounded( current.send( payload ) );
+	}
+	
+	/**
+	 * Runs the transformer chain over the body and headers of this request.
+	 * @param body The body to be sent to the server.
+	 * @return The transformed body encoded as UTF-8.
+	 */
+	private byte[] transformRequest( String body ) throws IOException{
 		
 		if(endpoint == null)
 			throw new IllegalStateException("Endpoint not set");
@@ -230,60 +618,92 @@ public class HttpRequest {
 		if(ctx.getBody() == null )
 			throw new IllegalStateException("body not set");
 		
-		//Prepare connection		
-		conn = (HttpURLConnection)endpoint.openConnection();		
-		conn.setDoOutput( true );		
-		conn.setUseCaches(false);
-		conn.setAllowUserInteraction(false);
-		conn.setDefaultUseCaches(false);
-		conn.setUseCaches(false);
-		conn.setConnectTimeout(connectTimeout);
-		conn.setReadTimeout(readTimeout);
-		conn.setRequestMethod("POST");		
-		conn.setRequestProperty("Content-Type", "application/json");
-		conn.setRequestProperty("Accept", "application/json");
-		conn.setRequestProperty("Connection", "close");
+		return ctx.getBody().getBytes("UTF-8");
+	}
+	
+	/**
+	 * Opens a new exchange through the transport with the headers of this request, with the endpoint chosen
+	 * by the load balancer if there is one. The timeouts are shrunk to the time left before the deadline.
+	 * @return The exchange, ready to be sent.
+	 * @throws DeadlineExceededException When the deadline has passed.
+	 */
+	private IExchange openExchange() throws IOException{
+		
+		Deadline deadline = this.deadline;
+		if( deadline != null && deadline.isExpired() )
+			throw new DeadlineExceededException();
+		int connectTimeout = timeout(this.connectTimeout, deadline);
+		int readTimeout = timeout(this.readTimeout, deadline);
+		LoadBalancer balancer = this.balancer;
+		IExchange current;
+		if( balancer != null ){
+			
+			LoadBalancer.Host host = balancer.select(breakers, avoidedEndpoint);
+			exchangeEndpoint = host.getUrl();
+			current = balancer.open(transport, host, connectTimeout, readTimeout, breakers);
+		}else{
+			
+			exchangeEndpoint = endpoint;
+			current = (breakers != null)?breakers.open(transport, endpoint, connectTimeout, readTimeout):
+										transport.open(endpoint, connectTimeout, readTimeout);
+		}
+		current.setHeader("Content-Type", "application/json");
+		current.setHeader("Accept", "application/json");
+		if( deadline != null )
+			current.setHeader(DEADLINE_HEADER, String.valueOf(timeout(0, deadline)));
 				
 		//Set HTTP headers
 		for( Entry<String,String> entry: ctx.headers.entrySet() ){
 			
-			conn.setRequestProperty(entry.getKey(), entry.getValue());
+			current.setHeader(entry.getKey(), entry.getValue());
 		}
-		conn.connect();		
+		return current;
+	}
+	
+	/**
+	 * Gets the timeout of an attempt, no longer than the time left before the deadline.
+	 * @param timeout The timeout in milliseconds, 0 if there is none.
+	 */
+	private static int timeout( int timeout, Deadline deadline ){
+		
+		if( deadline == null )
+			return timeout;
+		long left = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline.timeLeft(TimeUnit.NANOSECONDS) + 999999));//not before the deadline
+		return (timeout == 0 || timeout > left)?(int)Math.min(left, Integer.MAX_VALUE):timeout;
+	}
+	
+	/**
+	 * Wraps the response body so reading it, decoding included, fails once the deadline has passed.
+	 */
+	private InputStream bounded( InputStream is ){
 		
-		OutputStreamWriter writer = new OutputStreamWriter( conn.getOutputStream() );		
-		writer.write( ctx.getBody() );		    													    
-	    writer.flush();
-	    try{
-	    	
-	    	return conn.getInputStream();
-	    
-	    }catch(FileNotFoundException fex){
-	    	
-	    	return conn.getErrorStream();
-	    }
+		Deadline deadline = this.deadline;
+		return (deadline == null)?is:new DeadlineInputStream(is, deadline);
 	}
 	
 	/**
-	 * Reads the response from the input stream.
+	 * Reads the response from the input stream. The stream is always closed, so the transport
+	 * can release or reuse the connection.
 	 * @param is server's input stream.
 	 * @return The body content of the response 
 	 */
 	private String readResponse( InputStream is ) throws IOException {
 		
-		BufferedReader in = new BufferedReader( new InputStreamReader( is ) );		 		
-		StringBuffer buffer = new StringBuffer();
-								
-		int cdata;
-		while( (cdata = in.read()) != -1 ){
-			
-			buffer.append((char) cdata );
+		Reader in = new InputStreamReader( is, "UTF-8" );		 		
+		StringBuilder buffer = new StringBuilder();
+		try{						
+			char chunk[] = new char[4096];
+			int n;
+			while( (n = in.read(chunk)) != -1 ){
+				
+				buffer.append(chunk, 0, n);
+			}
+		}finally{
+			in.close();
 		}
-		//is.close();//should close inputstream to close connection.
 		return buffer.toString();
 		
 	}
-		
 	
 	/**
 	 * This class represents the context of a request body transformation. All transformers receive
@@ -384,6 +804,40 @@ public class HttpRequest {
 		
 	}
 	
+	/**
+	 * Response body that can't be read after the deadline of the call.
+	 */
+	private static class DeadlineInputStream extends FilterInputStream{
+		
+		private final Deadline deadline;
+		
+		DeadlineInputStream( InputStream is, Deadline deadline ){
+			
+			super(is);
+			this.deadline = deadline;
+		}
+		
+		@Override
+		public int read() throws IOException{
+			
+			check();
+			return super.read();
+		}
+		
+		@Override
+		public int read( byte b[], int off, int len ) throws IOException{
+			
+			check();
+			return super.read(b, off, len);
+		}
+		
+		private void check() throws DeadlineExceededException{
+			
+			if( deadline.isExpired() )
+				throw new DeadlineExceededException();
+		}
+	}
+	
 	/**
 	 * Transformer interface
 	 */
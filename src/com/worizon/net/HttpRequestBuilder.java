@@ -5,6 +5,7 @@ import java.net.MalformedURLException;
 import java.net.URLEncoder;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.worizon.net.HttpRequest.ITransformer;
 import com.worizon.net.HttpRequest.TransformerContext;
@@ -30,6 +31,13 @@ public class HttpRequestBuilder {
 	 */
 	String endpoint;
 	
+	/**
+	 * Replicas of the endpoint and the strategy balancing the requests among them, null if there is one endpoint.
+	 */
+	private String endpoints[] = null;
+	private ILoadBalancingStrategy strategy = null;
+	private LoadBalancer balancer = null;
+	
 	/**
 	 * Transformers that will transform the request somehow.
 	 */
@@ -45,11 +53,46 @@ public class HttpRequestBuilder {
 	 */
 	int readTimeout = DEFAULT_READ_TIMEOUT;	
 	
+	/**
+	 * Max time of a call, retries included, 0 if only the timeouts of each attempt apply.
+	 */
+	private int callTimeout = 0;
+	
 	/**
 	 * Connection retries. 
 	 */
 	int nRetries = DEFAULT_CONNECT_RETRIES;	
 	
+	/**
+	 * Circuit breakers of the endpoints shared by all the requests built, null if there are none.
+	 */
+	CircuitBreakerPolicy circuitBreaker = null;
+	
+	/**
+	 * Retry rules shared by all the requests built, created on the first build if not set.
+	 */
+	private RetryPolicy retryPolicy = null;
+	
+	/**
+	 * Transport shared by all the requests built.
+	 */
+	ITransport transport = null;
+	
+	/**
+	 * Responses decoded from the stream.
+	 */
+	boolean streamResponses = false;
+	
+	/**
+	 * Requests serialized straight to the connection.
+	 */
+	boolean streamRequests = false;
+	
+	/**
+	 * Streamed requests sent with chunked transfer encoding.
+	 */
+	boolean chunkedRequests = false;
+	
 	public HttpRequestBuilder(){}
 	
 	/**
@@ -59,9 +102,71 @@ public class HttpRequestBuilder {
 	 */
 	public HttpRequestBuilder endpoint( String endpoint ){
 		
+		synchronized( this ){
+			this.endpoints = null;
+			this.strategy = null;
+			this.balancer = null;
+		}
 		this.endpoint = endpoint;
 		return this;
 	}
+	
+	/**
+	 * Sets several replicas of the endpoint, the requests are spread among them in turn. See {@link LoadBalancer}.
+	 * @param endpoints The endpoints which the requests will be targeted at.
+	 * @return Builder object to keep building.
+	 */
+	public HttpRequestBuilder endpoints( String... endpoints ){
+		
+		return endpoints(new LoadBalancer.RoundRobin(), endpoints);
+	}
+	
+	/**
+	 * Sets several replicas of the endpoint, the requests are spread among them by the strategy. See {@link LoadBalancer}.
+	 * @param strategy The strategy choosing the endpoint of each request.
+	 * @param endpoints The endpoints which the requests will be targeted at.
+	 * @return Builder object to keep building.
+	 */
+	public HttpRequestBuilder endpoints( ILoadBalancingStrategy strategy, String... endpoints ){
+		
+		if( endpoints.length == 0 )
+			throw new IllegalArgumentException("No endpoints");
+		this.endpoint = endpoints[0];
+		synchronized( this ){
+			this.endpoints = endpoints.clone();
+			this.strategy = strategy;
+			this.balancer = null;
+		}
+		return this;
+	}
+	
+	/**
+	 * Sets the load balancer spreading the requests among the replicas of the endpoint, ex: a load balancer with 
+	 * custom ejection settings or shared by several builders.
+	 * @param balancer The load balancer.
+	 * @return Builder object to keep building.
+	 */
+	public HttpRequestBuilder loadBalancer( LoadBalancer balancer ){
+		
+		this.endpoint = balancer.getHosts().get(0).getUrl().toString();
+		synchronized( this ){
+			this.endpoints = null;
+			this.strategy = null;
+			this.balancer = balancer;
+		}
+		return this;
+	}
+	
+	/**
+	 * Gets the load balancer shared by all the requests built, created on the first build.
+	 * @return The load balancer or null if there is one endpoint.
+	 */
+	synchronized LoadBalancer loadBalancer() throws MalformedURLException{
+		
+		if( balancer == null && endpoints != null )
+			balancer = new LoadBalancer(strategy, endpoints);
+		return balancer;
+	}
 		
 	
 	/**
@@ -86,6 +191,29 @@ public class HttpRequestBuilder {
 		return this;
 	}
 	
+	/**
+	 * Sets the max time of every call, from the moment its request is built until its response is decoded, 
+	 * queueing and retries included. See {@link Deadline}.
+	 * @param callTimeout The call timeout in ms, 0 to apply only the connect and read timeouts of each attempt.
+	 * @return Builder object to keep building.
+	 */
+	public HttpRequestBuilder callTimeout( int callTimeout ){
+		
+		if( callTimeout < 0 )
+			throw new IllegalArgumentException("Call timeout can not be negative");
+		this.callTimeout = callTimeout;
+		return this;
+	}
+	
+	/**
+	 * Gets the deadline of a call starting now, null if there is no call timeout.
+	 */
+	Deadline deadline(){
+		
+		int callTimeout = this.callTimeout;
+		return (callTimeout > 0)?Deadline.after(callTimeout, TimeUnit.MILLISECONDS):null;
+	}
+	
 	/**
 	 * Sets the connection retries.
 	 * @param nRetries Number of retries.
@@ -93,10 +221,96 @@ public class HttpRequestBuilder {
 	 */
 	public HttpRequestBuilder requestRetries( int nRetries ){
 		
+		synchronized( this ){
+			this.retryPolicy = null;
+		}
 		this.nRetries = nRetries;
 		return this;
 	}
 	
+	/**
+	 * Sets the rules to retry the failed requests, see {@link RetryPolicy}. The same policy object, and its retry 
+	 * budget, is shared by all the requests built with this builder.
+	 * @param retryPolicy The retry policy.
+	 * @return Builder object to keep building.
+	 */
+	public synchronized HttpRequestBuilder retryPolicy( RetryPolicy retryPolicy ){
+		
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+	
+	/**
+	 * Sets the circuit breakers of the endpoints, see {@link CircuitBreakerPolicy}. The same breakers are shared 
+	 * by all the requests built with this builder.
+	 * @param circuitBreaker The circuit breaker policy, null to disable the breakers.
+	 * @return Builder object to keep building.
+	 */
+	public HttpRequestBuilder circuitBreaker( CircuitBreakerPolicy circuitBreaker ){
+		
+		this.circuitBreaker = circuitBreaker;
+		return this;
+	}
+	
+	/**
+	 * Gets the retry policy of the requests, a policy with the connection retries unless one is set.
+	 */
+	synchronized RetryPolicy retryPolicy(){
+		
+		if( retryPolicy == null )
+			retryPolicy = new RetryPolicy(nRetries);
+		return retryPolicy;
+	}
+	
+	/**
+	 * Sets the transport that will carry the requests to the endpoint. The same transport object is shared
+	 * by all the requests built with this builder.
+	 * @param transport The transport.
+	 * @return Builder object to keep building.
+	 */
+	public HttpRequestBuilder transport( ITransport transport ){
+		
+		this.transport = transport;
+		return this;
+	}
+	
+	/**
+	 * Sets the pool of persistent connections. All the requests built with this builder will reuse 
+	 * keep-alive connections from this pool instead of opening a new connection per request.
+	 * @param pool The connection pool.
+	 * @return Builder object to keep building.
+	 */
+	public HttpRequestBuilder connectionPool( HttpConnectionPool pool ){
+		
+		return transport(pool);
+	}
+	
+	/**
+	 * Decodes the responses straight from the response stream, in a single pass, instead of reading 
+	 * the whole response body into a String first. Recommended for large results.
+	 * @return Builder object to keep building.
+	 */
+	public HttpRequestBuilder streamResponses(){
+		
+		this.streamResponses = true;
+		return this;
+	}
+	
+	/**
+	 * Serializes the requests straight to the connection as UTF-8 instead of building the body as a String 
+	 * first, responses are then decoded from the stream too. Chunked transfer encoding serializes each request 
+	 * once, fixed-length mode serializes it twice (the first pass only counts bytes) for servers that do 
+	 * not accept chunked requests. Requests with transformers are still built as a String.
+	 * @param chunked true to send the requests with chunked transfer encoding, false to send a Content-Length.
+	 * @return Builder object to keep building.
+	 */
+	public HttpRequestBuilder streamRequests( boolean chunked ){
+		
+		this.streamRequests = true;
+		this.chunkedRequests = chunked;
+		return this;
+	}
+	
 	/**
 	 * Factory method to create a new instance of a {@link HttpRequest}. To provide a mocked version
 	 * of a HttpRequest to be used in your test suites, extend this builder class and override this method.
@@ -240,9 +454,15 @@ public class HttpRequestBuilder {
 		HttpRequest newRequest = newInstance();
 		newRequest.setConnectTimeout(connectTimeout);
 		newRequest.setReadTimeout(readTimeout);
-		newRequest.setRequestRetries(nRetries);
+		newRequest.setRetryPolicy(retryPolicy());
 		newRequest.setEndpoint(endpoint);
 		newRequest.addTransformers(transformers);
+		newRequest.setTransport(transport);
+		newRequest.setStreamResponses(streamResponses);
+		newRequest.setStreamRequests(streamRequests, chunkedRequests);
+		newRequest.setLoadBalancer(loadBalancer());
+		newRequest.setCircuitBreaker(circuitBreaker);
+		newRequest.setDeadline(deadline());
 		
 		return newRequest;			
 	}
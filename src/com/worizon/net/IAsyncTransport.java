@@ -0,0 +1,53 @@
+package com.worizon.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Transport able to carry requests without blocking the calling thread. The response, or the failure,
+ * is delivered to an {@link IResponseListener} from one of the transport's I/O threads. When the transport
+ * of a {@link HttpRequestBuilder} implements this interface the Async api sends its calls through
+ * {@link HttpRequest#performAsync(String, IResponseListener)} instead of holding one thread per call.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public interface IAsyncTransport extends ITransport {
+
+	@Override
+	public IAsyncExchange open( URL endpoint, int connectTimeout, int readTimeout ) throws IOException;
+
+	/**
+	 * Exchange that can also be sent without blocking.
+	 */
+	public interface IAsyncExchange extends IExchange{
+
+		/**
+		 * Sends the request body and returns immediately. The listener will be notified exactly once.
+		 * @param body The encoded request body.
+		 * @param listener Listener of the response.
+		 */
+		public void send( byte[] body, IResponseListener listener );
+	}
+
+	/**
+	 * Listener of a non-blocking exchange. Methods are invoked from an I/O thread, so implementations
+	 * must hand off any long running work.
+	 */
+	public interface IResponseListener{
+
+		/**
+		 * The whole response has been received.
+		 * @param body The response body.
+		 */
+		public void onResponse( InputStream body );
+
+		/**
+		 * The exchange failed, timed out or was aborted.
+		 * @param ex The cause of the failure.
+		 */
+		public void onFailure( IOException ex );
+	}
+
+}
@@ -0,0 +1,28 @@
+package com.worizon.net;
+
+import java.util.List;
+
+/**
+ * Strategy of a {@link LoadBalancer} choosing the host of each request. Implementations must be thread-safe, the
+ * same strategy object chooses the hosts of all the requests built from a builder. The library ships with these
+ * implementations:
+ * <ul>
+ * <li>{@link LoadBalancer.RoundRobin}: Hosts in turn. Default strategy.</li>
+ * <li>{@link LoadBalancer.LeastOutstanding}: Host with the fewest requests in flight.</li>
+ * <li>{@link LoadBalancer.PowerOfTwoChoices}: Host with the fewest requests in flight out of two random hosts.</li>
+ * <li>{@link LoadBalancer.PeakEwma}: Host with the lowest smoothed latency weighted by its requests in flight.</li>
+ * </ul>
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public interface ILoadBalancingStrategy {
+
+	/**
+	 * Chooses the host of a request.
+	 * @param hosts The hosts not ejected, never empty.
+	 * @return One of the hosts.
+	 */
+	public LoadBalancer.Host select( List<LoadBalancer.Host> hosts );
+
+}
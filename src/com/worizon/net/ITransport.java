@@ -0,0 +1,102 @@
+package com.worizon.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+
+/**
+ * Transport SPI. A transport moves the body of a {@link HttpRequest} to the endpoint and brings back the
+ * response body, all the request level logic (transformers, retries, stop) stays at {@link HttpRequest}.
+ * The transport used by the requests is selected with {@link HttpRequestBuilder#transport(ITransport)}, so
+ * all the Rpc apis built on top of the builder use it without further changes.
+ *
+ * <p>
+ * Implementations must be thread-safe, the same transport object is shared by all the requests built
+ * from the same builder. The library ships with these implementations:
+ * <ul>
+ * <li>{@link UrlConnectionTransport}: One HttpURLConnection per request, connection closed afterwards. Default transport.</li>
+ * <li>{@link HttpConnectionPool}: Persistent keep-alive connections over plain sockets.</li>
+ * <li>{@link HttpClientTransport}: Apache HttpClient with a pooling connection manager.</li>
+ * </ul>
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public interface ITransport {
+
+	/**
+	 * Opens a new request/response exchange with the endpoint. No data is sent until {@link IExchange#send(byte[])}.
+	 * @param endpoint The endpoint the request is targeted at.
+	 * @param connectTimeout Connection timeout in ms.
+	 * @param readTimeout Read timeout in ms.
+	 * @return The exchange object.
+	 */
+	public IExchange open( URL endpoint, int connectTimeout, int readTimeout ) throws IOException;
+
+	/**
+	 * Releases all the resources held by this transport, ex: pooled connections.
+	 */
+	public void shutdown();
+
+	/**
+	 * One HTTP POST request and its response.
+	 */
+	public interface IExchange{
+
+		/**
+		 * Sets a request header, must be called before {@link #send(byte[])}.
+		 */
+		public void setHeader( String key, String value );
+
+		/**
+		 * Sends the request body and waits for the response. The returned stream must always be closed,
+		 * closing it releases the resources of this exchange. If this method throws an exception the exchange
+		 * has already released its resources. A failure before the request is completely written, connecting
+		 * included, should be thrown as a {@link RequestNotSentException}, so the request can be retried safely.
+		 * @param body The encoded request body.
+		 * @return The response body, error responses included.
+		 */
+		public InputStream send( byte[] body ) throws IOException, InterruptedException;
+		
+		/**
+		 * Same as {@link #send(byte[])} but the body is written straight to the connection by the payload,
+		 * with fixed-length or chunked transfer encoding depending on {@link IPayload#getLength()}.
+		 * @param payload The request body.
+		 * @return The response body, error responses included.
+		 */
+		public InputStream send( IPayload payload ) throws IOException, InterruptedException;
+
+		/**
+		 * Gets the HTTP status code of the response.
+		 * @return The status code or -1 if the response has not been received yet.
+		 */
+		public int getStatusCode();
+
+		/**
+		 * Aborts the exchange in course. This method is called from a different thread than the one
+		 * blocked on {@link #send(byte[])} or reading the response.
+		 */
+		public void abort();
+	}
+	
+	/**
+	 * Request body written to the connection as it is produced, so it does not need to be buffered.
+	 */
+	public interface IPayload{
+		
+		/**
+		 * Gets the length in bytes of the body.
+		 * @return The length or -1 if unknown, the body is then sent with chunked transfer encoding.
+		 */
+		public long getLength();
+		
+		/**
+		 * Writes the body to the connection. It's called again when the request is retried, so it must 
+		 * write the same bytes every time. The stream must not be closed.
+		 * @param out The connection output stream.
+		 */
+		public void writeTo( OutputStream out ) throws IOException;
+	}
+
+}
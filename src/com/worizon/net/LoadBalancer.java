@@ -0,0 +1,483 @@
+package com.worizon.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.worizon.net.IAsyncTransport.IAsyncExchange;
+import com.worizon.net.IAsyncTransport.IResponseListener;
+import com.worizon.net.ITransport.IExchange;
+import com.worizon.net.ITransport.IPayload;
+
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_EJECTION_FAILURES;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_EJECTION_TIME;
+
+/**
+ * Client side load balancer spreading the requests among several replicas of an endpoint. Every exchange, retries
+ * included, goes to the host chosen by the {@link ILoadBalancingStrategy}, so all the Rpc apis built on top of the
+ * builder are balanced, ex:
+ *
+ * <pre>
+ * HttpRequestBuilder builder = new HttpRequestBuilder()
+ * 		.endpoints(new LoadBalancer.PeakEwma(), "http://rpc1.mydomain.com:4444/rpc", "http://rpc2.mydomain.com:4444/rpc");
+ * Rpc.Sync rpc = new Rpc.Sync(builder);
+ * </pre>
+ *
+ * Hosts are ejected passively: a host failing a number of consecutive exchanges with an I/O error, timeouts included,
+ * gets no requests for the ejection time. A host failing again right after its ejection is ejected again. When every
+ * host is ejected the requests are spread among all of them.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class LoadBalancer {
+
+	private final List<Host> hosts;
+	private final ILoadBalancingStrategy strategy;
+	private final int maxFailures;
+	private final long ejectionNanos;
+
+	/**
+	 * Creates a load balancer ejecting a host after {@link com.worizon.jsonrpc.Const.Http#DEFAULT_EJECTION_FAILURES}
+	 * consecutive failures for {@link com.worizon.jsonrpc.Const.Http#DEFAULT_EJECTION_TIME} ms.
+	 * @param strategy Strategy choosing the host of each request.
+	 * @param endpoints Endpoints of the replicas.
+	 * @throws MalformedURLException When an endpoint is not valid.
+	 */
+	public LoadBalancer( ILoadBalancingStrategy strategy, String... endpoints ) throws MalformedURLException{
+
+		this(strategy, DEFAULT_EJECTION_FAILURES, DEFAULT_EJECTION_TIME, endpoints);
+	}
+
+	/**
+	 * Creates a load balancer.
+	 * @param strategy Strategy choosing the host of each request.
+	 * @param maxFailures Consecutive failures that eject a host.
+	 * @param ejectionMillis Milliseconds an ejected host gets no requests.
+	 * @param endpoints Endpoints of the replicas.
+	 * @throws MalformedURLException When an endpoint is not valid.
+	 */
+	public LoadBalancer( ILoadBalancingStrategy strategy, int maxFailures, long ejectionMillis, String... endpoints ) throws MalformedURLException{
+
+		if( endpoints.length == 0 )
+			throw new IllegalArgumentException("No endpoints");
+		if( maxFailures < 1 || ejectionMillis < 0 )
+			throw new IllegalArgumentException("Ejection failures must be positive and ejection time not negative");
+		List<Host> hosts = new ArrayList<Host>(endpoints.length);
+		for( String endpoint: endpoints )
+			hosts.add(new Host(HttpRequest.parseEndpoint(endpoint)));
+		this.hosts = Collections.unmodifiableList(hosts);
+		this.strategy = strategy;
+		this.maxFailures = maxFailures;
+		this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionMillis);
+	}
+
+	/**
+	 * Gets the hosts of the replicas, in the order of the endpoints.
+	 */
+	public List<Host> getHosts(){
+
+		return hosts;
+	}
+
+	public ILoadBalancingStrategy getStrategy(){
+
+		return strategy;
+	}
+
+	/**
+	 * Chooses the host of a request among the hosts not ejected and whose circuit breaker is not open.
+	 * @param breakers The circuit breakers of the hosts, null if there are none.
+	 * @param avoided Endpoint not chosen unless it is the only one, ex: the endpoint of the request a hedge is a copy
+	 * of. Null to choose among all the hosts.
+	 */
+	Host select( CircuitBreakerPolicy breakers, URL avoided ){
+
+		List<Host> candidates = hosts;
+		if( avoided != null && hosts.size() > 1 ){
+
+			candidates = new ArrayList<Host>(hosts.size());
+			for( Host host: hosts )
+				if( !host.url.toExternalForm().equals(avoided.toExternalForm()) )//URL.equals resolves the host names
+					candidates.add(host);
+			if( candidates.isEmpty() )
+				candidates = hosts;
+		}
+		List<Host> permitted = candidates;
+		if( breakers != null ){
+
+			permitted = new ArrayList<Host>(candidates.size());
+			for( Host host: candidates )
+				if( breakers.isCallPermitted(host.url) )
+					permitted.add(host);
+			if( permitted.isEmpty() )
+				permitted = candidates;//fails fast
+		}
+		long now = System.nanoTime();
+		List<Host> available = new ArrayList<Host>(permitted.size());
+		for( Host host: permitted )
+			if( !host.isEjected(now) )
+				available.add(host);
+		return strategy.select(available.isEmpty()?permitted:available);
+	}
+
+	/**
+	 * Opens an exchange with the host through the transport.
+	 * @param host The host chosen with {@link #select(CircuitBreakerPolicy, URL)}.
+	 * @param breakers The circuit breakers of the hosts, null if there are none.
+	 */
+	IExchange open( ITransport transport, Host host, int connectTimeout, int readTimeout, CircuitBreakerPolicy breakers ) throws IOException{
+
+		host.outstanding.incrementAndGet();
+		IExchange exchange;
+		try{
+			exchange = (breakers != null)?breakers.open(transport, host.url, connectTimeout, readTimeout):
+											transport.open(host.url, connectTimeout, readTimeout);
+		}catch(CircuitBreakerOpenException cboe){
+			host.outstanding.decrementAndGet();
+			throw cboe;
+		}catch(IOException ioe){
+			host.outstanding.decrementAndGet();
+			failed(host);
+			throw ioe;
+		}catch(RuntimeException re){
+			host.outstanding.decrementAndGet();
+			throw re;
+		}
+		if( exchange instanceof IAsyncExchange )
+			return new BalancedAsyncExchange(host, (IAsyncExchange)exchange);
+		return new BalancedExchange(host, exchange);
+	}
+
+	private void failed( Host host ){
+
+		if( host.failures.incrementAndGet() >= maxFailures )
+			host.ejectedUntil = System.nanoTime() + ejectionNanos;
+	}
+
+	/**
+	 * Replica of the endpoint and the load observed on it.
+	 */
+	public static class Host{
+
+		/**
+		 * Time constant in nanoseconds of the decay of the latency samples.
+		 */
+		private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+		private final URL url;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicInteger failures = new AtomicInteger();
+		private volatile long ejectedUntil = 0;
+		private double latency = 0;
+		private long lastSample = 0;
+
+		Host( URL url ){
+
+			this.url = url;
+		}
+
+		public URL getUrl(){
+
+			return url;
+		}
+
+		/**
+		 * Gets the number of requests in flight to this host.
+		 */
+		public int getOutstanding(){
+
+			return outstanding.get();
+		}
+
+		/**
+		 * Gets the smoothed latency of this host in nanoseconds, 0 until a response is received. A latency peak
+		 * is taken at once and decays over the following seconds.
+		 */
+		public synchronized double getLatencyNanos(){
+
+			return latency;
+		}
+
+		/**
+		 * Gets the number of consecutive failed exchanges with this host.
+		 */
+		public int getFailures(){
+
+			return failures.get();
+		}
+
+		public boolean isEjected(){
+
+			return isEjected(System.nanoTime());
+		}
+
+		boolean isEjected( long now ){
+
+			long until = ejectedUntil;
+			return until != 0 && now - until < 0;
+		}
+
+		synchronized void sample( long rtt ){
+
+			long now = System.nanoTime();
+			if( rtt > latency || lastSample == 0 )
+				latency = rtt;
+			else{
+
+				double w = Math.exp(-(now - lastSample) / DECAY_NANOS);
+				latency = latency * w + rtt * (1 - w);
+			}
+			lastSample = now;
+		}
+
+		@Override
+		public String toString(){
+
+			return url.toString();
+		}
+	}
+
+	/**
+	 * Chooses the hosts in turn.
+	 */
+	public static class RoundRobin implements ILoadBalancingStrategy{
+
+		private final AtomicInteger next = new AtomicInteger();
+
+		@Override
+		public Host select( List<Host> hosts ){
+
+			return hosts.get((next.getAndIncrement() & Integer.MAX_VALUE) % hosts.size());
+		}
+	}
+
+	/**
+	 * Chooses the host with the fewest requests in flight, ties in turn.
+	 */
+	public static class LeastOutstanding implements ILoadBalancingStrategy{
+
+		private final AtomicInteger next = new AtomicInteger();
+
+		@Override
+		public Host select( List<Host> hosts ){
+
+			int start = (next.getAndIncrement() & Integer.MAX_VALUE) % hosts.size();
+			Host best = null;
+			for( int i = 0; i < hosts.size(); i++ ){
+
+				Host host = hosts.get((start + i) % hosts.size());
+				if( best == null || host.getOutstanding() < best.getOutstanding() )
+					best = host;
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Chooses the host with the fewest requests in flight out of two hosts picked at random, nearly as good as
+	 * comparing every host without herding all the clients into the same one.
+	 */
+	public static class PowerOfTwoChoices implements ILoadBalancingStrategy{
+
+		private final Random random = new Random();
+
+		@Override
+		public Host select( List<Host> hosts ){
+
+			if( hosts.size() == 1 )
+				return hosts.get(0);
+			int a = random.nextInt(hosts.size());
+			int b = random.nextInt(hosts.size() - 1);
+			if( b >= a )
+				b++;
+			Host first = hosts.get(a);
+			Host second = hosts.get(b);
+			return (second.getOutstanding() < first.getOutstanding())?second:first;
+		}
+	}
+
+	/**
+	 * Chooses the host with the lowest smoothed latency times its requests in flight plus one, out of two hosts
+	 * picked at random. Hosts without latency samples are tried first.
+	 */
+	public static class PeakEwma implements ILoadBalancingStrategy{
+
+		private final Random random = new Random();
+
+		@Override
+		public Host select( List<Host> hosts ){
+
+			if( hosts.size() == 1 )
+				return hosts.get(0);
+			int a = random.nextInt(hosts.size());
+			int b = random.nextInt(hosts.size() - 1);
+			if( b >= a )
+				b++;
+			Host first = hosts.get(a);
+			Host second = hosts.get(b);
+			return (cost(second) < cost(first))?second:first;
+		}
+
+		private static double cost( Host host ){
+
+			return host.getLatencyNanos() * (host.getOutstanding() + 1);
+		}
+	}
+
+	/**
+	 * Exchange keeping the load of its host: a request in flight until the response is closed, its latency and
+	 * its failures.
+	 */
+	private class BalancedExchange implements IExchange{
+
+		protected final Host host;
+		private final IExchange exchange;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		private volatile boolean aborted = false;
+
+		BalancedExchange( Host host, IExchange exchange ){
+
+			this.host = host;
+			this.exchange = exchange;
+		}
+
+		@Override
+		public void setHeader( String key, String value ){
+
+			exchange.setHeader(key, value);
+		}
+
+		@Override
+		public InputStream send( byte[] body ) throws IOException, InterruptedException{
+
+			long start = System.nanoTime();
+			try{
+				return succeeded(exchange.send(body), start);
+			}catch(IOException ioe){
+				failed(ioe);
+				throw ioe;
+			}catch(InterruptedException ie){
+				release();
+				throw ie;
+			}catch(RuntimeException re){
+				release();
+				throw re;
+			}
+		}
+
+		@Override
+		public InputStream send( IPayload payload ) throws IOException, InterruptedException{
+
+			long start = System.nanoTime();
+			try{
+				return succeeded(exchange.send(payload), start);
+			}catch(IOException ioe){
+				failed(ioe);
+				throw ioe;
+			}catch(InterruptedException ie){
+				release();
+				throw ie;
+			}catch(RuntimeException re){
+				release();
+				throw re;
+			}
+		}
+
+		@Override
+		public int getStatusCode(){
+
+			return exchange.getStatusCode();
+		}
+
+		@Override
+		public void abort(){
+
+			aborted = true;
+			exchange.abort();
+			release();
+		}
+
+		/**
+		 * Records the latency until the response arrived, the request is in flight until the response is closed.
+		 */
+		InputStream succeeded( InputStream response, long start ){
+
+			host.sample(System.nanoTime() - start);
+			host.failures.set(0);
+			return new FilterInputStream(response){
+
+				@Override
+				public void close() throws IOException{
+
+					try{
+						super.close();
+					}finally{
+						release();
+					}
+				}
+			};
+		}
+
+		/**
+		 * Records a failure of the host, unless the exchange was stopped.
+		 */
+		void failed( IOException ioe ){
+
+			release();
+			IOException cause = (ioe instanceof RequestNotSentException)?((RequestNotSentException)ioe).getCause():ioe;
+			if( !aborted && (!(cause instanceof InterruptedIOException) || cause instanceof SocketTimeoutException) )
+				LoadBalancer.this.failed(host);
+		}
+
+		void release(){
+
+			if( released.compareAndSet(false, true) )
+				host.outstanding.decrementAndGet();
+		}
+	}
+
+	private class BalancedAsyncExchange extends BalancedExchange implements IAsyncExchange{
+
+		private final IAsyncExchange exchange;
+
+		BalancedAsyncExchange( Host host, IAsyncExchange exchange ){
+
+			super(host, exchange);
+			this.exchange = exchange;
+		}
+
+		@Override
+		public void send( byte[] body, final IResponseListener listener ){
+
+			final long start = System.nanoTime();
+			exchange.send(body, new IResponseListener(){
+
+				@Override
+				public void onResponse( InputStream body ){
+
+					listener.onResponse(succeeded(body, start));
+				}
+
+				@Override
+				public void onFailure( IOException ex ){
+
+					failed(ex);
+					listener.onFailure(ex);
+				}
+			});
+		}
+	}
+
+}
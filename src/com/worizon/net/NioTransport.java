@@ -0,0 +1,1113 @@
+package com.worizon.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_IDLE_CONNECTION_TIMEOUT;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_MAX_NIO_CONNECTIONS_PER_ENDPOINT;
+
+/**
+ * Non-blocking transport that speaks HTTP/1.1 over {@link SocketChannel}s driven by a few selector threads.
+ * No thread is held while a request is in flight, so a single I/O thread can keep thousands of calls outstanding.
+ * Every endpoint (host:port) is served by one I/O thread, which keeps up to <i>maxConnectionsPerEndpoint</i> keep-alive
+ * connections open to it. Requests that find all the connections busy wait in a queue until one is released or their
+ * connect timeout expires.
+ *
+ * <p>
+ * The transport can be used by blocking apis too, {@link IExchange#send(byte[])} waits for the response, but it
+ * pays off with the Async api:
+ *
+ * <pre>
+ * NioTransport transport = new NioTransport();
+ * Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder()
+ *                                 .endpoint("http://myhost.mydomain.com:4444/rpc")
+ *                                 .transport(transport));
+ * rpc.call("sum", Integer.class, new ICallback&lt;Integer&gt;(){...}, 4, 5);//returns immediately
+ * </pre>
+ *
+ * <p>
+ * Responses are buffered in memory and listeners are notified from the I/O thread. Read timeouts are
+ * measured as inactivity on the connection, same as the socket read timeout of the blocking transports.
+ *
+ * <p>
+ * With a pipeline depth over 1 the requests are pipelined: up to <i>pipelineDepth</i> requests are written to the
+ * same keep-alive connection without waiting for the responses, which the server sends back in order. A request
+ * goes to an idle connection first, then to the busy connection with the shortest pipeline, and opens a new
+ * connection only when all of them are full, so small calls pay neither the round trips nor the connections of
+ * one request at a time. When the server closes the connection in the middle of a pipeline after a response, ex:
+ * it sends <code>Connection: close</code> or reaches its max requests per connection, the requests not answered
+ * yet are sent again on another connection. When the connection fails only the requests not written yet are sent
+ * again, the requests written might have been processed by the server and are retried as the {@link RetryPolicy}
+ * allows, same as with one request at a time:
+ *
+ * <pre>
+ * NioTransport transport = new NioTransport(1, 4, 30000, 8);//up to 4 connections with 8 requests each
+ * </pre>
+ *
+ * A slow response holds the responses behind it, so pipelining suits endpoints of small and uniform calls.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class NioTransport implements IAsyncTransport {
+
+	private static final long SWEEP_INTERVAL = 100;
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final String CRLF = "\r\n";
+	private static final int MAX_REPLAYS = 2;
+
+	private final IoLoop loops[];
+	private final int maxConnectionsPerEndpoint;
+	private final long idleTimeout;
+	private final int pipelineDepth;
+	private final AtomicLong replayed = new AtomicLong();
+	private volatile boolean shutdown = false;
+
+	public NioTransport() throws IOException{
+
+		this(1, DEFAULT_MAX_NIO_CONNECTIONS_PER_ENDPOINT, DEFAULT_IDLE_CONNECTION_TIMEOUT);
+	}
+
+	/**
+	 * Creates a new transport and starts its I/O threads.
+	 * @param ioThreads Number of selector threads.
+	 * @param maxConnectionsPerEndpoint Maximum number of open connections to the same endpoint.
+	 * @param idleTimeout Milliseconds an idle connection is kept open.
+	 */
+	public NioTransport( int ioThreads, int maxConnectionsPerEndpoint, long idleTimeout ) throws IOException{
+
+		this(ioThreads, maxConnectionsPerEndpoint, idleTimeout, 1);
+	}
+
+	/**
+	 * Creates a new transport that pipelines the requests and starts its I/O threads.
+	 * @param ioThreads Number of selector threads.
+	 * @param maxConnectionsPerEndpoint Maximum number of open connections to the same endpoint.
+	 * @param idleTimeout Milliseconds an idle connection is kept open.
+	 * @param pipelineDepth Maximum number of requests sent and not answered on a connection, 1 to not pipeline.
+	 */
+	public NioTransport( int ioThreads, int maxConnectionsPerEndpoint, long idleTimeout, int pipelineDepth ) throws IOException{
+
+		if( ioThreads <= 0 )
+			throw new IllegalArgumentException("ioThreads must be greater than 0");
+		if( maxConnectionsPerEndpoint <= 0 )
+			throw new IllegalArgumentException("maxConnectionsPerEndpoint must be greater than 0");
+		if( pipelineDepth <= 0 )
+			throw new IllegalArgumentException("pipelineDepth must be greater than 0");
+		this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+		this.idleTimeout = idleTimeout;
+		this.pipelineDepth = pipelineDepth;
+		this.loops = new IoLoop[ioThreads];
+		for( int i = 0; i < ioThreads; i++ ){
+
+			loops[i] = new IoLoop("worizon-nio-" + i);
+			loops[i].start();
+		}
+	}
+
+	/**
+	 * Gets the maximum number of connections per endpoint.
+	 */
+	public int getMaxConnectionsPerEndpoint(){
+
+		return maxConnectionsPerEndpoint;
+	}
+
+	/**
+	 * Gets the maximum number of requests sent and not answered on a connection.
+	 */
+	public int getPipelineDepth(){
+
+		return pipelineDepth;
+	}
+
+	/**
+	 * Gets the number of requests sent again because the server closed their connection before answering them.
+	 */
+	public long getReplayedCount(){
+
+		return replayed.get();
+	}
+
+	/**
+	 * Gets the number of open connections, busy or idle, across all the endpoints.
+	 */
+	public int getOpenConnections(){
+
+		int count = 0;
+		for( IoLoop loop: loops )
+			count += loop.openConnections.get();
+		return count;
+	}
+
+	/**
+	 * Gets the number of exchanges sent and not completed yet.
+	 */
+	public int getInFlight(){
+
+		int count = 0;
+		for( IoLoop loop: loops )
+			count += loop.inFlight.get();
+		return count;
+	}
+
+	@Override
+	public IAsyncExchange open( URL endpoint, int connectTimeout, int readTimeout ){
+
+		if( shutdown )
+			throw new IllegalStateException("Transport shut down");
+		return new NioExchange(endpoint, connectTimeout, readTimeout);
+	}
+
+	/**
+	 * Stops the I/O threads, closes all the connections and fails the pending exchanges.
+	 */
+	@Override
+	public void shutdown(){
+
+		shutdown = true;
+		for( IoLoop loop: loops )
+			loop.selector.wakeup();
+	}
+
+	private IoLoop loopOf( String route ){
+
+		return loops[(route.hashCode() & Integer.MAX_VALUE) % loops.length];
+	}
+
+	private class NioExchange implements IAsyncExchange{
+
+		private final URL endpoint;
+		private final String route;
+		private final int connectTimeout;
+		private final int readTimeout;
+		private final Map<String,String> headers = new LinkedHashMap<String,String>();
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private volatile int statusCode = -1;
+		private InetSocketAddress address;
+		private ByteBuffer request;
+		private IResponseListener listener;
+		private volatile IoLoop loop;
+		private long waitDeadline;
+		private int replays = 0;
+		private NioConnection conn;//confined to the I/O thread
+
+		NioExchange( URL endpoint, int connectTimeout, int readTimeout ){
+
+			this.endpoint = endpoint;
+			this.route = endpoint.getHost() + ":" + HttpConnection.portOf(endpoint);
+			this.connectTimeout = connectTimeout;
+			this.readTimeout = readTimeout;
+			headers.put("Cache-Control", "no-cache");
+			headers.put("Pragma", "no-cache");
+			headers.put("Connection", "keep-alive");
+		}
+
+		@Override
+		public void setHeader( String key, String value ){
+
+			headers.put(key, value);
+		}
+
+		@Override
+		public void send( byte[] body, IResponseListener listener ){
+
+			this.listener = listener;
+			try{
+				address = new InetSocketAddress(endpoint.getHost(), HttpConnection.portOf(endpoint));
+				if( address.isUnresolved() )
+					throw new UnknownHostException(endpoint.getHost());
+				request = encode(body);
+			}catch(IOException ioe){
+				fail(ioe);
+				return;
+			}
+			if( shutdown ){
+				fail(new InterruptedIOException("Transport shut down"));
+				return;
+			}
+			loop = loopOf(route);
+			loop.inFlight.incrementAndGet();
+			loop.execute(new Runnable(){
+
+				@Override
+				public void run(){
+
+					loop.dispatch(NioExchange.this);
+				}
+			});
+		}
+
+		@Override
+		public InputStream send( byte[] body ) throws IOException, InterruptedException{
+
+			final CountDownLatch latch = new CountDownLatch(1);
+			final InputStream result[] = new InputStream[1];
+			final IOException failure[] = new IOException[1];
+			send(body, new IResponseListener(){
+
+				@Override
+				public void onResponse( InputStream body ){
+
+					result[0] = body;
+					latch.countDown();
+				}
+
+				@Override
+				public void onFailure( IOException ex ){
+
+					failure[0] = ex;
+					latch.countDown();
+				}
+			});
+			try{
+				latch.await();
+			}catch(InterruptedException ie){
+				abort();
+				throw ie;
+			}
+			if( failure[0] != null )
+				throw failure[0];
+			return result[0];
+		}
+
+		/**
+		 * Writes the payload to memory first, the channel is written as it becomes writable.
+		 */
+		@Override
+		public InputStream send( IPayload payload ) throws IOException, InterruptedException{
+
+			if( payload instanceof ByteArrayPayload )
+				return send(((ByteArrayPayload)payload).getBytes());
+			ByteArrayOutputStream body = new ByteArrayOutputStream(payload.getLength() > 0?(int)payload.getLength():512);
+			payload.writeTo(body);
+			return send(body.toByteArray());
+		}
+
+		@Override
+		public int getStatusCode(){
+
+			return statusCode;
+		}
+
+		@Override
+		public void abort(){
+
+			final IoLoop loop = this.loop;
+			if( loop == null || done.get() )
+				return;
+			loop.execute(new Runnable(){
+
+				@Override
+				public void run(){
+
+					loop.abort(NioExchange.this);
+				}
+			});
+		}
+
+		private ByteBuffer encode( byte[] body ) throws IOException{
+
+			String target = endpoint.getFile();
+			StringBuilder head = new StringBuilder(256);
+			head.append("POST ").append(target.length() == 0?"/":target).append(" HTTP/1.1").append(CRLF);
+			head.append("Host: ").append(endpoint.getHost());
+			if( endpoint.getPort() != -1 )
+				head.append(':').append(endpoint.getPort());
+			head.append(CRLF);
+			for( Entry<String,String> entry: headers.entrySet() ){
+
+				if( !entry.getKey().equalsIgnoreCase("Content-Length") )
+					head.append(entry.getKey()).append(": ").append(entry.getValue()).append(CRLF);
+			}
+			head.append("Content-Length: ").append(body.length).append(CRLF);
+			head.append(CRLF);
+
+			byte headBytes[] = head.toString().getBytes("ISO-8859-1");
+			ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + body.length);
+			buffer.put(headBytes).put(body);
+			buffer.flip();
+			return buffer;
+		}
+
+		private void complete( int statusCode, byte[] body ){
+
+			if( done.compareAndSet(false, true) ){
+
+				this.statusCode = statusCode;
+				if( loop != null )
+					loop.inFlight.decrementAndGet();
+				try{
+					listener.onResponse(new ByteArrayInputStream(body));
+				}catch(RuntimeException re){
+					//listener failures must not stop the I/O thread
+				}
+			}
+		}
+
+		private void fail( IOException ex ){
+
+			if( done.compareAndSet(false, true) ){
+
+				if( loop != null )
+					loop.inFlight.decrementAndGet();
+				try{
+					listener.onFailure(ex);
+				}catch(RuntimeException re){
+					//listener failures must not stop the I/O thread
+				}
+			}
+		}
+	}
+
+	/**
+	 * Connection state of one endpoint, confined to its I/O thread.
+	 */
+	private static class Route{
+
+		final LinkedList<NioConnection> idle = new LinkedList<NioConnection>();
+		final LinkedList<NioConnection> busy = new LinkedList<NioConnection>();
+		final LinkedList<NioExchange> waiting = new LinkedList<NioExchange>();
+		int open = 0;
+	}
+
+	private static class NioConnection{
+
+		final String route;
+		final SocketChannel channel;
+		final ResponseParser parser = new ResponseParser();
+		final LinkedList<NioExchange> pipeline = new LinkedList<NioExchange>();//not answered, in order of the responses
+		final LinkedList<NioExchange> unwritten = new LinkedList<NioExchange>();
+		SelectionKey key;
+		boolean connecting = true;
+		boolean reusable = true;
+		long deadline = 0;
+		long idleSince;
+
+		NioConnection( String route, SocketChannel channel ){
+
+			this.route = route;
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Selector thread. All the connection state is only touched from this thread, other threads talk to it
+	 * through {@link #execute(Runnable)}.
+	 */
+	private class IoLoop extends Thread{
+
+		final Selector selector;
+		final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		final Map<String, Route> routes = new HashMap<String, Route>();
+		final Set<NioConnection> connections = new HashSet<NioConnection>();
+		final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		final AtomicInteger openConnections = new AtomicInteger();
+		final AtomicInteger inFlight = new AtomicInteger();
+		long lastSweep = System.currentTimeMillis();
+
+		IoLoop( String name ) throws IOException{
+
+			super(name);
+			setDaemon(true);
+			selector = Selector.open();
+		}
+
+		void execute( Runnable task ){
+
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run(){
+
+			try{
+				while( !shutdown ){
+
+					selector.select(SWEEP_INTERVAL);
+					Runnable task;
+					while( (task = tasks.poll()) != null )
+						task.run();
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while( it.hasNext() ){
+
+						SelectionKey key = it.next();
+						it.remove();
+						NioConnection conn = (NioConnection)key.attachment();
+						if( !key.isValid() )
+							continue;
+						try{
+							if( key.isConnectable() ){
+								onConnectable(conn);
+							}else{
+								if( key.isWritable() )
+									onWritable(conn);
+								if( key.isValid() && key.isReadable() )
+									onReadable(conn);
+							}
+						}catch(IOException ioe){
+							failConnection(conn, ioe);
+						}
+					}
+
+					long now = System.currentTimeMillis();
+					if( now - lastSweep >= SWEEP_INTERVAL ){
+
+						sweep(now);
+						lastSweep = now;
+					}
+				}
+			}catch(IOException ioe){
+				//selector failure, fall through and release everything
+			}finally{
+				closeAll();
+			}
+		}
+
+		void dispatch( NioExchange ex ){
+
+			if( ex.done.get() )
+				return;
+			if( shutdown ){
+				ex.fail(new InterruptedIOException("Transport shut down"));
+				return;
+			}
+
+			Route route = routes.get(ex.route);
+			if( route == null ){
+				route = new Route();
+				routes.put(ex.route, route);
+			}
+
+			NioConnection conn;
+			while( (conn = route.idle.pollFirst()) != null ){
+
+				if( conn.channel.isOpen() ){
+					route.busy.add(conn);
+					enqueue(conn, ex);
+					try{
+						onWritable(conn);
+						return;
+					}catch(IOException ioe){
+						//stale connection, try the next one
+						conn.pipeline.clear();
+						conn.unwritten.clear();
+						ex.conn = null;
+						ex.request.rewind();
+					}
+				}
+				discard(conn);
+			}
+
+			if( (conn = pipelinable(route)) != null ){
+				enqueue(conn, ex);
+			}else if( route.open < maxConnectionsPerEndpoint ){
+				try{
+					connect(route, ex);
+				}catch(IOException ioe){
+					ex.fail(new RequestNotSentException(ioe));
+				}
+			}else{
+				ex.waitDeadline = (ex.connectTimeout > 0)?System.currentTimeMillis() + ex.connectTimeout:0;
+				route.waiting.add(ex);
+			}
+		}
+
+		/**
+		 * Gets the busy connection with the shortest pipeline that can take one more request.
+		 * @return The connection or null if there is none.
+		 */
+		private NioConnection pipelinable( Route route ){
+
+			NioConnection shortest = null;
+			for( NioConnection conn: route.busy ){
+
+				if( conn.reusable && conn.pipeline.size() < pipelineDepth
+						&& (shortest == null || conn.pipeline.size() < shortest.pipeline.size()) )
+					shortest = conn;
+			}
+			return shortest;
+		}
+
+		/**
+		 * Appends an exchange to the pipeline of a connection, the request is written when the channel is writable.
+		 */
+		private void enqueue( NioConnection conn, NioExchange ex ){
+
+			if( conn.pipeline.isEmpty() ){
+				conn.parser.reset();
+				if( !conn.connecting )
+					conn.deadline = (ex.readTimeout > 0)?System.currentTimeMillis() + ex.readTimeout:0;
+			}
+			conn.pipeline.add(ex);
+			conn.unwritten.add(ex);
+			ex.conn = conn;
+			if( !conn.connecting )
+				conn.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+
+		/**
+		 * Opens a connection for an exchange. The failures once the connection is counted go through
+		 * {@link #failConnection(NioConnection, IOException)}, so the connection always frees its slot.
+		 * @throws IOException When the channel could not be opened, the connection is not counted.
+		 */
+		private void connect( Route route, NioExchange ex ) throws IOException{
+
+			SocketChannel channel = SocketChannel.open();
+			NioConnection conn = new NioConnection(ex.route, channel);
+			try{
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				channel.socket().setKeepAlive(true);
+				conn.key = channel.register(selector, 0, conn);
+			}catch(IOException ioe){
+				channel.close();
+				throw ioe;
+			}
+			route.open++;
+			openConnections.incrementAndGet();
+			connections.add(conn);
+			route.busy.add(conn);
+			enqueue(conn, ex);
+			conn.deadline = (ex.connectTimeout > 0)?System.currentTimeMillis() + ex.connectTimeout:0;
+			try{
+				if( channel.connect(ex.address) )
+					onConnected(conn);
+				else
+					conn.key.interestOps(SelectionKey.OP_CONNECT);
+			}catch(IOException ioe){
+				failConnection(conn, ioe);//frees the slot of the connection, ex: network unreachable
+			}
+		}
+
+		private void onConnectable( NioConnection conn ) throws IOException{
+
+			if( conn.channel.finishConnect() )
+				onConnected(conn);
+		}
+
+		private void onConnected( NioConnection conn ) throws IOException{
+
+			conn.connecting = false;
+			NioExchange head = conn.pipeline.peekFirst();
+			conn.deadline = (head.readTimeout > 0)?System.currentTimeMillis() + head.readTimeout:0;
+			onWritable(conn);
+		}
+
+		private void onWritable( NioConnection conn ) throws IOException{
+
+			NioExchange ex;
+			while( (ex = conn.unwritten.peekFirst()) != null ){
+
+				conn.channel.write(ex.request);
+				if( ex.request.hasRemaining() )
+					break;
+				conn.unwritten.removeFirst();
+			}
+			conn.key.interestOps(conn.unwritten.isEmpty()?SelectionKey.OP_READ:SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+
+		private void onReadable( NioConnection conn ) throws IOException{
+
+			readBuffer.clear();
+			int n = conn.channel.read(readBuffer);
+			if( conn.pipeline.isEmpty() ){//idle connection, either closed by server or unexpected data
+				close(conn);
+				return;
+			}
+
+			if( n == -1 ){
+				if( !conn.parser.onEndOfStream() )
+					throw new ProtocolException("Connection closed by server before response");
+			}else{
+				readBuffer.flip();
+				conn.parser.feed(readBuffer);
+				NioExchange head = conn.pipeline.peekFirst();
+				if( head.readTimeout > 0 )
+					conn.deadline = System.currentTimeMillis() + head.readTimeout;
+			}
+
+			while( conn.parser.isComplete() ){
+
+				NioExchange ex = conn.pipeline.removeFirst();
+				ex.conn = null;
+				if( conn.unwritten.remove(ex) || !conn.parser.isKeepAlive() || n == -1 )
+					conn.reusable = false;//closed by the server or answered before the request was written
+				int statusCode = conn.parser.getStatusCode();
+				byte body[] = conn.parser.getBody();
+				if( !conn.reusable )
+					failConnection(conn, null);//the requests behind are sent again
+				else if( conn.pipeline.isEmpty() )
+					release(conn);
+				ex.complete(statusCode, body);
+				if( !conn.reusable || conn.pipeline.isEmpty() )
+					return;
+
+				NioExchange head = conn.pipeline.peekFirst();
+				conn.deadline = (head.readTimeout > 0)?System.currentTimeMillis() + head.readTimeout:0;
+				conn.parser.next();
+			}
+			fill(conn);
+		}
+
+		/**
+		 * Takes the exchanges waiting for a connection up to the pipeline depth, or makes the connection idle.
+		 */
+		private void release( NioConnection conn ){
+
+			fill(conn);
+			if( conn.pipeline.isEmpty() ){
+
+				Route route = routes.get(conn.route);
+				route.busy.remove(conn);
+				conn.idleSince = System.currentTimeMillis();
+				conn.deadline = 0;
+				conn.key.interestOps(SelectionKey.OP_READ);//to notice the server closing the connection
+				route.idle.addFirst(conn);
+			}
+		}
+
+		private void fill( NioConnection conn ){
+
+			Route route = routes.get(conn.route);
+			NioExchange next;
+			while( conn.reusable && conn.pipeline.size() < pipelineDepth && (next = route.waiting.pollFirst()) != null ){
+
+				if( !next.done.get() )
+					enqueue(conn, next);
+			}
+		}
+
+		/**
+		 * Closes a connection and sends again the requests it did not get a response for. When the server closed the
+		 * connection after a response it answered one request at least, so the requests behind are sent again with no
+		 * limit. On a failure only the requests not written yet are sent again, up to twice, the requests written
+		 * fail with the cause so the {@link RetryPolicy} decides whether the server might have processed them. The
+		 * cause is wrapped in a {@link RequestNotSentException} for the requests partially written and the requests
+		 * that failed to connect.
+		 * @param conn The connection.
+		 * @param cause The failure of the connection, null if the server closed it after a complete response.
+		 */
+		private void failConnection( NioConnection conn, IOException cause ){
+
+			List<NioExchange> pending = new ArrayList<NioExchange>(conn.pipeline);
+			conn.pipeline.clear();
+			conn.unwritten.clear();
+			boolean closed = discard(conn);
+			for( NioExchange ex: pending ){
+
+				ex.conn = null;
+				if( ex.done.get() )
+					continue;//aborted while in the pipeline
+				boolean started = ex.request.position() > 0;
+				if( cause == null || (!conn.connecting && !started && ++ex.replays <= MAX_REPLAYS) ){
+					replayed.incrementAndGet();
+					ex.request.rewind();
+					dispatch(ex);
+				}else if( conn.connecting || ex.request.hasRemaining() ){
+					ex.fail(new RequestNotSentException(cause));
+				}else{
+					ex.fail(cause);
+				}
+			}
+			if( closed )
+				serveWaiting(routes.get(conn.route));
+		}
+
+		private void close( NioConnection conn ){
+
+			if( discard(conn) )
+				serveWaiting(routes.get(conn.route));
+		}
+
+		/**
+		 * Closes the channel of a connection and forgets it, its exchanges are left to the caller.
+		 * @return false if the connection was already closed.
+		 */
+		private boolean discard( NioConnection conn ){
+
+			if( !connections.remove(conn) )
+				return false;
+			conn.key.cancel();
+			try{
+				conn.channel.close();
+			}catch(IOException ioe){
+				//ignore
+			}
+			openConnections.decrementAndGet();
+			Route route = routes.get(conn.route);
+			route.open--;
+			route.idle.remove(conn);
+			route.busy.remove(conn);
+			return true;
+		}
+
+		private void serveWaiting( Route route ){
+
+			NioExchange next = route.waiting.pollFirst();
+			if( next != null )
+				dispatch(next);//a slot is free, open a new connection for the next waiting exchange
+		}
+
+		void abort( NioExchange ex ){
+
+			if( ex.done.get() )
+				return;
+			NioConnection conn = ex.conn;
+			if( conn != null && conn.pipeline.contains(ex) ){
+				if( conn.pipeline.size() == 1 ){
+					conn.pipeline.clear();
+					conn.unwritten.clear();
+					ex.conn = null;
+					close(conn);
+				}else if( conn.unwritten.contains(ex) && ex.request.position() == 0 ){
+					conn.pipeline.remove(ex);
+					conn.unwritten.remove(ex);
+					ex.conn = null;
+				}
+				//else its response is read and dropped, so the requests behind keep their connection
+			}else{
+				Route route = routes.get(ex.route);
+				if( route != null )
+					route.waiting.remove(ex);
+			}
+			ex.fail(new InterruptedIOException("Exchange aborted"));
+		}
+
+		private void sweep( long now ){
+
+			for( NioConnection conn: new ArrayList<NioConnection>(connections) ){
+
+				if( !conn.pipeline.isEmpty() ){
+					if( conn.deadline > 0 && now > conn.deadline )
+						failConnection(conn, new SocketTimeoutException(conn.connecting?"connect timed out":"Read timed out"));
+				}else if( now - conn.idleSince > idleTimeout ){
+					close(conn);
+				}
+			}
+
+			for( Route route: routes.values() ){
+
+				Iterator<NioExchange> it = route.waiting.iterator();
+				while( it.hasNext() ){
+
+					NioExchange ex = it.next();
+					if( ex.done.get() ){
+						it.remove();
+					}else if( ex.waitDeadline > 0 && now > ex.waitDeadline ){
+						it.remove();
+						ex.fail(new RequestNotSentException(new SocketTimeoutException("Timeout waiting for a connection to " + ex.route)));
+					}
+				}
+			}
+		}
+
+		private void closeAll(){
+
+			InterruptedIOException cause = new InterruptedIOException("Transport shut down");
+			for( NioConnection conn: new ArrayList<NioConnection>(connections) )
+				failConnection(conn, cause);
+			for( Route route: routes.values() ){
+
+				NioExchange ex;
+				while( (ex = route.waiting.pollFirst()) != null )
+					ex.fail(cause);
+			}
+			Runnable task;
+			while( (task = tasks.poll()) != null )
+				task.run();//dispatch tasks fail their exchanges because of shutdown
+			try{
+				selector.close();
+			}catch(IOException ioe){
+				//ignore
+			}
+		}
+	}
+
+	/**
+	 * Incremental parser of one HTTP/1.1 response. Bytes are fed as they arrive from the channel, the
+	 * body is buffered until the response is complete.
+	 */
+	private static class ResponseParser{
+
+		private static final int HEAD = 0;
+		private static final int BODY_LENGTH = 1;
+		private static final int CHUNK_SIZE = 2;
+		private static final int CHUNK_DATA = 3;
+		private static final int CHUNK_END = 4;
+		private static final int TRAILERS = 5;
+		private static final int BODY_EOF = 6;
+		private static final int COMPLETE = 7;
+
+		private byte buffer[] = new byte[1024];
+		private int start = 0;
+		private int end = 0;
+		private int state;
+		private int statusCode;
+		private boolean keepAlive;
+		private long remaining;
+		private ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		void reset(){
+
+			start = end = 0;
+			state = HEAD;
+			statusCode = -1;
+			keepAlive = true;
+			remaining = 0;
+			body.reset();
+		}
+
+		/**
+		 * Parses the next response of a pipeline from the bytes already read after the last one.
+		 */
+		void next() throws IOException{
+
+			state = HEAD;
+			statusCode = -1;
+			keepAlive = true;
+			remaining = 0;
+			body.reset();
+			parse();
+		}
+
+		boolean isComplete(){
+
+			return state == COMPLETE;
+		}
+
+		/**
+		 * Checks if any byte of the response has been read.
+		 */
+		boolean isStarted(){
+
+			return state != HEAD || end > start;
+		}
+
+		int getStatusCode(){
+
+			return statusCode;
+		}
+
+		boolean isKeepAlive(){
+
+			return keepAlive;
+		}
+
+		byte[] getBody(){
+
+			return body.toByteArray();
+		}
+
+		/**
+		 * The server closed the connection.
+		 * @return true if the end of stream completes the response.
+		 */
+		boolean onEndOfStream(){
+
+			if( state == BODY_EOF ){
+				state = COMPLETE;
+				keepAlive = false;
+			}
+			return state == COMPLETE;
+		}
+
+		void feed( ByteBuffer data ) throws IOException{
+
+			int n = data.remaining();
+			if( end + n > buffer.length ){
+
+				//compact and grow if still needed
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				end -= start;
+				start = 0;
+				if( end + n > buffer.length ){
+					byte grown[] = new byte[Math.max(buffer.length * 2, end + n)];
+					System.arraycopy(buffer, 0, grown, 0, end);
+					buffer = grown;
+				}
+			}
+			data.get(buffer, end, n);
+			end += n;
+			parse();
+		}
+
+		private void parse() throws IOException{
+
+			while( true ){
+				switch( state ){
+
+					case HEAD:
+						int headEnd = indexOf("\r\n\r\n");
+						if( headEnd == -1 )
+							return;
+						parseHead(new String(buffer, start, headEnd - start, "ISO-8859-1"));
+						start = headEnd + 4;
+						break;
+
+					case BODY_LENGTH:
+						if( remaining == 0 ){
+							state = COMPLETE;
+							break;
+						}
+						int count = (int)Math.min(remaining, end - start);
+						if( count == 0 )
+							return;
+						body.write(buffer, start, count);
+						start += count;
+						remaining -= count;
+						break;
+
+					case CHUNK_SIZE:
+						int lineEnd = indexOf(CRLF);
+						if( lineEnd == -1 )
+							return;
+						String size = new String(buffer, start, lineEnd - start, "ISO-8859-1");
+						int semicolon = size.indexOf(';');//chunk extensions
+						if( semicolon != -1 )
+							size = size.substring(0, semicolon);
+						try{
+							remaining = Long.parseLong(size.trim(), 16);
+						}catch(NumberFormatException nfe){
+							throw new ProtocolException("Malformed chunk size: " + size);
+						}
+						start = lineEnd + 2;
+						state = (remaining == 0)?TRAILERS:CHUNK_DATA;
+						break;
+
+					case CHUNK_DATA:
+						int chunk = (int)Math.min(remaining, end - start);
+						if( chunk == 0 )
+							return;
+						body.write(buffer, start, chunk);
+						start += chunk;
+						remaining -= chunk;
+						if( remaining == 0 )
+							state = CHUNK_END;
+						break;
+
+					case CHUNK_END:
+						if( end - start < 2 )
+							return;
+						start += 2;
+						state = CHUNK_SIZE;
+						break;
+
+					case TRAILERS:
+						int trailerEnd = indexOf(CRLF);
+						if( trailerEnd == -1 )
+							return;
+						if( trailerEnd == start )
+							state = COMPLETE;
+						start = trailerEnd + 2;
+						break;
+
+					case BODY_EOF:
+						body.write(buffer, start, end - start);
+						start = end;
+						return;
+
+					default:
+						return;
+				}
+			}
+		}
+
+		private void parseHead( String head ) throws IOException{
+
+			String lines[] = head.split(CRLF);
+			String parts[] = lines[0].split(" ", 3);
+			if( parts.length < 2 || !parts[0].startsWith("HTTP/") )
+				throw new ProtocolException("Malformed status line: " + lines[0]);
+			try{
+				statusCode = Integer.parseInt(parts[1]);
+			}catch(NumberFormatException nfe){
+				throw new ProtocolException("Malformed status line: " + lines[0]);
+			}
+			if( statusCode >= 100 && statusCode < 200 )
+				return;//interim response, parse next head
+			keepAlive = !parts[0].equals("HTTP/1.0");
+
+			Map<String,String> headers = new HashMap<String,String>();
+			for( int i = 1; i < lines.length; i++ ){
+
+				int colon = lines[i].indexOf(':');
+				if( colon > 0 )
+					headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+			}
+
+			String connection = headers.get("connection");
+			if( connection != null ){
+
+				if( connection.equalsIgnoreCase("close") )
+					keepAlive = false;
+				else if( connection.equalsIgnoreCase("keep-alive") )
+					keepAlive = true;
+			}
+
+			String transferEncoding = headers.get("transfer-encoding");
+			String contentLength = headers.get("content-length");
+			if( statusCode == 204 || statusCode == 304 ){
+				remaining = 0;
+				state = BODY_LENGTH;
+			}else if( transferEncoding != null && transferEncoding.equalsIgnoreCase("chunked") ){
+				state = CHUNK_SIZE;
+			}else if( contentLength != null ){
+				try{
+					remaining = Long.parseLong(contentLength);
+				}catch(NumberFormatException nfe){
+					throw new ProtocolException("Malformed Content-Length: " + contentLength);
+				}
+				state = BODY_LENGTH;
+			}else{
+				//body delimited by connection close
+				keepAlive = false;
+				state = BODY_EOF;
+			}
+		}
+
+		private int indexOf( String delimiter ){
+
+			int length = delimiter.length();
+			for( int i = start; i <= end - length; i++ ){
+
+				boolean match = true;
+				for( int j = 0; j < length && match; j++ )
+					match = buffer[i + j] == delimiter.charAt(j);
+				if( match )
+					return i;
+			}
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.worizon.net;
+
+import java.io.IOException;
+
+/**
+ * Thrown by an exchange when the request failed before it was completely written, so the server could not
+ * process it and the request can be sent again whatever the method. The cause is the I/O error.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class RequestNotSentException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RequestNotSentException( IOException cause ){
+
+		super(cause.getMessage(), cause);
+	}
+
+	/**
+	 * Gets the I/O error that stopped the request.
+	 */
+	@Override
+	public IOException getCause(){
+
+		return (IOException)super.getCause();
+	}
+
+}
@@ -0,0 +1,219 @@
+package com.worizon.net;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.PortUnreachableException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_RETRY_BACKOFF;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_MAX_RETRY_BACKOFF;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_RETRY_BUDGET_RATIO;
+import static com.worizon.jsonrpc.Const.Http.DEFAULT_MIN_RETRIES_PER_SECOND;
+
+/**
+ * Rules to retry the failed requests, shared by all the requests built from a {@link HttpRequestBuilder}. A failure
+ * is classified by the phase the request reached:
+ * <ul>
+ * <li>{@link Phase#CONNECT}: The connection could not be established.</li>
+ * <li>{@link Phase#PRE_SEND}: The request was not completely written, see {@link RequestNotSentException}.</li>
+ * <li>{@link Phase#POST_SEND}: The request may have been processed by the server.</li>
+ * </ul>
+ * Connect and pre-send failures are always retried, post-send failures only if the request is idempotent, see
+ * {@link HttpRequest#setIdempotent(boolean)}. Each retry waits a random time between 0 and the backoff, which
+ * doubles on every retry up to a max, so the clients failing at once don't retry at once.
+ * <p>
+ * Retries are limited by a budget shared by all the requests of the policy, so a failing server does not get a
+ * retry storm: the retries of the last 10 seconds can't be more than a ratio of the calls of the last 10 seconds,
+ * plus a minimum of retries per second for the clients making few calls.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class RetryPolicy {
+
+	/**
+	 * Phase of the request when it failed.
+	 */
+	public enum Phase{ CONNECT, PRE_SEND, POST_SEND }
+
+	private static final int WINDOW_SECONDS = 10;
+
+	private final int maxRetries;
+	private final long backoffMillis;
+	private final long maxBackoffMillis;
+	private double retryRatio = DEFAULT_RETRY_BUDGET_RATIO;
+	private int minRetriesPerSecond = DEFAULT_MIN_RETRIES_PER_SECOND;
+
+	private final Random random = new Random();
+	private final long seconds[] = new long[WINDOW_SECONDS];
+	private final long calls[] = new long[WINDOW_SECONDS];
+	private final long retries[] = new long[WINDOW_SECONDS];
+
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong exhausted = new AtomicLong();
+
+	/**
+	 * Creates a policy with a backoff of {@link com.worizon.jsonrpc.Const.Http#DEFAULT_RETRY_BACKOFF} ms doubled up
+	 * to {@link com.worizon.jsonrpc.Const.Http#DEFAULT_MAX_RETRY_BACKOFF} ms.
+	 * @param maxRetries Max number of retries of a request.
+	 */
+	public RetryPolicy( int maxRetries ){
+
+		this(maxRetries, DEFAULT_RETRY_BACKOFF, DEFAULT_MAX_RETRY_BACKOFF);
+	}
+
+	/**
+	 * Creates a policy.
+	 * @param maxRetries Max number of retries of a request.
+	 * @param backoffMillis Max milliseconds before the first retry.
+	 * @param maxBackoffMillis Max milliseconds before any retry.
+	 */
+	public RetryPolicy( int maxRetries, long backoffMillis, long maxBackoffMillis ){
+
+		if( maxRetries < 0 || backoffMillis < 0 || maxBackoffMillis < backoffMillis )
+			throw new IllegalArgumentException("Retries and backoff can not be negative");
+		this.maxRetries = maxRetries;
+		this.backoffMillis = backoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	/**
+	 * Sets the retry budget.
+	 * @param retryRatio Retries allowed per call, ex: 0.2 allows retrying 20% of the calls.
+	 * @param minRetriesPerSecond Retries per second allowed whatever the number of calls.
+	 * @return This policy.
+	 */
+	public synchronized RetryPolicy budget( double retryRatio, int minRetriesPerSecond ){
+
+		if( retryRatio < 0 || minRetriesPerSecond < 0 )
+			throw new IllegalArgumentException("Retry budget can not be negative");
+		this.retryRatio = retryRatio;
+		this.minRetriesPerSecond = minRetriesPerSecond;
+		return this;
+	}
+
+	public int getMaxRetries(){
+
+		return maxRetries;
+	}
+
+	/**
+	 * Gets the number of retries performed.
+	 */
+	public long getRetryCount(){
+
+		return retryCount.get();
+	}
+
+	/**
+	 * Gets the number of retries not performed because the budget was spent.
+	 */
+	public long getBudgetExhaustedCount(){
+
+		return exhausted.get();
+	}
+
+	/**
+	 * Classifies a failure by the phase the request reached.
+	 * @param ex The failure of the exchange.
+	 * @return The phase.
+	 */
+	public static Phase classify( IOException ex ){
+
+		IOException cause = (ex instanceof RequestNotSentException)?((RequestNotSentException)ex).getCause():ex;
+		if( cause instanceof ConnectException || cause instanceof NoRouteToHostException ||
+			cause instanceof PortUnreachableException || cause instanceof UnknownHostException )
+			return Phase.CONNECT;
+		if( ex instanceof RequestNotSentException )
+			return Phase.PRE_SEND;
+		return Phase.POST_SEND;
+	}
+
+	/**
+	 * Counts a call in the budget, retries excluded.
+	 */
+	synchronized void called(){
+
+		calls[bucket(now())]++;
+	}
+
+	/**
+	 * Checks if a failed request can be retried and spends the retry from the budget.
+	 * @param ex The failure.
+	 * @param idempotent true if the request can be processed twice.
+	 * @param retried Times the request has been retried.
+	 */
+	boolean shouldRetry( IOException ex, boolean idempotent, int retried ){
+
+		if( retried >= maxRetries || ex instanceof CircuitBreakerOpenException )
+			return false;
+		if( classify(ex) == Phase.POST_SEND && !idempotent )
+			return false;
+		return withdraw();
+	}
+
+	private synchronized boolean withdraw(){
+
+		long now = now();
+		int current = bucket(now);
+		long windowCalls = 0;
+		long windowRetries = 0;
+		for( int i = 0; i < WINDOW_SECONDS; i++ ){
+
+			if( now - seconds[i] < WINDOW_SECONDS ){
+
+				windowCalls += calls[i];
+				windowRetries += retries[i];
+			}
+		}
+		if( windowRetries >= (long)minRetriesPerSecond * WINDOW_SECONDS + retryRatio * windowCalls ){
+
+			exhausted.incrementAndGet();
+			return false;
+		}
+		retries[current]++;
+		retryCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Gets the bucket of the second, cleared if it holds an older second.
+	 */
+	private int bucket( long second ){
+
+		int i = (int)(second % WINDOW_SECONDS);
+		if( seconds[i] != second ){
+
+			seconds[i] = second;
+			calls[i] = 0;
+			retries[i] = 0;
+		}
+		return i;
+	}
+
+	private static long now(){
+
+		return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()) & Long.MAX_VALUE;
+	}
+
+	/**
+	 * Gets a random backoff before a retry, full jitter.
+	 * @param retried Times the request has been retried.
+	 */
+	long backoffMillis( int retried ){
+
+		long max = backoffMillis;
+		for( int i = 0; i < retried && max < maxBackoffMillis; i++ )
+			max <<= 1;
+		max = Math.min(max, maxBackoffMillis);
+		synchronized( random ){
+
+			return (long)(random.nextDouble() * max);
+		}
+	}
+
+}
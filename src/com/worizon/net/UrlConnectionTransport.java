@@ -0,0 +1,131 @@
+package com.worizon.net;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Transport that opens a new {@link HttpURLConnection} for each request and asks the server to close
+ * the connection afterwards. This is the default transport.
+ *
+ * @author Enric Cecilla
+ * @since 1.0.1
+ */
+public class UrlConnectionTransport implements ITransport {
+
+	@Override
+	public IExchange open( URL endpoint, int connectTimeout, int readTimeout ){
+
+		return new UrlConnectionExchange(endpoint, connectTimeout, readTimeout);
+	}
+
+	/**
+	 * Nothing to release, connections are closed after each request.
+	 */
+	@Override
+	public void shutdown(){}
+
+	private static class UrlConnectionExchange implements IExchange{
+
+		private final URL endpoint;
+		private final int connectTimeout;
+		private final int readTimeout;
+		private final Map<String,String> headers = new LinkedHashMap<String,String>();
+		private volatile HttpURLConnection conn = null;
+		private volatile boolean aborted = false;
+		private int statusCode = -1;
+
+		UrlConnectionExchange( URL endpoint, int connectTimeout, int readTimeout ){
+
+			this.endpoint = endpoint;
+			this.connectTimeout = connectTimeout;
+			this.readTimeout = readTimeout;
+		}
+
+		@Override
+		public void setHeader( String key, String value ){
+
+			headers.put(key, value);
+		}
+
+		@Override
+		public InputStream send( byte[] body ) throws IOException{
+			
+			return send(new ByteArrayPayload(body));
+		}
+		
+		@Override
+		public InputStream send( IPayload payload ) throws IOException{
+
+			//Prepare connection
+			HttpURLConnection conn = (HttpURLConnection)endpoint.openConnection();
+			this.conn = conn;
+			conn.setDoOutput( true );
+			conn.setUseCaches(false);
+			conn.setAllowUserInteraction(false);
+			conn.setDefaultUseCaches(false);
+			conn.setConnectTimeout(connectTimeout);
+			conn.setReadTimeout(readTimeout);
+			conn.setRequestMethod("POST");
+			conn.setRequestProperty("Connection", "close");
+			if( !(payload instanceof ByteArrayPayload) ){//encoded bodies keep the buffered mode
+				
+				long length = payload.getLength();
+				if( length >= 0 && length <= Integer.MAX_VALUE )
+					conn.setFixedLengthStreamingMode((int)length);
+				else
+					conn.setChunkedStreamingMode(0);
+			}
+
+			//Set HTTP headers
+			for( Entry<String,String> entry: headers.entrySet() ){
+
+				conn.setRequestProperty(entry.getKey(), entry.getValue());
+			}
+			if( aborted )
+				throw new SocketException("Exchange aborted");
+			try{
+				conn.connect();
+				OutputStream os = conn.getOutputStream();
+				payload.writeTo(os);
+				os.flush();
+			}catch(IOException ex){
+				throw new RequestNotSentException(ex);
+			}
+		    try{
+
+		    	InputStream is = conn.getInputStream();
+		    	statusCode = conn.getResponseCode();
+		    	return is;
+
+		    }catch(FileNotFoundException fex){
+
+		    	statusCode = conn.getResponseCode();
+		    	return conn.getErrorStream();
+		    }
+		}
+
+		@Override
+		public int getStatusCode(){
+
+			return statusCode;
+		}
+
+		@Override
+		public void abort(){
+
+			aborted = true;
+			HttpURLConnection conn = this.conn;
+			if( conn != null )
+				conn.disconnect();
+		}
+	}
+
+}
@@ -6,18 +6,58 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import com.worizon.junit.gson.PrimitiveArraysTest;
 import com.worizon.junit.jsonrequest.JsonRpcRequestTest;
 import com.worizon.junit.jsonresponse.JsonRpcResponseSuite;
+import com.worizon.junit.rpc.HttpClientTransportTest;
+import com.worizon.junit.rpc.HttpConnectionPoolTest;
 import com.worizon.junit.rpc.HttpRequestBuilderTest;
 import com.worizon.junit.rpc.HttpRequestTest;
+import com.worizon.junit.rpc.MicroBatchingTest;
+import com.worizon.junit.rpc.NioTransportTest;
+import com.worizon.junit.rpc.ResultBusTest;
+import com.worizon.junit.rpc.ResultCacheTest;
+import com.worizon.junit.rpc.SingleFlightTest;
+import com.worizon.junit.rpc.NotificationQueueTest;
+import com.worizon.junit.rpc.LoadBalancerTest;
+import com.worizon.junit.rpc.HedgingTest;
+import com.worizon.junit.rpc.RetryPolicyTest;
+import com.worizon.junit.rpc.CircuitBreakerTest;
+import com.worizon.junit.rpc.ConcurrencyLimiterTest;
+import com.worizon.junit.rpc.DeadlineTest;
+import com.worizon.junit.rpc.HashedWheelTimerTest;
+import com.worizon.junit.rpc.PipeliningTest;
 import com.worizon.junit.rpc.RpcTest;
+import com.worizon.junit.rpc.StreamingRequestTest;
+import com.worizon.junit.rpc.StreamingResponseTest;
+import com.worizon.junit.rpc.VirtualThreadsTest;
 
 @RunWith(Suite.class)
 @SuiteClasses({ JsonRpcResponseSuite.class,
 				JsonRpcRequestTest.class,
 				RpcTest.class,
 				HttpRequestTest.class,
-				HttpRequestBuilderTest.class})
+				HttpRequestBuilderTest.class,
+				HttpConnectionPoolTest.class,
+				HttpClientTransportTest.class,
+				NioTransportTest.class,
+				StreamingResponseTest.class,
+				StreamingRequestTest.class,
+				MicroBatchingTest.class,
+				ResultBusTest.class,
+				VirtualThreadsTest.class,
+				PrimitiveArraysTest.class,
+				ResultCacheTest.class,
+				SingleFlightTest.class,
+				NotificationQueueTest.class,
+				LoadBalancerTest.class,
+				HedgingTest.class,
+				RetryPolicyTest.class,
+				CircuitBreakerTest.class,
+				ConcurrencyLimiterTest.class,
+				DeadlineTest.class,
+				HashedWheelTimerTest.class,
+				PipeliningTest.class})
 public class AllTests {
 	
 	public static Test suite(){
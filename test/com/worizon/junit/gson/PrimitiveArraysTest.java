@@ -0,0 +1,100 @@
+package com.worizon.junit.gson;
+
+import java.io.StringReader;
+import java.nio.BufferOverflowException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.worizon.jsonrpc.gson.PrimitiveArrays;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class PrimitiveArraysTest {
+	
+	private final Gson gson = new GsonBuilder().registerTypeAdapterFactory(PrimitiveArrays.FACTORY).create();
+	
+	@Test
+	public void testReadIntArray() throws Exception{
+		
+		int[] result = gson.fromJson("[1, 2, -3, 10.7, \"5\"]", int[].class);
+		assertThat(result, is(new int[]{1, 2, -3, 10, 5}));
+	}
+	
+	@Test
+	public void testReadLongArray() throws Exception{
+		
+		long[] result = gson.fromJson("[9007199254740993, -1, 2.5]", long[].class);
+		assertThat(result, is(new long[]{9007199254740993L, -1, 2}));
+	}
+	
+	@Test
+	public void testReadDoubleArray() throws Exception{
+		
+		double[] result = gson.fromJson("[10.1, 34, -2.5e3]", double[].class);
+		assertThat(result, is(new double[]{10.1, 34, -2500}));
+	}
+	
+	@Test
+	public void testReadFloatAndShortArrays() throws Exception{
+		
+		assertThat(gson.fromJson("[1.5, 2]", float[].class), is(new float[]{1.5f, 2}));
+		assertThat(gson.fromJson("[7, 8.9]", short[].class), is(new short[]{7, 8}));
+	}
+	
+	@Test
+	public void testReadEmptyAndNull() throws Exception{
+		
+		assertThat(gson.fromJson("[]", int[].class), is(new int[0]));
+		assertNull(gson.fromJson("null", int[].class));
+	}
+	
+	@Test
+	public void testReadLargeArray() throws Exception{
+		
+		StringBuilder json = new StringBuilder("[");
+		for( int i = 0; i < 100000; i++ )
+			json.append(i == 0?"":",").append(i);
+		json.append("]");
+		int[] result = gson.fromJson(json.toString(), int[].class);
+		assertThat(result.length, is(100000));
+		assertThat(result[99999], is(99999));
+	}
+	
+	@Test
+	public void testWriteArray() throws Exception{
+		
+		assertThat(gson.toJson(new int[]{1, 2, 3}), is("[1,2,3]"));
+		assertThat(gson.toJson(new double[]{1.5}), is("[1.5]"));
+	}
+	
+	@Test
+	public void testReadIntoBuffer() throws Exception{
+		
+		int[] values = new int[5];
+		IntBuffer buffer = IntBuffer.wrap(values);
+		buffer.put(42);
+		int read = PrimitiveArrays.read(new JsonReader(new StringReader("[1, 2, 3]")), buffer);
+		assertThat(read, is(3));
+		assertThat(buffer.position(), is(4));
+		assertThat(values, is(new int[]{42, 1, 2, 3, 0}));
+		
+		DoubleBuffer doubles = DoubleBuffer.allocate(2);
+		JsonReader in = new JsonReader(new StringReader("null"));
+		in.setLenient(true);
+		assertThat(PrimitiveArrays.read(in, doubles), is(0));
+		assertThat(doubles.position(), is(0));
+	}
+	
+	@Test(expected = BufferOverflowException.class)
+	public void testReadIntoSmallBuffer() throws Exception{
+		
+		PrimitiveArrays.read(new JsonReader(new StringReader("[1, 2, 3]")), IntBuffer.allocate(2));
+	}
+
+}
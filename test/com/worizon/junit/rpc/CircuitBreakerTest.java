@@ -0,0 +1,188 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.CircuitBreaker;
+import com.worizon.net.CircuitBreakerOpenException;
+import com.worizon.net.CircuitBreakerPolicy;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.net.RetryPolicy;
+import com.worizon.test.EmbeddedServer;
+
+public class CircuitBreakerTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private final AtomicInteger hits = new AtomicInteger();
+	private volatile long delay = 0;
+	private final List<String> transitions = Collections.synchronizedList(new ArrayList<String>());
+	private final CircuitBreaker.IStateListener recorder = new CircuitBreaker.IStateListener(){
+
+		@Override
+		public void onStateChange( CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to ){
+
+			transitions.add(from + "->" + to);
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				hits.incrementAndGet();
+				try{
+					Thread.sleep(delay);
+				}catch(InterruptedException ie){
+				}
+				return EmbeddedServer.response(body, 1);
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	@After
+	public void tearDown(){
+
+		server.stop();
+	}
+
+	@Test
+	public void testOpensOnFailures() throws Exception{
+
+		String dead = EmbeddedServer.deadEndpoint();
+		CircuitBreakerPolicy breakers = new CircuitBreakerPolicy(0.5, 60000).window(4, 4);
+		breakers.addStateListener(recorder);
+		RetryPolicy retries = new RetryPolicy(2, 0, 0);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(dead).retryPolicy(retries).circuitBreaker(breakers));
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(ConnectException ce){
+		}
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(CircuitBreakerOpenException cboe){
+		}
+
+		CircuitBreaker breaker = breakers.getBreaker(new URL(dead));
+		assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+		long retried = retries.getRetryCount();
+		long start = System.currentTimeMillis();
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(CircuitBreakerOpenException cboe){
+			assertThat(cboe.getEndpoint().toString(), is(dead));
+		}
+		assertTrue(System.currentTimeMillis() - start < 100);
+		assertThat(retries.getRetryCount(), is(retried));
+		assertThat(breaker.getRejectedCount(), is(2L));
+		assertThat(transitions, is(Collections.singletonList("CLOSED->OPEN")));
+	}
+
+	@Test
+	public void testHalfOpenCloses() throws Exception{
+
+		delay = 300;
+		CircuitBreakerPolicy breakers = new CircuitBreakerPolicy(0.5, 200).window(2, 2).halfOpenCalls(1);
+		breakers.addStateListener(recorder);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).readTimeout(100)
+															.requestRetries(0).circuitBreaker(breakers));
+		for( int i = 0; i < 2; i++ ){
+			try{
+				rpc.callInteger("get");
+				fail();
+			}catch(SocketTimeoutException ste){
+			}
+		}
+		CircuitBreaker breaker = breakers.getBreaker(new URL(endpoint));
+		assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+		assertThat(breaker.getFailureRate(), is(-1.0));
+
+		delay = 0;
+		Thread.sleep(250);
+		assertThat(rpc.callInteger("get"), is(1));
+		assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+		assertThat(transitions.toString(), is("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]"));
+	}
+
+	@Test
+	public void testHalfOpenReopens() throws Exception{
+
+		delay = 300;
+		CircuitBreakerPolicy breakers = new CircuitBreakerPolicy(0.5, 200).window(2, 2).halfOpenCalls(1);
+		breakers.addStateListener(recorder);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).readTimeout(100)
+															.requestRetries(0).circuitBreaker(breakers));
+		for( int i = 0; i < 2; i++ ){
+			try{
+				rpc.callInteger("get");
+				fail();
+			}catch(SocketTimeoutException ste){
+			}
+		}
+		Thread.sleep(250);
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(SocketTimeoutException ste){
+		}
+		assertThat(breakers.getBreaker(new URL(endpoint)).getState(), is(CircuitBreaker.State.OPEN));
+		assertThat(transitions.toString(), is("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->OPEN]"));
+		assertThat(hits.get(), is(3));
+	}
+
+	@Test
+	public void testOpensOnSlowCalls() throws Exception{
+
+		delay = 100;
+		CircuitBreakerPolicy breakers = new CircuitBreakerPolicy(0.5, 60000).slowCalls(50, 0.5).window(2, 2);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).circuitBreaker(breakers));
+		assertThat(rpc.callInteger("get"), is(1));
+		assertThat(rpc.callInteger("get"), is(1));
+
+		assertThat(breakers.getBreaker(new URL(endpoint)).getState(), is(CircuitBreaker.State.OPEN));
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(CircuitBreakerOpenException cboe){
+		}
+		assertThat(hits.get(), is(2));
+	}
+
+	@Test
+	public void testBalancerSkipsOpenHost() throws Exception{
+
+		String dead = EmbeddedServer.deadEndpoint();
+		CircuitBreakerPolicy breakers = new CircuitBreakerPolicy(0.5, 60000).window(2, 2);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(dead, endpoint).circuitBreaker(breakers));
+		for( int i = 0; i < 10; i++ )
+			assertThat(rpc.callInteger("get"), is(1));
+
+		assertThat(breakers.getBreaker(new URL(dead)).getState(), is(CircuitBreaker.State.OPEN));
+		assertThat(breakers.getBreaker(new URL(endpoint)).getState(), is(CircuitBreaker.State.CLOSED));
+		assertThat(breakers.getBreakers().size(), is(2));
+		assertThat(hits.get(), is(10));
+	}
+
+}
@@ -0,0 +1,277 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.ConcurrencyLimiter;
+import com.worizon.jsonrpc.LimitExceededException;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.test.EmbeddedServer;
+
+public class ConcurrencyLimiterTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private final AtomicInteger hits = new AtomicInteger();
+	private volatile long delay = 0;
+	private final CountDownLatch received = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				hits.incrementAndGet();
+				received.countDown();
+				try{
+					Thread.sleep(delay);
+				}catch(InterruptedException ie){
+				}
+				return EmbeddedServer.response(body, 1);
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	@After
+	public void tearDown(){
+
+		server.stop();
+	}
+
+	/**
+	 * Starts a call in the background and waits until the server receives it.
+	 */
+	private Thread callInBackground( final Rpc.Sync rpc ) throws InterruptedException{
+
+		Thread t = new Thread(){
+
+			@Override
+			public void run(){
+
+				try{
+					rpc.callInteger("get");
+				}catch(Exception ex){
+				}
+			}
+		};
+		t.start();
+		assertTrue(received.await(2, TimeUnit.SECONDS));
+		return t;
+	}
+
+	@Test
+	public void testRejectsOverLimit() throws Exception{
+
+		delay = 300;
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Aimd(1, 1, 10000);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		rpc.setConcurrencyLimiter(limiter);
+		Thread t = callInBackground(rpc);
+
+		long start = System.currentTimeMillis();
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(LimitExceededException lee){
+			assertThat(lee.getLimit(), is(1));
+		}
+		assertTrue(System.currentTimeMillis() - start < 100);
+		assertThat(limiter.getRejectedCount(), is(1L));
+
+		t.join();
+		assertThat(limiter.getInFlight(), is(0));
+		assertThat(rpc.callInteger("get"), is(1));
+		assertThat(hits.get(), is(2));
+	}
+
+	@Test
+	public void testQueuedCallWaitsForPermit() throws Exception{
+
+		delay = 200;
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Aimd(1, 1, 10000).queue(1, 2000);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		rpc.setConcurrencyLimiter(limiter);
+		Thread t = callInBackground(rpc);
+
+		assertThat(rpc.callInteger("get"), is(1));
+		t.join();
+		assertThat(hits.get(), is(2));
+		assertThat(limiter.getRejectedCount(), is(0L));
+		assertThat(limiter.getQueued(), is(0));
+		assertThat(limiter.getInFlight(), is(0));
+	}
+
+	@Test
+	public void testQueuedCallExpires() throws Exception{
+
+		delay = 500;
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Aimd(1, 1, 10000).queue(1, 50);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		rpc.setConcurrencyLimiter(limiter);
+		Thread t = callInBackground(rpc);
+
+		long start = System.currentTimeMillis();
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(LimitExceededException lee){
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(elapsed >= 40 && elapsed < 400);
+		assertThat(limiter.getQueued(), is(0));
+		t.join();
+		assertThat(hits.get(), is(1));
+	}
+
+	@Test
+	public void testBatchedCallsTakePermit() throws Exception{
+
+		delay = 300;
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Aimd(1, 1, 10000);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		rpc.setConcurrencyLimiter(limiter);
+		rpc.enableBatching(5, 10);
+		Thread t = callInBackground(rpc);
+
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(LimitExceededException lee){
+		}
+		t.join();
+		assertThat(hits.get(), is(1));
+		assertThat(limiter.getInFlight(), is(0));
+	}
+
+	@Test
+	public void testFailuresShrinkLimit() throws Exception{
+
+		ServerSocket socket = new ServerSocket(0);
+		String dead = "http://localhost:" + socket.getLocalPort() + "/rpc";
+		socket.close();
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Aimd(10, 20, 10000);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(dead).requestRetries(0));
+		rpc.setConcurrencyLimiter(limiter);
+		for( int i = 0; i < 5; i++ ){
+			try{
+				rpc.callInteger("get");
+				fail();
+			}catch(ConnectException ce){
+			}
+		}
+		assertThat(limiter.getLimit(), is(5));
+		assertThat(limiter.getInFlight(), is(0));
+	}
+
+	@Test
+	public void testAimd() throws Exception{
+
+		AimdProbe aimd = new AimdProbe();
+		assertThat(aimd.update(10, 50 * MS, 5, false), is(11.0));
+		assertThat(aimd.update(10, 50 * MS, 4, false), is(10.0));//half of the limit not in use
+		assertThat(aimd.update(10, 150 * MS, 10, false), is(9.0));
+		assertThat(aimd.update(10, 50 * MS, 10, true), is(9.0));
+	}
+
+	@Test
+	public void testVegas() throws Exception{
+
+		VegasProbe vegas = new VegasProbe();
+		assertThat(vegas.update(10, 100 * MS, 10, false), is(11.0));//no queue at the min rtt
+		assertThat(vegas.update(20, 200 * MS, 20, false), is(20 - Math.log10(20)));//half of the calls queued
+		assertThat(vegas.update(20, 150 * MS, 20, false), is(20.0));
+		assertThat(vegas.update(20, 100 * MS, 20, true), is(20 - Math.log10(20)));
+	}
+
+	@Test
+	public void testGradient() throws Exception{
+
+		GradientProbe gradient = new GradientProbe();
+		double limit = 16;
+		for( int i = 0; i < 10; i++ )
+			limit = gradient.update(limit, 100 * MS, (int)limit, false);
+		assertTrue(limit > 16);
+
+		double grown = limit;
+		for( int i = 0; i < 10; i++ )
+			limit = gradient.update(limit, 400 * MS, (int)limit, false);
+		assertTrue(limit < grown);
+	}
+
+	@Test
+	public void testLimitBounded() throws Exception{
+
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Aimd(2, 3, 10000);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		rpc.setConcurrencyLimiter(limiter);
+		assertThat(rpc.callInteger("get"), is(1));
+		assertThat(limiter.getLimit(), is(3));
+
+		limiter = new ConcurrencyLimiter.Aimd(1, 1, 10000);
+		rpc.setConcurrencyLimiter(limiter);
+		for( int i = 0; i < 5; i++ )
+			assertThat(rpc.callInteger("get"), is(1));
+		assertThat(limiter.getLimit(), is(1));
+	}
+
+	private static class AimdProbe extends ConcurrencyLimiter.Aimd{
+
+		AimdProbe(){
+
+			super(10, 20, 100);
+		}
+
+		@Override
+		protected double update( double limit, long rttNanos, int inFlight, boolean dropped ){
+
+			return super.update(limit, rttNanos, inFlight, dropped);
+		}
+	}
+
+	private static class VegasProbe extends ConcurrencyLimiter.Vegas{
+
+		VegasProbe(){
+
+			super(10, 100);
+		}
+
+		@Override
+		protected double update( double limit, long rttNanos, int inFlight, boolean dropped ){
+
+			return super.update(limit, rttNanos, inFlight, dropped);
+		}
+	}
+
+	private static class GradientProbe extends ConcurrencyLimiter.Gradient{
+
+		GradientProbe(){
+
+			super(16, 100);
+		}
+
+		@Override
+		protected double update( double limit, long rttNanos, int inFlight, boolean dropped ){
+
+			return super.update(limit, rttNanos, inFlight, dropped);
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.Const;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.jsonrpc.annotations.Remote;
+import com.worizon.jsonrpc.annotations.Timeout;
+import com.worizon.net.Deadline;
+import com.worizon.net.DeadlineExceededException;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.net.RetryPolicy;
+import com.worizon.test.EmbeddedServer;
+
+public class DeadlineTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private final AtomicInteger hits = new AtomicInteger();
+	private volatile long delay = 0;
+	private volatile String header = null;
+
+	@Remote
+	interface Service{
+
+		@Timeout(100)
+		public int get() throws IOException;
+	}
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				hits.incrementAndGet();
+				header = exchange.getRequestHeaders().getFirst(Const.Http.DEADLINE_HEADER);
+				try{
+					Thread.sleep(delay);
+				}catch(InterruptedException ie){
+				}
+				return EmbeddedServer.response(body, 1);
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	@After
+	public void tearDown(){
+
+		server.stop();
+	}
+
+	@Test
+	public void testCallTimeoutShrinksReadTimeout() throws Exception{
+
+		delay = 1000;
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).readTimeout(10000).callTimeout(200));
+		long start = System.currentTimeMillis();
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(DeadlineExceededException dee){
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(elapsed >= 150 && elapsed < 700);
+	}
+
+	@Test
+	public void testCallTimeoutCoversRetries() throws Exception{
+
+		delay = 150;
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).readTimeout(100)
+															.retryPolicy(new RetryPolicy(10, 0, 0)).callTimeout(350));
+		rpc.addIdempotentMethods("get");
+		long start = System.currentTimeMillis();
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(DeadlineExceededException dee){
+		}
+		assertTrue(System.currentTimeMillis() - start < 800);
+		assertTrue(hits.get() <= 4);
+	}
+
+	@Test
+	public void testMethodTimeoutWithBatching() throws Exception{
+
+		delay = 1000;
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).readTimeout(10000));
+		rpc.enableBatching(5, 10);
+		rpc.setMethodTimeout("get", 200);
+		long start = System.currentTimeMillis();
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(DeadlineExceededException dee){
+		}
+		assertTrue(System.currentTimeMillis() - start < 700);
+	}
+
+	@Test
+	public void testTimeLeftSent() throws Exception{
+
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).callTimeout(5000));
+		assertThat(rpc.callInteger("get"), is(1));
+		long left = Long.parseLong(header);
+		assertTrue(left > 4000 && left <= 5000);
+
+		rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		assertThat(rpc.callInteger("get"), is(1));
+		assertThat(header, is(nullValue()));
+	}
+
+	@Test
+	public void testPerCallDeadline() throws Exception{
+
+		delay = 500;
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).callTimeout(5000));
+		long start = System.currentTimeMillis();
+		try{
+			rpc.call("get", Integer.class, Deadline.after(100, TimeUnit.MILLISECONDS));
+			fail();
+		}catch(DeadlineExceededException dee){
+		}
+		assertTrue(System.currentTimeMillis() - start < 400);
+
+		delay = 0;
+		assertThat(rpc.call("get", Integer.class, Deadline.after(2, TimeUnit.SECONDS)), is(1));
+		assertTrue(Long.parseLong(header) <= 2000);
+	}
+
+	@Test
+	public void testExpiredDeadlineFailsFast() throws Exception{
+
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		try{
+			rpc.call("get", Integer.class, Deadline.after(0, TimeUnit.MILLISECONDS));
+			fail();
+		}catch(DeadlineExceededException dee){
+		}
+		assertThat(hits.get(), is(0));
+	}
+
+	@Test
+	public void testAnnotatedTimeout() throws Exception{
+
+		delay = 500;
+		Service service = new Rpc.Proxy(new HttpRequestBuilder().endpoint(endpoint)).createProxy(Service.class);
+		long start = System.currentTimeMillis();
+		try{
+			service.get();
+			fail();
+		}catch(DeadlineExceededException dee){
+		}
+		assertTrue(System.currentTimeMillis() - start < 400);
+		assertThat(hits.get(), is(1));
+	}
+
+	@Test
+	public void testEarliestDeadline() throws Exception{
+
+		Deadline soon = Deadline.after(10, TimeUnit.MILLISECONDS);
+		Deadline later = Deadline.after(10, TimeUnit.SECONDS);
+		assertThat(Deadline.earliest(soon, later), is(sameInstance(soon)));
+		assertThat(Deadline.earliest(later, soon), is(sameInstance(soon)));
+		assertThat(Deadline.earliest(null, later), is(sameInstance(later)));
+		assertThat(Deadline.earliest(later, null), is(sameInstance(later)));
+		assertFalse(later.isExpired());
+		Thread.sleep(20);
+		assertTrue(soon.isExpired());
+		assertTrue(soon.timeLeft(TimeUnit.MILLISECONDS) < 0);
+	}
+
+}
@@ -0,0 +1,243 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.ICallback;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.jsonrpc.RpcFuture;
+import com.worizon.net.DeadlineExceededException;
+import com.worizon.net.HashedWheelTimer;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.net.NioTransport;
+import com.worizon.test.EmbeddedServer;
+
+public class HashedWheelTimerTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private HashedWheelTimer timer;
+	private volatile long delay = 0;
+
+	@Before
+	public void setUp() throws Exception{
+
+		timer = new HashedWheelTimer(10, 8, "test-timer");
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				try{
+					Thread.sleep(delay);
+				}catch(InterruptedException ie){
+				}
+				return EmbeddedServer.response(body, 1);
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	@After
+	public void tearDown(){
+
+		timer.stop();
+		server.stop();
+	}
+
+	@Test
+	public void testFiresAfterDelay() throws Exception{
+
+		final CountDownLatch fired = new CountDownLatch(1);
+		final AtomicLong firedAt = new AtomicLong();
+		long start = System.nanoTime();
+		HashedWheelTimer.ITimeout timeout = timer.schedule(new Runnable(){
+
+			@Override
+			public void run(){
+
+				firedAt.set(System.nanoTime());
+				fired.countDown();
+			}
+		}, 50, TimeUnit.MILLISECONDS);
+
+		assertTrue(fired.await(2, TimeUnit.SECONDS));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(firedAt.get() - start);
+		assertTrue(elapsed >= 50 && elapsed < 300);
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+		assertThat(timer.getPending(), is(0));
+	}
+
+	@Test
+	public void testCancel() throws Exception{
+
+		final AtomicInteger runs = new AtomicInteger();
+		Runnable task = new Runnable(){
+
+			@Override
+			public void run(){
+
+				runs.incrementAndGet();
+			}
+		};
+		HashedWheelTimer.ITimeout cancelled = timer.schedule(task, 50, TimeUnit.MILLISECONDS);
+		timer.schedule(task, 50, TimeUnit.MILLISECONDS);
+		assertThat(timer.getPending(), is(2));
+		assertTrue(cancelled.cancel());
+		assertFalse(cancelled.cancel());
+		assertTrue(cancelled.isCancelled());
+		assertThat(timer.getPending(), is(1));
+
+		Thread.sleep(200);
+		assertThat(runs.get(), is(1));
+		assertFalse(cancelled.isExpired());
+		assertThat(timer.getPending(), is(0));
+	}
+
+	@Test
+	public void testDelayOverManyTurns() throws Exception{
+
+		//8 buckets of 10ms, a turn of the wheel is 80ms
+		final CountDownLatch fired = new CountDownLatch(1);
+		long start = System.nanoTime();
+		timer.schedule(new Runnable(){
+
+			@Override
+			public void run(){
+
+				fired.countDown();
+			}
+		}, 250, TimeUnit.MILLISECONDS);
+
+		assertFalse(fired.await(200, TimeUnit.MILLISECONDS));
+		assertTrue(fired.await(2, TimeUnit.SECONDS));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(elapsed >= 250 && elapsed < 500);
+	}
+
+	@Test
+	public void testManyTimeouts() throws Exception{
+
+		final int count = 10000;
+		final CountDownLatch fired = new CountDownLatch(count / 2);
+		Runnable task = new Runnable(){
+
+			@Override
+			public void run(){
+
+				fired.countDown();
+			}
+		};
+		HashedWheelTimer.ITimeout timeouts[] = new HashedWheelTimer.ITimeout[count];
+		for( int i = 0; i < count; i++ )
+			timeouts[i] = timer.schedule(task, 300 + i % 200, TimeUnit.MILLISECONDS);
+		for( int i = 0; i < count; i += 2 )
+			assertTrue(timeouts[i].cancel());
+
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertThat(fired.getCount(), is(0L));
+		assertThat(timer.getPending(), is(0));
+		for( int i = 0; i < count; i++ )
+			assertThat(timeouts[i].isExpired(), is(i % 2 == 1));
+	}
+
+	@Test
+	public void testStoppedTimer() throws Exception{
+
+		timer.stop();
+		try{
+			timer.schedule(new Runnable(){
+
+				@Override
+				public void run(){
+				}
+			}, 10, TimeUnit.MILLISECONDS);
+			fail();
+		}catch(IllegalStateException ise){
+		}
+		try{
+			HashedWheelTimer.getDefault().stop();
+			fail();
+		}catch(IllegalStateException ise){
+		}
+	}
+
+	@Test
+	public void testAsyncCallExpires() throws Exception{
+
+		delay = 2000;
+		NioTransport transport = new NioTransport(1, 8, 30000);
+		try{
+			Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).transport(transport).callTimeout(150));
+			final CountDownLatch done = new CountDownLatch(1);
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			long start = System.currentTimeMillis();
+			rpc.call("get", Integer.class, new ICallback<Integer>(){
+
+				@Override
+				public void onSuccess( Integer result ){
+
+					done.countDown();
+				}
+
+				@Override
+				public void onFailure( Throwable cause ){
+
+					failure.set(cause);
+					done.countDown();
+				}
+			});
+
+			assertTrue(done.await(2, TimeUnit.SECONDS));
+			assertThat(failure.get(), is(instanceOf(DeadlineExceededException.class)));
+			assertTrue(System.currentTimeMillis() - start < 600);
+			assertThat(transport.getInFlight(), is(0));
+		}finally{
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void testQueuedCallExpires() throws Exception{
+
+		delay = 500;
+		ThreadPoolExecutor executor = Rpc.Async.newExecutor(1, 10, new ThreadPoolExecutor.AbortPolicy());
+		try{
+			Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).callTimeout(100), executor);
+			long start = System.currentTimeMillis();
+			RpcFuture<Integer> running = rpc.callInteger("get");
+			RpcFuture<Integer> queued = rpc.callInteger("get");
+			try{
+				queued.get(2, TimeUnit.SECONDS);
+				fail();
+			}catch(ExecutionException ee){
+				assertThat(ee.getCause(), is(instanceOf(DeadlineExceededException.class)));
+			}
+			assertTrue(System.currentTimeMillis() - start < 400);
+			try{
+				running.get(2, TimeUnit.SECONDS);
+				fail();
+			}catch(ExecutionException ee){
+				assertThat(ee.getCause(), is(instanceOf(DeadlineExceededException.class)));
+			}
+		}finally{
+			executor.shutdown();
+		}
+	}
+
+}
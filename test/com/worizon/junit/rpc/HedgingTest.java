@@ -0,0 +1,280 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.HedgePolicy;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.jsonrpc.annotations.Idempotent;
+import com.worizon.jsonrpc.annotations.Remote;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.net.ILoadBalancingStrategy;
+import com.worizon.net.LoadBalancer;
+import com.worizon.test.EmbeddedServer;
+
+public class HedgingTest {
+
+	private EmbeddedServer servers[] = new EmbeddedServer[2];
+	private String endpoints[] = new String[2];
+	private final AtomicInteger hits[] = {new AtomicInteger(), new AtomicInteger()};
+	private final long delays[] = new long[2];
+
+	@Remote
+	interface Directory{
+
+		@Idempotent
+		public int whoami();
+	}
+
+	@Remote
+	private interface PrivateDirectory{
+
+		@Idempotent
+		public int whoami();
+	}
+
+	@Before
+	public void setUp() throws Exception{
+
+		for( int i = 0; i < servers.length; i++ ){
+
+			servers[i] = startServer(i);
+			endpoints[i] = servers[i].getEndpoint();
+		}
+	}
+
+	/**
+	 * Server answering every call with its index after its delay.
+	 */
+	private EmbeddedServer startServer( final int index ) throws IOException{
+
+		return new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				hits[index].incrementAndGet();
+				try{
+					Thread.sleep(delays[index]);
+				}catch(InterruptedException ie){
+				}
+				return EmbeddedServer.response(body, index);
+			}
+		});
+	}
+
+	@After
+	public void tearDown(){
+
+		for( EmbeddedServer server: servers )
+			server.stop();
+	}
+
+	@Test
+	public void testSlowCallHedged() throws Exception{
+
+		delays[0] = 2000;
+		HedgePolicy policy = new HedgePolicy(50);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(endpoints));
+		rpc.setHedgePolicy(policy);
+		rpc.addIdempotentMethods("whoami");
+
+		long start = System.currentTimeMillis();
+		assertThat(rpc.callInteger("whoami"), is(1));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertThat(hits[0].get(), is(1));
+		assertThat(hits[1].get(), is(1));
+		assertThat(policy.getHedgeCount(), is(1L));
+		assertThat(policy.getHedgeWinCount(), is(1L));
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+	@Test
+	public void testFastCallNotHedged() throws Exception{
+
+		HedgePolicy policy = new HedgePolicy(500);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(endpoints));
+		rpc.setHedgePolicy(policy);
+		rpc.addIdempotentMethods("whoami");
+		for( int i = 0; i < 4; i++ )
+			assertThat(rpc.callInteger("whoami"), is(i % 2));
+
+		Thread.sleep(600);
+		assertThat(hits[0].get() + hits[1].get(), is(4));
+		assertThat(policy.getHedgeCount(), is(0L));
+	}
+
+	@Test
+	public void testPrimaryWinsStopsHedge() throws Exception{
+
+		delays[0] = 200;
+		delays[1] = 2000;
+		HedgePolicy policy = new HedgePolicy(50);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(endpoints));
+		rpc.setHedgePolicy(policy);
+		rpc.addIdempotentMethods("whoami");
+
+		long start = System.currentTimeMillis();
+		assertThat(rpc.callInteger("whoami"), is(0));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertThat(policy.getHedgeCount(), is(1L));
+		assertThat(policy.getHedgeWinCount(), is(0L));
+	}
+
+	@Test
+	public void testNotIdempotentNotHedged() throws Exception{
+
+		delays[0] = 300;
+		HedgePolicy policy = new HedgePolicy(50);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(endpoints));
+		rpc.setHedgePolicy(policy);
+
+		assertThat(rpc.callInteger("register"), is(0));
+		assertThat(hits[1].get(), is(0));
+		assertThat(policy.getHedgeCount(), is(0L));
+	}
+
+	@Test
+	public void testBudgetLimitsHedges() throws Exception{
+
+		delays[0] = 150;
+		delays[1] = 150;
+		HedgePolicy policy = new HedgePolicy(20).budget(0, 2);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(endpoints));
+		rpc.setHedgePolicy(policy);
+		rpc.addIdempotentMethods("whoami");
+		for( int i = 0; i < 5; i++ )
+			rpc.callInteger("whoami");
+
+		assertThat(policy.getHedgeCount(), is(2L));
+		assertThat(policy.getThrottledCount(), is(3L));
+	}
+
+	@Test
+	public void testPercentileDelay() throws Exception{
+
+		delays[0] = 30;
+		delays[1] = 30;
+		HedgePolicy policy = new HedgePolicy(0.5, 1).budget(0, 0);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(endpoints));
+		rpc.setHedgePolicy(policy);
+		rpc.addIdempotentMethods("whoami");
+		assertThat(policy.getDelayMillis(), is(1L));
+		for( int i = 0; i < 32; i++ )
+			rpc.callInteger("whoami");
+
+		assertTrue(policy.getDelayMillis() >= 30);
+		assertThat(policy.getHedgeCount(), is(0L));
+	}
+
+	@Test
+	public void testProxyIdempotent() throws Exception{
+
+		delays[0] = 2000;
+		HedgePolicy policy = new HedgePolicy(50);
+		Rpc.Proxy rpc = new Rpc.Proxy(new HttpRequestBuilder().endpoints(endpoints));
+		rpc.setHedgePolicy(policy);
+		Directory directory = rpc.createProxy(Directory.class);
+
+		assertThat(directory.whoami(), is(1));
+		assertThat(policy.getHedgeWinCount(), is(1L));
+	}
+
+	@Test
+	public void testDynamicProxyIdempotent() throws Exception{
+
+		delays[0] = 2000;
+		HedgePolicy policy = new HedgePolicy(50);
+		Rpc.Proxy rpc = new Rpc.Proxy(new HttpRequestBuilder().endpoints(endpoints));
+		rpc.setHedgePolicy(policy);
+		PrivateDirectory directory = rpc.createProxy(PrivateDirectory.class);
+
+		assertThat(directory.whoami(), is(1));
+		assertThat(policy.getHedgeWinCount(), is(1L));
+	}
+
+	/**
+	 * Strategy choosing always the first host it is given.
+	 */
+	private static class First implements ILoadBalancingStrategy{
+
+		@Override
+		public LoadBalancer.Host select( List<LoadBalancer.Host> hosts ){
+
+			return hosts.get(0);
+		}
+	}
+
+	@Test
+	public void testHedgeAvoidsSlowReplica() throws Exception{
+
+		delays[0] = 2000;
+		HedgePolicy policy = new HedgePolicy(50);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(new First(), endpoints));
+		rpc.setHedgePolicy(policy);
+		rpc.addIdempotentMethods("whoami");
+
+		long start = System.currentTimeMillis();
+		assertThat(rpc.callInteger("whoami"), is(1));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertThat(hits[0].get(), is(1));
+		assertThat(hits[1].get(), is(1));
+		assertThat(policy.getHedgeWinCount(), is(1L));
+	}
+
+	@Test
+	public void testHedgeToSingleReplica() throws Exception{
+
+		delays[0] = 300;
+		HedgePolicy policy = new HedgePolicy(50);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().loadBalancer(new LoadBalancer(new First(), endpoints[0])));
+		rpc.setHedgePolicy(policy);
+		rpc.addIdempotentMethods("whoami");
+
+		assertThat(rpc.callInteger("whoami"), is(0));
+		assertThat(hits[0].get(), is(2));
+		assertThat(hits[1].get(), is(0));
+		assertThat(policy.getHedgeCount(), is(1L));
+	}
+
+	@Test
+	public void testStopStopsBothRequests() throws Exception{
+
+		delays[0] = 2000;
+		delays[1] = 2000;
+		final Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(endpoints));
+		rpc.setHedgePolicy(new HedgePolicy(20));
+		rpc.addIdempotentMethods("whoami");
+		final Exception failure[] = new Exception[1];
+		Thread caller = new Thread(){
+
+			@Override
+			public void run(){
+
+				try{
+					rpc.callInteger("whoami");
+				}catch(Exception ex){
+					failure[0] = ex;
+				}
+			}
+		};
+		caller.start();
+		while( hits[1].get() == 0 )
+			Thread.sleep(5);
+		rpc.stop();
+		caller.join(1000);
+
+		assertFalse(caller.isAlive());
+		assertTrue(failure[0] instanceof InterruptedException);
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.HttpClientTransport;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.test.EmbeddedServer;
+
+public class HttpClientTransportTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private volatile String lastContentType;
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				lastContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+				return "{\"jsonrpc\": \"2.0\", \"result\": 9, \"id\": 1}";
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	@After
+	public void tearDown(){
+
+		server.stop();
+	}
+
+	@Test
+	public void testSyncCallsReuseConnection() throws Exception{
+
+		HttpClientTransport transport = new HttpClientTransport(2, 10);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		for( int i = 0; i < 5; i++ )
+			assertThat(rpc.callInteger("sum", 4, 5), is(9));
+
+		assertThat(lastContentType, is("application/json"));
+		assertThat(transport.getStats().getLeased(), is(0));
+		assertThat(transport.getStats().getAvailable(), is(1));
+		transport.shutdown();
+	}
+
+}
@@ -0,0 +1,165 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.net.HttpConnectionPool;
+import com.worizon.net.HttpRequest;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.test.EmbeddedServer;
+
+public class HttpConnectionPoolTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private volatile String lastConnectionHeader;
+
+	@Before
+	public void setUp() throws Exception{
+
+		startServer(0);
+		endpoint = server.getEndpoint();
+	}
+
+	private void startServer( int port ) throws IOException{
+
+		server = new EmbeddedServer(port, new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				lastConnectionHeader = exchange.getRequestHeaders().getFirst("Connection");
+				if( body.equals("slow") ){
+					try{ Thread.sleep(500); }catch(InterruptedException ie){}
+				}
+				return "echo:" + body;
+			}
+		});
+	}
+
+	@After
+	public void tearDown(){
+
+		server.stop();
+	}
+
+	@Test
+	public void testConnectionReused() throws Exception{
+
+		HttpConnectionPool pool = new HttpConnectionPool(2, 30000);
+		HttpRequestBuilder builder = new HttpRequestBuilder().endpoint(endpoint).connectionPool(pool);
+		for( int i = 0; i < 5; i++ ){
+
+			HttpRequest request = builder.build();
+			assertThat(request.perform("test" + i), is("echo:test" + i));
+		}
+
+		assertThat(lastConnectionHeader, is("keep-alive"));
+		assertThat(pool.getStats().getCreated(), is(1L));
+		assertThat(pool.getStats().getReused(), is(4L));
+		assertThat(pool.getStats().getLeased(), is(0));
+		assertThat(pool.getStats().getIdle(), is(1));
+	}
+
+	@Test
+	public void testIdleConnectionsEvicted() throws Exception{
+
+		HttpConnectionPool pool = new HttpConnectionPool(2, 100);
+		HttpRequestBuilder builder = new HttpRequestBuilder().endpoint(endpoint).connectionPool(pool);
+		builder.build().perform("test");
+		Thread.sleep(200);
+		pool.closeExpiredConnections();
+
+		assertThat(pool.getStats().getIdle(), is(0));
+		assertThat(pool.getStats().getEvicted(), is(1L));
+
+		builder.build().perform("test");
+		assertThat(pool.getStats().getCreated(), is(2L));
+	}
+
+	@Test
+	public void testStaleConnectionNotReused() throws Exception{
+
+		HttpConnectionPool pool = new HttpConnectionPool(2, 30000, 0);
+		HttpRequestBuilder builder = new HttpRequestBuilder().endpoint(endpoint).connectionPool(pool);
+		builder.build().perform("test");
+
+		//closes the server side of the idle connection and listens again on the same port
+		int port = server.getPort();
+		server.stop();
+		startServer(port);
+
+		assertThat(builder.build().perform("test"), is("echo:test"));
+		assertThat(pool.getStats().getStale(), is(1L));
+		assertThat(pool.getStats().getCreated(), is(2L));
+	}
+
+	@Test
+	public void testLeaseDoesNotPeekRecentConnections() throws Exception{
+
+		HttpRequestBuilder peeking = new HttpRequestBuilder().endpoint(endpoint).connectionPool(new HttpConnectionPool(1, 30000, 0));
+		HttpRequestBuilder recent = new HttpRequestBuilder().endpoint(endpoint).connectionPool(new HttpConnectionPool(1, 30000));
+		peeking.build().perform("warmup");
+		recent.build().perform("warmup");
+
+		long peekingNanos = 0, recentNanos = 0;
+		for( int i = 0; i < 50; i++ ){
+
+			long start = System.nanoTime();
+			peeking.build().perform("test");
+			peekingNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			recent.build().perform("test");
+			recentNanos += System.nanoTime() - start;
+		}
+
+		//every peek waits at least 1ms for nothing to read
+		assertTrue(peekingNanos / 50 >= TimeUnit.MILLISECONDS.toNanos(1));
+		assertTrue(recentNanos < peekingNanos);
+	}
+
+	@Test
+	public void testMaxConnectionsPerEndpoint() throws Exception{
+
+		HttpConnectionPool pool = new HttpConnectionPool(1, 30000);
+		final HttpRequestBuilder builder = new HttpRequestBuilder()
+										.endpoint(endpoint)
+										.connectionPool(pool)
+										.connectTimeout(200)
+										.requestRetries(0);
+		Thread t = new Thread(new Runnable() {
+
+			@Override
+			public void run(){
+
+				try{
+					builder.build().perform("slow");
+				}catch(Exception ex){}
+			}
+		});
+		t.start();
+		Thread.sleep(100);
+		assertThat(pool.getStats(endpoint).getLeased(), is(1));
+		try{
+			builder.build().perform("test");
+			fail();
+		}catch(SocketTimeoutException ste){
+
+			assertThat(ste.getMessage(), containsString("Timeout waiting for a connection"));
+		}
+		t.join();
+		assertThat(pool.getStats(endpoint).getLeased(), is(0));
+		assertThat(pool.getStats(endpoint).getMax(), is(1));
+	}
+
+}
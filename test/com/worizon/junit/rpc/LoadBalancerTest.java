@@ -0,0 +1,170 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.net.LoadBalancer;
+import com.worizon.test.EmbeddedServer;
+
+public class LoadBalancerTest {
+
+	private EmbeddedServer servers[] = new EmbeddedServer[3];
+	private String endpoints[] = new String[3];
+	private final AtomicInteger hits[] = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+	private final long delays[] = new long[3];
+	private final CountDownLatch release = new CountDownLatch(1);
+	private volatile boolean blockFirst = false;
+
+	@Before
+	public void setUp() throws Exception{
+
+		for( int i = 0; i < servers.length; i++ ){
+
+			servers[i] = startServer(i);
+			endpoints[i] = servers[i].getEndpoint();
+		}
+	}
+
+	/**
+	 * Server answering every call with its index.
+	 */
+	private EmbeddedServer startServer( final int index ) throws IOException{
+
+		return new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				hits[index].incrementAndGet();
+				try{
+					if( index == 0 && blockFirst )
+						release.await();
+					Thread.sleep(delays[index]);
+				}catch(InterruptedException ie){
+				}
+				return EmbeddedServer.response(body, index);
+			}
+		});
+	}
+
+	@After
+	public void tearDown(){
+
+		release.countDown();
+		for( EmbeddedServer server: servers )
+			server.stop();
+	}
+
+	@Test
+	public void testRoundRobin() throws Exception{
+
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(endpoints));
+		for( int i = 0; i < 9; i++ )
+			assertThat(rpc.callInteger("whoami"), is(i % 3));
+		for( AtomicInteger hit: hits )
+			assertThat(hit.get(), is(3));
+	}
+
+	@Test
+	public void testLeastOutstanding() throws Exception{
+
+		blockFirst = true;
+		final Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(new LoadBalancer.LeastOutstanding(), endpoints));
+		Thread blocked = new Thread(){
+
+			@Override
+			public void run(){
+
+				try{
+					rpc.callInteger("whoami");
+				}catch(Exception ex){
+				}
+			}
+		};
+		blocked.start();
+		while( hits[0].get() == 0 )
+			Thread.sleep(5);
+
+		for( int i = 0; i < 10; i++ )
+			assertThat(rpc.callInteger("whoami"), is(not(0)));
+		assertThat(hits[0].get(), is(1));
+		release.countDown();
+		blocked.join();
+	}
+
+	@Test
+	public void testPowerOfTwoChoices() throws Exception{
+
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoints(new LoadBalancer.PowerOfTwoChoices(), endpoints));
+		for( int i = 0; i < 60; i++ )
+			rpc.callInteger("whoami");
+		for( AtomicInteger hit: hits )
+			assertTrue(hit.get() > 0);
+	}
+
+	@Test
+	public void testPeakEwmaAvoidsSlowHost() throws Exception{
+
+		delays[0] = 200;
+		LoadBalancer balancer = new LoadBalancer(new LoadBalancer.PeakEwma(), endpoints);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().loadBalancer(balancer));
+		for( int i = 0; i < 30; i++ )
+			rpc.callInteger("whoami");
+
+		assertTrue(hits[0].get() <= 2);
+		assertTrue(balancer.getHosts().get(0).getLatencyNanos() > balancer.getHosts().get(1).getLatencyNanos());
+	}
+
+	@Test
+	public void testFailingHostEjected() throws Exception{
+
+		LoadBalancer balancer = new LoadBalancer(new LoadBalancer.RoundRobin(), 2, 60000, EmbeddedServer.deadEndpoint(), endpoints[1], endpoints[2]);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().loadBalancer(balancer));
+		for( int i = 0; i < 12; i++ )
+			assertThat(rpc.callInteger("whoami"), is(not(0)));//failed exchanges are retried on the next host
+
+		assertTrue(balancer.getHosts().get(0).isEjected());
+		assertFalse(balancer.getHosts().get(1).isEjected());
+		assertThat(balancer.getHosts().get(0).getFailures(), is(2));
+		assertThat(hits[1].get() + hits[2].get(), is(12));
+	}
+
+	@Test
+	public void testAsyncRouted() throws Exception{
+
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoints(endpoints));
+		for( int i = 0; i < 6; i++ )
+			rpc.callInteger("whoami").get();
+		for( AtomicInteger hit: hits )
+			assertThat(hit.get(), is(2));
+	}
+
+	@Test
+	public void testOutstandingReleased() throws Exception{
+
+		LoadBalancer balancer = new LoadBalancer(new LoadBalancer.RoundRobin(), endpoints);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().loadBalancer(balancer));
+		for( int i = 0; i < 6; i++ )
+			rpc.callInteger("whoami");
+		for( LoadBalancer.Host host: balancer.getHosts() )
+			assertThat(host.getOutstanding(), is(0));
+	}
+
+	@Test(expected = java.net.MalformedURLException.class)
+	public void testInvalidEndpoint() throws Exception{
+
+		new HttpRequestBuilder().endpoints(endpoints[0], "ftp://localhost/rpc").build();
+	}
+
+}
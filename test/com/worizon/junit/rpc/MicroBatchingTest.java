@@ -0,0 +1,169 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.RemoteException;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.test.EmbeddedServer;
+
+public class MicroBatchingTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private final List<String> bodies = new CopyOnWriteArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				bodies.add(body);
+
+				try{
+					Thread.sleep(20);
+				}catch(InterruptedException ie){}
+
+				JsonElement request = new JsonParser().parse(body);
+				if( request.isJsonArray() ){
+
+					JsonArray responses = new JsonArray();
+					for( JsonElement element: request.getAsJsonArray() )
+						responses.add(answer(element.getAsJsonObject()));
+					return responses.toString();
+				}
+				return answer(request.getAsJsonObject()).toString();
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	private static JsonObject answer( JsonObject request ){
+
+		JsonObject response = new JsonObject();
+		response.addProperty("jsonrpc", "2.0");
+		response.add("id", request.get("id"));
+		int x = request.getAsJsonArray("params").get(0).getAsInt();
+		if( x < 0 ){
+
+			JsonObject error = new JsonObject();
+			error.addProperty("code", -32000);
+			error.addProperty("message", "negative");
+			response.add("error", error);
+		}else
+			response.addProperty("result", x * 2);
+		return response;
+	}
+
+	@After
+	public void tearDown(){
+
+		server.stop();
+	}
+
+	@Test
+	public void testLoneCallsAreNotDelayed() throws Exception{
+
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		rpc.enableBatching(1000, 16);
+		assertTrue(rpc.isBatching());
+		long start = System.currentTimeMillis();
+		for( int i = 0; i < 3; i++ )
+			assertThat(rpc.callInteger("double", i), is(i * 2));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertThat(bodies.size(), is(3));
+		for( String body: bodies )
+			assertTrue(body.startsWith("{"));
+	}
+
+	@Test
+	public void testConcurrentCallsAreBatched() throws Exception{
+
+		final Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		rpc.enableBatching(50, 16);
+		final int calls = 64;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(calls);
+		final AtomicInteger right = new AtomicInteger();
+		for( int i = 0; i < calls; i++ ){
+
+			final int x = i;
+			new Thread(new Runnable(){
+
+				@Override
+				public void run(){
+
+					try{
+						start.await();
+						if( rpc.callInteger("double", x) == x * 2 )
+							right.incrementAndGet();
+					}catch(Exception ex){
+						ex.printStackTrace();
+					}finally{
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		done.await();
+
+		assertThat(right.get(), is(calls));
+		assertTrue(bodies.size() < calls);
+		for( String body: bodies )
+			if( body.startsWith("[") )
+				assertTrue(body.split("\"id\"").length - 1 <= 16);
+	}
+
+	@Test
+	public void testErrorsAreMappedPerCaller() throws Exception{
+
+		final Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint));
+		rpc.enableBatching(200, 2);
+		final CountDownLatch done = new CountDownLatch(2);
+		final AtomicInteger failed = new AtomicInteger();
+		final AtomicInteger succeeded = new AtomicInteger();
+		for( final int x: new int[]{ 3, -3 } ){
+
+			new Thread(new Runnable(){
+
+				@Override
+				public void run(){
+
+					try{
+						rpc.callInteger("double", x);
+						succeeded.incrementAndGet();
+					}catch(RemoteException re){
+						failed.incrementAndGet();
+					}catch(Exception ex){
+						ex.printStackTrace();
+					}finally{
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		assertThat(succeeded.get(), is(1));
+		assertThat(failed.get(), is(1));
+	}
+
+}
@@ -0,0 +1,190 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.ICallback;
+import com.worizon.jsonrpc.RemoteException;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.net.NioTransport;
+import com.worizon.test.EmbeddedServer;
+
+public class NioTransportTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private NioTransport transport;
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ) throws IOException{
+
+				String response;
+				if( body.contains("\"method\":\"fail\"") ){
+					response = "{\"jsonrpc\": \"2.0\", \"error\": {\"code\": -32000, \"message\": \"failed\"}, \"id\": 1}";
+				}else{
+					if( body.contains("\"method\":\"slow\"") ){
+						try{ Thread.sleep(500); }catch(InterruptedException ie){}
+					}
+					response = "{\"jsonrpc\": \"2.0\", \"result\": 9, \"id\": 1}";
+				}
+				EmbeddedServer.respond(exchange, response, body.contains("\"method\":\"chunked\""));
+				return null;
+			}
+		});
+		endpoint = server.getEndpoint();
+		transport = new NioTransport(1, 8, 30000);
+	}
+
+	@After
+	public void tearDown(){
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testManyAsyncCallsOnOneIoThread() throws Exception{
+
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		final int calls = 200;
+		final CountDownLatch latch = new CountDownLatch(calls);
+		final AtomicInteger successes = new AtomicInteger();
+		final AtomicReference<String> callbackThread = new AtomicReference<String>();
+		for( int i = 0; i < calls; i++ ){
+
+			rpc.call("sum", Integer.class, new ICallback<Integer>(){
+
+				@Override
+				public void onSuccess( Integer result ){
+
+					if( result == 9 )
+						successes.incrementAndGet();
+					callbackThread.set(Thread.currentThread().getName());
+					latch.countDown();
+				}
+
+				@Override
+				public void onFailure( Throwable cause ){
+
+					latch.countDown();
+				}
+			}, 4, 5);
+		}
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertThat(successes.get(), is(calls));
+		assertThat(callbackThread.get(), is("worizon-nio-0"));
+		assertTrue(transport.getOpenConnections() <= 8);
+		assertThat(transport.getInFlight(), is(0));
+	}
+
+	@Test
+	public void testSyncCall() throws Exception{
+
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		for( int i = 0; i < 5; i++ )
+			assertThat(rpc.callInteger("sum", 4, 5), is(9));
+		assertThat(rpc.callInteger("chunked"), is(9));
+		assertThat(transport.getOpenConnections(), is(1));
+	}
+
+	@Test
+	public void testRemoteErrorDeliveredToCallback() throws Exception{
+
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		rpc.call("fail", Integer.class, new ICallback<Integer>(){
+
+			@Override
+			public void onSuccess( Integer result ){
+
+				latch.countDown();
+			}
+
+			@Override
+			public void onFailure( Throwable cause ){
+
+				failure.set(cause);
+				latch.countDown();
+			}
+		});
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertThat(failure.get(), is(instanceOf(RemoteException.class)));
+	}
+
+	@Test
+	public void testFailedConnectFreesSlot() throws Exception{
+
+		NioTransport single = new NioTransport(1, 1, 30000);
+		try{
+			//the broadcast address fails the connect straight away
+			Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint("http://255.255.255.255:8080/rpc")
+																.connectTimeout(0).transport(single));
+			for( int i = 0; i < 3; i++ ){
+
+				try{
+					rpc.callInteger("sum", 4, 5).get(2, TimeUnit.SECONDS);
+					fail();
+				}catch(ExecutionException ee){
+					assertThat(ee.getCause(), is(instanceOf(IOException.class)));
+				}
+			}
+			assertThat(single.getOpenConnections(), is(0));
+			assertThat(single.getInFlight(), is(0));
+		}finally{
+			single.shutdown();
+		}
+	}
+
+	@Test
+	public void testReadTimeout() throws Exception{
+
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder()
+												.endpoint(endpoint)
+												.transport(transport)
+												.readTimeout(100)
+												.requestRetries(0));
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		rpc.call("slow", Integer.class, new ICallback<Integer>(){
+
+			@Override
+			public void onSuccess( Integer result ){
+
+				latch.countDown();
+			}
+
+			@Override
+			public void onFailure( Throwable cause ){
+
+				failure.set(cause);
+				latch.countDown();
+			}
+		});
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertThat(failure.get(), is(instanceOf(SocketTimeoutException.class)));
+	}
+
+}
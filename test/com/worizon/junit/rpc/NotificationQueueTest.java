@@ -0,0 +1,353 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.worizon.jsonrpc.NotificationQueue;
+import com.worizon.jsonrpc.RemoteStub;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.jsonrpc.annotations.Notification;
+import com.worizon.jsonrpc.annotations.Remote;
+import com.worizon.jsonrpc.annotations.RemoteParams;
+import com.worizon.net.HttpRequest;
+import com.worizon.net.HttpRequestBuilder;
+
+public class NotificationQueueTest {
+
+	private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+	private final CountDownLatch release = new CountDownLatch(1);
+	private volatile boolean blocking = false;
+	private HttpRequestBuilder builder;
+	private Rpc.Sync rpc;
+
+	@Remote
+	interface AuditEmitter{
+
+		@Notification
+		@RemoteParams({"event","level"})
+		public void audit( String event, int level );
+	}
+
+	@Remote
+	private interface PrivateAuditEmitter{
+
+		@Notification
+		public void audit( String event, int level );
+	}
+
+	@Remote
+	private interface WrongNotification{
+
+		@Notification
+		public int audit( String event );
+	}
+
+	@Before
+	public void setUp() throws Exception{
+
+		builder = new HttpRequestBuilder(){
+			@Override
+			protected HttpRequest newInstance(){
+				return recordingRequest();//a mock per request, mocks serialize their invocations
+			}
+		}.endpoint("http://localhost");
+		rpc = new Rpc.Sync(builder);
+	}
+
+	@After
+	public void tearDown() throws Exception{
+
+		release.countDown();
+		rpc.disableNotificationQueue();
+	}
+
+	/**
+	 * Request recording its body, blocked until released when blocking is set.
+	 */
+	private HttpRequest recordingRequest(){
+
+		HttpRequest request = EasyMock.createNiceMock(HttpRequest.class);
+		try{
+			EasyMock.expect(request.perform( (String)EasyMock.anyObject() )).andAnswer(new IAnswer<String>() {
+
+				public String answer() throws Throwable{
+
+					if( blocking )
+						release.await();
+					bodies.add((String)EasyMock.getCurrentArguments()[0]);
+					return "";
+				}
+			}).anyTimes();
+		}catch(Exception e){
+			throw new IllegalStateException(e);
+		}
+		EasyMock.replay(request);
+		return request;
+	}
+
+	/**
+	 * Gets the notifications sent, in order.
+	 */
+	private List<JsonObject> sent(){
+
+		List<JsonObject> notifications = new ArrayList<JsonObject>();
+		synchronized( bodies ){
+
+			for( String body: bodies ){
+
+				JsonElement element = new JsonParser().parse(body);
+				if( element.isJsonArray() ){
+
+					for( JsonElement item: (JsonArray)element )
+						notifications.add(item.getAsJsonObject());
+				}else
+					notifications.add(element.getAsJsonObject());
+			}
+		}
+		return notifications;
+	}
+
+	private void awaitBodies( int n ) throws InterruptedException{
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while( bodies.size() < n && System.currentTimeMillis() < deadline )
+			Thread.sleep(5);
+	}
+
+	@Test
+	public void testNotificationWithoutQueue() throws Exception{
+
+		rpc.notification("log", "hello", 1);
+
+		assertThat(bodies.size(), is(1));
+		JsonObject notification = sent().get(0);
+		assertThat(notification.get("method").getAsString(), is("log"));
+		assertThat(notification.get("params").toString(), is("[\"hello\",1]"));
+		assertFalse(notification.has("id"));
+	}
+
+	@Test
+	public void testBatchSentWhenFull() throws Exception{
+
+		NotificationQueue queue = rpc.enableNotificationQueue(100, 3, 60000, NotificationQueue.Overflow.BLOCK);
+		rpc.notification("log", 1);
+		rpc.notification("log", 2);
+		rpc.notification("log", 3);
+		awaitBodies(1);
+
+		assertThat(bodies.size(), is(1));
+		assertTrue(bodies.get(0).startsWith("["));
+		List<JsonObject> notifications = sent();
+		assertThat(notifications.size(), is(3));
+		for( int i = 0; i < 3; i++ ){
+
+			assertThat(notifications.get(i).get("params").toString(), is("[" + (i + 1) + "]"));
+			assertFalse(notifications.get(i).has("id"));
+		}
+		assertThat(queue.getSentCount(), is(3L));
+	}
+
+	@Test
+	public void testBatchSentAfterDelay() throws Exception{
+
+		rpc.enableNotificationQueue(100, 100, 50, NotificationQueue.Overflow.BLOCK);
+		rpc.notification("log", 1);
+		rpc.notification("log", 2);
+		assertThat(bodies.size(), is(0));
+		awaitBodies(1);
+
+		assertThat(bodies.size(), is(1));
+		assertThat(sent().size(), is(2));
+	}
+
+	@Test
+	public void testLoneNotificationSentAsPlainRequest() throws Exception{
+
+		NotificationQueue queue = rpc.enableNotificationQueue(100, 100, 60000, NotificationQueue.Overflow.BLOCK);
+		rpc.notification("log", 1);
+		queue.flush();
+
+		assertThat(bodies.size(), is(1));
+		assertTrue(bodies.get(0).startsWith("{"));
+	}
+
+	@Test
+	public void testDropOldest() throws Exception{
+
+		blocking = true;
+		NotificationQueue queue = rpc.enableNotificationQueue(2, 1, 0, NotificationQueue.Overflow.DROP_OLDEST);
+		rpc.notification("log", 0);
+		while( queue.size() > 0 )//in flight, blocked
+			Thread.sleep(5);
+		for( int i = 1; i <= 4; i++ )
+			rpc.notification("log", i);
+		assertThat(queue.getDroppedCount(), is(2L));
+
+		release.countDown();
+		queue.flush();
+		List<JsonObject> notifications = sent();
+		assertThat(notifications.size(), is(3));
+		assertThat(notifications.get(0).get("params").toString(), is("[0]"));
+		assertThat(notifications.get(1).get("params").toString(), is("[3]"));
+		assertThat(notifications.get(2).get("params").toString(), is("[4]"));
+	}
+
+	@Test
+	public void testBlock() throws Exception{
+
+		blocking = true;
+		final NotificationQueue queue = rpc.enableNotificationQueue(1, 1, 0, NotificationQueue.Overflow.BLOCK);
+		rpc.notification("log", 0);
+		while( queue.size() > 0 )
+			Thread.sleep(5);
+		rpc.notification("log", 1);
+
+		final CountDownLatch queued = new CountDownLatch(1);
+		Thread caller = new Thread(){
+
+			@Override
+			public void run(){
+
+				try{
+					rpc.notification("log", 2);
+					queued.countDown();
+				}catch(Exception ex){
+				}
+			}
+		};
+		caller.start();
+		Thread.sleep(100);
+		assertThat(queued.getCount(), is(1L));//blocked by the full queue
+
+		release.countDown();
+		caller.join(5000);
+		assertThat(queued.getCount(), is(0L));
+		queue.flush();
+		assertThat(sent().size(), is(3));
+		assertThat(queue.getDroppedCount(), is(0L));
+	}
+
+	@Test
+	public void testSpill() throws Exception{
+
+		blocking = true;
+		NotificationQueue queue = rpc.enableNotificationQueue(2, 2, 0, NotificationQueue.Overflow.SPILL);
+		rpc.notification("log", 0);
+		while( queue.size() > 0 )
+			Thread.sleep(5);
+		for( int i = 1; i <= 10; i++ )
+			rpc.notification("log", i);
+		assertThat(queue.getSpilledCount(), is(8L));
+		assertThat(queue.size(), is(10));
+
+		release.countDown();
+		queue.flush();
+		List<JsonObject> notifications = sent();
+		assertThat(notifications.size(), is(11));
+		for( int i = 0; i <= 10; i++ )
+			assertThat(notifications.get(i).get("params").toString(), is("[" + i + "]"));
+		assertThat(queue.getDroppedCount(), is(0L));
+		assertThat(queue.getSentCount(), is(11L));
+	}
+
+	@Test
+	public void testSpillCapped() throws Exception{
+
+		NotificationQueue queue = rpc.enableNotificationQueue(2, 2, 0, NotificationQueue.Overflow.SPILL);
+		rpc.notification("log", 0);
+		queue.flush();
+		long line = bodies.get(0).getBytes("UTF-8").length + System.getProperty("line.separator").length();
+		queue.maxSpillSize(3 * line);
+
+		blocking = true;
+		rpc.notification("log", 1);
+		while( queue.size() > 0 )
+			Thread.sleep(5);
+		for( int i = 2; i <= 9; i++ )
+			rpc.notification("log", i);
+		assertThat(queue.getSpilledCount(), is(3L));
+		assertThat(queue.getDroppedCount(), is(3L));
+		assertThat(queue.size(), is(5));
+
+		release.countDown();
+		queue.flush();
+		List<JsonObject> notifications = sent();
+		assertThat(notifications.size(), is(7));
+		for( int i = 0; i <= 6; i++ )
+			assertThat(notifications.get(i).get("params").toString(), is("[" + i + "]"));
+	}
+
+	@Test
+	public void testFailedNotificationsCounted() throws Exception{
+
+		final HttpRequest failing = EasyMock.createNiceMock(HttpRequest.class);
+		EasyMock.expect(failing.perform( (String)EasyMock.anyObject() )).andThrow(new java.io.IOException("Connection refused")).anyTimes();
+		EasyMock.replay(failing);
+		rpc = new Rpc.Sync(new HttpRequestBuilder(){
+			@Override
+			protected HttpRequest newInstance(){
+				return failing;
+			}
+		}.endpoint("http://localhost"));
+
+		NotificationQueue queue = rpc.enableNotificationQueue(100, 2, 0, NotificationQueue.Overflow.BLOCK);
+		rpc.notification("log", 1);
+		rpc.notification("log", 2);
+		queue.flush();
+		assertThat(queue.getFailedCount(), is(2L));
+		assertThat(queue.getSentCount(), is(0L));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosedQueue() throws Exception{
+
+		NotificationQueue queue = rpc.enableNotificationQueue(100, 2, 0, NotificationQueue.Overflow.BLOCK);
+		queue.close();
+		rpc.notification("log", 1);
+	}
+
+	@Test
+	public void testProxyNotification() throws Exception{
+
+		Rpc.Proxy proxy = new Rpc.Proxy(builder);
+		NotificationQueue queue = proxy.enableNotificationQueue(100, 10, 0, NotificationQueue.Overflow.BLOCK);
+
+		AuditEmitter stub = proxy.createProxy(AuditEmitter.class);
+		assertTrue(stub instanceof RemoteStub);
+		stub.audit("login", 3);
+		PrivateAuditEmitter dynamic = proxy.createProxy(PrivateAuditEmitter.class);
+		dynamic.audit("logout", 2);
+		queue.flush();
+		proxy.disableNotificationQueue();
+
+		List<JsonObject> notifications = sent();
+		assertThat(notifications.size(), is(2));
+		assertThat(notifications.get(0).get("method").getAsString(), is("audit"));
+		assertThat(notifications.get(0).get("params").toString(), is("{\"event\":\"login\",\"level\":3}"));
+		assertFalse(notifications.get(0).has("id"));
+		assertThat(notifications.get(1).get("params").toString(), is("[\"logout\",2]"));
+		assertFalse(notifications.get(1).has("id"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotificationMustReturnVoid() throws Exception{
+
+		new Rpc.Proxy(builder).createProxy(WrongNotification.class);
+	}
+
+}
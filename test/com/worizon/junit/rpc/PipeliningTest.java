@@ -0,0 +1,290 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.jsonrpc.RpcFuture;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.net.NioTransport;
+import com.worizon.net.RetryPolicy;
+
+/**
+ * Runs the calls against a plain socket server that answers the requests of a connection in order, so it sees
+ * the requests pipelined by the client and can close the connection in the middle of a pipeline.
+ */
+public class PipeliningTest {
+
+	private ServerSocket serverSocket;
+	private String endpoint;
+	private NioTransport transport;
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger answered = new AtomicInteger();
+	private final AtomicInteger pipelined = new AtomicInteger();
+	private volatile long delay = 0;
+	private volatile int maxRequestsPerConnection = Integer.MAX_VALUE;
+	private volatile boolean announceClose = true;
+
+	@Before
+	public void setUp() throws Exception{
+
+		serverSocket = new ServerSocket(0);
+		Thread acceptor = new Thread(){
+
+			@Override
+			public void run(){
+
+				try{
+					while( true ){
+
+						final Socket socket = serverSocket.accept();
+						connections.incrementAndGet();
+						new Thread(){
+
+							@Override
+							public void run(){
+
+								serve(socket);
+							}
+						}.start();
+					}
+				}catch(IOException ioe){
+					//server closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		endpoint = "http://localhost:" + serverSocket.getLocalPort() + "/rpc";
+	}
+
+	@After
+	public void tearDown() throws Exception{
+
+		if( transport != null )
+			transport.shutdown();
+		serverSocket.close();
+	}
+
+	private void serve( Socket socket ){
+
+		try{
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			for( int served = 1; ; served++ ){
+
+				String body = readRequest(in);
+				if( body == null )
+					break;
+				if( in.available() > 0 )
+					pipelined.incrementAndGet();//the next request arrived before this one was answered
+				try{
+					Thread.sleep(delay);
+				}catch(InterruptedException ie){
+				}
+
+				JsonObject request = new JsonParser().parse(body).getAsJsonObject();
+				String response = "{\"jsonrpc\": \"2.0\", \"result\": " + request.getAsJsonArray("params").get(0).getAsInt()
+									+ ", \"id\": " + request.get("id") + "}";
+				byte bytes[] = response.getBytes("UTF-8");
+				boolean last = served >= maxRequestsPerConnection;
+				String head = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + bytes.length + "\r\n"
+								+ ((last && announceClose)?"Connection: close\r\n":"") + "\r\n";
+				answered.incrementAndGet();
+				out.write(head.getBytes("ISO-8859-1"));
+				out.write(bytes);
+				out.flush();
+				if( last ){
+
+					//lingering close, the requests pipelined after the last one are read and dropped
+					socket.shutdownOutput();
+					socket.setSoTimeout(1000);
+					while( in.read() != -1 );
+					break;
+				}
+			}
+		}catch(IOException ioe){
+			//client gone
+		}finally{
+			try{
+				socket.close();
+			}catch(IOException ioe){
+			}
+		}
+	}
+
+	/**
+	 * Reads one request.
+	 * @return The body or null at the end of the stream.
+	 */
+	private static String readRequest( InputStream in ) throws IOException{
+
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		int b, matched = 0;
+		while( matched < 4 ){
+
+			if( (b = in.read()) == -1 )
+				return null;
+			head.write(b);
+			matched = (b == (matched % 2 == 0?'\r':'\n'))?matched + 1:(b == '\r'?1:0);
+		}
+		int length = 0;
+		for( String line: head.toString("ISO-8859-1").split("\r\n") ){
+
+			if( line.toLowerCase().startsWith("content-length:") )
+				length = Integer.parseInt(line.substring(15).trim());
+		}
+		byte body[] = new byte[length];
+		for( int read = 0; read < length; ){
+
+			int n = in.read(body, read, length - read);
+			if( n == -1 )
+				return null;
+			read += n;
+		}
+		return new String(body, "UTF-8");
+	}
+
+	private List<RpcFuture<Integer>> callMany( Rpc.Async rpc, int calls ) throws IOException{
+
+		List<RpcFuture<Integer>> futures = new ArrayList<RpcFuture<Integer>>();
+		for( int i = 0; i < calls; i++ )
+			futures.add(rpc.call("echo", Integer.class, i));
+		return futures;
+	}
+
+	@Test
+	public void testPipelinesOnOneConnection() throws Exception{
+
+		delay = 10;
+		transport = new NioTransport(1, 1, 30000, 8);
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		List<RpcFuture<Integer>> futures = callMany(rpc, 40);
+		for( int i = 0; i < futures.size(); i++ )
+			assertThat(futures.get(i).get(5, TimeUnit.SECONDS), is(i));
+
+		assertThat(connections.get(), is(1));
+		assertThat(answered.get(), is(40));
+		assertTrue(pipelined.get() > 0);
+		assertThat(transport.getReplayedCount(), is(0L));
+		assertThat(transport.getInFlight(), is(0));
+		assertThat(transport.getPipelineDepth(), is(8));
+	}
+
+	@Test
+	public void testPipelineFillsConnectionsBeforeOpeningMore() throws Exception{
+
+		delay = 10;
+		transport = new NioTransport(1, 8, 30000, 4);
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		List<RpcFuture<Integer>> futures = callMany(rpc, 8);
+		for( int i = 0; i < futures.size(); i++ )
+			assertThat(futures.get(i).get(5, TimeUnit.SECONDS), is(i));
+		assertTrue(connections.get() <= 2);
+		assertThat(transport.getOpenConnections(), is(connections.get()));
+	}
+
+	@Test
+	public void testServerClosesInPipeline() throws Exception{
+
+		maxRequestsPerConnection = 3;
+		transport = new NioTransport(1, 2, 30000, 8);
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		List<RpcFuture<Integer>> futures = callMany(rpc, 20);
+		for( int i = 0; i < futures.size(); i++ )
+			assertThat(futures.get(i).get(5, TimeUnit.SECONDS), is(i));
+
+		assertThat(answered.get(), is(20));//every request processed once
+		assertTrue(connections.get() >= 7);
+		assertTrue(transport.getReplayedCount() > 0);
+		assertThat(transport.getInFlight(), is(0));
+	}
+
+	@Test
+	public void testServerDropsConnectionInPipeline() throws Exception{
+
+		maxRequestsPerConnection = 2;
+		announceClose = false;
+		transport = new NioTransport(1, 1, 30000, 4);
+		RetryPolicy policy = new RetryPolicy(10, 1, 5);
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).transport(transport).retryPolicy(policy));
+		rpc.addIdempotentMethods("echo");
+		List<RpcFuture<Integer>> futures = callMany(rpc, 10);
+		for( int i = 0; i < futures.size(); i++ )
+			assertThat(futures.get(i).get(5, TimeUnit.SECONDS), is(i));
+
+		assertThat(answered.get(), is(10));
+		assertTrue(policy.getRetryCount() > 0);//the requests written behind the dropped ones are retried by the policy
+	}
+
+	@Test
+	public void testWrittenRequestsNotReplayed() throws Exception{
+
+		delay = 20;
+		maxRequestsPerConnection = 2;
+		announceClose = false;
+		transport = new NioTransport(1, 1, 30000, 4);
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		List<RpcFuture<Integer>> futures = callMany(rpc, 4);
+		int succeeded = 0;
+		for( int i = 0; i < futures.size(); i++ ){
+
+			try{
+				assertThat(futures.get(i).get(5, TimeUnit.SECONDS), is(i));
+				succeeded++;
+			}catch(ExecutionException ee){
+				assertThat(ee.getCause(), is(instanceOf(IOException.class)));
+			}
+		}
+
+		assertThat(succeeded, is(2));//not idempotent, the requests written behind the answered ones fail
+		assertThat(answered.get(), is(2));
+		assertThat(transport.getReplayedCount(), is(0L));
+		assertThat(transport.getInFlight(), is(0));
+	}
+
+	@Test
+	public void testSyncCallsOverPipelinedTransport() throws Exception{
+
+		transport = new NioTransport(1, 1, 30000, 4);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		for( int i = 0; i < 5; i++ )
+			assertThat(rpc.call("echo", Integer.class, i), is(i));
+		assertThat(connections.get(), is(1));
+		assertThat(pipelined.get(), is(0));
+	}
+
+	@Test
+	public void testNoPipeliningByDefault() throws Exception{
+
+		delay = 50;
+		transport = new NioTransport(1, 8, 30000);
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).transport(transport));
+		List<RpcFuture<Integer>> futures = callMany(rpc, 8);
+		for( int i = 0; i < futures.size(); i++ )
+			assertThat(futures.get(i).get(5, TimeUnit.SECONDS), is(i));
+		assertThat(pipelined.get(), is(0));
+		assertTrue(connections.get() > 2);
+		assertThat(transport.getPipelineDepth(), is(1));
+	}
+
+}
@@ -0,0 +1,161 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.worizon.jsonrpc.ResultBus;
+import com.worizon.jsonrpc.annotations.OnFailure;
+import com.worizon.jsonrpc.annotations.OnResult;
+
+public class ResultBusTest {
+
+	private ResultBus bus;
+	private List<String> events;
+
+	@Before
+	public void setUp(){
+
+		bus = new ResultBus();
+		events = new ArrayList<String>();
+	}
+
+	private void assertEvents( String... expected ){
+
+		List<String> sortedEvents = new ArrayList<String>(events);
+		List<String> sortedExpected = new ArrayList<String>(Arrays.asList(expected));
+		Collections.sort(sortedEvents);
+		Collections.sort(sortedExpected);
+		assertThat(sortedEvents, is(sortedExpected));
+	}
+
+	public class Listener{
+
+		@OnResult("sum")
+		public void onSum( int result ){
+
+			events.add("sum:" + result);
+		}
+
+		@OnResult
+		public void onAnyString( String result ){
+
+			events.add("string:" + result);
+		}
+
+		@OnResult
+		void onAnything( Object result ){
+
+			events.add("object:" + result);
+		}
+
+		@OnFailure("sum")
+		public void onSumFailure( IOException ex ){
+
+			events.add("io:" + ex.getMessage());
+		}
+
+		@OnFailure
+		public void onAnyFailure( Throwable ex ){
+
+			events.add("failure:" + ex.getMessage());
+		}
+	}
+
+	@Test
+	public void testRoutesByMethodAndType(){
+
+		bus.register(new Listener());
+		bus.publishResult("sum", 9);
+		assertEvents("sum:9", "object:9");
+
+		events.clear();
+		bus.publishResult("mul", 9);
+		assertEvents("object:9");
+
+		events.clear();
+		bus.publishResult("name", "foo");
+		assertEvents("string:foo", "object:foo");
+
+		events.clear();
+		bus.publishResult("sum", null);
+		assertEvents("string:null", "object:null");
+	}
+
+	@Test
+	public void testRoutesFailuresByType(){
+
+		bus.register(new Listener());
+		bus.publishFailure("sum", new IOException("reset"));
+		assertEvents("io:reset", "failure:reset");
+
+		events.clear();
+		bus.publishFailure("mul", new IOException("reset"));
+		assertEvents("failure:reset");
+
+		events.clear();
+		bus.publishFailure("sum", new IllegalStateException("remote"));
+		assertEvents("failure:remote");
+	}
+
+	@Test
+	public void testUnRegister(){
+
+		Listener listener = new Listener();
+		bus.register(listener);
+		bus.register(listener);
+		bus.publishResult("mul", 1);
+		assertThat(events.size(), is(1));
+		assertTrue(bus.hasListeners());
+
+		bus.unRegister(listener);
+		bus.publishResult("mul", 1);
+		assertThat(events.size(), is(1));
+		assertFalse(bus.hasListeners());
+	}
+
+	@Test
+	public void testFailingListenerDoesNotStopOthers(){
+
+		bus.register(new Object(){
+
+			@OnResult
+			public void onResult( Integer result ){
+
+				throw new IllegalStateException();
+			}
+		});
+		bus.register(new Listener());
+		bus.publishResult("sum", 9);
+		assertEvents("sum:9", "object:9");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadFailureListener(){
+
+		bus.register(new Object(){
+
+			@OnFailure
+			public void onFailure( String message ){}
+		});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadResultListener(){
+
+		bus.register(new Object(){
+
+			@OnResult
+			public void onResult( String x, String y ){}
+		});
+	}
+
+}
@@ -0,0 +1,253 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.worizon.jsonrpc.CachePolicy;
+import com.worizon.jsonrpc.RemoteException;
+import com.worizon.jsonrpc.RemoteStub;
+import com.worizon.jsonrpc.ResultCache;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.jsonrpc.annotations.Cacheable;
+import com.worizon.jsonrpc.annotations.Remote;
+import com.worizon.jsonrpc.annotations.RemoteParams;
+import com.worizon.net.HttpRequest;
+import com.worizon.net.HttpRequestBuilder;
+
+public class ResultCacheTest {
+	
+	private static final Executor DIRECT = new Executor(){
+		
+		@Override
+		public void execute( Runnable command ){
+			
+			command.run();
+		}
+	};
+	
+	private final AtomicInteger performed = new AtomicInteger();
+	private HttpRequestBuilder builder;
+	
+	@Before
+	public void setUp() throws Exception{
+		
+		builder = countingBuilder(null);
+	}
+	
+	/**
+	 * Builder of requests answering the number of requests performed so far, or the error if not null.
+	 */
+	private HttpRequestBuilder countingBuilder( final String error ) throws Exception{
+		
+		final HttpRequest request = EasyMock.createNiceMock(HttpRequest.class);
+		EasyMock.expect(request.perform( (String)EasyMock.anyObject() )).andAnswer(new IAnswer<String>() {
+			
+			public String answer() throws Throwable{
+				
+				int n = performed.incrementAndGet();
+				if( error != null )
+					return "{\"jsonrpc\": \"2.0\", \"error\": " + error + ", \"id\": 1}";
+				return "{\"jsonrpc\": \"2.0\", \"result\": " + n + ", \"id\": 1}";
+			}
+		}).anyTimes();
+		EasyMock.replay(request);
+		
+		return new HttpRequestBuilder(){
+			@Override
+			protected HttpRequest newInstance(){
+				return request;
+			}
+		}.endpoint("http://localhost");
+	}
+	
+	@Test
+	public void testHitMakesNoCall() throws Exception{
+		
+		ResultCache cache = new ResultCache(100);
+		Rpc.Sync rpc = new Rpc.Sync(builder);
+		rpc.setResultCache(cache);
+		CachePolicy policy = new CachePolicy(60000);
+		
+		assertThat(rpc.call("count", Integer.class, policy, 4, 5), is(1));
+		assertThat(rpc.call("count", Integer.class, policy, 4, 5), is(1));
+		assertThat(performed.get(), is(1));
+		assertThat(rpc.call("count", Integer.class, policy, 4, 6), is(2));
+		assertThat(rpc.call("count", Integer.class, 4, 5), is(3));//no policy, no cache
+		
+		assertThat(cache.getHitCount(), is(1L));
+		assertThat(cache.getMissCount(), is(2L));
+		assertThat(cache.size(), is(2));
+	}
+	
+	@Test
+	public void testNamedParamsInAnyOrder() throws Exception{
+		
+		Rpc.Sync rpc = new Rpc.Sync(builder);
+		rpc.setResultCache(new ResultCache(100));
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("x", 4);
+		params.put("y", 5);
+		Map<String, Object> reversed = new LinkedHashMap<String, Object>();
+		reversed.put("y", 5);
+		reversed.put("x", 4);
+		
+		assertThat(rpc.call("count", Integer.class, new CachePolicy(60000), params), is(1));
+		assertThat(rpc.call("count", Integer.class, new CachePolicy(60000), reversed), is(1));
+		assertThat(performed.get(), is(1));
+	}
+	
+	@Test
+	public void testExpiredResult() throws Exception{
+		
+		Rpc.Sync rpc = new Rpc.Sync(builder);
+		rpc.setResultCache(new ResultCache(100));
+		CachePolicy policy = new CachePolicy(50);
+		
+		assertThat(rpc.call("count", Integer.class, policy), is(1));
+		Thread.sleep(100);
+		assertThat(rpc.call("count", Integer.class, policy), is(2));
+		assertThat(rpc.call("count", Integer.class, policy), is(2));
+	}
+	
+	@Test
+	public void testEvictionBySize() throws Exception{
+		
+		ResultCache cache = new ResultCache(2);
+		Rpc.Sync rpc = new Rpc.Sync(builder);
+		rpc.setResultCache(cache);
+		CachePolicy policy = new CachePolicy(60000);
+		
+		rpc.call("count", Integer.class, policy, 1);
+		rpc.call("count", Integer.class, policy, 2);
+		rpc.call("count", Integer.class, policy, 1);//1 is the most recently used
+		rpc.call("count", Integer.class, policy, 3);
+		assertThat(cache.getEvictionCount(), is(1L));
+		assertThat(cache.size(), is(2));
+		
+		assertThat(rpc.call("count", Integer.class, policy, 1), is(1));
+		assertThat(rpc.call("count", Integer.class, policy, 2), is(4));
+	}
+	
+	@Test
+	public void testEvictionByWeight() throws Exception{
+		
+		ResultCache cache = new ResultCache(100, 10, new ResultCache.IWeigher(){
+			
+			@Override
+			public int weigh( Object result ){
+				
+				return ((Integer)result) * 3;
+			}
+		}, DIRECT);
+		Rpc.Sync rpc = new Rpc.Sync(builder);
+		rpc.setResultCache(cache);
+		CachePolicy policy = new CachePolicy(60000);
+		
+		rpc.call("count", Integer.class, policy, "a");//weight 3
+		rpc.call("count", Integer.class, policy, "b");//weight 6
+		assertThat(cache.weight(), is(9L));
+		rpc.call("count", Integer.class, policy, "c");//weight 9
+		assertThat(cache.size(), is(1));
+		assertThat(cache.weight(), is(9L));
+		assertThat(cache.getEvictionCount(), is(2L));
+		
+		rpc.call("count", Integer.class, policy, "d");//weight 12, never fits
+		assertThat(cache.size(), is(0));
+		assertThat(cache.weight(), is(0L));
+	}
+	
+	@Test
+	public void testStaleWhileRevalidate() throws Exception{
+		
+		ResultCache cache = new ResultCache(100, Long.MAX_VALUE, new ResultCache.IWeigher(){
+			
+			@Override
+			public int weigh( Object result ){
+				
+				return 1;
+			}
+		}, DIRECT);
+		Rpc.Sync rpc = new Rpc.Sync(builder);
+		rpc.setResultCache(cache);
+		CachePolicy policy = new CachePolicy(50, 60000);
+		
+		assertThat(rpc.call("count", Integer.class, policy), is(1));
+		Thread.sleep(100);
+		assertThat(rpc.call("count", Integer.class, policy), is(1));//stale, refreshed
+		assertThat(performed.get(), is(2));
+		assertThat(rpc.call("count", Integer.class, policy), is(2));
+		assertThat(cache.getStaleHitCount(), is(1L));
+		assertThat(cache.getHitCount(), is(1L));
+	}
+	
+	@Test
+	public void testErrorsNotCached() throws Exception{
+		
+		Rpc.Sync rpc = new Rpc.Sync(countingBuilder("{\"code\": -32000, \"message\": \"failed\"}"));
+		ResultCache cache = new ResultCache(100);
+		rpc.setResultCache(cache);
+		for( int i = 0; i < 2; i++ ){
+			try{
+				rpc.call("count", Integer.class, new CachePolicy(60000));
+				fail();
+			}catch(RemoteException re){}
+		}
+		assertThat(performed.get(), is(2));
+		assertThat(cache.size(), is(0));
+	}
+	
+	@Remote
+	interface CachedRemoteInterface{
+		
+		@Cacheable(ttl = 60000)
+		@RemoteParams({"id"})
+		public int lookup( int id );
+		
+		public int count();
+	}
+	
+	@Remote
+	private interface PrivateCachedRemoteInterface{
+		
+		@Cacheable(ttl = 60000)
+		public int lookup( int id );
+	}
+	
+	@Test
+	public void testCacheableStubMethod() throws Exception{
+		
+		Rpc.Proxy proxy = new Rpc.Proxy(builder);
+		proxy.setResultCache(new ResultCache(100));
+		CachedRemoteInterface remote = proxy.createProxy(CachedRemoteInterface.class);
+		assertThat(remote, is(instanceOf(RemoteStub.class)));
+		
+		assertThat(remote.lookup(7), is(1));
+		assertThat(remote.lookup(7), is(1));
+		assertThat(remote.count(), is(2));
+		assertThat(remote.count(), is(3));
+	}
+	
+	@Test
+	public void testCacheableProxyMethod() throws Exception{
+		
+		Rpc.Proxy proxy = new Rpc.Proxy(builder);
+		proxy.setResultCache(new ResultCache(100));
+		PrivateCachedRemoteInterface remote = proxy.createProxy(PrivateCachedRemoteInterface.class);
+		assertFalse(remote instanceof RemoteStub);
+		
+		assertThat(remote.lookup(7), is(1));
+		assertThat(remote.lookup(7), is(1));
+		assertThat(remote.lookup(8), is(2));
+	}
+
+}
@@ -0,0 +1,181 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.HttpRequest;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.net.RequestNotSentException;
+import com.worizon.net.RetryPolicy;
+import com.worizon.test.EmbeddedServer;
+
+public class RetryPolicyTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private final AtomicInteger hits = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				hits.incrementAndGet();
+				try{
+					Thread.sleep(500);
+				}catch(InterruptedException ie){
+				}
+				return EmbeddedServer.response(body, 1);
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	@After
+	public void tearDown(){
+
+		server.stop();
+	}
+
+	@Test
+	public void testClassify() throws Exception{
+
+		assertThat(RetryPolicy.classify(new ConnectException("Connection refused")), is(RetryPolicy.Phase.CONNECT));
+		assertThat(RetryPolicy.classify(new RequestNotSentException(new SocketTimeoutException("connect timed out"))), is(RetryPolicy.Phase.PRE_SEND));
+		assertThat(RetryPolicy.classify(new SocketTimeoutException("connect timed out")), is(RetryPolicy.Phase.POST_SEND));
+		assertThat(RetryPolicy.classify(new RequestNotSentException(new SocketException("Broken pipe"))), is(RetryPolicy.Phase.PRE_SEND));
+		assertThat(RetryPolicy.classify(new RequestNotSentException(new ConnectException())), is(RetryPolicy.Phase.CONNECT));
+		assertThat(RetryPolicy.classify(new SocketTimeoutException("Read timed out")), is(RetryPolicy.Phase.POST_SEND));
+		assertThat(RetryPolicy.classify(new SocketException("Connection reset")), is(RetryPolicy.Phase.POST_SEND));
+	}
+
+	@Test
+	public void testConnectFailureRetried() throws Exception{
+
+		RetryPolicy policy = new RetryPolicy(3, 1, 5);
+		HttpRequest request = new HttpRequestBuilder().endpoint(EmbeddedServer.deadEndpoint()).retryPolicy(policy).build();
+		try{
+			request.perform("test");
+			fail();
+		}catch(ConnectException ce){
+		}
+		assertThat(policy.getRetryCount(), is(3L));
+	}
+
+	@Test
+	public void testPostSendNotRetried() throws Exception{
+
+		RetryPolicy policy = new RetryPolicy(2, 1, 5);
+		HttpRequest request = new HttpRequestBuilder().endpoint(endpoint).readTimeout(100).retryPolicy(policy).build();
+		try{
+			request.perform("test");
+			fail();
+		}catch(SocketTimeoutException ste){
+		}
+		assertThat(hits.get(), is(1));
+		assertThat(policy.getRetryCount(), is(0L));
+	}
+
+	@Test
+	public void testPostSendIdempotentRetried() throws Exception{
+
+		RetryPolicy policy = new RetryPolicy(2, 1, 5);
+		HttpRequest request = new HttpRequestBuilder().endpoint(endpoint).readTimeout(100).retryPolicy(policy).build();
+		request.setIdempotent(true);
+		try{
+			request.perform("test");
+			fail();
+		}catch(SocketTimeoutException ste){
+		}
+		assertThat(hits.get(), is(3));
+		assertThat(policy.getRetryCount(), is(2L));
+	}
+
+	@Test
+	public void testIdempotentMethodRetried() throws Exception{
+
+		RetryPolicy policy = new RetryPolicy(1, 1, 5);
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).readTimeout(100).retryPolicy(policy));
+		rpc.addIdempotentMethods("get");
+		try{
+			rpc.callInteger("get");
+			fail();
+		}catch(SocketTimeoutException ste){
+		}
+		try{
+			rpc.callInteger("put");
+			fail();
+		}catch(SocketTimeoutException ste){
+		}
+		assertThat(hits.get(), is(3));
+		assertThat(policy.getRetryCount(), is(1L));
+	}
+
+	@Test
+	public void testBudgetLimitsRetries() throws Exception{
+
+		RetryPolicy policy = new RetryPolicy(3, 0, 0).budget(0.5, 0);
+		HttpRequestBuilder builder = new HttpRequestBuilder().endpoint(EmbeddedServer.deadEndpoint()).retryPolicy(policy);
+		for( int i = 0; i < 10; i++ ){
+			try{
+				builder.build().perform("test");
+				fail();
+			}catch(ConnectException ce){
+			}
+		}
+		assertThat(policy.getRetryCount(), is(5L));
+		assertTrue(policy.getBudgetExhaustedCount() > 0);
+	}
+
+	@Test(expected = InterruptedException.class)
+	public void testStopDuringBackoff() throws Exception{
+
+		final HttpRequest request = new HttpRequestBuilder().endpoint(EmbeddedServer.deadEndpoint())
+										.retryPolicy(new RetryPolicy(50, 1000, 1000)).build();
+		Thread stopper = new Thread(){
+
+			@Override
+			public void run(){
+
+				try{
+					Thread.sleep(200);
+				}catch(InterruptedException ie){
+				}
+				request.stop();
+			}
+		};
+		stopper.start();
+		try{
+			request.perform("test");
+		}finally{
+			stopper.join();
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	public void testPolicySharedByBuilder() throws Exception{
+
+		HttpRequestBuilder builder = new HttpRequestBuilder().endpoint(endpoint);
+		assertThat(builder.build().getRetryPolicy(), is(sameInstance(builder.build().getRetryPolicy())));
+
+		RetryPolicy policy = new RetryPolicy(7);
+		assertThat(builder.retryPolicy(policy).build().getRetryPolicy(), is(sameInstance(policy)));
+		assertThat(builder.requestRetries(4).build().getRequestRetries(), is(4));
+	}
+
+}
@@ -6,10 +6,21 @@ import static org.hamcrest.CoreMatchers.*;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -18,12 +29,23 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import com.worizon.jsonrpc.ICallback;
 import com.worizon.jsonrpc.IDGenerator;
+import com.worizon.jsonrpc.IJsonCodec;
+import com.worizon.jsonrpc.JsonCodec;
 import com.worizon.jsonrpc.JsonRpcException;
 import com.worizon.jsonrpc.RemoteException;
+import com.worizon.jsonrpc.RemoteStub;
 import com.worizon.jsonrpc.Rpc;
+import com.worizon.jsonrpc.RpcFuture;
 import com.worizon.jsonrpc.annotations.LocalException;
 import com.worizon.jsonrpc.annotations.LocalExceptions;
+import com.worizon.jsonrpc.annotations.OnFailure;
+import com.worizon.jsonrpc.annotations.OnResult;
 import com.worizon.jsonrpc.annotations.Remote;
 import com.worizon.jsonrpc.annotations.RemoteParams;
 import com.worizon.jsonrpc.annotations.RemoteProcName;
@@ -2281,4 +2303,453 @@ public class RpcTest {
 	}
 	
 
+	private HttpRequestBuilder blockingBuilder( final CountDownLatch release ) throws Exception{
+		
+		return new HttpRequestBuilder(){
+			@Override
+			protected HttpRequest newInstance(){
+				
+				HttpRequest request = EasyMock.createNiceMock(HttpRequest.class);
+				try{
+					EasyMock.expect(request.perform( EasyMock.anyObject(String.class) ))		
+					.andAnswer(new IAnswer<String>() {
+						
+						public String answer() throws Throwable{
+							
+							release.await();
+							return "{\"jsonrpc\": \"2.0\", \"result\": 9, \"id\": 1}";
+						}
+					});
+				}catch(Exception ex){
+					throw new RuntimeException(ex);
+				}
+				EasyMock.replay(request);
+				return request;
+			}
+		}.endpoint("http://localhost");
+	}
+	
+	@Test
+	public void testCallAsyncFuture() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Async rpc = new Rpc.Async(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": 9, \"id\": 1}", requestCapture));
+		final AtomicReference<String> callbackThread = new AtomicReference<String>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		RpcFuture<Integer> future = rpc.call("sum", Integer.class, new ICallback<Integer>(){
+			
+			@Override
+			public void onSuccess( Integer result ){
+				
+				callbackThread.set(Thread.currentThread().getName());
+				latch.countDown();
+			}
+			
+			@Override
+			public void onFailure( Throwable cause ){
+				
+				latch.countDown();
+			}
+		}, 4, 5);
+		
+		assertThat(future.get(5, TimeUnit.SECONDS), is(9));
+		assertTrue(future.isDone());
+		assertFalse(future.isCancelled());
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertThat(callbackThread.get(), containsString("worizon-async-"));
+		assertThat(requestCapture.getValue(), containsString("{\"method\":\"sum\",\"params\":[4,5],\"jsonrpc\":\"2.0\""));
+		rpc.shutdown();
+	}
+	
+	@Test
+	public void testCallAsyncCallbackExecutor() throws Exception{
+		
+		Rpc.Async rpc = new Rpc.Async(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": 9, \"id\": 1}", new Capture<String>()));
+		RpcFuture<Integer> future = rpc.callInteger("sum", 4, 5);
+		assertThat(future.get(), is(9));
+		
+		final AtomicReference<String> callbackThread = new AtomicReference<String>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		Executor executor = new Executor(){
+			
+			@Override
+			public void execute( Runnable command ){
+				
+				Thread t = new Thread(command, "callback-thread");
+				t.start();
+			}
+		};
+		future.addCallback(new ICallback<Integer>(){
+			
+			@Override
+			public void onSuccess( Integer result ){
+				
+				callbackThread.set(Thread.currentThread().getName());
+				latch.countDown();
+			}
+			
+			@Override
+			public void onFailure( Throwable cause ){
+				
+				latch.countDown();
+			}
+		}, executor);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertThat(callbackThread.get(), is("callback-thread"));
+		rpc.shutdown();
+	}
+	
+	@Test
+	public void testCallAsyncRemoteError() throws Exception{
+		
+		Rpc.Async rpc = new Rpc.Async(mockedBuilder("{\"jsonrpc\": \"2.0\", \"error\": {\"code\": -6, \"message\": \"Division by zero\"}, \"id\": 1}", new Capture<String>()));
+		rpc.addRuntimeExceptionMapping(-6, ArithmeticException.class);
+		RpcFuture<Integer> future = rpc.callInteger("div", 4, 0);
+		try{
+			future.get();
+			fail();
+		}catch(ExecutionException ee){
+			assertThat(ee.getCause(), is(instanceOf(ArithmeticException.class)));
+			assertThat(future.getCallHandler().getState(), is(HttpRequest.State.FAILED));
+		}
+		rpc.shutdown();
+	}
+	
+	@Test
+	public void testCallAsyncRejected() throws Exception{
+		
+		CountDownLatch release = new CountDownLatch(1);
+		ThreadPoolExecutor executor = Rpc.Async.newExecutor(1, 1, new ThreadPoolExecutor.AbortPolicy());
+		Rpc.Async rpc = new Rpc.Async(blockingBuilder(release), executor);
+		RpcFuture<Integer> running = rpc.callInteger("sum", 4, 5);
+		RpcFuture<Integer> queued = rpc.callInteger("sum", 4, 5);
+		try{
+			rpc.callInteger("sum", 4, 5);
+			fail();
+		}catch(RejectedExecutionException ree){}
+		
+		release.countDown();
+		assertThat(running.get(), is(9));
+		assertThat(queued.get(), is(9));
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testCallAsyncCancel() throws Exception{
+		
+		CountDownLatch release = new CountDownLatch(1);
+		ThreadPoolExecutor executor = Rpc.Async.newExecutor(1, 10, new ThreadPoolExecutor.AbortPolicy());
+		Rpc.Async rpc = new Rpc.Async(blockingBuilder(release), executor);
+		RpcFuture<Integer> running = rpc.callInteger("sum", 4, 5);
+		RpcFuture<Integer> queued = rpc.callInteger("sum", 4, 5);
+		assertTrue(queued.cancel(true));
+		assertTrue(queued.isCancelled());
+		assertTrue(queued.isDone());
+		assertFalse(queued.cancel(true));
+		
+		release.countDown();
+		assertThat(running.get(), is(9));
+		assertFalse(running.cancel(true));
+		try{
+			queued.get();
+			fail();
+		}catch(CancellationException ce){}
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testCallAsyncPublishedToListeners() throws Exception{
+		
+		Rpc.Async rpc = new Rpc.Async(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": 9, \"id\": 1}", new Capture<String>()));
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<Integer> received = new AtomicReference<Integer>();
+		Object listener = new Object(){
+			
+			@OnResult("sum")
+			public void onSum( int result ){
+				
+				received.set(result);
+				latch.countDown();
+			}
+		};
+		rpc.register(listener);
+		rpc.callInteger("sum", 4, 5);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertThat(received.get(), is(9));
+		rpc.unRegister(listener);
+		rpc.shutdown();
+	}
+	
+	@Test
+	public void testCallAsyncFailurePublishedToListeners() throws Exception{
+		
+		Rpc.Async rpc = new Rpc.Async(mockedBuilder("{\"jsonrpc\": \"2.0\", \"error\": {\"code\": -32000, \"message\": \"failed\"}, \"id\": 1}", new Capture<String>()));
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<Throwable> received = new AtomicReference<Throwable>();
+		rpc.register(new Object(){
+			
+			@OnFailure("sum")
+			public void onSumFailure( RemoteException ex ){
+				
+				received.set(ex);
+				latch.countDown();
+			}
+		});
+		rpc.callInteger("sum", 4, 5);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertThat(received.get().getMessage(), is("failed"));
+		rpc.shutdown();
+	}
+	
+	public static class Point{
+		
+		int x, y;
+		
+		Point( int x, int y ){
+			
+			this.x = x;
+			this.y = y;
+		}
+	}
+	
+	public static class PointAdapter extends TypeAdapter<Point>{
+		
+		@Override
+		public void write( JsonWriter out, Point p ) throws IOException{
+			
+			out.value(p.x + "," + p.y);
+		}
+		
+		@Override
+		public Point read( JsonReader in ) throws IOException{
+			
+			String parts[] = in.nextString().split(",");
+			return new Point(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+		}
+	}
+	
+	@Test
+	public void testCustomCodec() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Sync rpc = new Rpc.Sync(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": \"3,4\", \"id\": 1}", requestCapture));
+		JsonCodec codec = new JsonCodec.Builder().registerTypeAdapter(Point.class, new PointAdapter()).warmUp(Point.class).build();
+		rpc.setCodec(codec);
+		assertThat(rpc.getCodec(), is((IJsonCodec)codec));
+		
+		Point p = rpc.call("move", Point.class, new Point(1, 2));
+		assertThat(requestCapture.getValue(), is("{\"method\":\"move\",\"params\":[\"1,2\"],\"jsonrpc\":\"2.0\",\"id\":1}"));
+		assertThat(p.x, is(3));
+		assertThat(p.y, is(4));
+	}
+	
+	@Test
+	public void testDefaultCodecIsShared() throws Exception{
+		
+		assertThat(JsonCodec.getDefault(), is(sameInstance(JsonCodec.getDefault())));
+		assertThat(JsonCodec.getDefault().getSerializer(), is(sameInstance(JsonCodec.getDefault().getSerializer())));
+		assertThat(new Rpc.Sync("http://localhost").getCodec(), is((IJsonCodec)JsonCodec.getDefault()));
+	}
+	
+	private HttpRequestBuilder mockedBuilder( final String response, final Capture<String> requestCapture ) throws Exception{
+		
+		final HttpRequest request = EasyMock.createNiceMock(HttpRequest.class);
+		EasyMock.expect(request.perform( EasyMock.capture(requestCapture) )).andReturn(response);
+		EasyMock.replay(request);
+		
+		return new HttpRequestBuilder(){
+			@Override
+			protected HttpRequest newInstance(){
+				return request;
+			}
+		}.endpoint("http://localhost");
+	}
+	
+	@Test
+	public void testBatch() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Batch batch = new Rpc.Batch(mockedBuilder("[{\"jsonrpc\": \"2.0\", \"result\": \"foo\", \"id\": 2}," +
+														"{\"jsonrpc\": \"2.0\", \"result\": 9, \"id\": 1}]", requestCapture));
+		Rpc.Batch.Call<Integer> sum = batch.call("sum", Integer.class, 4, 5);
+		Rpc.Batch.Call<String> name = batch.call("name", String.class, Rpc.RemoteParam("id", 17));
+		batch.notification("log", "hello");
+		assertThat(batch.size(), is(3));
+		assertFalse(sum.isDone());
+		
+		batch.send();
+		assertThat(requestCapture.getValue(), is("[{\"method\":\"sum\",\"params\":[4,5],\"jsonrpc\":\"2.0\",\"id\":1}," +
+												"{\"method\":\"name\",\"params\":{\"id\":17},\"jsonrpc\":\"2.0\",\"id\":2}," +
+												"{\"method\":\"log\",\"params\":[\"hello\"],\"jsonrpc\":\"2.0\"}]"));
+		assertThat(batch.size(), is(0));
+		assertTrue(sum.isDone());
+		assertThat(sum.get(), is(9));
+		assertThat(name.get(), is("foo"));
+	}
+	
+	@Test
+	public void testBatchErrors() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Batch batch = new Rpc.Batch(mockedBuilder("[{\"jsonrpc\": \"2.0\", \"error\": {\"code\": -32601, \"message\": \"Method not found\"}, \"id\": 3}," +
+														"{\"jsonrpc\": \"2.0\", \"error\": {\"code\": -6, \"message\": \"Division by zero\"}, \"id\": 1}]", requestCapture));
+		batch.addRuntimeExceptionMapping(-6, ArithmeticException.class);
+		Rpc.Batch.Call<Integer> div = batch.call("div", Integer.class, 4, 0);
+		Rpc.Batch.Call<Integer> lost = batch.call("lost", Integer.class);
+		Rpc.Batch.Call<Integer> unknown = batch.call("unknown", Integer.class);
+		batch.send();
+		
+		assertThat(div.getFailure(), is(instanceOf(ArithmeticException.class)));
+		assertThat(div.getFailure().getMessage(), is("Division by zero"));
+		assertThat(lost.getFailure(), is(instanceOf(JsonRpcException.class)));
+		assertThat(unknown.getFailure(), is(instanceOf(JsonRpcException.class)));
+		try{
+			div.get();
+			fail();
+		}catch(ArithmeticException ae){}
+	}
+	
+	@Test
+	public void testBatchRejected() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Batch batch = new Rpc.Batch(mockedBuilder("{\"jsonrpc\": \"2.0\", \"error\": {\"code\": -32700, \"message\": \"Parse error\"}, \"id\": null}", requestCapture));
+		Rpc.Batch.Call<Integer> sum = batch.call("sum", Integer.class, 4, 5);
+		Rpc.Batch.Call<Integer> mul = batch.call("mul", Integer.class, 4, 5);
+		batch.send();
+		
+		assertThat(sum.getFailure(), is(instanceOf(JsonRpcException.class)));
+		assertThat(mul.getFailure(), is(instanceOf(JsonRpcException.class)));
+	}
+	
+	@Test
+	public void testBatchOfNotifications() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Batch batch = new Rpc.Batch(mockedBuilder("", requestCapture));
+		batch.notification("log", "a");
+		batch.notification("log", "b");
+		batch.send();
+		
+		assertThat(requestCapture.getValue(), is("[{\"method\":\"log\",\"params\":[\"a\"],\"jsonrpc\":\"2.0\"}," +
+												"{\"method\":\"log\",\"params\":[\"b\"],\"jsonrpc\":\"2.0\"}]"));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testBatchCallNotSent() throws Exception{
+		
+		Rpc.Batch batch = new Rpc.Batch("http://localhost");
+		batch.call("sum", Integer.class, 4, 5).get();
+	}
+
+
+	@Test
+	public void testCallIntegerArrayIntoBuffer() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Sync rpc = new Rpc.Sync(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": [10,20,30.5], \"id\": 1}", requestCapture));
+		int samples[] = new int[4];
+		int read = rpc.callIntegerArray("samples", IntBuffer.wrap(samples), 3);
+		assertThat(read, is(3));
+		assertThat(samples, is(new int[]{10,20,30,0}));
+		assertThat(requestCapture.getValue(), is("{\"method\":\"samples\",\"params\":[3],\"jsonrpc\":\"2.0\",\"id\":1}"));
+	}
+	
+	@Test
+	public void testCallDoubleArrayIntoBuffer() throws Exception{
+		
+		Rpc.Sync rpc = new Rpc.Sync(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": [10.1,34.4], \"id\": 1}", new Capture<String>()));
+		DoubleBuffer buffer = DoubleBuffer.allocate(8);
+		assertThat(rpc.callDoubleArray("samples", buffer), is(2));
+		buffer.flip();
+		assertThat(buffer.get(), is(10.1));
+		assertThat(buffer.get(), is(34.4));
+		assertFalse(buffer.hasRemaining());
+	}
+	
+	@Test
+	public void testCallLongArrayIntoBufferNullResult() throws Exception{
+		
+		Rpc.Sync rpc = new Rpc.Sync(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": null, \"id\": 1}", new Capture<String>()));
+		LongBuffer buffer = LongBuffer.allocate(8);
+		assertThat(rpc.callLongArray("samples", buffer), is(0));
+		assertThat(buffer.position(), is(0));
+	}
+
+
+	@Remote
+	interface StubRemoteInterface{
+		
+		@RemoteParams({"ids"})
+		@RemoteProcName("find_names")
+		public List<B> find( int... ids ) throws IOException;
+	}
+	
+	@Remote
+	private interface PrivateRemoteInterface{
+		
+		public int sum( int x, int y );
+		
+		@RemoteParams({"ids"})
+		@RemoteProcName("find_names")
+		public List<B> find( int... ids );
+	}
+	
+	@Test
+	public void testRemoteStub() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Proxy proxy = new Rpc.Proxy(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": [{\"z\":\"foo\",\"f\":1.5}], \"id\": 1}", requestCapture));
+		StubRemoteInterface remote = proxy.createProxy(StubRemoteInterface.class);
+		assertThat(remote, is(instanceOf(RemoteStub.class)));
+		
+		List<B> result = remote.find(4, 5);
+		assertThat(result.get(0), is(instanceOf(B.class)));
+		assertThat(result.get(0).z, is("foo"));
+		assertThat(requestCapture.getValue(), is("{\"method\":\"find_names\",\"params\":{\"ids\":[4,5]},\"jsonrpc\":\"2.0\",\"id\":1}"));
+	}
+	
+	@Test
+	public void testRemoteStubDeclaredException() throws Exception{
+		
+		final HttpRequest request = EasyMock.createNiceMock(HttpRequest.class);
+		EasyMock.expect(request.perform( (String)EasyMock.anyObject() )).andThrow(new SocketTimeoutException());
+		EasyMock.replay(request);
+		HttpRequestBuilder builder = new HttpRequestBuilder(){
+			@Override
+			protected HttpRequest newInstance(){
+				return request;
+			}
+		}.endpoint("http://localhost");
+		
+		try{
+			new Rpc.Proxy(builder).createProxy(StubRemoteInterface.class).find(1);
+			fail();
+		}catch(SocketTimeoutException ste){}
+	}
+	
+	@Test
+	public void testPrivateRemoteInterfaceWithoutStub() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Proxy proxy = new Rpc.Proxy(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": 9, \"id\": 1}", requestCapture));
+		PrivateRemoteInterface remote = proxy.createProxy(PrivateRemoteInterface.class);
+		assertFalse(remote instanceof RemoteStub);
+		assertThat(remote.sum(4, 5), is(9));
+		assertThat(requestCapture.getValue(), is("{\"method\":\"sum\",\"params\":[4,5],\"jsonrpc\":\"2.0\",\"id\":1}"));
+	}
+
+
+	@Test
+	public void testPrivateRemoteInterfaceGenericResult() throws Exception{
+		
+		Capture<String> requestCapture = new Capture<String>();
+		Rpc.Proxy proxy = new Rpc.Proxy(mockedBuilder("{\"jsonrpc\": \"2.0\", \"result\": [{\"z\":\"foo\",\"f\":1.5}], \"id\": 1}", requestCapture));
+		PrivateRemoteInterface remote = proxy.createProxy(PrivateRemoteInterface.class);
+		List<B> result = remote.find(4, 5);
+		assertThat(result.get(0), is(instanceOf(B.class)));
+		assertThat(result.get(0).f, is(1.5f));
+		assertThat(requestCapture.getValue(), is("{\"method\":\"find_names\",\"params\":{\"ids\":[4,5]},\"jsonrpc\":\"2.0\",\"id\":1}"));
+	}
+
 }
@@ -0,0 +1,237 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.RemoteException;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.Deadline;
+import com.worizon.net.DeadlineExceededException;
+import com.worizon.net.HttpRequest;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.test.EmbeddedServer;
+
+public class SingleFlightTest {
+
+	private final AtomicInteger performed = new AtomicInteger();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private Rpc.Sync rpc;
+
+	@Before
+	public void setUp() throws Exception{
+
+		rpc = new Rpc.Sync(blockingBuilder(null));
+		rpc.setSingleFlight(true);
+	}
+
+	/**
+	 * Builder of requests blocked until released, answering the number of requests performed or the error if not null.
+	 */
+	private HttpRequestBuilder blockingBuilder( final String error ){
+
+		return new HttpRequestBuilder(){
+			@Override
+			protected HttpRequest newInstance(){
+				return blockingRequest(error);//a mock per request, mocks serialize their invocations
+			}
+		}.endpoint("http://localhost");
+	}
+
+	private HttpRequest blockingRequest( final String error ){
+
+		HttpRequest request = EasyMock.createNiceMock(HttpRequest.class);
+		try{
+			EasyMock.expect(request.perform( (String)EasyMock.anyObject() )).andAnswer(new IAnswer<String>() {
+
+				public String answer() throws Throwable{
+
+					int n = performed.incrementAndGet();
+					release.await();
+					if( error != null )
+						return "{\"jsonrpc\": \"2.0\", \"error\": " + error + ", \"id\": 1}";
+					return "{\"jsonrpc\": \"2.0\", \"result\": " + n + ", \"id\": 1}";
+				}
+			}).anyTimes();
+		}catch(Exception e){
+			throw new IllegalStateException(e);
+		}
+		EasyMock.replay(request);
+		return request;
+	}
+
+	/**
+	 * Caller thread keeping the outcome of its call.
+	 */
+	private class Caller extends Thread{
+
+		private final Object params[];
+		private volatile Integer result;
+		private volatile Throwable failure;
+
+		Caller( Object... params ){
+
+			this.params = params;
+			start();
+		}
+
+		@Override
+		public void run(){
+
+			try{
+				result = rpc.callInteger("count", params);
+			}catch(Throwable th){
+				failure = th;
+			}
+		}
+	}
+
+	private void awaitPerformed( int n ) throws InterruptedException{
+
+		while( performed.get() < n )
+			Thread.sleep(5);
+		Thread.sleep(100);//let the other callers join the call in flight
+	}
+
+	@Test
+	public void testIdenticalCallsShareOneRequest() throws Exception{
+
+		Caller leader = new Caller(4, 5);
+		awaitPerformed(1);
+		Caller followers[] = {new Caller(4, 5), new Caller(4, 5), new Caller(4, 5)};
+		Caller other = new Caller(4, 6);
+		awaitPerformed(2);
+		release.countDown();
+
+		leader.join();
+		assertThat(leader.result, is(1));
+		for( Caller follower: followers ){
+
+			follower.join();
+			assertThat(follower.result, is(1));
+		}
+		other.join();
+		assertThat(other.result, is(2));
+		assertThat(performed.get(), is(2));
+	}
+
+	@Test
+	public void testErrorDeliveredToAllCallers() throws Exception{
+
+		rpc = new Rpc.Sync(blockingBuilder("{\"code\": 1, \"message\": \"Failed\"}"));
+		rpc.setSingleFlight(true);
+
+		Caller leader = new Caller(4, 5);
+		awaitPerformed(1);
+		Caller follower = new Caller(4, 5);
+		Thread.sleep(100);
+		release.countDown();
+
+		leader.join();
+		follower.join();
+		assertTrue(leader.failure instanceof RemoteException);
+		assertTrue(follower.failure instanceof RemoteException);
+		assertThat(performed.get(), is(1));
+	}
+
+	@Test
+	public void testStoppedFollowerLeavesAlone() throws Exception{
+
+		Caller leader = new Caller(4, 5);
+		awaitPerformed(1);
+		Caller follower = new Caller(4, 5);
+		Caller stopped = new Caller(4, 5);
+		Thread.sleep(100);
+		stopped.interrupt();
+		stopped.join();
+		assertTrue(stopped.failure instanceof InterruptedException);
+
+		release.countDown();
+		leader.join();
+		follower.join();
+		assertThat(leader.result, is(1));
+		assertThat(follower.result, is(1));
+		assertThat(performed.get(), is(1));
+	}
+
+	@Test
+	public void testStoppedLeaderIsReplaced() throws Exception{
+
+		Caller leader = new Caller(4, 5);
+		awaitPerformed(1);
+		Caller follower = new Caller(4, 5);
+		Thread.sleep(100);
+		leader.interrupt();
+		leader.join();
+		assertTrue(leader.failure instanceof InterruptedException);
+
+		awaitPerformed(2);
+		release.countDown();
+		follower.join();
+		assertThat(follower.result, is(2));
+		assertThat(performed.get(), is(2));
+	}
+
+	@Test
+	public void testFollowerLeavesOnItsDeadline() throws Exception{
+
+		EmbeddedServer server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ) throws IOException{
+
+				performed.incrementAndGet();
+				try{
+					release.await();
+				}catch(InterruptedException ie){
+					throw new IOException(ie);
+				}
+				return EmbeddedServer.response(body, 1);
+			}
+		});
+		try{
+			rpc = new Rpc.Sync(server.getEndpoint());
+			rpc.setSingleFlight(true);
+			Caller leader = new Caller(4, 5);
+			awaitPerformed(1);
+
+			long start = System.nanoTime();
+			try{
+				rpc.call("count", Integer.class, Deadline.after(200, TimeUnit.MILLISECONDS), 4, 5);
+				fail();
+			}catch(DeadlineExceededException dee){
+				assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+			}
+
+			release.countDown();
+			leader.join();
+			assertThat(leader.result, is(1));
+			assertThat(performed.get(), is(1));
+		}finally{
+			release.countDown();
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testDisabled() throws Exception{
+
+		rpc.setSingleFlight(false);
+		assertFalse(rpc.isSingleFlight());
+		release.countDown();
+
+		assertThat(rpc.callInteger("count", 4, 5), is(1));
+		assertThat(rpc.callInteger("count", 4, 5), is(2));
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.HttpClientTransport;
+import com.worizon.net.HttpConnectionPool;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.test.EmbeddedServer;
+
+public class StreamingRequestTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private volatile String lastBody;
+	private volatile String lastContentLength;
+	private volatile String lastTransferEncoding;
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ) throws IOException{
+
+				lastContentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+				lastTransferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+				lastBody = body;
+				return "{\"jsonrpc\": \"2.0\", \"result\": " + body.getBytes("UTF-8").length + ", \"id\": 1}";
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	@After
+	public void tearDown(){
+
+		server.stop();
+	}
+
+	private static String largeParam(){
+
+		StringBuilder param = new StringBuilder();
+		for( int i = 0; i < 20000; i++ )
+			param.append("\u00e7a");
+		return param.toString();
+	}
+
+	@Test
+	public void testChunked() throws Exception{
+
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).streamRequests(true));
+		String param = largeParam();
+		int received = rpc.callInteger("echo", param);
+		assertThat(lastTransferEncoding, is("chunked"));
+		assertThat(lastBody, containsString("\"params\":[\"" + param + "\"]"));
+		assertThat(received, is(lastBody.getBytes("UTF-8").length));
+	}
+
+	@Test
+	public void testFixedLengthThroughPool() throws Exception{
+
+		HttpConnectionPool pool = new HttpConnectionPool();
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).connectionPool(pool).streamRequests(false));
+		int received = rpc.callInteger("echo", largeParam());
+		assertThat(lastTransferEncoding, is(nullValue()));
+		assertThat(lastContentLength, is(String.valueOf(received)));
+		assertThat(lastBody.getBytes("UTF-8").length, is(received));
+		pool.shutdown();
+	}
+
+	@Test
+	public void testChunkedThroughPool() throws Exception{
+
+		HttpConnectionPool pool = new HttpConnectionPool();
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).connectionPool(pool).streamRequests(true));
+		for( int i = 0; i < 3; i++ )
+			assertThat(rpc.callInteger("echo", largeParam()), is(lastBody.getBytes("UTF-8").length));
+		assertThat(lastTransferEncoding, is("chunked"));
+		assertThat(pool.getStats().getCreated(), is(1L));
+		pool.shutdown();
+	}
+
+	@Test
+	public void testChunkedThroughHttpClient() throws Exception{
+
+		HttpClientTransport transport = new HttpClientTransport();
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).transport(transport).streamRequests(true));
+		int received = rpc.callInteger("echo", largeParam());
+		assertThat(lastTransferEncoding, is("chunked"));
+		assertThat(lastBody.getBytes("UTF-8").length, is(received));
+		transport.shutdown();
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.RemoteException;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.net.HttpConnectionPool;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.test.EmbeddedServer;
+
+public class StreamingResponseTest {
+
+	private static final int SIZE = 100000;
+
+	private EmbeddedServer server;
+	private String endpoint;
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ) throws IOException{
+
+				exchange.sendResponseHeaders(200, 0);//chunked
+				Writer out = new OutputStreamWriter(exchange.getResponseBody(), "UTF-8");
+				if( body.contains("\"method\":\"fail\"") ){
+					out.write("{\"jsonrpc\": \"2.0\", \"id\": 1, \"error\": {\"code\": -32000, \"message\": \"failed\", \"data\": [1,2]}}");
+				}else{
+					out.write("{\"jsonrpc\": \"2.0\", \"id\": 1, \"result\": [");
+					for( int i = 0; i < SIZE; i++ ){
+
+						if( i > 0 )
+							out.write(',');
+						out.write(String.valueOf(i));
+					}
+					out.write("]}");
+				}
+				out.close();
+				return null;
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	@After
+	public void tearDown(){
+
+		server.stop();
+	}
+
+	@Test
+	public void testLargeResult() throws Exception{
+
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).streamResponses());
+		int result[] = rpc.callIntegerArray("range");
+		assertThat(result.length, is(SIZE));
+		assertThat(result[SIZE - 1], is(SIZE - 1));
+	}
+
+	@Test
+	public void testLargeResultThroughPool() throws Exception{
+
+		HttpConnectionPool pool = new HttpConnectionPool();
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).connectionPool(pool).streamResponses());
+		for( int i = 0; i < 3; i++ )
+			assertThat(rpc.callIntegerArray("range").length, is(SIZE));
+		assertThat(pool.getStats().getCreated(), is(1L));
+		pool.shutdown();
+	}
+
+	@Test
+	public void testError() throws Exception{
+
+		Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).streamResponses());
+		try{
+			rpc.callVoid("fail");
+			fail();
+		}catch(RemoteException re){
+			assertThat(re.getCode(), is(-32000));
+			assertThat(re.getMessage(), is("failed"));
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package com.worizon.junit.rpc;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.worizon.jsonrpc.Rpc;
+import com.worizon.jsonrpc.RpcFuture;
+import com.worizon.jsonrpc.VirtualThreads;
+import com.worizon.net.HttpRequestBuilder;
+import com.worizon.test.EmbeddedServer;
+
+public class VirtualThreadsTest {
+
+	private EmbeddedServer server;
+	private String endpoint;
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception{
+
+		server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+
+			@Override
+			public String handle( HttpExchange exchange, String body ){
+
+				if( body.contains("\"method\":\"slow\"") ){
+					try{
+						release.await();
+					}catch(InterruptedException ie){}
+				}
+				return "{\"jsonrpc\": \"2.0\", \"result\": 9, \"id\": 1}";
+			}
+		});
+		endpoint = server.getEndpoint();
+	}
+
+	@After
+	public void tearDown(){
+
+		release.countDown();
+		server.stop();
+	}
+
+	@Test
+	public void testUnsupportedRuntime(){
+
+		Assume.assumeTrue(!VirtualThreads.isSupported());
+		assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+		try{
+			VirtualThreads.newExecutor();
+			fail();
+		}catch(UnsupportedOperationException uoe){}
+	}
+
+	@Test
+	public void testAsyncOnVirtualThreads() throws Exception{
+
+		Assume.assumeTrue(VirtualThreads.isSupported());
+		ExecutorService executor = VirtualThreads.newExecutor();
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint), executor);
+		@SuppressWarnings("unchecked")
+		RpcFuture<Integer> futures[] = new RpcFuture[100];
+		for( int i = 0; i < futures.length; i++ )
+			futures[i] = rpc.callInteger("sum", 4, 5);
+		for( RpcFuture<Integer> future: futures )
+			assertThat(future.get(5, TimeUnit.SECONDS), is(9));
+		executor.shutdown();
+	}
+
+	@Test
+	public void testCancelBlockedRead() throws Exception{
+
+		Assume.assumeTrue(VirtualThreads.isSupported());
+		ExecutorService executor = VirtualThreads.newExecutor();
+		Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint).readTimeout(30000), executor);
+		RpcFuture<Integer> future = rpc.callInteger("slow");
+		Thread.sleep(200);//let the call block reading the response
+		assertTrue(future.cancel(true));
+		try{
+			future.get(1, TimeUnit.SECONDS);
+			fail();
+		}catch(CancellationException ce){}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSyncStopFromVirtualThread() throws Exception{
+
+		Assume.assumeTrue(VirtualThreads.isSupported());
+		final Rpc.Sync rpc = new Rpc.Sync(new HttpRequestBuilder().endpoint(endpoint).readTimeout(30000));
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread t = VirtualThreads.factory().newThread(new Runnable(){
+
+			@Override
+			public void run(){
+
+				try{
+					rpc.callInteger("slow");
+				}catch(Throwable th){
+					failure.set(th);
+				}
+			}
+		});
+		t.start();
+		while( rpc.runningCalls() == 0 )
+			Thread.sleep(10);
+		Thread.sleep(200);//let the call block reading the response
+		rpc.stop();
+		t.join(2000);
+		assertFalse(t.isAlive());
+		assertThat(failure.get(), is(instanceOf(InterruptedException.class)));
+	}
+
+	@Test
+	public void testFutureGetFromVirtualThread() throws Exception{
+
+		Assume.assumeTrue(VirtualThreads.isSupported());
+		final Rpc.Async rpc = new Rpc.Async(new HttpRequestBuilder().endpoint(endpoint));
+		final AtomicReference<Object> result = new AtomicReference<Object>();
+		Thread t = VirtualThreads.factory().newThread(new Runnable(){
+
+			@Override
+			public void run(){
+
+				try{
+					result.set(rpc.callInteger("sum", 4, 5).get());
+				}catch(ExecutionException ee){
+					result.set(ee);
+				}catch(InterruptedException ie){
+					result.set(ie);
+				}catch(IOException ioe){
+					result.set(ioe);
+				}
+			}
+		});
+		t.start();
+		t.join(5000);
+		assertThat(result.get(), is((Object)9));
+		assertTrue(VirtualThreads.isVirtual(t));
+		rpc.shutdown();
+	}
+
+}
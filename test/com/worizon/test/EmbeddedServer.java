@@ -0,0 +1,156 @@
+package com.worizon.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Multi-threaded HTTP server on localhost to test the clients and the transports against real connections. Unlike
+ * {@link TestServer} it answers the requests: the server reads the body of every request posted to /rpc and sends
+ * back the response body returned by the handler, ex:
+ *
+ * <pre>
+ * EmbeddedServer server = new EmbeddedServer(new EmbeddedServer.IHandler(){
+ *
+ * 	public String handle( HttpExchange exchange, String body ){
+ *
+ * 		return EmbeddedServer.response(body, 1);//{"jsonrpc": "2.0", "result": 1, "id": id of the request}
+ * 	}
+ * });
+ * Rpc.Sync rpc = new Rpc.Sync(server.getEndpoint());
+ * ...
+ * server.stop();
+ * </pre>
+ *
+ * @author Enric Cecilla
+ */
+public class EmbeddedServer {
+
+	private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	/**
+	 * Starts a server on a free port.
+	 */
+	public EmbeddedServer( IHandler handler ) throws IOException{
+
+		this(0, handler);
+	}
+
+	/**
+	 * Starts a server.
+	 * @param port The port, 0 for a free one.
+	 * @param handler The handler of the requests, called from the threads of the server.
+	 */
+	public EmbeddedServer( int port, final IHandler handler ) throws IOException{
+
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/rpc", new HttpHandler() {
+
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException{
+
+				InputStream is = exchange.getRequestBody();
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				byte buffer[] = new byte[4096];
+				int n;
+				while( (n = is.read(buffer)) != -1 )
+					body.write(buffer, 0, n);
+
+				String response = handler.handle(exchange, body.toString("UTF-8"));
+				if( response != null )
+					respond(exchange, response, false);
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public int getPort(){
+
+		return server.getAddress().getPort();
+	}
+
+	public String getEndpoint(){
+
+		return "http://localhost:" + getPort() + "/rpc";
+	}
+
+	/**
+	 * Stops the server, the connections open are closed.
+	 */
+	public void stop(){
+
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Sends a response with status 200.
+	 * @param exchange The exchange of the request.
+	 * @param response The response body.
+	 * @param chunked true to send the body chunked, false to send its length.
+	 */
+	public static void respond( HttpExchange exchange, String response, boolean chunked ) throws IOException{
+
+		byte bytes[] = response.getBytes("UTF-8");
+		try{
+			exchange.sendResponseHeaders(200, chunked?0:bytes.length);
+			OutputStream os = exchange.getResponseBody();
+			os.write(bytes);
+			os.close();
+		}catch(IOException ioe){
+			exchange.close();//the client gave up
+		}
+	}
+
+	/**
+	 * Builds the response to a JSON-RPC request.
+	 * @param request The body of the request, its id is the id of the response.
+	 * @param result The result as written in JSON.
+	 */
+	public static String response( String request, Object result ){
+
+		Matcher id = ID.matcher(request);
+		return "{\"jsonrpc\": \"2.0\", \"result\": " + result + ", \"id\": " + (id.find()?id.group(1):"1") + "}";
+	}
+
+	/**
+	 * Gets the endpoint of a free port nobody listens on, connections to it are refused.
+	 */
+	public static String deadEndpoint() throws IOException{
+
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return "http://localhost:" + port + "/rpc";
+	}
+
+	/**
+	 * Answers the requests.
+	 */
+	public interface IHandler{
+
+		/**
+		 * Handles a request.
+		 * @param exchange The exchange of the request, to read its headers.
+		 * @param body The request body.
+		 * @return The response body sent with status 200, null if the handler sent the response itself.
+		 */
+		public String handle( HttpExchange exchange, String body ) throws IOException;
+	}
+
+}